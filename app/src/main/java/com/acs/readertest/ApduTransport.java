@@ -0,0 +1,302 @@
+package com.acs.readertest;
+
+import android.util.Log;
+
+import com.acs.smartcard.CommunicationErrorException;
+import com.acs.smartcard.DeviceProtocolErrorException;
+import com.acs.smartcard.InvalidDeviceStateException;
+import com.acs.smartcard.Reader;
+
+/**
+ * ชั้นส่งคำสั่ง APDU ไปยังเครื่องอ่านโดยใช้ buffer ที่จองไว้ล่วงหน้าแยกตาม slot
+ *
+ * ในสถานะปกติการส่งคำสั่งจะไม่จองหน่วยความจำใหม่และไม่โยน exception
+ * ผลลัพธ์จะอยู่ใน {@link Response} ซึ่งถูกใช้ซ้ำจนกว่าจะส่งคำสั่งถัดไปใน slot เดียวกัน
+ * (ไม่ thread-safe ภายใน slot เดียวกัน)
+ */
+public class ApduTransport {
+    private static final String TAG = "ApduTransport";
+
+    // CLA INS P1 P2 Lc [255 ไบต์] Le
+    public static final int MAX_COMMAND_SIZE = 5 + 255 + 1;
+
+    // ข้อมูลสูงสุด 256 ไบต์ + SW1 SW2
+    public static final int MAX_RESPONSE_SIZE = 256 + 2;
+
+    // ใช้เป็นค่า le เมื่อคำสั่งไม่มีฟิลด์ Le
+    public static final int NO_LE = -1;
+
+    /**
+     * ผลลัพธ์ของคำสั่ง APDU (ใช้ซ้ำ ห้ามเก็บไว้ข้ามการส่งคำสั่ง)
+     */
+    public static final class Response {
+        private final byte[] buffer = new byte[MAX_RESPONSE_SIZE];
+        private int dataLength;
+        private int statusWord = StatusWord.NONE;
+        private Exception error;
+        private boolean readerFailure;
+
+        /**
+         * true ถ้าส่งคำสั่งสำเร็จและได้ 9000
+         */
+        public boolean isSuccess() {
+            return error == null && statusWord == StatusWord.SUCCESS;
+        }
+
+        /**
+         * true ถ้าส่งคำสั่งไม่สำเร็จด้วย exception ไม่ว่าจากเครื่องอ่านหรือจากการ์ด
+         */
+        public boolean hasError() {
+            return error != null;
+        }
+
+        /**
+         * true ถ้าส่งคำสั่งไม่สำเร็จในระดับเครื่องอ่านหรือ USB (เช่น สื่อสารกับเครื่องอ่านไม่ได้ หรือเครื่องอ่านถูกปิด)
+         */
+        public boolean isTransportError() {
+            return error != null && readerFailure;
+        }
+
+        /**
+         * true ถ้าส่งคำสั่งไม่สำเร็จเพราะการ์ด (เช่น การ์ดถูกนำออก การ์ดไม่ตอบ) ซึ่งเครื่องอ่านยังทำงานปกติ
+         */
+        public boolean isCardError() {
+            return error != null && !readerFailure;
+        }
+
+        public Exception getError() {
+            return error;
+        }
+
+        public int getStatusWord() {
+            return statusWord;
+        }
+
+        /**
+         * จำนวนไบต์ของข้อมูลตอบกลับ (ไม่รวม status word)
+         */
+        public int getDataLength() {
+            return dataLength;
+        }
+
+        /**
+         * buffer ของข้อมูลตอบกลับ ข้อมูลเริ่มที่ตำแหน่ง 0 และยาว {@link #getDataLength()} ไบต์
+         */
+        public byte[] getBuffer() {
+            return buffer;
+        }
+
+        public int getByte(int index) {
+            return buffer[index] & 0xFF;
+        }
+
+        public int getUnsignedShort(int index) {
+            return ((buffer[index] & 0xFF) << 8) | (buffer[index + 1] & 0xFF);
+        }
+
+        /**
+         * คัดลอกข้อมูลตอบกลับไปยัง array ปลายทาง
+         *
+         * @return จำนวนไบต์ที่คัดลอก
+         */
+        public int copyData(int from, byte[] target, int targetOffset, int maxLength) {
+            int length = Math.min(dataLength - from, maxLength);
+            if (length <= 0) {
+                return 0;
+            }
+            System.arraycopy(buffer, from, target, targetOffset, length);
+            return length;
+        }
+
+        /**
+         * คำอธิบายผลลัพธ์สำหรับ log
+         */
+        public String describe() {
+            if (error != null) {
+                return "ส่งคำสั่งไม่สำเร็จ: " + error.getMessage();
+            }
+            return StatusWord.describe(statusWord);
+        }
+
+        private void clear() {
+            dataLength = 0;
+            statusWord = StatusWord.NONE;
+            error = null;
+            readerFailure = false;
+        }
+    }
+
+    // buffer ของแต่ละ slot
+    private static final class SlotBuffers {
+        final byte[] command = new byte[MAX_COMMAND_SIZE];
+        final Response response = new Response();
+    }
+
+    private final Reader reader;
+    private SlotBuffers[] slots = new SlotBuffers[0];
+
+    // จำนวนคำสั่งที่ส่งไม่สำเร็จในระดับเครื่องอ่านทั้งหมด (ใช้ตรวจว่าเครื่องอ่านมีปัญหาหรือไม่)
+    private int transportErrorCount = 0;
+
+    // จำนวนคำสั่งที่ส่งไม่สำเร็จเพราะการ์ด (ไม่ใช่ปัญหาของเครื่องอ่าน)
+    private int cardErrorCount = 0;
+
+    /**
+     * คอนสตรัคเตอร์
+     *
+     * @param reader Reader object จาก ACS SDK
+     */
+    public ApduTransport(Reader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * ส่งคำสั่ง APDU ที่เตรียมไว้แล้ว
+     *
+     * @param slotNum หมายเลข slot ของเครื่องอ่าน
+     * @param command คำสั่ง APDU
+     * @param length ความยาวของคำสั่ง
+     * @return ผลลัพธ์ (object เดิมของ slot นี้)
+     */
+    public Response transmit(int slotNum, byte[] command, int length) {
+        Response response = getSlot(slotNum).response;
+        response.clear();
+        exchange(slotNum, command, length, response);
+
+        // 6CXX: ส่งคำสั่งเดิมซ้ำด้วย Le ที่การ์ดแจ้งกลับมา (คัดลอกลง buffer ของ slot เพื่อไม่แก้คำสั่งคงที่)
+        if (StatusWord.isWrongLe(response.statusWord) && length >= 5) {
+            byte[] retry = getSlot(slotNum).command;
+            if (retry != command) {
+                System.arraycopy(command, 0, retry, 0, length);
+            }
+            retry[length - 1] = (byte) StatusWord.sw2(response.statusWord);
+            response.clear();
+            exchange(slotNum, retry, length, response);
+        }
+
+        // 61XX: ดึงข้อมูลที่เหลือด้วย GET RESPONSE
+        if (StatusWord.hasMoreData(response.statusWord) && response.dataLength == 0) {
+            byte[] getResponse = getSlot(slotNum).command;
+            getResponse[0] = command[0];
+            getResponse[1] = (byte) 0xC0;
+            getResponse[2] = 0x00;
+            getResponse[3] = 0x00;
+            getResponse[4] = (byte) StatusWord.sw2(response.statusWord);
+            response.clear();
+            exchange(slotNum, getResponse, 5, response);
+        }
+
+        return response;
+    }
+
+    /**
+     * สร้างคำสั่ง APDU ใน buffer ของ slot แล้วส่ง
+     *
+     * @param data ข้อมูลของคำสั่ง (null ถ้าไม่มี)
+     * @param le จำนวนไบต์ที่ต้องการ (1 - 256) หรือ {@link #NO_LE}
+     * @return ผลลัพธ์ (object เดิมของ slot นี้)
+     */
+    public Response transmit(int slotNum, int cla, int ins, int p1, int p2,
+                             byte[] data, int dataOffset, int dataLength, int le) {
+        byte[] command = getSlot(slotNum).command;
+        int length = 0;
+        command[length++] = (byte) cla;
+        command[length++] = (byte) ins;
+        command[length++] = (byte) p1;
+        command[length++] = (byte) p2;
+        if (data != null && dataLength > 0) {
+            command[length++] = (byte) dataLength;
+            System.arraycopy(data, dataOffset, command, length, dataLength);
+            length += dataLength;
+        }
+        if (le != NO_LE) {
+            // Le = 256 ถูกส่งเป็น 0x00
+            command[length++] = (byte) le;
+        }
+        return transmit(slotNum, command, length);
+    }
+
+    /**
+     * SELECT ไฟล์ด้วย File ID (P1 = 00, P2 = 0C ไม่ต้องการ FCI)
+     */
+    public Response selectFile(int slotNum, int fileId) {
+        byte[] command = getSlot(slotNum).command;
+        command[0] = 0x00;
+        command[1] = (byte) 0xA4;
+        command[2] = 0x00;
+        command[3] = 0x0C;
+        command[4] = 0x02;
+        command[5] = (byte) (fileId >> 8);
+        command[6] = (byte) fileId;
+        return transmit(slotNum, command, 7);
+    }
+
+    /**
+     * READ BINARY จากไฟล์ที่เลือกไว้
+     *
+     * @param offset ตำแหน่งเริ่มอ่านในไฟล์ (0 - 0x7FFF)
+     * @param length จำนวนไบต์ที่ต้องการอ่าน (1 - 256)
+     */
+    public Response readBinary(int slotNum, int offset, int length) {
+        return transmit(slotNum, 0x00, 0xB0, (offset >> 8) & 0x7F, offset & 0xFF, null, 0, 0, length);
+    }
+
+    private void exchange(int slotNum, byte[] command, int length, Response response) {
+        try {
+            int responseLength = reader.transmit(slotNum, command, length, response.buffer, response.buffer.length);
+            if (responseLength < 2) {
+                response.dataLength = Math.max(responseLength, 0);
+                return;
+            }
+            response.dataLength = responseLength - 2;
+            response.statusWord = StatusWord.of(response.buffer[responseLength - 2], response.buffer[responseLength - 1]);
+        } catch (Exception e) {
+            Log.d(TAG, "ส่งคำสั่ง APDU ไม่สำเร็จ: " + e.getMessage());
+            response.error = e;
+            response.readerFailure = isReaderFailure(e);
+            if (response.readerFailure) {
+                transportErrorCount++;
+            } else {
+                cardErrorCount++;
+            }
+        }
+    }
+
+    /**
+     * true ถ้า exception มาจากเครื่องอ่านหรือ USB ไม่ใช่จากการ์ด
+     * (RemovedCardException, CardTimeoutException, UnresponsiveCardException ฯลฯ เป็นปัญหาของการ์ด)
+     */
+    public boolean isReaderFailure(Exception e) {
+        return e instanceof CommunicationErrorException
+                || e instanceof DeviceProtocolErrorException
+                || e instanceof InvalidDeviceStateException
+                || !reader.isOpened();
+    }
+
+    /**
+     * จำนวนคำสั่งที่ส่งไม่สำเร็จในระดับเครื่องอ่านหรือ USB ตั้งแต่สร้าง (เพิ่มขึ้นอย่างเดียว ไม่รวมข้อผิดพลาดของการ์ด)
+     */
+    public int getTransportErrorCount() {
+        return transportErrorCount;
+    }
+
+    /**
+     * จำนวนคำสั่งที่ส่งไม่สำเร็จเพราะการ์ดตั้งแต่สร้าง (เช่น การ์ดถูกนำออกระหว่างอ่าน)
+     */
+    public int getCardErrorCount() {
+        return cardErrorCount;
+    }
+
+    private SlotBuffers getSlot(int slotNum) {
+        if (slotNum >= slots.length) {
+            // จองเพิ่มเฉพาะครั้งแรกที่ใช้ slot นี้
+            SlotBuffers[] grown = new SlotBuffers[slotNum + 1];
+            System.arraycopy(slots, 0, grown, 0, slots.length);
+            slots = grown;
+        }
+        if (slots[slotNum] == null) {
+            slots[slotNum] = new SlotBuffers();
+        }
+        return slots[slotNum];
+    }
+}
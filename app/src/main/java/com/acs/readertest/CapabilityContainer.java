@@ -0,0 +1,102 @@
+package com.acs.readertest;
+
+/**
+ * ข้อมูลจากไฟล์ Capability Container (CC) ของ NFC Forum Type 4 Tag
+ *
+ * รูปแบบของไฟล์ CC:
+ * [CCLEN 2] [Mapping Version 1] [MLe 2] [MLc 2] [NDEF File Control TLV: 04 06 FileID(2) MaxSize(2) Read(1) Write(1)]
+ */
+public class CapabilityContainer {
+
+    // ความยาวขั้นต่ำของไฟล์ CC ที่มี NDEF File Control TLV
+    public static final int MIN_LENGTH = 15;
+
+    // ค่า Le สูงสุดของ short APDU
+    public static final int MAX_SHORT_LE = 256;
+
+    private static final int NDEF_FILE_CONTROL_TLV = 0x04;
+
+    public final int mappingVersion;
+    public final int maxReadLength;      // MLe
+    public final int maxCommandLength;   // MLc
+    public final int ndefFileId;
+    public final int maxNdefSize;
+    public final int readAccess;
+    public final int writeAccess;
+
+    public CapabilityContainer(int mappingVersion, int maxReadLength, int maxCommandLength,
+                               int ndefFileId, int maxNdefSize, int readAccess, int writeAccess) {
+        this.mappingVersion = mappingVersion;
+        this.maxReadLength = maxReadLength;
+        this.maxCommandLength = maxCommandLength;
+        this.ndefFileId = ndefFileId;
+        this.maxNdefSize = maxNdefSize;
+        this.readAccess = readAccess;
+        this.writeAccess = writeAccess;
+    }
+
+    /**
+     * ค่าเริ่มต้นเมื่ออ่านไฟล์ CC ไม่ได้ (File ID E104, อ่านครั้งละไม่เกิน 255 ไบต์)
+     */
+    public static CapabilityContainer createDefault() {
+        return new CapabilityContainer(0x20, 0xFF, 0xFF, 0xE104, 0xFFFE, 0x00, 0x00);
+    }
+
+    /**
+     * แปลงข้อมูลไฟล์ CC
+     *
+     * @param data ข้อมูลที่อ่านได้จากไฟล์ CC
+     * @param length จำนวนไบต์ที่ใช้ได้ใน data
+     * @return CapabilityContainer หรือ null ถ้าข้อมูลไม่ถูกต้อง
+     */
+    public static CapabilityContainer parse(byte[] data, int length) {
+        if (data == null || length < MIN_LENGTH || length > data.length) {
+            return null;
+        }
+
+        int ccLength = readUnsignedShort(data, 0);
+        if (ccLength < MIN_LENGTH || (data[7] & 0xFF) != NDEF_FILE_CONTROL_TLV || (data[8] & 0xFF) < 6) {
+            return null;
+        }
+
+        int maxReadLength = readUnsignedShort(data, 3);
+        int maxCommandLength = readUnsignedShort(data, 5);
+        int maxNdefSize = readUnsignedShort(data, 11);
+
+        // MLe ที่น้อยกว่า 0x0F หรือ NDEF File ที่เก็บความยาวไม่ได้ ถือว่าไม่ถูกต้องตามข้อกำหนด
+        if (maxReadLength < 0x0F || maxNdefSize < 2) {
+            return null;
+        }
+
+        return new CapabilityContainer(
+                data[2] & 0xFF,
+                maxReadLength,
+                maxCommandLength,
+                readUnsignedShort(data, 9),
+                maxNdefSize,
+                data[13] & 0xFF,
+                data[14] & 0xFF);
+    }
+
+    /**
+     * จำนวนไบต์สูงสุดที่อ่านได้ในคำสั่ง READ BINARY หนึ่งครั้ง
+     *
+     * @param responseBufferSize ขนาดของ buffer ที่ใช้รับผลลัพธ์ (รวม status word)
+     */
+    public int getReadChunkSize(int responseBufferSize) {
+        return Math.min(Math.min(maxReadLength, MAX_SHORT_LE), responseBufferSize - 2);
+    }
+
+    private static int readUnsignedShort(byte[] data, int offset) {
+        return ((data[offset] & 0xFF) << 8) | (data[offset + 1] & 0xFF);
+    }
+
+    @Override
+    public String toString() {
+        return "CC{version=" + Integer.toHexString(mappingVersion)
+                + ", MLe=" + maxReadLength
+                + ", MLc=" + maxCommandLength
+                + ", fileId=" + Integer.toHexString(ndefFileId)
+                + ", maxNdef=" + maxNdefSize + "}";
+    }
+}
@@ -0,0 +1,135 @@
+package com.acs.readertest;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * จำแนกประเภทการ์ดจาก ATR และเลือกวิธีอ่านที่ใช้คำสั่งน้อยที่สุดสำหรับการ์ดประเภทนั้น
+ *
+ * การ์ด storage (Mifare, Ultralight, FeliCa ฯลฯ) ใช้ ATR แบบ PC/SC Part 3:
+ * 3B 8F 80 01 80 4F 0C [RID: A0 00 00 03 06] [SS] [Card name: C0 C1] 00 00 00 00 [TCK]
+ * การ์ด ISO 14443-4 ใช้ ATR แบบ 3B 8n 80 01 [historical bytes จาก ATS หรือ ATQB] [TCK]
+ *
+ * ผลการจำแนกถูก cache ตาม ATR เพราะการ์ดรุ่นเดียวกันให้ ATR เดียวกัน
+ */
+public class CardClassifier {
+
+    /**
+     * วิธีอ่าน NDEF ของการ์ด
+     */
+    public enum NdefAccess {
+        NONE,   // การ์ดเก็บ NDEF ในรูปแบบที่ไม่รองรับหรือไม่มี NDEF: อ่าน UID อย่างเดียว
+        TYPE2,  // NFC Forum Type 2: อ่านหน้าหน่วยความจำโดยตรง
+        TYPE4   // NFC Forum Type 4: SELECT NDEF Application, CC และ NDEF File
+    }
+
+    // Standard byte (SS) ใน ATR ของการ์ด storage
+    private static final int SS_ISO15693_PART3 = 0x0B;
+    private static final int SS_ISO15693_PART4 = 0x0C;
+
+    // historical byte ของ DESFire (ATS ที่มี TA/TB/TC แต่ไม่มีข้อมูลอื่นนอกจาก 0x80)
+    private static final int DESFIRE_HISTORICAL_BYTE = 0x80;
+
+    private final Map<String, NfcCardReader.CardTechnology> cache = new HashMap<>();
+
+    /**
+     * จำแนกประเภทการ์ด (ใช้ผลจาก cache ถ้าเคยพบ ATR นี้แล้ว)
+     */
+    public NfcCardReader.CardTechnology classify(byte[] atr) {
+        String key = Hex.toCompactHexString(atr, 0, atr.length);
+        synchronized (cache) {
+            NfcCardReader.CardTechnology technology = cache.get(key);
+            if (technology == null) {
+                technology = classifyAtr(atr);
+                cache.put(key, technology);
+            }
+            return technology;
+        }
+    }
+
+    /**
+     * จำนวน ATR ที่จำแนกไว้แล้ว
+     */
+    public int getCacheSize() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    /**
+     * วิธีอ่าน NDEF ที่เหมาะกับการ์ดประเภทนี้
+     */
+    public static NdefAccess getNdefAccess(NfcCardReader.CardTechnology technology) {
+        switch (technology) {
+            case MIFARE_ULTRALIGHT:
+                return NdefAccess.TYPE2;
+            case MIFARE_DESFIRE:
+            case ISO14443_4:
+            case UNKNOWN:
+                // การ์ดที่ไม่รู้จักอาจเป็น Type 4 จึงลองอ่านตามเดิม
+                return NdefAccess.TYPE4;
+            default:
+                // Mifare Classic (ต้อง authenticate MAD), Topaz (Type 1), FeliCa (Type 3), ISO 15693 (Type 5)
+                return NdefAccess.NONE;
+        }
+    }
+
+    /**
+     * จำแนกประเภทการ์ดจาก ATR โดยไม่ใช้ cache
+     */
+    static NfcCardReader.CardTechnology classifyAtr(byte[] atr) {
+        if (atr == null || atr.length < 4 || atr[0] != (byte) 0x3B
+                || (atr[1] & 0xF0) != 0x80 || atr[2] != (byte) 0x80 || atr[3] != (byte) 0x01) {
+            return NfcCardReader.CardTechnology.UNKNOWN;
+        }
+
+        int historicalLength = atr[1] & 0x0F;
+        if (atr.length < 4 + historicalLength) {
+            return NfcCardReader.CardTechnology.UNKNOWN;
+        }
+
+        // การ์ด storage: historical bytes 80 4F 0C A0 00 00 03 06 SS C0 C1 ...
+        if (historicalLength >= 11
+                && atr[4] == (byte) 0x80 && atr[5] == (byte) 0x4F && atr[6] == (byte) 0x0C
+                && atr[7] == (byte) 0xA0 && atr[8] == (byte) 0x00 && atr[9] == (byte) 0x00
+                && atr[10] == (byte) 0x03 && atr[11] == (byte) 0x06) {
+            return classifyStorageCard(atr[12] & 0xFF, ((atr[13] & 0xFF) << 8) | (atr[14] & 0xFF));
+        }
+
+        if (historicalLength == 1 && (atr[4] & 0xFF) == DESFIRE_HISTORICAL_BYTE) {
+            return NfcCardReader.CardTechnology.MIFARE_DESFIRE;
+        }
+        return NfcCardReader.CardTechnology.ISO14443_4;
+    }
+
+    /**
+     * จำแนกการ์ด storage จาก Standard byte และ Card name ตาม PC/SC Part 3 Supplemental Document
+     */
+    private static NfcCardReader.CardTechnology classifyStorageCard(int standard, int cardName) {
+        switch (cardName) {
+            case 0x0001: // Mifare Standard 1K
+            case 0x0002: // Mifare Standard 4K
+            case 0x0026: // Mifare Mini
+                return NfcCardReader.CardTechnology.MIFARE_CLASSIC;
+            case 0x0036: // Mifare Plus SL1 2K
+            case 0x0037: // Mifare Plus SL1 4K
+            case 0x0038: // Mifare Plus SL2 2K
+            case 0x0039: // Mifare Plus SL2 4K
+                return NfcCardReader.CardTechnology.MIFARE_PLUS;
+            case 0x0003: // Mifare Ultralight / NTAG
+            case 0x003A: // Mifare Ultralight C
+                return NfcCardReader.CardTechnology.MIFARE_ULTRALIGHT;
+            case 0xF004: // Topaz / Jewel
+                return NfcCardReader.CardTechnology.TOPAZ;
+            case 0x003B: // FeliCa
+            case 0xF011: // FeliCa 212K
+            case 0xF012: // FeliCa 424K
+                return NfcCardReader.CardTechnology.FELICA;
+            default:
+                if (standard == SS_ISO15693_PART3 || standard == SS_ISO15693_PART4) {
+                    return NfcCardReader.CardTechnology.ISO15693;
+                }
+                return NfcCardReader.CardTechnology.STORAGE_OTHER;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.acs.readertest;
+
+/**
+ * ค่า UID ของการ์ดในรูปแบบ primitive (สูงสุด 16 ไบต์ เก็บใน long สองตัว)
+ *
+ * ใช้แทน String hex ของ UID ขนาด 4, 7 และ 10 ไบต์ เพื่อลดการใช้หน่วยความจำและเวลาในการค้นหา
+ * ไบต์แรกของ UID อยู่ในตำแหน่งสูงสุดของ {@link #high} (ถ้า UID ยาวเกิน 8 ไบต์) หรือ {@link #low}
+ */
+public final class CardKey {
+
+    public static final int MAX_LENGTH = 16;
+
+    public final long high;
+    public final long low;
+    public final int length;
+
+    public CardKey(long high, long low, int length) {
+        this.high = high;
+        this.low = low;
+        this.length = length;
+    }
+
+    /**
+     * สร้าง CardKey จาก UID แบบ byte
+     *
+     * @return CardKey หรือ null ถ้าความยาวไม่อยู่ในช่วง 1 - 16 ไบต์
+     */
+    public static CardKey fromBytes(byte[] uid, int offset, int length) {
+        if (uid == null || length < 1 || length > MAX_LENGTH) {
+            return null;
+        }
+
+        long high = 0;
+        long low = 0;
+        for (int i = offset; i < offset + length; i++) {
+            high = (high << 8) | (low >>> 56);
+            low = (low << 8) | (uid[i] & 0xFF);
+        }
+        return new CardKey(high, low, length);
+    }
+
+    /**
+     * แปลง card ID แบบ hex (เช่น "04003EFF8B61D180") เป็น CardKey โดยไม่สร้าง String ใหม่
+     *
+     * @return CardKey หรือ null ถ้า card ID ไม่ใช่ UID แบบ hex (เช่น NDEF text)
+     */
+    public static CardKey parse(CharSequence cardId) {
+        if (cardId == null) {
+            return null;
+        }
+
+        int chars = cardId.length();
+        if (chars == 0 || chars % 2 != 0 || chars > MAX_LENGTH * 2) {
+            return null;
+        }
+
+        long high = 0;
+        long low = 0;
+        for (int i = 0; i < chars; i++) {
+            int value = Character.digit(cardId.charAt(i), 16);
+            if (value < 0) {
+                return null;
+            }
+            high = (high << 4) | (low >>> 60);
+            low = (low << 4) | value;
+        }
+        return new CardKey(high, low, chars / 2);
+    }
+
+    /**
+     * ค่า hash ของ UID (ใช้ร่วมกับ {@link CardKeyIndex} โดยไม่ต้องสร้าง object)
+     */
+    public static int hash(long high, long low, int length) {
+        long h = low * 0x9E3779B97F4A7C15L + high * 0xC2B2AE3D27D4EB4FL + length;
+        h ^= (h >>> 32);
+        h *= 0xD6E8FEB86659FD93L;
+        h ^= (h >>> 32);
+        return (int) h;
+    }
+
+    /**
+     * UID ในรูปแบบ byte
+     */
+    public byte[] toBytes() {
+        byte[] uid = new byte[length];
+        for (int i = length - 1, shift = 0; i >= 0; i--, shift += 8) {
+            uid[i] = (byte) (shift < 64 ? low >>> shift : high >>> (shift - 64));
+        }
+        return uid;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CardKey)) {
+            return false;
+        }
+        CardKey other = (CardKey) o;
+        return high == other.high && low == other.low && length == other.length;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash(high, low, length);
+    }
+
+    /**
+     * UID ในรูปแบบ hex ตัวพิมพ์ใหญ่ (รูปแบบเดียวกับที่ NfcCardReader ส่งคืน)
+     */
+    @Override
+    public String toString() {
+        return Hex.toCompactHexString(toBytes(), 0, length);
+    }
+}
@@ -0,0 +1,182 @@
+package com.acs.readertest;
+
+import java.util.Arrays;
+
+/**
+ * ตาราง hash แบบ open addressing (linear probing) จาก {@link CardKey} ไปยังค่าที่กำหนด
+ *
+ * เก็บ key เป็น long และ byte ใน array แยกกัน จึงไม่มี object ต่อรายการนอกจากค่าที่เก็บ
+ * และค้นหาได้โดยไม่ต้องสร้าง CardKey ผ่าน {@link #get(long, long, int)} (ไม่ thread-safe)
+ *
+ * @param <V> ชนิดของค่าที่เก็บ
+ */
+public class CardKeyIndex<V> {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    // ขยายตารางเมื่อมีข้อมูลเกิน 3/4 ของความจุ
+    private static final int LOAD_FACTOR_NUMERATOR = 3;
+    private static final int LOAD_FACTOR_DENOMINATOR = 4;
+
+    private long[] highs;
+    private long[] lows;
+    private byte[] lengths;     // 0 = ช่องว่าง
+    private Object[] values;
+    private int mask;
+    private int size;
+    private int threshold;
+
+    public CardKeyIndex() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param expectedSize จำนวนรายการที่คาดว่าจะเก็บ (จองพื้นที่ล่วงหน้าเพื่อไม่ต้องขยายตาราง)
+     */
+    public CardKeyIndex(int expectedSize) {
+        allocate(tableSizeFor(expectedSize));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public V get(CardKey key) {
+        return key != null ? get(key.high, key.low, key.length) : null;
+    }
+
+    /**
+     * ค้นหาค่าด้วย UID แบบ primitive
+     *
+     * @return ค่าที่เก็บไว้ หรือ null ถ้าไม่พบ
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long high, long low, int length) {
+        int index = findSlot(high, low, length);
+        return lengths[index] != 0 ? (V) values[index] : null;
+    }
+
+    public boolean containsKey(CardKey key) {
+        return key != null && lengths[findSlot(key.high, key.low, key.length)] != 0;
+    }
+
+    /**
+     * เพิ่มหรือแทนที่ค่าของ key
+     *
+     * @return ค่าเดิม หรือ null ถ้าไม่มีมาก่อน
+     */
+    @SuppressWarnings("unchecked")
+    public V put(CardKey key, V value) {
+        int index = findSlot(key.high, key.low, key.length);
+        if (lengths[index] != 0) {
+            V old = (V) values[index];
+            values[index] = value;
+            return old;
+        }
+
+        highs[index] = key.high;
+        lows[index] = key.low;
+        lengths[index] = (byte) key.length;
+        values[index] = value;
+        if (++size > threshold) {
+            resize(highs.length * 2);
+        }
+        return null;
+    }
+
+    /**
+     * ลบ key ออกจากตาราง (เลื่อนรายการที่ตามมาขึ้นมาแทนที่ จึงไม่ต้องใช้ tombstone)
+     *
+     * @return ค่าที่ถูกลบ หรือ null ถ้าไม่พบ
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(CardKey key) {
+        if (key == null) {
+            return null;
+        }
+
+        int index = findSlot(key.high, key.low, key.length);
+        if (lengths[index] == 0) {
+            return null;
+        }
+
+        V old = (V) values[index];
+        size--;
+
+        int gap = index;
+        int next = (gap + 1) & mask;
+        while (lengths[next] != 0) {
+            int home = CardKey.hash(highs[next], lows[next], lengths[next]) & mask;
+            // ย้ายรายการขึ้นมาถ้าตำแหน่งเริ่มต้นของมันไม่อยู่ระหว่าง gap กับตำแหน่งปัจจุบัน
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                highs[gap] = highs[next];
+                lows[gap] = lows[next];
+                lengths[gap] = lengths[next];
+                values[gap] = values[next];
+                gap = next;
+            }
+            next = (next + 1) & mask;
+        }
+
+        lengths[gap] = 0;
+        values[gap] = null;
+        return old;
+    }
+
+    public void clear() {
+        Arrays.fill(lengths, (byte) 0);
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    /**
+     * หาช่องของ key หรือช่องว่างแรกที่ key ควรอยู่
+     */
+    private int findSlot(long high, long low, int length) {
+        int index = CardKey.hash(high, low, length) & mask;
+        while (lengths[index] != 0
+                && (lows[index] != low || highs[index] != high || lengths[index] != length)) {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    private void resize(int capacity) {
+        long[] oldHighs = highs;
+        long[] oldLows = lows;
+        byte[] oldLengths = lengths;
+        Object[] oldValues = values;
+
+        allocate(capacity);
+        for (int i = 0; i < oldLengths.length; i++) {
+            if (oldLengths[i] != 0) {
+                int index = findSlot(oldHighs[i], oldLows[i], oldLengths[i]);
+                highs[index] = oldHighs[i];
+                lows[index] = oldLows[i];
+                lengths[index] = oldLengths[i];
+                values[index] = oldValues[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        highs = new long[capacity];
+        lows = new long[capacity];
+        lengths = new byte[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+        threshold = capacity * LOAD_FACTOR_NUMERATOR / LOAD_FACTOR_DENOMINATOR;
+    }
+
+    private static int tableSizeFor(int expectedSize) {
+        int capacity = DEFAULT_CAPACITY;
+        while (capacity * LOAD_FACTOR_NUMERATOR / LOAD_FACTOR_DENOMINATOR < expectedSize) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+}
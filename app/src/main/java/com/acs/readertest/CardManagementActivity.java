@@ -54,8 +54,6 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
 
 /**
  * หน้าจัดการ CRUD ข้อมูลการ์ด NFC
@@ -66,6 +64,10 @@ public class CardManagementActivity extends AppCompatActivity implements CardRea
     private static final String ACTION_USB_PERMISSION = "com.acs.readertest.USB_PERMISSION";
     private static final int REQUEST_STORAGE_PERMISSION = 101;
 
+    // โหลดรายการการ์ดทีละหน้า และโหลดหน้าถัดไปเมื่อเลื่อนใกล้ถึงรายการสุดท้าย
+    private static final int CARD_PAGE_SIZE = 100;
+    private static final int CARD_PAGE_PREFETCH = 20;
+
     // UI elements
     private TextView tvReaderStatus;
     private Button btnConnectReader;
@@ -81,6 +83,7 @@ public class CardManagementActivity extends AppCompatActivity implements CardRea
     private RecyclerView rvCardList;
     private CardAdapter cardAdapter;
     private List<CardEntry> cardEntries;
+    private boolean hasMoreCards = false;
 
     // ActivityResultLaunchers สำหรับเลือกไฟล์
     private ActivityResultLauncher<Intent> pdfFileLauncher;
@@ -90,11 +93,9 @@ public class CardManagementActivity extends AppCompatActivity implements CardRea
     private UsbManager mManager;
     private Reader mReader;
     private PendingIntent mPermissionIntent;
-    private int mSlotNum = 0;
     private boolean mReaderOpened = false;
-    private NfcCardReader nfcCardReader;
+    private ReaderBroker mReaderBroker;
     private CardMediaMapping cardMediaMapping;
-    private Timer cardPollingTimer;
     private String currentCardId = null;
 
     // ServiceConnection สำหรับเชื่อมต่อกับ CardReaderService
@@ -128,7 +129,7 @@ public class CardManagementActivity extends AppCompatActivity implements CardRea
                     if (intent.getBooleanExtra(UsbManager.EXTRA_PERMISSION_GRANTED, false)) {
                         if (device != null) {
                             logMessage("กำลังเชื่อมต่อกับเครื่องอ่าน: " + device.getDeviceName());
-                            new Thread(() -> openReader(device)).start();
+                            openReader(device);
                         }
                     } else {
                         logMessage("การขอสิทธิ์ USB ถูกปฏิเสธสำหรับอุปกรณ์: " + device.getDeviceName());
@@ -144,7 +145,7 @@ public class CardManagementActivity extends AppCompatActivity implements CardRea
                 UsbDevice device = intent.getParcelableExtra(UsbManager.EXTRA_DEVICE);
                 if (device != null && mReader != null && mReader.isSupported(device)) {
                     if (mReaderOpened) {
-                        new Thread(() -> closeReader()).start();
+                        closeReader();
                     }
                     updateReaderStatus("ไม่ได้เชื่อมต่อ");
                     logMessage("เครื่องอ่านถูกถอด: " + device.getDeviceName());
@@ -296,6 +297,18 @@ public class CardManagementActivity extends AppCompatActivity implements CardRea
         rvCardList.setLayoutManager(new LinearLayoutManager(this));
         rvCardList.setAdapter(cardAdapter);
         rvCardList.addItemDecoration(new DividerItemDecoration(this, DividerItemDecoration.VERTICAL));
+        rvCardList.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                LinearLayoutManager layoutManager = (LinearLayoutManager) recyclerView.getLayoutManager();
+                if (hasMoreCards && layoutManager != null
+                        && layoutManager.findLastVisibleItemPosition() >= cardEntries.size() - CARD_PAGE_PREFETCH) {
+                    // ไม่แก้ไข adapter ระหว่าง callback ของการเลื่อน
+                    hasMoreCards = false;
+                    recyclerView.post(() -> loadNextCardPage());
+                }
+            }
+        });
     }
 
     /**
@@ -305,7 +318,7 @@ public class CardManagementActivity extends AppCompatActivity implements CardRea
         mManager = (UsbManager) getSystemService(Context.USB_SERVICE);
         UsbReader usbReader = UsbReader.getInstance(this);
         mReader = usbReader.getReader();
-        nfcCardReader = new NfcCardReader(mReader);
+        mReaderBroker = ReaderBroker.getInstance(this);
 
         int flags = PendingIntent.FLAG_UPDATE_CURRENT;
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
@@ -318,6 +331,10 @@ public class CardManagementActivity extends AppCompatActivity implements CardRea
      * เริ่มต้น Card Mapping
      */
     private void initializeCardMapping() {
+        // ปิด store ของ mapping เดิมก่อนสร้างใหม่
+        if (cardMediaMapping != null) {
+            cardMediaMapping.close();
+        }
         try {
             cardMediaMapping = new CardMediaMapping();
             boolean mappingLoaded = cardMediaMapping.loadMapping(this);
@@ -325,10 +342,12 @@ public class CardManagementActivity extends AppCompatActivity implements CardRea
                 Log.d(TAG, "โหลด mapping สำเร็จ");
             } else {
                 Log.w(TAG, "ไม่สามารถโหลด mapping ได้");
+                cardMediaMapping.close();
                 cardMediaMapping = new CardMediaMapping();
             }
         } catch (Exception e) {
             Log.e(TAG, "เกิดข้อผิดพลาดในการโหลด mapping: ", e);
+            cardMediaMapping.close();
             cardMediaMapping = new CardMediaMapping();
         }
     }
@@ -561,13 +580,13 @@ public class CardManagementActivity extends AppCompatActivity implements CardRea
             if (!mReaderOpened) {
                 connectToReader();
             } else {
-                new Thread(() -> closeReader()).start();
+                closeReader();
             }
         });
 
         btnReadCurrentCard.setOnClickListener(v -> {
             if (mReaderOpened) {
-                new Thread(() -> readCardForInput()).start();
+                readCardForInput();
             } else {
                 showMessage("กรุณาเชื่อมต่อเครื่องอ่านก่อน");
             }
@@ -609,21 +628,31 @@ public class CardManagementActivity extends AppCompatActivity implements CardRea
     }
 
     /**
-     * โหลดรายการการ์ดทั้งหมด
+     * โหลดรายการการ์ดใหม่ตั้งแต่หน้าแรก
      */
     private void loadCardEntries() {
         cardEntries.clear();
-        Map<String, String> mappings = cardMediaMapping.getAllMappings();
+        cardAdapter.updateData(cardEntries);
+        loadNextCardPage();
+        logMessage("โหลดข้อมูลการ์ด " + cardEntries.size() + "/" + cardMediaMapping.getMappingCount() + " รายการ");
+        
+        // ตั้งค่า hint เริ่มต้น
+        updateHintBasedOnMediaType();
+    }
+
+    /**
+     * โหลดรายการการ์ดหน้าถัดไปต่อท้ายรายการ
+     */
+    private void loadNextCardPage() {
+        int start = cardEntries.size();
+        Map<String, String> mappings = cardMediaMapping.getMappings(start, CARD_PAGE_SIZE);
         
         for (Map.Entry<String, String> entry : mappings.entrySet()) {
             cardEntries.add(new CardEntry(entry.getKey(), entry.getValue()));
         }
         
-        cardAdapter.updateData(cardEntries);
-        logMessage("โหลดข้อมูลการ์ด " + cardEntries.size() + " รายการ");
-        
-        // ตั้งค่า hint เริ่มต้น
-        updateHintBasedOnMediaType();
+        hasMoreCards = mappings.size() == CARD_PAGE_SIZE;
+        cardAdapter.notifyItemRangeInserted(start, mappings.size());
     }
 
     /**
@@ -661,45 +690,46 @@ public class CardManagementActivity extends AppCompatActivity implements CardRea
             mManager.requestPermission(device, mPermissionIntent);
         } else {
             logMessage("มีสิทธิ์เข้าถึง USB แล้ว กำลังเชื่อมต่อ...");
-            new Thread(() -> openReader(device)).start();
+            openReader(device);
         }
     }
 
     /**
-     * เปิดการเชื่อมต่อกับเครื่องอ่าน
+     * เปิดการเชื่อมต่อกับเครื่องอ่านผ่าน broker (ถ้า service เปิดไว้แล้วจะใช้เครื่องอ่านเดิมร่วมกัน)
      */
     private void openReader(UsbDevice device) {
-        try {
-            mReader.open(device);
-            runOnUiThread(() -> {
-                mReaderOpened = true;
-                String deviceName = device.getProductName() != null ? device.getProductName() : device.getDeviceName();
-                updateReaderStatus("เชื่อมต่อแล้ว: " + deviceName);
-                btnConnectReader.setText("ยกเลิกการเชื่อมต่อ");
-                logMessage("เชื่อมต่อกับเครื่องอ่านสำเร็จ: " + deviceName);
-                
-                // เริ่มการ polling อัตโนมัติ
-                startCardPolling();
-            });
-        } catch (Exception e) {
-            Log.e(TAG, "เกิดข้อผิดพลาดในการเปิดเครื่องอ่าน", e);
-            runOnUiThread(() -> {
-                mReaderOpened = false;
-                updateReaderStatus("เกิดข้อผิดพลาด");
-                logMessage("เกิดข้อผิดพลาดในการเปิดเครื่องอ่าน: " + e.getMessage());
-            });
+        mReaderBroker.addListener(readerListener);
+        mReaderBroker.acquire(this);
+        mReaderBroker.openReader(device);
+
+        // เครื่องอ่านเปิดอยู่แล้ว จะไม่มีเหตุการณ์ onReaderOpened
+        if (mReaderBroker.isConnected()) {
+            String deviceName = device.getProductName() != null ? device.getProductName() : device.getDeviceName();
+            runOnUiThread(() -> showReaderConnected(deviceName));
+        }
+    }
+
+    /**
+     * แสดงสถานะเชื่อมต่อเครื่องอ่านแล้ว
+     */
+    private void showReaderConnected(String deviceName) {
+        if (mReaderOpened) {
+            return;
         }
+        mReaderOpened = true;
+        updateReaderStatus("เชื่อมต่อแล้ว: " + deviceName);
+        btnConnectReader.setText("ยกเลิกการเชื่อมต่อ");
+        logMessage("เชื่อมต่อกับเครื่องอ่านสำเร็จ: " + deviceName);
     }
 
     /**
-     * ปิดการเชื่อมต่อกับเครื่องอ่าน
+     * ปิดการเชื่อมต่อกับเครื่องอ่าน (broker จะปิดเครื่องอ่านจริงเมื่อไม่มีผู้ใช้งานเหลือ)
      */
     private void closeReader() {
         try {
-            // หยุด polling ก่อน
-            stopCardPolling();
-            
-            mReader.close();
+            mReaderBroker.removeListener(readerListener);
+            mReaderBroker.release(this);
+
             runOnUiThread(() -> {
                 mReaderOpened = false;
                 updateReaderStatus("ไม่ได้เชื่อมต่อ");
@@ -713,18 +743,72 @@ public class CardManagementActivity extends AppCompatActivity implements CardRea
     }
 
     /**
-     * อ่านการ์ดเพื่อนำ UID มาใส่ใน input field
+     * รับเหตุการณ์ของเครื่องอ่านและการ์ดจาก broker (ถูกเรียกจาก thread ของเครื่องอ่าน)
      */
-    private void readCardForInput() {
-        try {
-            if (!mReaderOpened) {
-                showMessage("กรุณาเชื่อมต่อเครื่องอ่านก่อน");
+    private final ReaderPool.Listener readerListener = new ReaderPool.Listener() {
+        @Override
+        public void onReaderOpened(PooledReader reader) {
+            runOnUiThread(() -> showReaderConnected(reader.getName()));
+        }
+
+        @Override
+        public void onReaderClosed(PooledReader reader) {
+            if (!mReaderBroker.isConnected()) {
+                runOnUiThread(() -> {
+                    mReaderOpened = false;
+                    updateReaderStatus("ไม่ได้เชื่อมต่อ");
+                    btnConnectReader.setText("เชื่อมต่อเครื่องอ่านการ์ด");
+                });
+            }
+        }
+
+        @Override
+        public void onCardDetected(PooledReader reader, int slotNum, String cardId) {
+            if (cardId.equals(currentCardId)) {
                 return;
             }
+            currentCardId = cardId;
+            runOnUiThread(() -> {
+                tvCurrentCard.setText("UID: " + cardId + " (ตรวจพบอัตโนมัติ)");
+                // ไม่เติมใน input field อัตโนมัติเพื่อไม่รบกวนผู้ใช้
+                logMessage("ตรวจพบการ์ดอัตโนมัติ: " + cardId);
+            });
+        }
 
-            runOnUiThread(() -> tvCurrentCard.setText("กำลังอ่านการ์ด..."));
+        @Override
+        public void onCardRemoved(PooledReader reader, int slotNum) {
+            // คงข้อมูลการ์ดล่าสุดไว้บนหน้าจอเพื่อให้ผู้ใช้ลงทะเบียนต่อได้
+        }
+    };
 
-            String uid = nfcCardReader.readCardUid(mSlotNum);
+    /**
+     * อ่านการ์ดเพื่อนำ UID มาใส่ใน input field โดยยืมเครื่องอ่านจาก broker
+     */
+    private void readCardForInput() {
+        if (!mReaderOpened) {
+            showMessage("กรุณาเชื่อมต่อเครื่องอ่านก่อน");
+            return;
+        }
+        tvCurrentCard.setText("กำลังอ่านการ์ด...");
+        
+        // อ่าน UID และ NDEF (ถ้าจำเป็น) จากทุก slot ของเครื่องอ่านทีละเครื่องจนกว่าจะพบการ์ด
+        boolean submitted = mReaderBroker.execute(cardReader -> {
+            NfcCardReader.ReadResult result = cardReader.readFirstCard();
+            return result != null && result.getCardId() != null ? result : null;
+        }, this::showCardForInput);
+        if (!submitted) {
+            showMessage("กรุณาเชื่อมต่อเครื่องอ่านก่อน");
+        }
+    }
+
+    /**
+     * นำ UID ที่อ่านได้มาใส่ใน input field (ทำงานใน thread ของเครื่องอ่าน)
+     *
+     * @param result ผลจากเครื่องอ่านที่พบการ์ด หรือ null ถ้าไม่พบการ์ดบนเครื่องอ่านใดเลย
+     */
+    private void showCardForInput(NfcCardReader.ReadResult result) {
+        try {
+            String uid = result != null ? result.uid : null;
             if (uid != null) {
                 currentCardId = uid;
                 runOnUiThread(() -> {
@@ -745,7 +829,7 @@ public class CardManagementActivity extends AppCompatActivity implements CardRea
                 return;
             }
 
-            String ndefText = nfcCardReader.readNdefText(mSlotNum);
+            String ndefText = result != null ? result.getCardId() : null;
             if (ndefText != null) {
                 currentCardId = ndefText;
                 runOnUiThread(() -> {
@@ -956,18 +1040,13 @@ public class CardManagementActivity extends AppCompatActivity implements CardRea
                     return;
                 }
                 
-                // ลบข้อมูลเก่า
-                cardMediaMapping.removeCardMapping(card.cardId);
-                
-                // เพิ่มข้อมูลใหม่
-                if (cardMediaMapping.addCardMapping(newCardId, newMediaPath)) {
+                // ลบข้อมูลเก่าและเพิ่มข้อมูลใหม่ในการบันทึกครั้งเดียว (ถ้าไม่สำเร็จข้อมูลเก่ายังคงอยู่)
+                if (cardMediaMapping.replaceCardMapping(card.cardId, newCardId, newMediaPath)) {
                     loadCardEntries();
                     logMessage("แก้ไขการ์ดสำเร็จ: " + newCardId + " -> " + newMediaPath);
                     showMessage("แก้ไขการ์ดสำเร็จ");
                     dialog.dismiss();
                 } else {
-                    // หากเพิ่มไม่สำเร็จ ให้เพิ่มข้อมูลเก่าคืน
-                    cardMediaMapping.addCardMapping(card.cardId, card.mediaPath);
                     showMessage("เกิดข้อผิดพลาดในการแก้ไขการ์ด");
                 }
             });
@@ -1150,52 +1229,6 @@ public class CardManagementActivity extends AppCompatActivity implements CardRea
         });
     }
 
-    /**
-     * เริ่มการ polling อัตโนมัติเพื่อตรวจสอบการ์ด
-     */
-    private void startCardPolling() {
-        if (cardPollingTimer != null) {
-            cardPollingTimer.cancel();
-        }
-        
-        cardPollingTimer = new Timer();
-        cardPollingTimer.scheduleAtFixedRate(new TimerTask() {
-            @Override
-            public void run() {
-                if (mReaderOpened) {
-                    // อ่านการ์ดแบบไม่รบกวน UI
-                    try {
-                        String uid = nfcCardReader.readCardUid(mSlotNum);
-                        if (uid != null && !uid.equals(currentCardId)) {
-                            currentCardId = uid;
-                            runOnUiThread(() -> {
-                                tvCurrentCard.setText("UID: " + uid + " (ตรวจพบอัตโนมัติ)");
-                                // ไม่เติมใน input field อัตโนมัติเพื่อไม่รบกวนผู้ใช้
-                                logMessage("ตรวจพบการ์ดอัตโนมัติ: " + uid);
-                            });
-                        }
-                    } catch (Exception e) {
-                        // ไม่แสดงข้อผิดพลาดจาก polling เพื่อไม่รบกวน
-                        Log.d(TAG, "Polling error (normal): " + e.getMessage());
-                    }
-                }
-            }
-        }, 2000, 3000); // เริ่มหลัง 2 วินาที ทำซ้ำทุก 3 วินาที
-        
-        logMessage("เริ่มการตรวจสอบการ์ดอัตโนมัติ");
-    }
-
-    /**
-     * หยุดการ polling อัตโนมัติ
-     */
-    private void stopCardPolling() {
-        if (cardPollingTimer != null) {
-            cardPollingTimer.cancel();
-            cardPollingTimer = null;
-            logMessage("หยุดการตรวจสอบการ์ดอัตโนมัติ");
-        }
-    }
-
     /**
      * แสดง dialog สำหรับยืนยันการลบ
      */
@@ -1308,11 +1341,20 @@ public class CardManagementActivity extends AppCompatActivity implements CardRea
         }
     }
 
+    @Override
+    protected void onPause() {
+        super.onPause();
+        // ให้การแก้ไขที่รอ group commit ถึงดิสก์ก่อนออกจากหน้าจอ
+        if (cardMediaMapping != null) {
+            cardMediaMapping.flush();
+        }
+    }
+    
     @Override
     protected void onDestroy() {
         try {
             if (mReaderOpened) {
-                new Thread(() -> closeReader()).start();
+                closeReader();
             }
             
             if (mBound) {
@@ -1325,6 +1367,10 @@ public class CardManagementActivity extends AppCompatActivity implements CardRea
             } catch (IllegalArgumentException e) {
                 Log.e(TAG, "เกิดข้อผิดพลาดในการยกเลิกการลงทะเบียน receiver: ", e);
             }
+            
+            if (cardMediaMapping != null) {
+                cardMediaMapping.close();
+            }
         } catch (Exception e) {
             Log.e(TAG, "เกิดข้อผิดพลาดใน onDestroy: ", e);
         } finally {
@@ -3,197 +3,75 @@ package com.acs.readertest;
 import android.content.Context;
 import android.util.Log;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonSyntaxException;
-import com.google.gson.reflect.TypeToken;
-
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.lang.reflect.Type;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 /**
  * คลาสสำหรับจัดการ mapping ระหว่าง card ID (UID หรือ NDEF) กับไฟล์สื่อหลายประเภท (PDF, Video, Web)
  * พร้อมระบบ CRUD สำหรับจัดการข้อมูล
+ * 
+ * ข้อมูลเก็บใน {@link MappingStore} ตามที่ตั้งค่าไว้ใน {@link CardReaderService#KEY_MAPPING_BACKEND}
+ * (ไฟล์ JSON เป็นค่าเริ่มต้น หรือฐานข้อมูล SQLite ที่ service และทุกหน้าจอใช้ร่วมกัน)
  */
 public class CardMediaMapping {
     private static final String TAG = "CardMediaMapping";
-    private static final String MAPPING_FILE_NAME = "mapping.json";
     
-    private Map<String, String> mappingData = new HashMap<>();
-    private Context context;
+    private final MappingLoader mappingLoader = new MappingLoader();
+    
+    // store ว่างเปล่าจนกว่าจะเรียก loadMapping
+    private MappingStore store = new JsonMappingStore(mappingLoader);
     
     /**
-     * โหลด mapping จากไฟล์ mapping.json
+     * โหลด mapping จาก store ที่ตั้งค่าไว้
      * 
      * @param context Context ของแอพ
      * @return true ถ้าโหลดสำเร็จ, false ถ้ามีข้อผิดพลาด
      */
     public boolean loadMapping(Context context) {
-        this.context = context;
-        try {
-            Log.d(TAG, "กำลังพยายามโหลด mapping สำหรับสื่อหลายประเภท...");
-            
-            // ลองโหลดจาก external storage ก่อน (ข้อมูลที่ผู้ใช้แก้ไข)
-            File externalFile = new File(context.getExternalFilesDir(null), MAPPING_FILE_NAME);
-            Log.d(TAG, "ลองโหลดจากไฟล์: " + externalFile.getAbsolutePath());
-            if (externalFile.exists()) {
-                boolean loaded = loadMappingFromFile(externalFile);
-                if (loaded) {
-                    Log.d(TAG, "โหลด mapping จาก external storage สำเร็จ");
-                    return true;
-                }
-            }
-            
-            // ถ้าไม่มีใน external storage ให้ลองจาก assets
-            if (loadMappingFromAssets(context)) {
-                Log.d(TAG, "โหลด mapping จาก assets สำเร็จ");
-                // บันทึกไปยัง external storage เพื่อให้แก้ไขได้ในอนาคต
-                saveMapping();
-                return true;
-            }
-            
-            // ถ้าไม่มีไฟล์ให้สร้าง mapping ว่างเปล่า
-            Log.d(TAG, "ไม่พบ mapping ใดๆ สร้าง mapping ว่างเปล่า");
-            mappingData = new HashMap<>();
-            // สร้างไฟล์ว่างใน external storage
-            saveMapping();
-            return true;
-            
-        } catch (Exception e) {
-            Log.e(TAG, "ไม่สามารถโหลด mapping ได้", e);
-            // ให้ทำงานต่อได้ด้วย mapping ว่างเปล่า
-            mappingData = new HashMap<>();
-            return false;
-        }
+        String backend = context.getSharedPreferences(CardReaderService.PREFS_NAME, Context.MODE_PRIVATE)
+                .getString(CardReaderService.KEY_MAPPING_BACKEND, CardReaderService.MAPPING_BACKEND_JSON);
+        Log.d(TAG, "ใช้ที่เก็บ mapping: " + backend);
+        store.close();
+        store = CardReaderService.MAPPING_BACKEND_SQLITE.equals(backend)
+                ? new SqliteMappingStore(mappingLoader)
+                : new JsonMappingStore(mappingLoader);
+        return store.open(context);
     }
     
     /**
-     * โหลด mapping จากไฟล์
+     * รับความคืบหน้าระหว่างโหลด mapping (ถูกเรียกจาก thread ที่เรียก loadMapping)
      */
-    private boolean loadMappingFromFile(File file) {
-        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-            StringBuilder jsonString = new StringBuilder();
-            String line;
-            while ((line = reader.readLine()) != null) {
-                jsonString.append(line);
-            }
-            
-            if (jsonString.length() == 0) {
-                Log.d(TAG, "ไฟล์ mapping ว่างเปล่า");
-                mappingData = new HashMap<>();
-                return true;
-            }
-            
-            try {
-                Gson gson = new Gson();
-                Type type = new TypeToken<Map<String, String>>(){}.getType();
-                mappingData = gson.fromJson(jsonString.toString(), type);
-                
-                if (mappingData == null) {
-                    Log.e(TAG, "แปลง JSON เป็น mapping ไม่สำเร็จ");
-                    mappingData = new HashMap<>();
-                }
-                
-                Log.d(TAG, "โหลด mapping จากไฟล์สำเร็จ: " + mappingData.size() + " รายการ");
-                return true;
-            } catch (JsonSyntaxException e) {
-                Log.e(TAG, "รูปแบบ JSON ไม่ถูกต้อง", e);
-                mappingData = new HashMap<>();
-                return false;
-            }
-        } catch (IOException e) {
-            Log.e(TAG, "ไม่สามารถอ่านไฟล์ mapping ได้", e);
-            mappingData = new HashMap<>();
-            return false;
-        }
+    public void setLoadProgressListener(MappingLoader.ProgressListener listener) {
+        mappingLoader.setProgressListener(listener);
     }
     
     /**
-     * โหลด mapping จาก assets
+     * ส่งออก mapping ทั้งหมดเป็นไฟล์ JSON รูปแบบเดียวกับ mapping.json
+     * 
+     * @param target ไฟล์ปลายทาง
+     * @return true ถ้าส่งออกสำเร็จ, false ถ้ามีข้อผิดพลาด
      */
-    private boolean loadMappingFromAssets(Context context) {
-        try {
-            InputStream is = context.getAssets().open(MAPPING_FILE_NAME);
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(is))) {
-                StringBuilder jsonString = new StringBuilder();
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    jsonString.append(line);
-                }
-                
-                if (jsonString.length() == 0) {
-                    Log.d(TAG, "ไฟล์ mapping ใน assets ว่างเปล่า");
-                    mappingData = new HashMap<>();
-                    return true;
-                }
-                
-                try {
-                    Gson gson = new Gson();
-                    Type type = new TypeToken<Map<String, String>>(){}.getType();
-                    Log.d(TAG, "JSON Content: " + jsonString.toString());
-                    mappingData = gson.fromJson(jsonString.toString(), type);
-                    
-                    if (mappingData == null) {
-                        Log.e(TAG, "แปลง JSON ใน assets เป็น mapping ไม่สำเร็จ");
-                        mappingData = new HashMap<>();
-                    }
-                    
-                    Log.d(TAG, "โหลด mapping จาก assets สำเร็จ: " + mappingData.size() + " รายการ");
-                    // แสดงข้อมูล mapping ที่โหลดได้
-                    for (Map.Entry<String, String> entry : mappingData.entrySet()) {
-                        MediaHelper.MediaInfo mediaInfo = MediaHelper.createMediaInfo(entry.getValue());
-                        Log.d(TAG, "Mapping: " + entry.getKey() + " -> " + mediaInfo.displayName + " (" + mediaInfo.type + ")");
-                    }
-                    return true;
-                } catch (JsonSyntaxException e) {
-                    Log.e(TAG, "รูปแบบ JSON ใน assets ไม่ถูกต้อง", e);
-                    mappingData = new HashMap<>();
-                    return false;
-                }
-            }
-        } catch (IOException e) {
-            Log.e(TAG, "ไม่สามารถอ่านไฟล์ mapping จาก assets ได้", e);
-            return false;
-        }
+    public boolean exportMapping(File target) {
+        return store.export(target);
     }
     
     /**
-     * บันทึก mapping ลงไฟล์ external storage
+     * เขียนการเปลี่ยนแปลงที่รออยู่ลงดิสก์ทันที (เช่น ก่อนออกจากหน้าจัดการการ์ด)
      * 
-     * @return true ถ้าบันทึกสำเร็จ, false ถ้ามีข้อผิดพลาด
+     * @return true ถ้าทุกการเปลี่ยนแปลงถึงดิสก์แล้ว
      */
-    public boolean saveMapping() {
-        if (context == null) {
-            Log.e(TAG, "ไม่สามารถบันทึกได้ เนื่องจาก context เป็น null");
-            return false;
-        }
-        
-        try {
-            File externalFile = new File(context.getExternalFilesDir(null), MAPPING_FILE_NAME);
-            
-            Gson gson = new Gson();
-            String jsonString = gson.toJson(mappingData);
-            
-            try (FileWriter writer = new FileWriter(externalFile)) {
-                writer.write(jsonString);
-                writer.flush();
-            }
-            
-            Log.d(TAG, "บันทึก mapping ลงไฟล์สำเร็จ: " + externalFile.getAbsolutePath());
-            Log.d(TAG, "ข้อมูลที่บันทึก: " + jsonString);
-            return true;
-            
-        } catch (IOException e) {
-            Log.e(TAG, "เกิดข้อผิดพลาดในการบันทึก mapping", e);
-            return false;
-        }
+    public boolean flush() {
+        return store.flush();
+    }
+    
+    /**
+     * เขียนการเปลี่ยนแปลงที่รออยู่และปิด store (เรียกเมื่อเลิกใช้ mapping นี้)
+     * 
+     * @return true ถ้าทุกการเปลี่ยนแปลงถึงดิสก์แล้ว
+     */
+    public boolean close() {
+        return store.close();
     }
     
     /**
@@ -215,8 +93,7 @@ public class CardMediaMapping {
         }
         
         try {
-            mappingData.put(cardId.trim(), mediaPath.trim());
-            boolean saved = saveMapping();
+            boolean saved = store.put(cardId.trim(), mediaPath.trim());
             
             if (saved) {
                 Log.d(TAG, "เพิ่มการ์ดใหม่สำเร็จ: " + cardId + " -> " + mediaPath);
@@ -252,14 +129,13 @@ public class CardMediaMapping {
         }
         
         try {
-            if (!mappingData.containsKey(cardId.trim())) {
+            String oldMediaPath = store.get(cardId.trim());
+            if (oldMediaPath == null) {
                 Log.w(TAG, "ไม่พบการ์ด " + cardId + " ในระบบ");
                 return false;
             }
             
-            String oldMediaPath = mappingData.get(cardId.trim());
-            mappingData.put(cardId.trim(), newMediaPath.trim());
-            boolean saved = saveMapping();
+            boolean saved = store.put(cardId.trim(), newMediaPath.trim());
             
             if (saved) {
                 Log.d(TAG, "อัปเดตการ์ดสำเร็จ: " + cardId);
@@ -267,8 +143,6 @@ public class CardMediaMapping {
                 MediaHelper.MediaInfo mediaInfo = MediaHelper.createMediaInfo(newMediaPath);
                 Log.d(TAG, "ประเภทสื่อใหม่: " + mediaInfo.type + ", ชื่อแสดง: " + mediaInfo.displayName);
             } else {
-                // หากบันทึกไม่สำเร็จ ให้คืนค่าเดิม
-                mappingData.put(cardId.trim(), oldMediaPath);
                 Log.e(TAG, "อัปเดตการ์ดไม่สำเร็จ: ไม่สามารถบันทึกไฟล์ได้");
             }
             
@@ -292,19 +166,17 @@ public class CardMediaMapping {
         }
         
         try {
-            if (!mappingData.containsKey(cardId.trim())) {
+            String removedMediaPath = store.get(cardId.trim());
+            if (removedMediaPath == null) {
                 Log.w(TAG, "ไม่พบการ์ด " + cardId + " ในระบบ");
                 return false;
             }
             
-            String removedMediaPath = mappingData.remove(cardId.trim());
-            boolean saved = saveMapping();
+            boolean saved = store.remove(cardId.trim());
             
             if (saved) {
                 Log.d(TAG, "ลบการ์ดสำเร็จ: " + cardId + " (ไฟล์สื่อ: " + removedMediaPath + ")");
             } else {
-                // หากบันทึกไม่สำเร็จ ให้เพิ่มข้อมูลกลับคืน
-                mappingData.put(cardId.trim(), removedMediaPath);
                 Log.e(TAG, "ลบการ์ดไม่สำเร็จ: ไม่สามารถบันทึกไฟล์ได้");
             }
             
@@ -315,6 +187,38 @@ public class CardMediaMapping {
         }
     }
     
+    /**
+     * เปลี่ยน card ID และไฟล์สื่อของการ์ดในการบันทึกครั้งเดียว (ลบ card ID เดิมและเพิ่ม card ID ใหม่)
+     * 
+     * @param oldCardId card ID เดิม
+     * @param newCardId card ID ใหม่ (อาจเป็นค่าเดิม)
+     * @param mediaPath path ของไฟล์สื่อ
+     * @return true ถ้าบันทึกสำเร็จ, false ถ้ามีข้อผิดพลาด (ข้อมูลเดิมยังคงอยู่)
+     */
+    public boolean replaceCardMapping(String oldCardId, String newCardId, String mediaPath) {
+        if (oldCardId == null || newCardId == null || newCardId.trim().isEmpty()) {
+            Log.e(TAG, "cardId ไม่สามารถเป็น null หรือว่างเปล่าได้");
+            return false;
+        }
+        
+        if (mediaPath == null || mediaPath.trim().isEmpty()) {
+            Log.e(TAG, "mediaPath ไม่สามารถเป็น null หรือว่างเปล่าได้");
+            return false;
+        }
+        
+        Map<String, String> changes = new LinkedHashMap<>();
+        changes.put(oldCardId.trim(), null);
+        changes.put(newCardId.trim(), mediaPath.trim());
+        boolean saved = store.apply(changes);
+        
+        if (saved) {
+            Log.d(TAG, "แก้ไขการ์ดสำเร็จ: " + oldCardId + " -> " + newCardId + " (" + mediaPath + ")");
+        } else {
+            Log.e(TAG, "แก้ไขการ์ดไม่สำเร็จ: ไม่สามารถบันทึกได้");
+        }
+        return saved;
+    }
+    
     /**
      * ตรวจสอบว่ามีการ์ดอยู่ในระบบหรือไม่
      * 
@@ -325,7 +229,7 @@ public class CardMediaMapping {
         if (cardId == null || cardId.trim().isEmpty()) {
             return false;
         }
-        return mappingData.containsKey(cardId.trim());
+        return store.get(cardId.trim()) != null;
     }
     
     /**
@@ -335,9 +239,8 @@ public class CardMediaMapping {
      */
     public boolean clearAllMappings() {
         try {
-            int originalSize = mappingData.size();
-            mappingData.clear();
-            boolean saved = saveMapping();
+            int originalSize = store.count();
+            boolean saved = store.clear();
             
             if (saved) {
                 Log.d(TAG, "ล้างข้อมูลการ์ดทั้งหมดสำเร็จ (ทั้งหมด " + originalSize + " รายการ)");
@@ -359,16 +262,38 @@ public class CardMediaMapping {
      * @return path ของไฟล์สื่อถ้าพบ, null ถ้าไม่พบ
      */
     public String findMediaForCard(String cardId) {
-        if (mappingData == null || cardId == null) {
-            Log.e(TAG, "mappingData หรือ cardId เป็น null");
+        if (cardId == null) {
+            Log.e(TAG, "cardId เป็น null");
             return null;
         }
         
         Log.d(TAG, "ค้นหาสื่อสำหรับ cardId: " + cardId);
-        if (mappingData.containsKey(cardId)) {
-            String mediaPath = mappingData.get(cardId);
-            
-            if (mediaPath == null || mediaPath.isEmpty()) {
+        
+        // UID แบบ hex ค้นหาจาก index ส่วน card ID อื่น (เช่น NDEF text) ค้นหาจาก map
+        CardKey key = CardKey.parse(cardId);
+        String mediaPath = key != null ? store.find(key) : store.get(cardId);
+        return resolveMediaPath(cardId, mediaPath);
+    }
+    
+    /**
+     * ค้นหาไฟล์สื่อที่ mapping กับ UID โดยไม่ต้องแปลงเป็น String
+     * 
+     * @param key UID ของการ์ด
+     * @return path ของไฟล์สื่อถ้าพบ, null ถ้าไม่พบ
+     */
+    public String findMediaForCard(CardKey key) {
+        if (key == null) {
+            return null;
+        }
+        return resolveMediaPath(key, store.find(key));
+    }
+    
+    /**
+     * ตรวจสอบ path ที่พบจาก mapping และหาไฟล์ local ที่มีอยู่จริง
+     */
+    private String resolveMediaPath(Object cardId, String mediaPath) {
+        if (mediaPath != null) {
+            if (mediaPath.isEmpty()) {
                 Log.e(TAG, "พบ mapping แต่ path เป็น null หรือว่างเปล่า");
                 return null;
             }
@@ -583,14 +508,25 @@ public class CardMediaMapping {
      * ดึงจำนวน mapping ทั้งหมด
      */
     public int getMappingCount() {
-        return mappingData != null ? mappingData.size() : 0;
+        return store.count();
+    }
+    
+    /**
+     * ดึง mapping ทีละหน้า เรียงตาม card ID (สำหรับแสดงรายการการ์ดจำนวนมาก)
+     * 
+     * @param offset จำนวนรายการที่ข้าม
+     * @param limit จำนวนรายการสูงสุดของหน้านี้
+     */
+    public Map<String, String> getMappings(int offset, int limit) {
+        return store.page(offset, limit);
     }
     
     /**
      * ดึงข้อมูล mapping ทั้งหมด (สำหรับ debug)
+     * ควรใช้ {@link #getMappings(int, int)} กับ mapping ขนาดใหญ่
      */
     public Map<String, String> getAllMappings() {
-        return new HashMap<>(mappingData);
+        return store.page(0, Integer.MAX_VALUE);
     }
     
     // เพิ่มฟังก์ชันเก่าเพื่อ backward compatibility
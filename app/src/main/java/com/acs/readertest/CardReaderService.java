@@ -5,8 +5,11 @@ import android.app.NotificationChannel;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.app.Service;
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
 import android.hardware.usb.UsbDevice;
 import android.hardware.usb.UsbManager;
 import android.net.Uri;
@@ -22,11 +25,10 @@ import androidx.annotation.Nullable;
 import androidx.core.app.NotificationCompat;
 import androidx.core.content.FileProvider;
 
-import com.acs.smartcard.Reader;
+import com.google.gson.Gson;
 
 import java.io.File;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.List;
 
 /**
  * บริการอ่านการ์ดที่ทำงานในพื้นหลัง
@@ -35,22 +37,44 @@ public class CardReaderService extends Service {
     private static final String TAG = "CardReaderService";
     private static final int NOTIFICATION_ID = 1001;
     private static final String CHANNEL_ID = "card_reader_channel";
-    private static final int CARD_POLLING_INTERVAL = 1000; // 1 วินาที
-    
-    // Reader และอุปกรณ์
-    private UsbManager mManager;
-    private Reader mReader;
-    private int mSlotNum = 0;
-    private boolean mReaderOpened = false;
-    private NfcCardReader nfcCardReader;
-    private CardPdfMapping cardPdfMapping;
-    private Timer cardPollingTimer;
+    
+    // การตั้งค่าวิธีตรวจจับการ์ด
+    public static final String PREFS_NAME = "CardReaderPrefs";
+    public static final String KEY_DETECTION_MODE = "detection_mode";
+    public static final String DETECTION_MODE_TIMER = "timer";         // host poll ด้วย Timer
+    public static final String DETECTION_MODE_AUTO_POLL = "auto_poll"; // PN532 InAutoPoll (ACR122U)
+    public static final String DETECTION_MODE_MULTI_CARD = "multi_card"; // PN532 InListPassiveTarget อ่านการ์ดได้ครั้งละ 2 ใบ
+    public static final String KEY_POLLING_POLICY = "polling_policy";  // PollingScheduler.Policy ในรูปแบบ JSON
+    public static final String KEY_ARRIVAL_CONFIRM = "arrival_confirm_ms"; // เวลายืนยันการ์ดใหม่
+    public static final String KEY_REMOVAL_GRACE = "removal_grace_ms";     // เวลาผ่อนผันก่อนถือว่านำการ์ดออก
+    public static final String KEY_MAPPING_BACKEND = "mapping_backend";   // ที่เก็บ mapping ของการ์ด
+    public static final String MAPPING_BACKEND_JSON = "json";             // mapping.json (ค่าเริ่มต้น)
+    public static final String MAPPING_BACKEND_SQLITE = "sqlite";         // ฐานข้อมูล SQLite ที่ทุกหน้าจอใช้ร่วมกัน
+    
+    private static final String ACTION_USB_PERMISSION = "com.acs.readertest.USB_PERMISSION";
+    
+    // ช่วงเวลาลองเชื่อมต่อใหม่เมื่อไม่มีเครื่องอ่าน (เพิ่มเป็นสองเท่าทุกครั้งที่ไม่สำเร็จ)
+    private static final long RECONNECT_INITIAL_DELAY = 500;
+    private static final long RECONNECT_MAX_DELAY = 30000;
+    
+    // เครื่องอ่านทั้งหมดที่เชื่อมต่ออยู่ (ใช้ร่วมกับ Activity ผ่าน broker)
+    private ReaderBroker readerBroker;
+    private PresenceFilter presenceFilter;
+    private CardMediaMapping cardMediaMapping;
     private String lastCardId = null;
-    private String lastOpenedPdfForCardId = null;
+    private String lastCardSlotId = null; // เครื่องอ่านและ slot ที่พบการ์ดล่าสุด
+    private String lastOpenedPdfCardId = null;
+    private String lastOpenedPdfPath = null;
 
     // Handler สำหรับทำงานใน UI Thread
     private final Handler handler = new Handler(Looper.getMainLooper());
     
+    // การลองเชื่อมต่อใหม่ (ทำงานใน UI Thread ผ่าน handler)
+    private long reconnectDelay = RECONNECT_INITIAL_DELAY;
+    private boolean reconnectScheduled = false;
+    private boolean usbReceiverRegistered = false;
+    private boolean screenReceiverRegistered = false;
+    
     // Binder สำหรับให้ Activity เข้าถึง Service
     private final IBinder binder = new LocalBinder();
     
@@ -71,7 +95,7 @@ public class CardReaderService extends Service {
         // เริ่มต้นตัวแปรต่างๆ
         initializeComponents();
         
-        // โหลด CardPdfMapping
+        // โหลด CardMediaMapping
         initializeCardMapping();
     }
     
@@ -100,8 +124,14 @@ public class CardReaderService extends Service {
     @Override
     public void onDestroy() {
         // หยุดการทำงานทั้งหมด
-        stopCardPolling();
-        closeReader();
+        cancelReconnect();
+        unregisterUsbReceiver();
+        unregisterScreenReceiver();
+        closeReaders();
+        presenceFilter.close();
+        if (cardMediaMapping != null) {
+            cardMediaMapping.close();
+        }
         super.onDestroy();
         Log.d(TAG, "หยุด CardReaderService");
     }
@@ -110,22 +140,214 @@ public class CardReaderService extends Service {
      * เริ่มต้นตัวแปรต่างๆ
      */
     private void initializeComponents() {
-        // ตั้งค่า USB Manager
-        mManager = (UsbManager) getSystemService(Context.USB_SERVICE);
+        // กรองการ์ดที่กะพริบที่ขอบสนาม RF ก่อนประมวลผล
+        presenceFilter = new PresenceFilter(presenceListener);
+        SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
+        presenceFilter.setArrivalConfirm(prefs.getLong(KEY_ARRIVAL_CONFIRM, PresenceFilter.DEFAULT_ARRIVAL_CONFIRM));
+        presenceFilter.setRemovalGrace(prefs.getLong(KEY_REMOVAL_GRACE, PresenceFilter.DEFAULT_REMOVAL_GRACE));
         
-        // ตั้งค่า Reader
-        UsbReader usbReader = UsbReader.getInstance(this);
-        mReader = usbReader.getReader();
-        nfcCardReader = new NfcCardReader(mReader);
+        // รับเหตุการณ์ของการ์ดจาก broker ที่ถือครองเครื่องอ่าน
+        readerBroker = ReaderBroker.getInstance(this);
+        readerBroker.addListener(poolListener);
+        
+        // ติดตามการเสียบ/ถอดเครื่องอ่านเอง เพื่อให้กลับมาทำงานได้โดยไม่ต้องเปิดหน้าจอ
+        registerUsbReceiver();
+        
+        // หยุด polling ระหว่างปิดหน้าจอ
+        registerScreenReceiver();
+    }
+    
+    /**
+     * ลงทะเบียน BroadcastReceiver สำหรับการเปิด/ปิดหน้าจอ
+     */
+    private void registerScreenReceiver() {
+        try {
+            IntentFilter filter = new IntentFilter();
+            filter.addAction(Intent.ACTION_SCREEN_ON);
+            filter.addAction(Intent.ACTION_SCREEN_OFF);
+            registerReceiver(screenReceiver, filter);
+            screenReceiverRegistered = true;
+        } catch (Exception e) {
+            Log.e(TAG, "เกิดข้อผิดพลาดในการลงทะเบียน BroadcastReceiver", e);
+        }
+    }
+    
+    private void unregisterScreenReceiver() {
+        if (!screenReceiverRegistered) {
+            return;
+        }
+        try {
+            unregisterReceiver(screenReceiver);
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "เกิดข้อผิดพลาดในการยกเลิกการลงทะเบียน receiver: ", e);
+        }
+        screenReceiverRegistered = false;
+    }
+    
+    private final BroadcastReceiver screenReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (readerBroker == null) {
+                return;
+            }
+            if (Intent.ACTION_SCREEN_OFF.equals(intent.getAction())) {
+                readerBroker.setPollingPaused(true);
+            } else if (Intent.ACTION_SCREEN_ON.equals(intent.getAction())) {
+                readerBroker.setPollingPaused(false);
+            }
+        }
+    };
+    
+    /**
+     * ลงทะเบียน BroadcastReceiver สำหรับ USB events
+     */
+    private void registerUsbReceiver() {
+        try {
+            IntentFilter filter = new IntentFilter();
+            filter.addAction(ACTION_USB_PERMISSION);
+            filter.addAction(UsbManager.ACTION_USB_DEVICE_ATTACHED);
+            filter.addAction(UsbManager.ACTION_USB_DEVICE_DETACHED);
+            
+            // ต้องระบุ RECEIVER_EXPORTED หรือ RECEIVER_NOT_EXPORTED สำหรับ Android 12 (API 31) ขึ้นไป
+            if (Build.VERSION.SDK_INT >= 31) {
+                registerReceiver(usbReceiver, filter, Context.RECEIVER_NOT_EXPORTED);
+            } else {
+                registerReceiver(usbReceiver, filter);
+            }
+            usbReceiverRegistered = true;
+        } catch (Exception e) {
+            Log.e(TAG, "เกิดข้อผิดพลาดในการลงทะเบียน BroadcastReceiver", e);
+        }
+    }
+    
+    private void unregisterUsbReceiver() {
+        if (!usbReceiverRegistered) {
+            return;
+        }
+        try {
+            unregisterReceiver(usbReceiver);
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "เกิดข้อผิดพลาดในการยกเลิกการลงทะเบียน receiver: ", e);
+        }
+        usbReceiverRegistered = false;
+    }
+    
+    /**
+     * รับเหตุการณ์เสียบ/ถอดเครื่องอ่านและผลการขอสิทธิ์ USB
+     */
+    private final BroadcastReceiver usbReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            String action = intent.getAction();
+            UsbDevice device = intent.getParcelableExtra(UsbManager.EXTRA_DEVICE);
+            if (device == null || readerBroker == null) {
+                return;
+            }
+            
+            if (UsbManager.ACTION_USB_DEVICE_ATTACHED.equals(action)) {
+                if (!readerBroker.isSupported(device)) {
+                    return;
+                }
+                Log.d(TAG, "ตรวจพบเครื่องอ่าน: " + device.getDeviceName());
+                UsbManager manager = (UsbManager) getSystemService(Context.USB_SERVICE);
+                if (manager.hasPermission(device)) {
+                    readerBroker.openReader(device);
+                } else {
+                    requestUsbPermission(manager, device);
+                }
+                // ลองใหม่ทันทีเผื่อการเปิดครั้งแรกไม่สำเร็จ (เครื่องอ่านยังไม่พร้อมหลังเสียบ)
+                restartReconnect();
+            } else if (UsbManager.ACTION_USB_DEVICE_DETACHED.equals(action)) {
+                Log.d(TAG, "เครื่องอ่านถูกถอด: " + device.getDeviceName());
+                readerBroker.closeReader(device);
+            } else if (ACTION_USB_PERMISSION.equals(action)) {
+                if (intent.getBooleanExtra(UsbManager.EXTRA_PERMISSION_GRANTED, false)) {
+                    readerBroker.openReader(device);
+                    restartReconnect();
+                } else {
+                    Log.w(TAG, "การขอสิทธิ์ USB ถูกปฏิเสธสำหรับอุปกรณ์: " + device.getDeviceName());
+                }
+            }
+        }
+    };
+    
+    /**
+     * ขอสิทธิ์การเข้าถึง USB device (ผลลัพธ์จะส่งกลับมาที่ usbReceiver)
+     */
+    private void requestUsbPermission(UsbManager manager, UsbDevice device) {
+        int flags = PendingIntent.FLAG_UPDATE_CURRENT;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            flags |= PendingIntent.FLAG_IMMUTABLE;
+        }
+        PendingIntent permissionIntent = PendingIntent.getBroadcast(
+                this, 0, new Intent(ACTION_USB_PERMISSION), flags);
+        manager.requestPermission(device, permissionIntent);
     }
     
     /**
-     * โหลด CardPdfMapping
+     * ลองเปิดเครื่องอ่านใหม่จนกว่าจะมีเครื่องอ่านเชื่อมต่อ โดยเว้นระยะเพิ่มขึ้นทุกครั้งที่ไม่สำเร็จ
+     */
+    private final Runnable reconnectTask = new Runnable() {
+        @Override
+        public void run() {
+            reconnectScheduled = false;
+            if (readerBroker.isConnected()) {
+                reconnectDelay = RECONNECT_INITIAL_DELAY;
+                return;
+            }
+            
+            if (readerBroker.hasAvailableReader()) {
+                Log.d(TAG, "ลองเชื่อมต่อเครื่องอ่านใหม่");
+                readerBroker.openAvailableReaders();
+            }
+            
+            reconnectDelay = Math.min(reconnectDelay * 2, RECONNECT_MAX_DELAY);
+            scheduleReconnect();
+        }
+    };
+    
+    /**
+     * ตั้งเวลาลองเชื่อมต่อใหม่ครั้งถัดไป (ถ้ายังไม่ได้ตั้งไว้)
+     */
+    private void scheduleReconnect() {
+        handler.post(() -> {
+            if (reconnectScheduled) {
+                return;
+            }
+            reconnectScheduled = true;
+            handler.postDelayed(reconnectTask, reconnectDelay);
+        });
+    }
+    
+    /**
+     * เริ่มลองเชื่อมต่อใหม่ด้วยช่วงเวลาเริ่มต้น (เช่น เมื่อเสียบเครื่องอ่าน)
+     */
+    private void restartReconnect() {
+        handler.post(() -> {
+            handler.removeCallbacks(reconnectTask);
+            reconnectScheduled = false;
+            reconnectDelay = RECONNECT_INITIAL_DELAY;
+            scheduleReconnect();
+        });
+    }
+    
+    private void cancelReconnect() {
+        handler.removeCallbacks(reconnectTask);
+        reconnectScheduled = false;
+        reconnectDelay = RECONNECT_INITIAL_DELAY;
+    }
+    
+    /**
+     * โหลด CardMediaMapping (store เดียวกับที่หน้าจอจัดการการ์ดใช้)
      */
     private void initializeCardMapping() {
+        // ปิด store ของ mapping เดิมก่อนสร้างใหม่ (เช่น เมื่อโหลดซ้ำหลังนำเข้าไฟล์)
+        if (cardMediaMapping != null) {
+            cardMediaMapping.close();
+        }
         try {
-            cardPdfMapping = new CardPdfMapping();
-            boolean mappingLoaded = cardPdfMapping.loadMapping(this);
+            cardMediaMapping = new CardMediaMapping();
+            boolean mappingLoaded = cardMediaMapping.loadMapping(this);
             if (mappingLoaded) {
                 Log.d(TAG, "โหลด mapping สำเร็จ");
             } else {
@@ -133,7 +355,8 @@ public class CardReaderService extends Service {
             }
         } catch (Exception e) {
             Log.e(TAG, "เกิดข้อผิดพลาดในการโหลด mapping: ", e);
-            cardPdfMapping = new CardPdfMapping(); // สร้าง mapping ว่างเปล่า
+            cardMediaMapping.close();
+            cardMediaMapping = new CardMediaMapping(); // สร้าง mapping ว่างเปล่า
         }
     }
     
@@ -182,16 +405,24 @@ public class CardReaderService extends Service {
     }
     
     /**
-     * เชื่อมต่อกับเครื่องอ่านที่มีอยู่
+     * เชื่อมต่อกับเครื่องอ่านทุกเครื่องที่มีอยู่
      */
     public void connectToAvailableReader() {
         try {
-            // ตรวจสอบว่ามีเครื่องอ่านที่รองรับเชื่อมต่ออยู่หรือไม่
-            for (UsbDevice device : mManager.getDeviceList().values()) {
-                if (mReader != null && mReader.isSupported(device) && mManager.hasPermission(device)) {
-                    openReader(device);
-                    return;
-                }
+            readerBroker.setDetectionMode(toPoolDetectionMode(getDetectionMode()));
+            readerBroker.setPollingPolicy(getPollingPolicy());
+            readerBroker.acquire(this);
+            if (readerBroker.isConnected()) {
+                updateReaderNotification();
+                return;
+            }
+            
+            // ถ้าการเปิดครั้งนี้ไม่สำเร็จหรือยังไม่มีเครื่องอ่าน จะลองใหม่เรื่อยๆ
+            restartReconnect();
+            if (readerBroker.hasAvailableReader()) {
+                // notification จะถูกอัปเดตเมื่อเปิดเครื่องอ่านสำเร็จ
+                updateReaderNotification();
+                return;
             }
             
             // ไม่พบเครื่องอ่านที่มีสิทธิ์การเข้าถึง
@@ -203,122 +434,212 @@ public class CardReaderService extends Service {
     }
     
     /**
-     * เปิดการเชื่อมต่อกับเครื่องอ่าน
+     * เลิกใช้เครื่องอ่าน (broker จะปิดเครื่องอ่านเมื่อไม่มี Activity ใช้งานอยู่)
      */
-    private void openReader(UsbDevice device) {
+    private void closeReaders() {
         try {
-            // เปิดการเชื่อมต่อกับ reader
-            mReader.open(device);
-            
-            // อัปเดตสถานะ
-            mReaderOpened = true;
-            String deviceName = device.getProductName() != null ? device.getProductName() : device.getDeviceName();
-            updateNotification("เชื่อมต่อกับเครื่องอ่าน: " + deviceName);
-            Log.d(TAG, "เชื่อมต่อกับเครื่องอ่านสำเร็จ: " + deviceName);
-            
-            // เริ่ม polling เพื่อรอการ์ด
-            startCardPolling();
+            if (readerBroker != null) {
+                readerBroker.removeListener(poolListener);
+                readerBroker.release(this);
+                Log.d(TAG, "เลิกใช้เครื่องอ่านแล้ว");
+            }
         } catch (Exception e) {
-            Log.e(TAG, "เกิดข้อผิดพลาดในการเปิดเครื่องอ่าน", e);
-            mReaderOpened = false;
-            updateNotification("เกิดข้อผิดพลาดในการเชื่อมต่อเครื่องอ่าน");
+            Log.e(TAG, "เกิดข้อผิดพลาดในการปิดเครื่องอ่าน", e);
         }
     }
     
     /**
-     * ปิดการเชื่อมต่อกับเครื่องอ่าน
+     * แสดงจำนวนและชื่อเครื่องอ่านที่เชื่อมต่ออยู่ใน notification
      */
-    private void closeReader() {
-        try {
-            if (mReaderOpened) {
-                // หยุด polling
-                stopCardPolling();
-                
-                // ปิดการเชื่อมต่อกับ reader
-                mReader.close();
-                
-                // อัปเดตสถานะ
-                mReaderOpened = false;
-                updateNotification("ยกเลิกการเชื่อมต่อเครื่องอ่านแล้ว");
-                Log.d(TAG, "ปิดการเชื่อมต่อกับเครื่องอ่านแล้ว");
-            }
-        } catch (Exception e) {
-            Log.e(TAG, "เกิดข้อผิดพลาดในการปิดเครื่องอ่าน", e);
+    private void updateReaderNotification() {
+        List<PooledReader> readers = readerBroker.getReaders();
+        if (readers.isEmpty()) {
+            updateNotification("รอการเชื่อมต่อเครื่องอ่าน...");
+        } else if (readers.size() == 1) {
+            updateNotification("เชื่อมต่อกับเครื่องอ่าน: " + readers.get(0).getName());
+        } else {
+            updateNotification("เชื่อมต่อกับเครื่องอ่าน " + readers.size() + " เครื่อง");
         }
     }
     
     /**
-     * เริ่ม polling เพื่อตรวจสอบการ์ด
+     * วิธีตรวจจับการ์ดที่ตั้งค่าไว้
      */
-    private void startCardPolling() {
-        if (cardPollingTimer != null) {
-            cardPollingTimer.cancel();
-        }
+    public String getDetectionMode() {
+        SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
+        return prefs.getString(KEY_DETECTION_MODE, DETECTION_MODE_TIMER);
+    }
+    
+    /**
+     * เปลี่ยนวิธีตรวจจับการ์ด และเริ่มใหม่ทันทีในทุกเครื่องอ่านที่เชื่อมต่ออยู่
+     * 
+     * @param mode DETECTION_MODE_TIMER, DETECTION_MODE_AUTO_POLL หรือ DETECTION_MODE_MULTI_CARD
+     */
+    public void setDetectionMode(String mode) {
+        SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
+        prefs.edit().putString(KEY_DETECTION_MODE, mode).apply();
+        Log.d(TAG, "เปลี่ยนวิธีตรวจจับการ์ดเป็น: " + mode);
         
-        cardPollingTimer = new Timer();
-        cardPollingTimer.scheduleAtFixedRate(new TimerTask() {
-            @Override
-            public void run() {
-                if (mReaderOpened) {
-                    readCard();
+        readerBroker.setDetectionMode(toPoolDetectionMode(mode));
+    }
+    
+    /**
+     * แปลงวิธีตรวจจับการ์ดที่เก็บใน SharedPreferences เป็นค่าของ PooledReader
+     */
+    private static int toPoolDetectionMode(String mode) {
+        if (DETECTION_MODE_AUTO_POLL.equals(mode)) {
+            return PooledReader.DETECTION_AUTO_POLL;
+        }
+        if (DETECTION_MODE_MULTI_CARD.equals(mode)) {
+            return PooledReader.DETECTION_MULTI_CARD;
+        }
+        return PooledReader.DETECTION_TIMER;
+    }
+    
+    /**
+     * นโยบายความถี่ของ polling ที่ตั้งค่าไว้ (ค่าเริ่มต้นถ้ายังไม่เคยตั้ง)
+     */
+    public PollingScheduler.Policy getPollingPolicy() {
+        SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
+        String json = prefs.getString(KEY_POLLING_POLICY, null);
+        if (json != null) {
+            try {
+                PollingScheduler.Policy policy = new Gson().fromJson(json, PollingScheduler.Policy.class);
+                if (policy != null) {
+                    return policy;
                 }
+            } catch (Exception e) {
+                Log.e(TAG, "ไม่สามารถอ่านนโยบาย polling ได้ ใช้ค่าเริ่มต้นแทน", e);
             }
-        }, 500, CARD_POLLING_INTERVAL);
+        }
+        return new PollingScheduler.Policy();
+    }
+    
+    /**
+     * เปลี่ยนนโยบายความถี่ของ polling และใช้ทันทีในทุกเครื่องอ่านที่เชื่อมต่ออยู่
+     */
+    public void setPollingPolicy(PollingScheduler.Policy policy) {
+        SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
+        prefs.edit().putString(KEY_POLLING_POLICY, new Gson().toJson(policy)).apply();
+        Log.d(TAG, "เปลี่ยนนโยบาย polling");
         
-        Log.d(TAG, "เริ่มการตรวจสอบการ์ดอัตโนมัติ");
+        readerBroker.setPollingPolicy(policy);
     }
     
     /**
-     * หยุด polling
+     * ที่เก็บ mapping ของการ์ดที่ตั้งค่าไว้
      */
-    private void stopCardPolling() {
-        if (cardPollingTimer != null) {
-            cardPollingTimer.cancel();
-            cardPollingTimer = null;
-        }
+    public String getMappingBackend() {
+        SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
+        return prefs.getString(KEY_MAPPING_BACKEND, MAPPING_BACKEND_JSON);
     }
     
     /**
-     * อ่านข้อมูลจากการ์ด
+     * เปลี่ยนที่เก็บ mapping ของการ์ดและโหลด mapping ของ service ใหม่
+     * (หน้าจออื่นใช้ที่เก็บใหม่เมื่อโหลด mapping ครั้งถัดไป ฐานข้อมูล SQLite นำเข้า mapping เดิมเมื่อสร้างครั้งแรก)
+     * 
+     * @param backend MAPPING_BACKEND_JSON หรือ MAPPING_BACKEND_SQLITE
      */
-    private void readCard() {
-        try {
-            if (!mReaderOpened || nfcCardReader == null) {
-                return;
-            }
-            
-            // อ่าน UID ก่อน
-            String uid = nfcCardReader.readCardUid(mSlotNum);
-            if (uid != null) {
-                Log.d(TAG, "อ่าน UID สำเร็จ: " + uid);
-                processCardInfo(uid);
-                return;
-            }
-            
-            // ถ้าอ่าน UID ไม่สำเร็จ ให้ลองอ่าน NDEF
-            String ndefText = nfcCardReader.readNdefText(mSlotNum);
-            if (ndefText != null) {
-                Log.d(TAG, "อ่าน NDEF Text สำเร็จ: " + ndefText);
-                processCardInfo(ndefText);
-                return;
-            }
+    public void setMappingBackend(String backend) {
+        SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
+        prefs.edit().putString(KEY_MAPPING_BACKEND, backend).apply();
+        Log.d(TAG, "เปลี่ยนที่เก็บ mapping เป็น: " + backend);
+        
+        initializeCardMapping();
+    }
+    
+    /**
+     * เปลี่ยนเวลายืนยันการ์ดใหม่และเวลาผ่อนผันก่อนถือว่านำการ์ดออก (มิลลิวินาที)
+     */
+    public void setPresenceTiming(long arrivalConfirmMs, long removalGraceMs) {
+        SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
+        prefs.edit()
+                .putLong(KEY_ARRIVAL_CONFIRM, arrivalConfirmMs)
+                .putLong(KEY_REMOVAL_GRACE, removalGraceMs)
+                .apply();
+        presenceFilter.setArrivalConfirm(arrivalConfirmMs);
+        presenceFilter.setRemovalGrace(removalGraceMs);
+    }
+    
+    /**
+     * รับเหตุการณ์จากเครื่องอ่านทุกเครื่อง (ถูกเรียกจาก thread ของเครื่องอ่านแต่ละเครื่อง)
+     */
+    private final ReaderPool.Listener poolListener = new ReaderPool.Listener() {
+        @Override
+        public void onReaderOpened(PooledReader reader) {
+            // เครื่องอ่านกลับมาแล้ว การตรวจจับการ์ดเริ่มอัตโนมัติใน ReaderPool
+            handler.post(CardReaderService.this::cancelReconnect);
+            updateReaderNotification();
+        }
+        
+        @Override
+        public void onReaderClosed(PooledReader reader) {
+            presenceFilter.forgetPrefix(reader.getId() + "#");
+            resetReaderCardState(reader.getId());
+            updateReaderNotification();
             
-            // ถ้าทั้ง UID และ NDEF ไม่สำเร็จ
-            if (lastCardId != null) {
-                // รีเซ็ตสถานะเมื่อไม่พบการ์ด
-                lastCardId = null;
-                lastOpenedPdfForCardId = null;
-                updateNotification("รอการอ่านการ์ด...");
+            // ไม่มีเครื่องอ่านเหลือ ลองเชื่อมต่อใหม่จนกว่าเครื่องอ่านจะกลับมา
+            if (!readerBroker.isConnected()) {
+                restartReconnect();
             }
-        } catch (Exception e) {
-            Log.e(TAG, "เกิดข้อผิดพลาดในการอ่านการ์ด", e);
         }
+        
+        @Override
+        public void onCardDetected(PooledReader reader, int slotNum, String cardId) {
+            presenceFilter.onCardPresent(reader.getSlotId(slotNum), cardId);
+        }
+        
+        @Override
+        public void onCardRemoved(PooledReader reader, int slotNum) {
+            presenceFilter.onCardAbsent(reader.getSlotId(slotNum));
+        }
+    };
+    
+    /**
+     * รับเหตุการณ์ที่ผ่านการกรองแล้ว: การ์ดอยู่จริงหรือถูกนำออกจริง
+     */
+    private final PresenceFilter.Listener presenceListener = new PresenceFilter.Listener() {
+        @Override
+        public void onCardPresent(String slotId, String cardId) {
+            processCardInfo(slotId, cardId);
+        }
+        
+        @Override
+        public void onCardRemoved(String slotId, String cardId) {
+            resetCardState(slotId);
+        }
+    };
+    
+    /**
+     * รีเซ็ตสถานะเมื่อการ์ดล่าสุดถูกนำออกจากจุดอ่าน (เครื่องอ่านและ slot) ที่พบการ์ด
+     */
+    private synchronized void resetCardState(String slotId) {
+        if (lastCardId != null && slotId.equals(lastCardSlotId)) {
+            clearLastCard();
+        }
+    }
+    
+    /**
+     * รีเซ็ตสถานะเมื่อเครื่องอ่านที่พบการ์ดล่าสุดถูกปิด
+     */
+    private synchronized void resetReaderCardState(String readerId) {
+        if (lastCardId != null && lastCardSlotId.startsWith(readerId + "#")) {
+            clearLastCard();
+        }
+    }
+    
+    private void clearLastCard() {
+        lastCardId = null;
+        lastCardSlotId = null;
+        lastOpenedPdfCardId = null;
+        lastOpenedPdfPath = null;
+        updateNotification("รอการอ่านการ์ด...");
     }
     
     /**
      * ประมวลผลข้อมูลการ์ดที่อ่านได้และเชื่อมโยงกับไฟล์ PDF
      */
-    private void processCardInfo(String cardId) {
+    private synchronized void processCardInfo(String slotId, String cardId) {
         try {
             if (cardId == null || cardId.isEmpty()) {
                 Log.e(TAG, "cardId เป็น null หรือว่างเปล่า");
@@ -331,27 +652,32 @@ public class CardReaderService extends Service {
                 return;
             }
             
-            Log.d(TAG, "ประมวลผลข้อมูลการ์ด: " + cardId);
+            Log.d(TAG, "ประมวลผลข้อมูลการ์ด: " + cardId + " จาก " + slotId);
             updateNotification("พบการ์ด: " + cardId);
             
-            // บันทึกการ์ดปัจจุบัน
+            // บันทึกการ์ดปัจจุบันและจุดอ่านที่พบ
             lastCardId = cardId;
+            lastCardSlotId = slotId;
             
             // ค้นหา PDF ที่เชื่อมโยงกับการ์ด
-            if (cardPdfMapping == null) {
-                Log.e(TAG, "cardPdfMapping เป็น null");
+            if (cardMediaMapping == null) {
+                Log.e(TAG, "cardMediaMapping เป็น null");
                 updateNotification("ไม่สามารถเชื่อมโยงการ์ดกับไฟล์ PDF ได้");
                 return;
             }
             
-            String pdfPath = cardPdfMapping.findPdfForCard(cardId);
+            // service เปิดเฉพาะไฟล์ PDF
+            String pdfPath = cardMediaMapping.findMediaForCard(cardId);
+            if (pdfPath != null && MediaHelper.getMediaType(pdfPath) != MediaHelper.MediaType.PDF) {
+                pdfPath = null;
+            }
             
             if (pdfPath != null) {
                 // พบ PDF ที่เชื่อมโยงกับการ์ด
                 String fileName = new File(pdfPath).getName();
                 
                 // ตรวจสอบว่าเป็นไฟล์เดิมที่เปิดไปแล้วหรือไม่
-                if ((cardId + ":" + pdfPath).equals(lastOpenedPdfForCardId)) {
+                if (cardId.equals(lastOpenedPdfCardId) && pdfPath.equals(lastOpenedPdfPath)) {
                     Log.d(TAG, "ข้าม: ไฟล์ PDF นี้ถูกเปิดไปแล้วสำหรับการ์ดนี้");
                     return;
                 }
@@ -360,7 +686,8 @@ public class CardReaderService extends Service {
                 updateNotification("พบ PDF: " + fileName + " - กำลังเปิด...");
                 
                 // บันทึกว่าได้เปิดไฟล์นี้สำหรับการ์ดนี้
-                lastOpenedPdfForCardId = cardId + ":" + pdfPath;
+                lastOpenedPdfCardId = cardId;
+                lastOpenedPdfPath = pdfPath;
                 
                 // เปิดไฟล์ PDF ด้วย Handler เพื่อให้ทำงานใน UI Thread
                 final String finalPdfPath = pdfPath;
@@ -437,7 +764,14 @@ public class CardReaderService extends Service {
     }
     
     public boolean isReaderConnected() {
-        return mReaderOpened;
+        return readerBroker != null && readerBroker.isConnected();
+    }
+    
+    /**
+     * จำนวนเครื่องอ่านที่เชื่อมต่ออยู่
+     */
+    public int getReaderCount() {
+        return readerBroker != null ? readerBroker.getReaderCount() : 0;
     }
     
     public String getLastCardId() {
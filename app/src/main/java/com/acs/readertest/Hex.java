@@ -9,6 +9,9 @@
 
 package com.acs.readertest;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 /**
  * The {@code Hex} class provides the conversion routines between the HEX string and the byte array.
  *
@@ -20,6 +23,20 @@ public class Hex {
 
     private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
 
+    /* Lookup table from ASCII character to HEX digit value (-1 if not a HEX digit). */
+    private static final byte[] DIGIT_VALUES = new byte[128];
+
+    static {
+        Arrays.fill(DIGIT_VALUES, (byte) -1);
+        for (int i = 0; i < 10; i++) {
+            DIGIT_VALUES['0' + i] = (byte) i;
+        }
+        for (int i = 0; i < 6; i++) {
+            DIGIT_VALUES['A' + i] = (byte) (10 + i);
+            DIGIT_VALUES['a' + i] = (byte) (10 + i);
+        }
+    }
+
     /**
      * Converts the integer to HEX string.
      *
@@ -28,12 +45,19 @@ public class Hex {
      */
     public static String toHexString(int i) {
 
-        String hexString = Integer.toHexString(i);
-        if (hexString.length() % 2 != 0) {
-            hexString = "0" + hexString;
+        /* Count the significant digits and pad to an even number. */
+        int digits = Math.max(1, (32 - Integer.numberOfLeadingZeros(i) + 3) / 4);
+        if (digits % 2 != 0) {
+            digits++;
+        }
+
+        char[] chars = new char[digits];
+        for (int j = digits - 1; j >= 0; j--) {
+            chars[j] = HEX_DIGITS[i & 0x0F];
+            i >>>= 4;
         }
 
-        return hexString.toUpperCase();
+        return new String(chars);
     }
 
     /**
@@ -45,11 +69,12 @@ public class Hex {
     public static String toHexString(byte[] buffer) {
 
         /* Check the parameter. */
-        if (buffer == null) {
+        if ((buffer == null) || (buffer.length == 0)) {
             return "";
         }
 
-        StringBuilder builder = new StringBuilder(3 * buffer.length);
+        char[] chars = new char[3 * buffer.length - 1];
+        int index = 0;
 
         /* For each byte, convert it to HEX digit. */
         for (int i = 0; i < buffer.length; i++) {
@@ -57,78 +82,186 @@ public class Hex {
             int tmp = buffer[i] & 0xFF;
 
             if (i != 0) {
-                builder.append(" ");
+                chars[index++] = ' ';
             }
 
-            builder.append(HEX_DIGITS[tmp >>> 4]);
-            builder.append(HEX_DIGITS[tmp & 0x0F]);
+            chars[index++] = HEX_DIGITS[tmp >>> 4];
+            chars[index++] = HEX_DIGITS[tmp & 0x0F];
         }
 
-        return builder.toString();
+        return new String(chars);
     }
 
     /**
-     * Converts the HEX string to byte array.
+     * Converts the bytes to HEX string without separators (e.g. a card UID).
      *
-     * @param hexString the HEX string
-     * @return the byte array
+     * @param buffer the buffer
+     * @param offset the offset of the first byte
+     * @param length the number of bytes
+     * @return the HEX string
      */
-    public static byte[] toByteArray(String hexString) {
+    public static String toCompactHexString(byte[] buffer, int offset, int length) {
 
-        byte[] byteArray = null;
+        char[] chars = new char[2 * length];
+        encode(buffer, offset, length, chars, 0);
 
-        if (hexString != null) {
+        return new String(chars);
+    }
 
-            /* Count the number of hex characters. */
-            int count = 0;
-            for (int i = 0; i < hexString.length(); i++) {
+    /**
+     * Encodes the bytes as HEX digits into the character array.
+     *
+     * @param buffer the buffer
+     * @param offset the offset of the first byte
+     * @param length the number of bytes
+     * @param target the target array (must hold {@code 2 * length} characters)
+     * @param targetOffset the offset in the target array
+     * @return the number of characters written
+     */
+    public static int encode(byte[] buffer, int offset, int length, char[] target, int targetOffset) {
+
+        int index = targetOffset;
+        for (int i = offset; i < offset + length; i++) {
+
+            int tmp = buffer[i] & 0xFF;
+            target[index++] = HEX_DIGITS[tmp >>> 4];
+            target[index++] = HEX_DIGITS[tmp & 0x0F];
+        }
+
+        return index - targetOffset;
+    }
+
+    /**
+     * Encodes the remaining bytes of the buffer as HEX digits into the character array. The
+     * position of the buffer is not changed.
+     *
+     * @param buffer the buffer
+     * @param target the target array (must hold {@code 2 * buffer.remaining()} characters)
+     * @param targetOffset the offset in the target array
+     * @return the number of characters written
+     */
+    public static int encode(ByteBuffer buffer, char[] target, int targetOffset) {
+
+        int index = targetOffset;
+        for (int i = buffer.position(); i < buffer.limit(); i++) {
+
+            int tmp = buffer.get(i) & 0xFF;
+            target[index++] = HEX_DIGITS[tmp >>> 4];
+            target[index++] = HEX_DIGITS[tmp & 0x0F];
+        }
+
+        return index - targetOffset;
+    }
+
+    /**
+     * Returns the number of bytes that {@link #decode(CharSequence, byte[], int)} produces for
+     * the HEX string. Non-HEX characters are ignored.
+     *
+     * @param hexString the HEX string
+     * @return the number of bytes
+     */
+    public static int decodedLength(CharSequence hexString) {
 
-                char c = hexString.charAt(i);
-                if ((c >= '0') && (c <= '9') || (c >= 'A') && (c <= 'F')
-                        || (c >= 'a') && (c <= 'f')) {
-                    count++;
-                }
+        int count = 0;
+        for (int i = 0; i < hexString.length(); i++) {
+            if (digitValue(hexString.charAt(i)) >= 0) {
+                count++;
             }
+        }
 
-            /* Allocate the byte array. */
-            byteArray = new byte[(count + 1) / 2];
+        return (count + 1) / 2;
+    }
 
-            int length = 0;
-            boolean first = true;
+    /**
+     * Decodes the HEX string into the byte array. Non-HEX characters (e.g. spaces or colons) are
+     * ignored and decoding stops when the target is full. An odd trailing digit is stored in the
+     * high nibble.
+     *
+     * @param hexString the HEX string
+     * @param target the target array
+     * @param targetOffset the offset in the target array
+     * @return the number of bytes written
+     */
+    public static int decode(CharSequence hexString, byte[] target, int targetOffset) {
 
-            /* For each HEX character, convert it to byte. */
-            for (int i = 0; i < hexString.length(); i++) {
+        int length = targetOffset;
+        boolean first = true;
 
-                char c = hexString.charAt(i);
-                int value;
+        for (int i = 0; i < hexString.length() && length < target.length; i++) {
 
-                if ((c >= '0') && (c <= '9')) {
-                    value = c - '0';
-                } else if ((c >= 'A') && (c <= 'F')) {
-                    value = c - 'A' + 10;
-                } else if ((c >= 'a') && (c <= 'f')) {
-                    value = c - 'a' + 10;
-                } else {
-                    value = -1;
-                }
+            int value = digitValue(hexString.charAt(i));
+            if (value < 0) {
+                continue;
+            }
 
-                if (value >= 0) {
+            if (first) {
+                target[length] = (byte) (value << 4);
+            } else {
+                target[length] |= value;
+                length++;
+            }
 
-                    if (first) {
+            first = !first;
+        }
 
-                        byteArray[length] = (byte) (value << 4);
+        return (first ? length : length + 1) - targetOffset;
+    }
 
-                    } else {
+    /**
+     * Decodes the HEX string into the buffer at its current position. Non-HEX characters are
+     * ignored and decoding stops when the buffer is full.
+     *
+     * @param hexString the HEX string
+     * @param target the target buffer
+     * @return the number of bytes written
+     */
+    public static int decode(CharSequence hexString, ByteBuffer target) {
 
-                        byteArray[length] |= value;
-                        length++;
-                    }
+        int start = target.position();
+        int high = -1;
 
-                    first = !first;
-                }
+        for (int i = 0; i < hexString.length() && target.hasRemaining(); i++) {
+
+            int value = digitValue(hexString.charAt(i));
+            if (value < 0) {
+                continue;
             }
+
+            if (high < 0) {
+                high = value;
+            } else {
+                target.put((byte) ((high << 4) | value));
+                high = -1;
+            }
+        }
+
+        if ((high >= 0) && target.hasRemaining()) {
+            target.put((byte) (high << 4));
+        }
+
+        return target.position() - start;
+    }
+
+    /**
+     * Converts the HEX string to byte array.
+     *
+     * @param hexString the HEX string
+     * @return the byte array
+     */
+    public static byte[] toByteArray(String hexString) {
+
+        if (hexString == null) {
+            return null;
         }
 
-        return byteArray;
+        /* Decode in one pass and trim only if separators were skipped. */
+        byte[] byteArray = new byte[(hexString.length() + 1) / 2];
+        int length = decode(hexString, byteArray, 0);
+
+        return (length == byteArray.length) ? byteArray : Arrays.copyOf(byteArray, length);
+    }
+
+    private static int digitValue(char c) {
+        return (c < 128) ? DIGIT_VALUES[c] : -1;
     }
 }
@@ -0,0 +1,802 @@
+package com.acs.readertest;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+import com.google.gson.stream.MalformedJsonException;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * ที่เก็บ mapping แบบไฟล์ (ค่าเริ่มต้น): mapping.json พร้อม journal ของการเปลี่ยนแปลง
+ * และเปลี่ยนเป็น snapshot แบบ binary (mapping.bin) เมื่อ mapping มีขนาดใหญ่
+ *
+ * ข้อมูลอยู่ใน heap ของแต่ละ instance จึงไม่เห็นการแก้ไขจาก instance อื่นจนกว่าจะโหลดใหม่
+ */
+public class JsonMappingStore implements MappingStore {
+    private static final String TAG = "JsonMappingStore";
+    private static final String MAPPING_FILE_NAME = "mapping.json";
+    private static final String BINARY_FILE_NAME = "mapping.bin";
+    
+    // ในโหมด binary เก็บเฉพาะการเปลี่ยนแปลงหลัง snapshot โดยใช้ key ที่ normalize แล้ว (ค่า null = ลบแล้ว)
+    private Map<String, String> mappingData = new HashMap<>();
+    
+    // index ของ card ID ที่เป็น UID แบบ hex สำหรับค้นหาโดยไม่ต้อง hash String
+    private CardKeyIndex<String> uidIndex = new CardKeyIndex<>();
+    
+    private final MappingLoader mappingLoader;
+    
+    // compact journal เมื่อมีรายการอย่างน้อยเท่านี้ และไม่น้อยกว่าจำนวน mapping (เขียนไฟล์เฉลี่ย O(1) ต่อการแก้ไข)
+    private static final int COMPACT_MIN_RECORDS = 1000;
+    
+    // ไฟล์ชั่วคราวระหว่างบันทึก snapshot
+    private static final String TEMP_SUFFIX = ".tmp";
+    
+    // ไฟล์ mapping.json ใน external storage และ journal ของการเปลี่ยนแปลงหลังจาก snapshot นั้น
+    private File mappingFile;
+    private MappingJournal journal;
+    
+    // การเขียน snapshot (บันทึกทั้งไฟล์หรือ compact ใน background) ต้องไม่ซ้อนกัน
+    private final Object snapshotLock = new Object();
+    private volatile boolean compacting = false;
+    
+    // แปลงเป็น snapshot แบบ binary (mapping.bin) เมื่อมี mapping อย่างน้อยเท่านี้
+    private static final int BINARY_MIN_ENTRIES = 20000;
+    
+    // โหมด binary compact ทุกจำนวนรายการนี้ เพื่อให้การเปลี่ยนแปลงที่ค้างใน heap มีขนาดจำกัด
+    private static final int BINARY_COMPACT_RECORDS = 10000;
+    
+    // snapshot แบบ binary ที่อ่านผ่าน memory-mapped buffer (null = ว่าง หรือไม่ได้อยู่ในโหมด binary)
+    private File binaryFile;
+    private MappingSnapshot snapshot;
+    private boolean binaryMode = false;
+    
+    // snapshot ใหม่จากการ compact ใน background ที่รอสลับเข้าใช้ใน thread ที่แก้ไข mapping
+    private volatile PendingSwap pendingSwap;
+    
+    private static final class PendingSwap {
+        final MappingSnapshot snapshot;
+        final Map<String, String> changes;
+        
+        PendingSwap(MappingSnapshot snapshot, Map<String, String> changes) {
+            this.snapshot = snapshot;
+            this.changes = changes;
+        }
+    }
+    
+    /**
+     * @param mappingLoader ตัวอ่าน mapping.json (รวมตัวรับความคืบหน้าของการโหลด)
+     */
+    public JsonMappingStore(MappingLoader mappingLoader) {
+        this.mappingLoader = mappingLoader;
+    }
+    
+    /**
+     * โหลด mapping จาก mapping.bin หรือ mapping.json ใน external storage (หรือจาก assets ถ้ายังไม่มี)
+     */
+    @Override
+    public boolean open(Context context) {
+        try {
+            Log.d(TAG, "กำลังพยายามโหลด mapping สำหรับสื่อหลายประเภท...");
+            
+            File externalDir = context.getExternalFilesDir(null);
+            File externalFile = new File(externalDir, MAPPING_FILE_NAME);
+            mappingFile = externalFile;
+            binaryFile = new File(externalDir, BINARY_FILE_NAME);
+            binaryMode = false;
+            snapshot = null;
+            
+            // ใช้ mapping.bin ถ้ามี เว้นแต่ mapping.json ใหม่กว่า (ผู้ใช้นำเข้าไฟล์ JSON ใหม่)
+            if (binaryFile.exists()
+                    && !(externalFile.exists() && externalFile.lastModified() > binaryFile.lastModified())) {
+                if (loadBinarySnapshot()) {
+                    Log.d(TAG, "โหลด mapping จาก snapshot แบบ binary สำเร็จ");
+                    return true;
+                }
+            }
+            
+            // ลองโหลดจาก external storage ก่อน (ข้อมูลที่ผู้ใช้แก้ไข)
+            replaceJournal(new MappingJournal(externalFile));
+            Log.d(TAG, "ลองโหลดจากไฟล์: " + externalFile.getAbsolutePath());
+            if (externalFile.exists()) {
+                boolean loaded = loadMappingFromFile(externalFile);
+                if (loaded) {
+                    Log.d(TAG, "โหลด mapping จาก external storage สำเร็จ");
+                    replayJournal();
+                    convertToBinaryIfNeeded();
+                    return true;
+                }
+            }
+            
+            // ถ้าไม่มีใน external storage ให้ลองจาก assets
+            if (loadMappingFromAssets(context)) {
+                Log.d(TAG, "โหลด mapping จาก assets สำเร็จ");
+                // บันทึกไปยัง external storage เพื่อให้แก้ไขได้ในอนาคต
+                if (!convertToBinaryIfNeeded()) {
+                    save();
+                }
+                return true;
+            }
+            
+            // ถ้าไม่มีไฟล์ให้สร้าง mapping ว่างเปล่า
+            Log.d(TAG, "ไม่พบ mapping ใดๆ สร้าง mapping ว่างเปล่า");
+            mappingData = new HashMap<>();
+            rebuildIndex();
+            // สร้างไฟล์ว่างใน external storage
+            save();
+            return true;
+            
+        } catch (Exception e) {
+            Log.e(TAG, "ไม่สามารถโหลด mapping ได้", e);
+            // ให้ทำงานต่อได้ด้วย mapping ว่างเปล่า
+            mappingData = new HashMap<>();
+            rebuildIndex();
+            return false;
+        }
+    }
+    
+    /**
+     * โหลด mapping จากไฟล์
+     */
+    private boolean loadMappingFromFile(File file) {
+        try {
+            return loadMappingFromStream(new FileInputStream(file), "ไฟล์");
+        } catch (IOException e) {
+            Log.e(TAG, "ไม่สามารถอ่านไฟล์ mapping ได้", e);
+            mappingData = new HashMap<>();
+            return false;
+        }
+    }
+    
+    /**
+     * โหลด mapping จาก assets
+     */
+    private boolean loadMappingFromAssets(Context context) {
+        try {
+            return loadMappingFromStream(context.getAssets().open(MAPPING_FILE_NAME), "assets");
+        } catch (IOException e) {
+            Log.e(TAG, "ไม่สามารถอ่านไฟล์ mapping จาก assets ได้", e);
+            return false;
+        }
+    }
+    
+    /**
+     * อ่าน JSON ทีละ token ลงใน map และ index ใหม่โดยตรง แล้วจึงแทนที่ข้อมูลเดิมเมื่ออ่านสำเร็จ
+     */
+    private boolean loadMappingFromStream(InputStream input, String source) {
+        final Map<String, String> data = new HashMap<>();
+        final CardKeyIndex<String> index = new CardKeyIndex<>();
+        try {
+            mappingLoader.load(input, (cardId, mediaPath) -> {
+                data.put(cardId, mediaPath);
+                CardKey key = CardKey.parse(cardId);
+                if (key != null) {
+                    index.put(key, mediaPath);
+                }
+            });
+            
+            mappingData = data;
+            uidIndex = index;
+            Log.d(TAG, "โหลด mapping จาก " + source + " สำเร็จ: " + data.size() + " รายการ (UID " + index.size() + " รายการ)");
+            return true;
+        } catch (MalformedJsonException e) {
+            Log.e(TAG, "รูปแบบ JSON ใน " + source + " ไม่ถูกต้อง", e);
+            mappingData = new HashMap<>();
+            return false;
+        } catch (IOException e) {
+            Log.e(TAG, "ไม่สามารถอ่าน mapping จาก " + source + " ได้", e);
+            mappingData = new HashMap<>();
+            return false;
+        }
+    }
+    
+    /**
+     * เปิด mapping.bin แบบ memory-mapped และเล่น journal ของ snapshot นั้นซ้ำ
+     */
+    private boolean loadBinarySnapshot() {
+        try {
+            snapshot = MappingSnapshot.open(binaryFile);
+            mappingData = new HashMap<>();
+            uidIndex = new CardKeyIndex<>();
+            binaryMode = true;
+            replaceJournal(new MappingJournal(binaryFile));
+            Log.d(TAG, "เปิด snapshot แบบ binary: " + snapshot.size() + " รายการ");
+            replayJournal();
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "ไม่สามารถเปิด snapshot แบบ binary ได้ จะนำเข้าจาก mapping.json แทน", e);
+            snapshot = null;
+            binaryMode = false;
+            return false;
+        }
+    }
+    
+    /**
+     * อ่าน mapping ที่บันทึกไว้ทั้งหมดทีละรายการโดยไม่แก้ไขไฟล์ใดๆ (ใช้นำเข้าไปยัง store อื่น)
+     * 
+     * เลือกแหล่งข้อมูลแบบเดียวกับ {@link #open(Context)} (mapping.bin, mapping.json หรือ assets)
+     * แล้วรวมกับ journal ของแหล่งนั้น แต่ละ card ID ถูกส่งเข้า sink เพียงครั้งเดียว
+     * โดยการเปลี่ยนแปลงใน journal ถูกส่งหลังสุดและรายการที่ถูกลบจะไม่ถูกส่ง
+     * 
+     * @return จำนวนรายการที่ส่งเข้า sink
+     */
+    public static int readAll(Context context, MappingLoader mappingLoader, final MappingLoader.Sink sink)
+            throws IOException {
+        File externalDir = context.getExternalFilesDir(null);
+        File externalFile = new File(externalDir, MAPPING_FILE_NAME);
+        File binaryFile = new File(externalDir, BINARY_FILE_NAME);
+        
+        MappingSnapshot snapshot = null;
+        if (binaryFile.exists()
+                && !(externalFile.exists() && externalFile.lastModified() > binaryFile.lastModified())) {
+            try {
+                snapshot = MappingSnapshot.open(binaryFile);
+            } catch (IOException e) {
+                Log.e(TAG, "ไม่สามารถเปิด snapshot แบบ binary ได้ จะอ่านจาก mapping.json แทน", e);
+            }
+        }
+        
+        // การเปลี่ยนแปลงใน journal (ค่า null = ลบ) มีขนาดเล็กจึงอ่านเข้า heap ก่อน
+        final Map<String, String> overlay = new HashMap<>();
+        final boolean[] cleared = new boolean[1];
+        MappingJournal.Target journalTarget = new MappingJournal.Target() {
+            @Override
+            public void put(String cardId, String mediaPath) {
+                overlay.put(MappingSnapshot.normalizeKey(cardId), mediaPath);
+            }
+            
+            @Override
+            public void remove(String cardId) {
+                overlay.put(MappingSnapshot.normalizeKey(cardId), null);
+            }
+            
+            @Override
+            public void clear() {
+                cleared[0] = true;
+                overlay.clear();
+            }
+        };
+        
+        final int[] count = new int[1];
+        MappingLoader.Sink baseSink = (cardId, mediaPath) -> {
+            if (!overlay.containsKey(MappingSnapshot.normalizeKey(cardId))) {
+                sink.put(cardId, mediaPath);
+                count[0]++;
+            }
+        };
+        
+        if (snapshot != null) {
+            replayAndClose(new MappingJournal(binaryFile), journalTarget);
+            for (int i = 0; i < snapshot.size() && !cleared[0]; i++) {
+                baseSink.put(snapshot.keyAt(i), snapshot.pathAt(i));
+            }
+        } else if (externalFile.exists()) {
+            replayAndClose(new MappingJournal(externalFile), journalTarget);
+            if (!cleared[0]) {
+                mappingLoader.load(new FileInputStream(externalFile), baseSink);
+            }
+        } else {
+            try {
+                mappingLoader.load(context.getAssets().open(MAPPING_FILE_NAME), baseSink);
+            } catch (FileNotFoundException e) {
+                Log.d(TAG, "ไม่พบ mapping ใดๆ ที่จะอ่าน");
+            }
+        }
+        
+        for (Map.Entry<String, String> change : overlay.entrySet()) {
+            if (change.getValue() != null) {
+                sink.put(change.getKey(), change.getValue());
+                count[0]++;
+            }
+        }
+        return count[0];
+    }
+    
+    /**
+     * แปลง mapping ที่โหลดจาก JSON เป็น mapping.bin เมื่อมีจำนวนมาก หรือเมื่อเคยใช้ snapshot แบบ binary อยู่แล้ว
+     * (กรณีหลังคือการนำเข้า mapping.json ใหม่ ซึ่งแทนที่ข้อมูลใน mapping.bin ทั้งหมด)
+     * 
+     * @return true ถ้าแปลงและเปลี่ยนเป็นโหมด binary แล้ว
+     */
+    private boolean convertToBinaryIfNeeded() {
+        if (binaryMode || (mappingData.size() < BINARY_MIN_ENTRIES && !binaryFile.exists())) {
+            return false;
+        }
+        
+        synchronized (snapshotLock) {
+            try {
+                MappingSnapshot.write(binaryFile, null, mappingData);
+                snapshot = MappingSnapshot.open(binaryFile);
+            } catch (IOException e) {
+                Log.e(TAG, "ไม่สามารถแปลง mapping เป็น snapshot แบบ binary ได้", e);
+                return false;
+            }
+            
+            // การเปลี่ยนแปลงทั้งหมดอยู่ใน mapping.bin แล้ว รวมถึง journal เดิมของ mapping.bin ที่ถูกแทนที่
+            journal.reset();
+            replaceJournal(new MappingJournal(binaryFile));
+            journal.reset();
+            binaryMode = true;
+            mappingData = new HashMap<>();
+            uidIndex = new CardKeyIndex<>();
+            Log.d(TAG, "แปลง mapping เป็น snapshot แบบ binary สำเร็จ: " + snapshot.size() + " รายการ");
+            return true;
+        }
+    }
+    
+    /**
+     * บันทึก mapping ลงไฟล์ external storage
+     * 
+     * @return true ถ้าบันทึกสำเร็จ, false ถ้ามีข้อผิดพลาด
+     */
+    private boolean save() {
+        if (mappingFile == null) {
+            Log.e(TAG, "ไม่สามารถบันทึกได้ เนื่องจากยังไม่ได้โหลด mapping");
+            return false;
+        }
+        
+        synchronized (snapshotLock) {
+            if (binaryMode ? !writeBinarySnapshot() : !writeSnapshot(mappingData)) {
+                return false;
+            }
+            // snapshot มีข้อมูลครบแล้ว ไม่ต้องเล่น journal ซ้ำ
+            journal.reset();
+            return true;
+        }
+    }
+    
+    /**
+     * เขียน mapping ทั้งหมดลงไฟล์ mapping.json แบบ atomic
+     * 
+     * เขียนลงไฟล์ชั่วคราว fsync แล้วจึง rename ทับไฟล์เดิม ถ้าไฟดับระหว่างเขียน
+     * mapping.json จะยังเป็นไฟล์เดิมที่สมบูรณ์ ไม่ใช่ไฟล์ว่างหรือไฟล์ที่เขียนไม่ครบ
+     */
+    private boolean writeSnapshot(Map<String, String> data) {
+        File tempFile = new File(mappingFile.getPath() + TEMP_SUFFIX);
+        try {
+            Gson gson = new Gson();
+            try (FileOutputStream out = new FileOutputStream(tempFile)) {
+                Writer writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"));
+                gson.toJson(data, writer);
+                writer.flush();
+                out.getFD().sync();
+            }
+            
+            if (!tempFile.renameTo(mappingFile)) {
+                throw new IOException("ไม่สามารถแทนที่ไฟล์ " + mappingFile.getName() + " ได้");
+            }
+            
+            Log.d(TAG, "บันทึก mapping ลงไฟล์สำเร็จ: " + mappingFile.getAbsolutePath() + " (" + data.size() + " รายการ)");
+            return true;
+            
+        } catch (IOException e) {
+            Log.e(TAG, "เกิดข้อผิดพลาดในการบันทึก mapping", e);
+            tempFile.delete();
+            return false;
+        }
+    }
+    
+    /**
+     * รวมการเปลี่ยนแปลงทั้งหมดเข้ากับ mapping.bin (ถือ snapshotLock อยู่)
+     */
+    private boolean writeBinarySnapshot() {
+        try {
+            int count = MappingSnapshot.write(binaryFile, snapshot, mappingData);
+            snapshot = MappingSnapshot.open(binaryFile);
+            mappingData = new HashMap<>();
+            // snapshot จากการ compact ที่ยังไม่ได้สลับเก่ากว่าไฟล์ที่เพิ่งเขียน
+            pendingSwap = null;
+            Log.d(TAG, "บันทึก snapshot แบบ binary สำเร็จ: " + binaryFile.getAbsolutePath() + " (" + count + " รายการ)");
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "เกิดข้อผิดพลาดในการบันทึก snapshot แบบ binary", e);
+            return false;
+        }
+    }
+    
+    /**
+     * ส่งออก mapping ทั้งหมดเป็นไฟล์ JSON รูปแบบเดียวกับ mapping.json (เขียนแบบ streaming และ atomic)
+     */
+    @Override
+    public boolean export(File target) {
+        applyPendingSwap();
+        File tempFile = new File(target.getPath() + TEMP_SUFFIX);
+        try {
+            int count = 0;
+            try (FileOutputStream out = new FileOutputStream(tempFile)) {
+                JsonWriter writer = new JsonWriter(new BufferedWriter(new OutputStreamWriter(out, "UTF-8")));
+                writer.beginObject();
+                if (binaryMode && snapshot != null) {
+                    for (int i = 0; i < snapshot.size(); i++) {
+                        String cardId = snapshot.keyAt(i);
+                        if (!mappingData.containsKey(cardId)) {
+                            writer.name(cardId).value(snapshot.pathAt(i));
+                            count++;
+                        }
+                    }
+                }
+                for (Map.Entry<String, String> entry : mappingData.entrySet()) {
+                    if (entry.getValue() != null) {
+                        writer.name(entry.getKey()).value(entry.getValue());
+                        count++;
+                    }
+                }
+                writer.endObject();
+                writer.flush();
+                out.getFD().sync();
+            }
+            
+            if (!tempFile.renameTo(target)) {
+                throw new IOException("ไม่สามารถแทนที่ไฟล์ " + target.getName() + " ได้");
+            }
+            
+            Log.d(TAG, "ส่งออก mapping สำเร็จ: " + target.getAbsolutePath() + " (" + count + " รายการ)");
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "เกิดข้อผิดพลาดในการส่งออก mapping", e);
+            tempFile.delete();
+            return false;
+        }
+    }
+    
+    /**
+     * เขียนการเปลี่ยนแปลงที่รออยู่ใน group commit ของ journal ลงดิสก์ทันที
+     */
+    @Override
+    public boolean flush() {
+        return journal == null || journal.flush();
+    }
+    
+    @Override
+    public boolean close() {
+        return journal == null || journal.close();
+    }
+    
+    /**
+     * ปิด journal เดิมก่อนใช้ journal ใหม่ (เช่น เมื่อโหลดซ้ำหรือแปลงเป็น mapping.bin)
+     */
+    private void replaceJournal(MappingJournal next) {
+        if (journal != null && journal != next) {
+            journal.close();
+        }
+        journal = next;
+    }
+    
+    private static void replayAndClose(MappingJournal source, MappingJournal.Target target) throws IOException {
+        try {
+            source.replay(target);
+        } finally {
+            source.close();
+        }
+    }
+    
+    /**
+     * เล่นการเปลี่ยนแปลงใน journal ซ้ำต่อจาก snapshot ที่โหลดแล้ว
+     */
+    private void replayJournal() {
+        try {
+            if (binaryMode) {
+                int replayed = journal.replay(new MappingJournal.Target() {
+                    @Override
+                    public void put(String cardId, String mediaPath) {
+                        mappingData.put(MappingSnapshot.normalizeKey(cardId), mediaPath);
+                    }
+                    
+                    @Override
+                    public void remove(String cardId) {
+                        mappingData.put(MappingSnapshot.normalizeKey(cardId), null);
+                    }
+                    
+                    @Override
+                    public void clear() {
+                        snapshot = null;
+                        mappingData.clear();
+                    }
+                });
+                Log.d(TAG, "เล่น journal ซ้ำ " + replayed + " รายการ (รวม " + count() + " รายการ)");
+            } else {
+                int replayed = journal.replay(mappingData);
+                if (replayed > 0) {
+                    rebuildIndex();
+                    Log.d(TAG, "เล่น journal ซ้ำ " + replayed + " รายการ (รวม " + mappingData.size() + " รายการ)");
+                }
+            }
+            
+            // compact ครั้งก่อนไม่เสร็จหรือ journal เสียหาย (เช่น ไฟดับ): บันทึก snapshot ใหม่ทั้งหมด
+            if (journal.hasPendingRotation() || journal.isDamaged()) {
+                save();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "ไม่สามารถอ่าน journal ของ mapping ได้", e);
+        }
+    }
+    
+    /**
+     * บันทึกการเพิ่มหรือแก้ไขการ์ดต่อท้าย journal
+     */
+    private boolean journalPut(String cardId, String mediaPath) {
+        if (journal == null) {
+            Log.e(TAG, "ไม่สามารถบันทึกได้ เนื่องจากยังไม่ได้โหลด mapping");
+            return false;
+        }
+        try {
+            journal.appendPut(cardId, mediaPath);
+            compactIfNeeded();
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "เกิดข้อผิดพลาดในการบันทึก journal", e);
+            return false;
+        }
+    }
+    
+    /**
+     * บันทึกการลบการ์ดต่อท้าย journal
+     */
+    private boolean journalRemove(String cardId) {
+        if (journal == null) {
+            Log.e(TAG, "ไม่สามารถบันทึกได้ เนื่องจากยังไม่ได้โหลด mapping");
+            return false;
+        }
+        try {
+            journal.appendRemove(cardId);
+            compactIfNeeded();
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "เกิดข้อผิดพลาดในการบันทึก journal", e);
+            return false;
+        }
+    }
+    
+    /**
+     * รวม journal เข้ากับ snapshot ใน background เมื่อ journal ยาวเกินเกณฑ์
+     * (ข้อมูลที่เขียนคือสำเนา ณ ตอนย้าย journal ซึ่งตรงกับรายการในไฟล์ที่ถูกย้ายพอดี)
+     */
+    private void compactIfNeeded() {
+        int threshold = binaryMode ? BINARY_COMPACT_RECORDS : Math.max(COMPACT_MIN_RECORDS, mappingData.size());
+        if (compacting || journal.getRecordCount() < threshold || !journal.rotate()) {
+            return;
+        }
+        
+        final Map<String, String> changes = new HashMap<>(mappingData);
+        final MappingSnapshot base = snapshot;
+        final boolean binary = binaryMode;
+        final MappingJournal compactJournal = journal;
+        compacting = true;
+        new Thread(() -> {
+            synchronized (snapshotLock) {
+                // ถ้า save() บันทึกทั้งไฟล์ไปแล้วระหว่างรอ ไม่ต้องเขียนสำเนาที่เก่ากว่าทับ
+                if (compactJournal.hasPendingRotation()
+                        && (binary ? writeCompactedSnapshot(base, changes) : writeSnapshot(changes))) {
+                    compactJournal.finishRotation();
+                    Log.d(TAG, "compact journal ของ mapping สำเร็จ");
+                }
+            }
+            compacting = false;
+        }, TAG + " compaction").start();
+    }
+    
+    /**
+     * เขียน mapping.bin ใหม่จาก snapshot เดิมรวมกับสำเนาการเปลี่ยนแปลง (ทำงานใน background thread)
+     * snapshot ใหม่จะถูกสลับเข้าใช้ใน {@link #applyPendingSwap()} เพราะ mappingData ไม่ได้ถูกป้องกันด้วย lock
+     */
+    private boolean writeCompactedSnapshot(MappingSnapshot base, Map<String, String> changes) {
+        try {
+            MappingSnapshot.write(binaryFile, base, changes);
+            pendingSwap = new PendingSwap(MappingSnapshot.open(binaryFile), changes);
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "เกิดข้อผิดพลาดในการ compact snapshot แบบ binary", e);
+            return false;
+        }
+    }
+    
+    /**
+     * สลับไปใช้ snapshot ที่ compact เสร็จแล้ว และตัดการเปลี่ยนแปลงที่อยู่ใน snapshot นั้นแล้วออก
+     * (รายการที่ถูกแก้ไขอีกหลังจากคัดลอกไป compact ยังคงอยู่)
+     */
+    private void applyPendingSwap() {
+        PendingSwap swap = pendingSwap;
+        if (swap == null) {
+            return;
+        }
+        synchronized (snapshotLock) {
+            if (pendingSwap != swap) {
+                return;
+            }
+            pendingSwap = null;
+        }
+        
+        snapshot = swap.snapshot;
+        for (Map.Entry<String, String> entry : swap.changes.entrySet()) {
+            String cardId = entry.getKey();
+            String compacted = entry.getValue();
+            String current = mappingData.get(cardId);
+            if (mappingData.containsKey(cardId) && (compacted == null ? current == null : compacted.equals(current))) {
+                mappingData.remove(cardId);
+            }
+        }
+    }
+    
+    /**
+     * ค้นหา path ของ card ID (ในโหมด binary ค้นหาจากการเปลี่ยนแปลงก่อน แล้วจึง snapshot)
+     */
+    @Override
+    public String get(String cardId) {
+        if (!binaryMode) {
+            return mappingData.get(cardId);
+        }
+        applyPendingSwap();
+        String key = MappingSnapshot.normalizeKey(cardId);
+        if (mappingData.containsKey(key)) {
+            return mappingData.get(key);
+        }
+        return snapshot != null ? snapshot.find(key) : null;
+    }
+    
+    @Override
+    public String find(CardKey key) {
+        return binaryMode ? get(key.toString()) : uidIndex.get(key);
+    }
+    
+    @Override
+    public boolean put(String cardId, String mediaPath) {
+        String previous = get(cardId);
+        putEntry(cardId, mediaPath);
+        if (journalPut(cardId, mediaPath)) {
+            return true;
+        }
+        // หากบันทึกไม่สำเร็จ ให้คืนค่าเดิม
+        restoreEntry(cardId, previous);
+        return false;
+    }
+    
+    @Override
+    public boolean remove(String cardId) {
+        String previous = get(cardId);
+        removeEntry(cardId);
+        if (journalRemove(cardId)) {
+            return true;
+        }
+        restoreEntry(cardId, previous);
+        return false;
+    }
+    
+    /**
+     * บันทึกทีละรายการตามลำดับ ถ้ารายการใดบันทึกไม่สำเร็จจะคืนค่าเดิมของรายการที่บันทึกไปแล้ว
+     * (journal ไม่มี transaction จึงอาจเหลือทั้งการเปลี่ยนแปลงและการคืนค่าใน journal)
+     */
+    @Override
+    public boolean apply(Map<String, String> changes) {
+        Map<String, String> applied = new LinkedHashMap<>();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            String cardId = change.getKey();
+            String previous = get(cardId);
+            boolean saved = change.getValue() != null ? put(cardId, change.getValue()) : previous == null || remove(cardId);
+            if (!saved) {
+                for (Map.Entry<String, String> entry : applied.entrySet()) {
+                    if (entry.getValue() != null) {
+                        put(entry.getKey(), entry.getValue());
+                    } else {
+                        remove(entry.getKey());
+                    }
+                }
+                return false;
+            }
+            applied.put(cardId, previous);
+        }
+        return true;
+    }
+    
+    @Override
+    public boolean clear() {
+        mappingData.clear();
+        uidIndex.clear();
+        snapshot = null;
+        return save();
+    }
+    
+    @Override
+    public Map<String, String> page(int offset, int limit) {
+        applyPendingSwap();
+        return MappingSnapshot.page(binaryMode ? snapshot : null, mappingData, offset, limit);
+    }
+    
+    /**
+     * เพิ่มหรือแก้ไขรายการในหน่วยความจำ (ยังไม่บันทึกลง journal)
+     */
+    private void putEntry(String cardId, String mediaPath) {
+        if (binaryMode) {
+            applyPendingSwap();
+            mappingData.put(MappingSnapshot.normalizeKey(cardId), mediaPath);
+        } else {
+            mappingData.put(cardId, mediaPath);
+            indexPut(cardId, mediaPath);
+        }
+    }
+    
+    /**
+     * ลบรายการในหน่วยความจำ (ยังไม่บันทึกลง journal)
+     */
+    private void restoreEntry(String cardId, String previous) {
+        if (previous != null) {
+            putEntry(cardId, previous);
+        } else {
+            removeEntry(cardId);
+        }
+    }
+    
+    /**
+     * ลบรายการในหน่วยความจำ (ยังไม่บันทึกลง journal)
+     */
+    private void removeEntry(String cardId) {
+        if (binaryMode) {
+            // เก็บเป็นรายการลบเสมอ เพื่อไม่ให้ snapshot จากการ compact ที่ยังไม่สลับนำรายการกลับมา
+            applyPendingSwap();
+            mappingData.put(MappingSnapshot.normalizeKey(cardId), null);
+        } else {
+            mappingData.remove(cardId);
+            indexRemove(cardId);
+        }
+    }
+    
+    /**
+     * สร้าง index ของ UID ใหม่จาก mappingData ทั้งหมด
+     */
+    private void rebuildIndex() {
+        CardKeyIndex<String> index = new CardKeyIndex<>(mappingData.size());
+        for (Map.Entry<String, String> entry : mappingData.entrySet()) {
+            CardKey key = CardKey.parse(entry.getKey());
+            if (key != null) {
+                index.put(key, entry.getValue());
+            }
+        }
+        uidIndex = index;
+        Log.d(TAG, "สร้าง index ของ UID: " + index.size() + "/" + mappingData.size() + " รายการ");
+    }
+    
+    private void indexPut(String cardId, String mediaPath) {
+        CardKey key = CardKey.parse(cardId);
+        if (key != null) {
+            uidIndex.put(key, mediaPath);
+        }
+    }
+    
+    private void indexRemove(String cardId) {
+        CardKey key = CardKey.parse(cardId);
+        if (key != null) {
+            uidIndex.remove(key);
+        }
+    }
+    
+    @Override
+    public int count() {
+        if (!binaryMode) {
+            return mappingData.size();
+        }
+        
+        applyPendingSwap();
+        int count = snapshot != null ? snapshot.size() : 0;
+        for (Map.Entry<String, String> entry : mappingData.entrySet()) {
+            boolean inSnapshot = snapshot != null && snapshot.indexOf(entry.getKey()) >= 0;
+            if (entry.getValue() == null && inSnapshot) {
+                count--;
+            } else if (entry.getValue() != null && !inSnapshot) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
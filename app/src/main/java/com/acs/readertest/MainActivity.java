@@ -74,7 +74,7 @@ public class MainActivity extends AppCompatActivity implements CardReaderService
     // Card PDF Mapping
     private CardMediaMapping cardMediaMapping;
     private String lastCardId = null;
-    private String lastOpenedMediaForCardId = null;
+    private String lastOpenedMediaPath = null;
     
     // ServiceConnection สำหรับเชื่อมต่อกับ CardReaderService
     private final ServiceConnection mConnection = new ServiceConnection() {
@@ -230,6 +230,10 @@ public class MainActivity extends AppCompatActivity implements CardReaderService
      * เริ่มต้น Card Mapping
      */
     private void initializeCardMapping() {
+        // ปิด store ของ mapping เดิมก่อนสร้างใหม่
+        if (cardMediaMapping != null) {
+            cardMediaMapping.close();
+        }
         try {
             cardMediaMapping = new CardMediaMapping();
             boolean mappingLoaded = cardMediaMapping.loadMapping(this);
@@ -237,10 +241,12 @@ public class MainActivity extends AppCompatActivity implements CardReaderService
                 Log.d(TAG, "โหลด mapping สำเร็จ");
             } else {
                 Log.w(TAG, "ไม่สามารถโหลด mapping ได้");
+                cardMediaMapping.close();
                 cardMediaMapping = new CardMediaMapping(); // สร้าง mapping ว่างเปล่า
             }
         } catch (Exception e) {
             Log.e(TAG, "เกิดข้อผิดพลาดในการโหลด mapping: ", e);
+            cardMediaMapping.close();
             cardMediaMapping = new CardMediaMapping(); // สร้าง mapping ว่างเปล่า
         }
     }
@@ -623,6 +629,11 @@ public class MainActivity extends AppCompatActivity implements CardReaderService
             }
             mBound = false;
         }
+        
+        // ปิด store ของ mapping
+        if (cardMediaMapping != null) {
+            cardMediaMapping.close();
+        }
     }
 
     // Implement CardReaderListener methods
@@ -689,12 +700,10 @@ public class MainActivity extends AppCompatActivity implements CardReaderService
                 Log.d(TAG, "พบสื่อ: " + mediaInfo.displayName + " ประเภท: " + mediaInfo.type);
                 
                 // ตรวจสอบว่าเป็นการ์ดเดิมและเปิดไฟล์สื่อไปแล้วหรือไม่
-                String currentCardMediaKey = cardId + ":" + mediaPath;
                 Log.d(TAG, "lastCardId: " + lastCardId);
-                Log.d(TAG, "lastOpenedMediaForCardId: " + lastOpenedMediaForCardId);
-                Log.d(TAG, "currentCardMediaKey: " + currentCardMediaKey);
+                Log.d(TAG, "lastOpenedMediaPath: " + lastOpenedMediaPath);
                 
-                if (cardId.equals(lastCardId) && currentCardMediaKey.equals(lastOpenedMediaForCardId)) {
+                if (cardId.equals(lastCardId) && mediaPath.equals(lastOpenedMediaPath)) {
                     Log.d(TAG, "ข้าม: สื่อนี้ถูกเปิดไปแล้วสำหรับการ์ดนี้");
                     return;
                 }
@@ -739,7 +748,7 @@ public class MainActivity extends AppCompatActivity implements CardReaderService
                     
                     // บันทึกว่าได้เปิดไฟล์นี้ไปแล้วสำหรับการ์ดนี้
                     lastCardId = cardId;
-                    lastOpenedMediaForCardId = currentCardMediaKey;
+                    lastOpenedMediaPath = mediaPath;
                     Log.d(TAG, "บันทึกสถานะการเปิดสื่อแล้ว");
                 } else {
                     Log.e(TAG, "ไม่สามารถเปิดสื่อได้");
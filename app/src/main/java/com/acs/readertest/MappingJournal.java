@@ -0,0 +1,404 @@
+package com.acs.readertest;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.util.Map;
+
+/**
+ * บันทึกการเปลี่ยนแปลง mapping ต่อท้ายไฟล์ทีละรายการ (write-ahead journal) แทนการเขียน mapping.json ใหม่ทั้งไฟล์
+ *
+ * แต่ละบรรทัดเป็น JSON array หนึ่งรายการ:
+ * ["+", cardId, mediaPath] เพิ่ม/แก้ไข, ["-", cardId] ลบ, ["0"] ล้างทั้งหมด
+ *
+ * เมื่อ compact จะย้าย journal ปัจจุบันไปเป็นไฟล์ ".1" ก่อน (การเปลี่ยนแปลงใหม่เขียนลง journal ใหม่)
+ * แล้วจึงลบไฟล์ ".1" หลังเขียน snapshot สำเร็จ การโหลดจึงเล่นซ้ำไฟล์ ".1" ก่อน journal ปัจจุบันเสมอ
+ * บรรทัดที่เขียนไม่ครบ (เช่น ไฟดับระหว่างเขียน) จะถูกข้าม
+ *
+ * การเพิ่มรายการแต่ละครั้งรอจนรายการถูก fsync แล้ว (group commit แบบ leader/follower):
+ * เธรดแรกที่พบว่าไม่มีการเขียนค้างอยู่เป็นผู้เขียนทุกรายการที่สะสมไว้ในการเขียนและ fsync ครั้งเดียว
+ * ส่วนเธรดที่เพิ่มรายการระหว่างนั้นรอรอบถัดไป ทุกเธรดในรอบเดียวกันได้ผลของรอบนั้น
+ * ถ้ารอบใดเขียนไม่สำเร็จ รายการในรอบนั้นถูกทิ้ง (ผู้เรียกต้องย้อนการเปลี่ยนแปลงเอง)
+ */
+public class MappingJournal {
+
+    public static final String SUFFIX = ".journal";
+
+    private static final String OP_PUT = "+";
+    private static final String OP_REMOVE = "-";
+    private static final String OP_CLEAR = "0";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * ที่เก็บ mapping ที่รับการเปลี่ยนแปลงระหว่างเล่นซ้ำ
+     */
+    public interface Target {
+        void put(String cardId, String mediaPath);
+
+        void remove(String cardId);
+
+        void clear();
+    }
+
+    private final File file;
+    private final File rotatedFile;
+    private final Gson gson = new Gson();
+
+    // จำนวนรายการใน journal ปัจจุบัน (ไม่รวมไฟล์ที่กำลัง compact) รวมรายการที่รอเขียน
+    private int recordCount = 0;
+
+    /**
+     * รายการที่เขียนและ fsync พร้อมกันในรอบเดียว
+     */
+    private static final class Batch {
+        final StringBuilder records = new StringBuilder();
+        boolean done = false;
+        IOException failure;
+    }
+
+    // รอบที่กำลังรับรายการใหม่ และสถานะของผู้เขียน (ใช้ lock ของ this)
+    private Batch openBatch = new Batch();
+    private boolean committing = false;
+
+    // รอบก่อนหน้าเขียนไม่สำเร็จ อาจเหลือบรรทัดที่เขียนไม่ครบท้ายไฟล์
+    private boolean needsNewline = false;
+
+    // พบบรรทัดที่เสียหายในการเล่นซ้ำครั้งล่าสุด
+    private boolean damaged = false;
+
+    // ปิดแล้ว ไม่รับรายการใหม่
+    private boolean closed = false;
+
+    // การเขียนไฟล์ การย้ายไฟล์ และการลบไฟล์ต้องไม่ซ้อนกัน (ไม่ block การเพิ่มรายการระหว่าง fsync)
+    private final Object fileLock = new Object();
+
+    /**
+     * @param snapshotFile ไฟล์ snapshot (mapping.json) ที่ journal นี้บันทึกการเปลี่ยนแปลงต่อจาก
+     */
+    public MappingJournal(File snapshotFile) {
+        this.file = new File(snapshotFile.getPath() + SUFFIX);
+        this.rotatedFile = new File(file.getPath() + ".1");
+    }
+
+    public synchronized int getRecordCount() {
+        return recordCount;
+    }
+
+    public void appendPut(String cardId, String mediaPath) throws IOException {
+        append("[\"" + OP_PUT + "\"," + gson.toJson(cardId) + "," + gson.toJson(mediaPath) + "]\n");
+    }
+
+    public void appendRemove(String cardId) throws IOException {
+        append("[\"" + OP_REMOVE + "\"," + gson.toJson(cardId) + "]\n");
+    }
+
+    public void appendClear() throws IOException {
+        append("[\"" + OP_CLEAR + "\"]\n");
+    }
+
+    /**
+     * เพิ่มรายการเข้ารอบ group commit และรอจนรอบนั้นถูก fsync
+     *
+     * @throws IOException ถ้ารอบที่มีรายการนี้เขียนไม่สำเร็จ (รายการนี้จะไม่ถูกบันทึก)
+     */
+    private void append(String record) throws IOException {
+        Batch batch;
+        synchronized (this) {
+            if (closed) {
+                throw new IOException("journal " + file.getName() + " ถูกปิดแล้ว");
+            }
+            batch = openBatch;
+            batch.records.append(record);
+            recordCount++;
+        }
+        awaitCommit(batch);
+        if (batch.failure != null) {
+            synchronized (this) {
+                if (recordCount > 0) {
+                    recordCount--;
+                }
+            }
+            throw batch.failure;
+        }
+    }
+
+    /**
+     * เขียนทุกรายการที่รออยู่ลงดิสก์ทันทีและรอจน fsync เสร็จ
+     *
+     * @return false ถ้าเขียนไม่สำเร็จ (รายการในรอบนั้นถูกทิ้ง และผู้เพิ่มรายการได้รับข้อผิดพลาดแล้ว)
+     */
+    public boolean flush() {
+        Batch batch;
+        synchronized (this) {
+            batch = openBatch;
+        }
+        awaitCommit(batch);
+        return batch.failure == null;
+    }
+
+    /**
+     * เขียนรายการที่รออยู่ให้เสร็จแล้วปิด journal (เรียกเมื่อเลิกใช้หรือถูกแทนที่ด้วย journal อื่น)
+     * การเพิ่มรายการหลังจากนี้จะล้มเหลว ส่วนการเล่นซ้ำ การย้าย และการลบไฟล์ยังทำได้
+     *
+     * @return false ถ้ารายการที่รออยู่เขียนไม่สำเร็จ
+     */
+    public boolean close() {
+        synchronized (this) {
+            closed = true;
+        }
+        return flush();
+    }
+
+    /**
+     * รอจนรอบที่ระบุถูกเขียนแล้ว ถ้าไม่มีผู้เขียนอยู่ เธรดนี้จะเป็นผู้เขียนเอง
+     */
+    private void awaitCommit(Batch batch) {
+        boolean interrupted = false;
+        while (true) {
+            synchronized (this) {
+                while (committing && !batch.done) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        // ต้องรอผลของรอบนี้ให้ได้ จึงตั้งสถานะ interrupt คืนภายหลัง
+                        interrupted = true;
+                    }
+                }
+                if (batch.done) {
+                    break;
+                }
+                // รอบของเรายังเปิดรับรายการอยู่ จึงเป็นผู้เขียนเอง
+                committing = true;
+            }
+            commit();
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * ปิดรอบที่เปิดอยู่แล้วเขียนในการเขียนและ fsync ครั้งเดียว จากนั้นแจ้งผลแก่ทุกเธรดที่รอรอบนี้
+     */
+    private void commit() {
+        IOException failure = null;
+        Batch batch;
+        synchronized (fileLock) {
+            // ปิดรอบภายใต้ fileLock เพื่อไม่ให้รอบที่ถูก reset() ไปแล้วถูกเขียนต่อท้าย journal ใหม่
+            synchronized (this) {
+                batch = openBatch;
+                openBatch = new Batch();
+            }
+            boolean synced = false;
+            if (batch.records.length() > 0) {
+                // เปิดแบบ append ทุกรอบ จึงใช้ร่วมกันได้หลาย instance โดยไม่ต้องค้างไฟล์ไว้
+                try (FileOutputStream out = new FileOutputStream(file, true)) {
+                    long length = out.getChannel().size();
+                    try {
+                        // ขึ้นบรรทัดใหม่เพื่อไม่ให้ต่อกับส่วนที่อาจเขียนไปแล้วบางส่วนในรอบที่ล้มเหลว
+                        String data = needsNewline ? "\n" + batch.records : batch.records.toString();
+                        out.write(data.getBytes(UTF_8));
+                        out.getFD().sync();
+                        synced = true;
+                        needsNewline = false;
+                    } catch (IOException e) {
+                        failure = e;
+                        // ตัดส่วนที่เขียนไปแล้วออก เพราะผู้เรียกจะย้อนการเปลี่ยนแปลงของรอบนี้
+                        try {
+                            out.getChannel().truncate(length);
+                        } catch (IOException ignored) {
+                            needsNewline = true;
+                        }
+                    }
+                } catch (IOException e) {
+                    // ถ้า fsync สำเร็จแล้ว การปิดไฟล์ที่ล้มเหลวไม่ทำให้รายการหาย
+                    if (!synced) {
+                        failure = e;
+                    }
+                }
+            }
+        }
+        synchronized (this) {
+            batch.failure = failure;
+            batch.done = true;
+            committing = false;
+            notifyAll();
+        }
+    }
+
+    /**
+     * เล่นการเปลี่ยนแปลงทั้งหมดซ้ำลงใน map (ไฟล์ ".1" ก่อน แล้วจึง journal ปัจจุบัน)
+     *
+     * @return จำนวนรายการที่เล่นซ้ำ
+     */
+    public int replay(final Map<String, String> target) throws IOException {
+        return replay(new Target() {
+            @Override
+            public void put(String cardId, String mediaPath) {
+                target.put(cardId, mediaPath);
+            }
+
+            @Override
+            public void remove(String cardId) {
+                target.remove(cardId);
+            }
+
+            @Override
+            public void clear() {
+                target.clear();
+            }
+        });
+    }
+
+    /**
+     * เล่นการเปลี่ยนแปลงทั้งหมดซ้ำลงใน target (ไฟล์ ".1" ก่อน แล้วจึง journal ปัจจุบัน)
+     *
+     * @return จำนวนรายการที่เล่นซ้ำ
+     */
+    public int replay(Target target) throws IOException {
+        flush();
+        synchronized (fileLock) {
+            boolean[] damage = new boolean[1];
+            int replayed = replayFile(rotatedFile, target, damage);
+            int current = replayFile(file, target, damage);
+            synchronized (this) {
+                recordCount = current;
+                damaged = damage[0];
+            }
+            return replayed + current;
+        }
+    }
+
+    /**
+     * true ถ้าการเล่นซ้ำครั้งล่าสุดพบบรรทัดที่เสียหาย (ควรบันทึก snapshot ใหม่และลบ journal)
+     */
+    public synchronized boolean isDamaged() {
+        return damaged;
+    }
+
+    private static int replayFile(File source, Target target, boolean[] damage) throws IOException {
+        if (!source.exists()) {
+            return 0;
+        }
+
+        int count = 0;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(source), UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                if (!applyRecord(line, target)) {
+                    // บรรทัดที่เขียนไม่ครบ: รายการในบรรทัดนั้นถูกเขียนซ้ำแล้ว หรือยังไม่ได้แจ้งว่าบันทึกสำเร็จ
+                    damage[0] = true;
+                    continue;
+                }
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return false ถ้าบรรทัดไม่ใช่รายการที่สมบูรณ์
+     */
+    static boolean applyRecord(String line, Target target) {
+        try (JsonReader reader = new JsonReader(new StringReader(line))) {
+            reader.beginArray();
+            String op = reader.nextString();
+            String cardId = null;
+            String mediaPath = null;
+            if (OP_PUT.equals(op)) {
+                cardId = reader.nextString();
+                mediaPath = reader.nextString();
+            } else if (OP_REMOVE.equals(op)) {
+                cardId = reader.nextString();
+            } else if (!OP_CLEAR.equals(op)) {
+                return false;
+            }
+            reader.endArray();
+            if (reader.peek() != JsonToken.END_DOCUMENT) {
+                return false;
+            }
+
+            if (mediaPath != null) {
+                target.put(cardId, mediaPath);
+            } else if (cardId != null) {
+                target.remove(cardId);
+            } else {
+                target.clear();
+            }
+            return true;
+        } catch (IOException | IllegalStateException e) {
+            return false;
+        }
+    }
+
+    /**
+     * ย้าย journal ปัจจุบันไปรอ compact เพื่อให้การเปลี่ยนแปลงใหม่เขียนลง journal ใหม่
+     *
+     * @return false ถ้ายังมีไฟล์ที่รอ compact อยู่ หรือย้ายไม่สำเร็จ
+     */
+    public boolean rotate() {
+        // รายการที่รออยู่เป็นของ journal ที่จะถูกย้าย
+        flush();
+        synchronized (fileLock) {
+            synchronized (this) {
+                if (openBatch.records.length() > 0 || rotatedFile.exists() || !file.exists()) {
+                    return false;
+                }
+                if (!file.renameTo(rotatedFile)) {
+                    return false;
+                }
+                recordCount = 0;
+                return true;
+            }
+        }
+    }
+
+    /**
+     * ลบไฟล์ที่ compact แล้ว (เรียกหลังเขียน snapshot ที่รวมการเปลี่ยนแปลงในไฟล์นั้นสำเร็จ)
+     *
+     * @return false ถ้าไม่มีไฟล์ที่รอ compact (เช่น ถูก {@link #reset()} ไปแล้ว)
+     */
+    public boolean finishRotation() {
+        synchronized (fileLock) {
+            return rotatedFile.delete();
+        }
+    }
+
+    public boolean hasPendingRotation() {
+        synchronized (fileLock) {
+            return rotatedFile.exists();
+        }
+    }
+
+    /**
+     * ลบ journal ทั้งหมด (เรียกหลังเขียน snapshot ที่มีข้อมูลครบแล้ว)
+     */
+    public void reset() {
+        synchronized (fileLock) {
+            synchronized (this) {
+                // snapshot มีรายการที่รอเขียนอยู่แล้ว จึงถือว่ารอบที่เปิดอยู่บันทึกสำเร็จ
+                openBatch.done = true;
+                openBatch = new Batch();
+                notifyAll();
+                needsNewline = false;
+                damaged = false;
+                recordCount = 0;
+            }
+            rotatedFile.delete();
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.acs.readertest;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+
+/**
+ * อ่าน mapping.json ({"cardId": "mediaPath", ...}) ทีละ token ด้วย JsonReader ของ Gson
+ * และส่งแต่ละรายการเข้า {@link Sink} โดยตรง
+ *
+ * ไม่ต้องอ่านทั้งไฟล์เป็น String ก่อน จึงใช้หน่วยความจำคงที่ (buffer ของ reader) นอกจากข้อมูลที่ Sink เก็บ
+ * ค่าที่เป็น null จะถูกข้าม ค่าที่เป็นตัวเลขหรือ boolean จะถูกแปลงเป็น String เหมือน Gson.fromJson()
+ */
+public class MappingLoader {
+
+    // แจ้งความคืบหน้าทุกๆ จำนวนรายการนี้
+    public static final int DEFAULT_PROGRESS_INTERVAL = 1000;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * รับรายการที่อ่านได้
+     */
+    public interface Sink {
+        void put(String cardId, String mediaPath);
+    }
+
+    /**
+     * รับความคืบหน้าของการโหลด (ถูกเรียกจาก thread ที่โหลด)
+     */
+    public interface ProgressListener {
+        /**
+         * @param entries จำนวนรายการที่อ่านแล้ว
+         * @param bytesRead จำนวนไบต์ที่อ่านจากไฟล์แล้ว
+         */
+        void onProgress(int entries, long bytesRead);
+    }
+
+    private ProgressListener progressListener;
+    private int progressInterval = DEFAULT_PROGRESS_INTERVAL;
+
+    public void setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    public void setProgressInterval(int progressInterval) {
+        this.progressInterval = Math.max(progressInterval, 1);
+    }
+
+    /**
+     * อ่าน mapping ทั้งหมดจาก stream (stream ถูกปิดเมื่อเสร็จ)
+     *
+     * @return จำนวนรายการที่ส่งเข้า Sink (0 ถ้าไฟล์ว่างเปล่า)
+     * @throws MalformedJsonException ถ้ารูปแบบ JSON ไม่ถูกต้อง
+     * @throws IOException ถ้าอ่านไฟล์ไม่สำเร็จ
+     */
+    public int load(InputStream input, Sink sink) throws IOException {
+        CountingInputStream counter = new CountingInputStream(input);
+        try (JsonReader reader = new JsonReader(new InputStreamReader(counter, UTF_8))) {
+            reader.setLenient(true);
+
+            try {
+                if (reader.peek() == JsonToken.END_DOCUMENT) {
+                    return 0;
+                }
+            } catch (EOFException e) {
+                // ไฟล์ว่างเปล่า
+                return 0;
+            }
+
+            int entries = 0;
+            try {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String cardId = reader.nextName();
+                    if (reader.peek() == JsonToken.NULL) {
+                        reader.nextNull();
+                        continue;
+                    }
+                    String mediaPath = reader.peek() == JsonToken.BOOLEAN
+                            ? String.valueOf(reader.nextBoolean())
+                            : reader.nextString();
+                    sink.put(cardId, mediaPath);
+                    entries++;
+
+                    if (progressListener != null && entries % progressInterval == 0) {
+                        progressListener.onProgress(entries, counter.count);
+                    }
+                }
+                reader.endObject();
+            } catch (IllegalStateException e) {
+                // token ไม่ตรงกับรูปแบบ {"key": "value"} (เช่น array หรือ object ซ้อน)
+                throw new MalformedJsonException(e.getMessage());
+            }
+
+            if (progressListener != null) {
+                progressListener.onProgress(entries, counter.count);
+            }
+            return entries;
+        }
+    }
+
+    /**
+     * นับจำนวนไบต์ที่อ่านผ่าน stream สำหรับรายงานความคืบหน้า
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int n = super.read(buffer, offset, length);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+}
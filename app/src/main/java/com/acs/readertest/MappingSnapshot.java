@@ -0,0 +1,504 @@
+package com.acs.readertest;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * snapshot ของ mapping แบบ binary ที่อ่านผ่าน memory-mapped buffer โดยไม่ต้องโหลดทั้งไฟล์ลง heap
+ *
+ * รูปแบบไฟล์ (big-endian):
+ * <pre>
+ * header   MAGIC, VERSION, entryCount, pathCount, pathTableOffset, fileLength (int ละ 4 ไบต์)
+ * offsets  entryCount x int: ตำแหน่งของ record เรียงตาม card ID (เทียบ UTF-8 แบบ unsigned)
+ * records  [keyLength u16][card ID UTF-8][pathIndex int]
+ * paths    pathCount x int: ตำแหน่งของ path แต่ละรายการ ตามด้วย [length int][path UTF-8]
+ * </pre>
+ * path ที่ซ้ำกันถูกเก็บเพียงครั้งเดียว การค้นหาใช้ binary search บน buffer โดยตรง
+ * heap ที่ใช้จึงมีเพียง path ที่ถูกค้นหาแล้ว (cache ตาม pathIndex)
+ *
+ * card ID ที่เป็น UID แบบ hex ถูกเก็บเป็นตัวพิมพ์ใหญ่ ({@link #normalizeKey(String)})
+ * เพื่อให้ค้นหาได้ไม่ขึ้นกับตัวพิมพ์เหมือน {@link CardKeyIndex}
+ */
+public class MappingSnapshot {
+
+    private static final int MAGIC = 0x434D4150; // "CMAP"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 24;
+    private static final int MAX_KEY_LENGTH = 0xFFFF;
+
+    // buffer สำหรับเขียน record (ใหญ่พอสำหรับ record ที่ยาวที่สุด)
+    private static final int WRITE_BUFFER_SIZE = 128 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * ลำดับของ card ID ใน snapshot: เทียบทีละ code point ซึ่งตรงกับการเทียบ UTF-8 แบบ unsigned
+     * (และการเรียง TEXT แบบ BINARY ของ SQLite)
+     */
+    public static final Comparator<String> KEY_ORDER = (a, b) -> {
+        int i = 0;
+        int j = 0;
+        while (i < a.length() && j < b.length()) {
+            int x = a.codePointAt(i);
+            int y = b.codePointAt(j);
+            if (x != y) {
+                return x - y;
+            }
+            i += Character.charCount(x);
+            j += Character.charCount(y);
+        }
+        return (a.length() - i) - (b.length() - j);
+    };
+
+    private final ByteBuffer buffer;
+    private final int entryCount;
+    private final int pathCount;
+    private final int pathTableOffset;
+    private final String[] pathCache;
+
+    private MappingSnapshot(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("ไม่ใช่ไฟล์ snapshot ของ mapping");
+        }
+        this.entryCount = buffer.getInt(8);
+        this.pathCount = buffer.getInt(12);
+        this.pathTableOffset = buffer.getInt(16);
+        if (buffer.getInt(20) != buffer.capacity() || entryCount < 0 || pathCount < 0
+                || HEADER_SIZE + 4L * entryCount > pathTableOffset
+                || pathTableOffset + 4L * pathCount > buffer.capacity()) {
+            throw new IOException("ไฟล์ snapshot ของ mapping ไม่สมบูรณ์");
+        }
+        this.pathCache = new String[pathCount];
+    }
+
+    /**
+     * เปิด snapshot แบบ memory-mapped (อ่านอย่างเดียว)
+     */
+    public static MappingSnapshot open(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new MappingSnapshot(buffer);
+        }
+    }
+
+    /**
+     * แปลง card ID เป็นรูปแบบที่ใช้เก็บใน snapshot (UID แบบ hex เป็นตัวพิมพ์ใหญ่ ค่าอื่นคงเดิม)
+     */
+    public static String normalizeKey(String cardId) {
+        CardKey key = CardKey.parse(cardId);
+        return key != null ? key.toString() : cardId;
+    }
+
+    public int size() {
+        return entryCount;
+    }
+
+    /**
+     * ค้นหา path ของ card ID
+     *
+     * @return path หรือ null ถ้าไม่พบ
+     */
+    public String find(String cardId) {
+        int index = indexOf(cardId);
+        return index >= 0 ? pathAt(index) : null;
+    }
+
+    /**
+     * ลำดับของ card ID ใน snapshot
+     *
+     * @return ลำดับ หรือค่าติดลบถ้าไม่พบ
+     */
+    public int indexOf(String cardId) {
+        byte[] key = normalizeKey(cardId).getBytes(UTF_8);
+        int low = 0;
+        int high = entryCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareKeyAt(mid, key);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    public String keyAt(int index) {
+        int offset = recordOffset(index);
+        int length = buffer.getShort(offset) & 0xFFFF;
+        return decode(offset + 2, length);
+    }
+
+    public String pathAt(int index) {
+        int offset = recordOffset(index);
+        int length = buffer.getShort(offset) & 0xFFFF;
+        return path(buffer.getInt(offset + 2 + length));
+    }
+
+    private String path(int pathIndex) {
+        String path = pathCache[pathIndex];
+        if (path == null) {
+            int offset = buffer.getInt(pathTableOffset + 4 * pathIndex);
+            path = decode(offset + 4, buffer.getInt(offset));
+            pathCache[pathIndex] = path;
+        }
+        return path;
+    }
+
+    private int recordOffset(int index) {
+        if (index < 0 || index >= entryCount) {
+            throw new IndexOutOfBoundsException("index " + index + " จาก " + entryCount);
+        }
+        return buffer.getInt(HEADER_SIZE + 4 * index);
+    }
+
+    /**
+     * เทียบ card ID ของ record กับ key โดยไม่คัดลอกข้อมูลออกจาก buffer
+     */
+    private int compareKeyAt(int index, byte[] key) {
+        int offset = recordOffset(index);
+        int length = buffer.getShort(offset) & 0xFFFF;
+        int common = Math.min(length, key.length);
+        for (int i = 0; i < common; i++) {
+            int a = buffer.get(offset + 2 + i) & 0xFF;
+            int b = key[i] & 0xFF;
+            if (a != b) {
+                return a - b;
+            }
+        }
+        return length - key.length;
+    }
+
+    private String decode(int offset, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(offset + i);
+        }
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * เขียน snapshot ใหม่จาก snapshot เดิมรวมกับการเปลี่ยนแปลง แบบ atomic (ไฟล์ชั่วคราว, fsync, rename)
+     *
+     * @param target ไฟล์ปลายทาง
+     * @param base snapshot เดิม (null = ว่าง)
+     * @param changes การเปลี่ยนแปลงที่ทับ snapshot เดิม (ค่า null = ลบ card ID นั้น)
+     * @return จำนวนรายการใน snapshot ใหม่
+     */
+    public static int write(File target, MappingSnapshot base, Map<String, String> changes) throws IOException {
+        List<Change> sorted = sortChanges(changes);
+
+        // รอบแรก: นับจำนวนรายการเพื่อจองพื้นที่ของตาราง offset
+        final int[] count = new int[1];
+        merge(base, sorted, (key, keyLength, path) -> count[0]++);
+
+        File tempFile = new File(target.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tempFile);
+             FileChannel channel = out.getChannel()) {
+            final int[] offsets = new int[count[0]];
+            final Map<String, Integer> pathIndexes = new HashMap<>();
+            final List<byte[]> paths = new ArrayList<>();
+            final ByteBuffer writeBuffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+            final long recordsStart = HEADER_SIZE + 4L * count[0];
+            final long[] position = {recordsStart};
+            final int[] written = {0};
+            channel.position(recordsStart);
+
+            // รอบสอง: เขียน record ตามลำดับ และรวบรวม path ที่ไม่ซ้ำกัน
+            IOException[] failure = new IOException[1];
+            merge(base, sorted, (key, keyLength, path) -> {
+                if (failure[0] != null) {
+                    return;
+                }
+                try {
+                    Integer pathIndex = pathIndexes.get(path);
+                    if (pathIndex == null) {
+                        pathIndex = paths.size();
+                        pathIndexes.put(path, pathIndex);
+                        paths.add(path.getBytes(UTF_8));
+                    }
+                    int recordSize = 2 + keyLength + 4;
+                    if (writeBuffer.remaining() < recordSize) {
+                        drain(channel, writeBuffer);
+                    }
+                    offsets[written[0]++] = toOffset(position[0]);
+                    writeBuffer.putShort((short) keyLength).put(key, 0, keyLength).putInt(pathIndex);
+                    position[0] += recordSize;
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+            });
+            if (failure[0] != null) {
+                throw failure[0];
+            }
+
+            // ตาราง path และข้อมูล path
+            int pathTableOffset = toOffset(position[0]);
+            long pathPosition = pathTableOffset + 4L * paths.size();
+            for (byte[] path : paths) {
+                if (writeBuffer.remaining() < 4) {
+                    drain(channel, writeBuffer);
+                }
+                writeBuffer.putInt(toOffset(pathPosition));
+                pathPosition += 4 + path.length;
+            }
+            for (byte[] path : paths) {
+                if (writeBuffer.remaining() < 4 + path.length) {
+                    drain(channel, writeBuffer);
+                }
+                if (writeBuffer.remaining() < 4 + path.length) {
+                    // path ที่ยาวกว่า buffer
+                    channel.write(ByteBuffer.allocate(4).putInt(0, path.length));
+                    channel.write(ByteBuffer.wrap(path));
+                    continue;
+                }
+                writeBuffer.putInt(path.length).put(path);
+            }
+            drain(channel, writeBuffer);
+            int fileLength = toOffset(pathPosition);
+
+            // ตาราง offset ของ record
+            channel.position(HEADER_SIZE);
+            for (int offset : offsets) {
+                if (writeBuffer.remaining() < 4) {
+                    drain(channel, writeBuffer);
+                }
+                writeBuffer.putInt(offset);
+            }
+            drain(channel, writeBuffer);
+
+            channel.position(0);
+            writeBuffer.putInt(MAGIC).putInt(VERSION).putInt(offsets.length).putInt(paths.size())
+                    .putInt(pathTableOffset).putInt(fileLength);
+            drain(channel, writeBuffer);
+            channel.force(true);
+        } catch (IOException e) {
+            tempFile.delete();
+            throw e;
+        }
+
+        if (!tempFile.renameTo(target)) {
+            tempFile.delete();
+            throw new IOException("ไม่สามารถแทนที่ไฟล์ " + target.getName() + " ได้");
+        }
+        return count[0];
+    }
+
+    /**
+     * ดึง mapping ทีละหน้าจาก snapshot รวมกับการเปลี่ยนแปลง เรียงตาม {@link #KEY_ORDER}
+     *
+     * ตำแหน่งเริ่มของหน้าหาด้วย binary search บนตาราง offset ของ snapshot จึงไม่ต้องอ่าน record ก่อนหน้า
+     * (จำนวนรายการก่อน record ที่ i = i - การเปลี่ยนแปลงที่ทับ record ก่อนหน้า + การเปลี่ยนแปลงที่เพิ่มก่อนหน้า)
+     *
+     * @param base snapshot (null = ว่าง)
+     * @param changes การเปลี่ยนแปลงที่ทับ snapshot (ค่า null = ลบ) โดยใช้ card ID ที่ normalize แล้ว
+     * @return รายการของหน้านี้ตามลำดับ
+     */
+    public static Map<String, String> page(MappingSnapshot base, Map<String, String> changes, int offset, int limit) {
+        TreeMap<String, String> sorted = new TreeMap<>(KEY_ORDER);
+        sorted.putAll(changes);
+        String[] changeKeys = sorted.keySet().toArray(new String[0]);
+        String[] changePaths = sorted.values().toArray(new String[0]);
+
+        int baseCount = base != null ? base.entryCount : 0;
+        int i = 0;
+        int c = 0;
+        int skipped = 0;
+        if (offset > 0 && baseCount > 0) {
+            // added[j] = จำนวนการเปลี่ยนแปลงที่มีค่าใน changeKeys[0, j)
+            // replaced[j] = จำนวนการเปลี่ยนแปลงใน changeKeys[0, j) ที่ทับ record ของ snapshot
+            int[] added = new int[changeKeys.length + 1];
+            int[] replaced = new int[changeKeys.length + 1];
+            for (int j = 0; j < changeKeys.length; j++) {
+                added[j + 1] = added[j] + (changePaths[j] != null ? 1 : 0);
+                replaced[j + 1] = replaced[j] + (base.indexOf(changeKeys[j]) >= 0 ? 1 : 0);
+            }
+
+            // record สุดท้ายที่จำนวนรายการก่อนหน้ายังไม่เกิน offset
+            int low = 0;
+            int high = baseCount - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int before = countBefore(changeKeys, base.keyAt(mid));
+                int entriesBefore = mid - replaced[before] + added[before];
+                if (entriesBefore <= offset) {
+                    i = mid;
+                    c = before;
+                    skipped = entriesBefore;
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+        }
+
+        Map<String, String> page = new LinkedHashMap<>();
+        while (page.size() < limit && (i < baseCount || c < changeKeys.length)) {
+            String baseKey = i < baseCount ? base.keyAt(i) : null;
+            int cmp = baseKey == null ? 1 : c == changeKeys.length ? -1 : KEY_ORDER.compare(baseKey, changeKeys[c]);
+
+            String cardId;
+            String path;
+            if (cmp < 0) {
+                cardId = baseKey;
+                path = null;
+                i++;
+            } else {
+                cardId = changeKeys[c];
+                path = changePaths[c];
+                c++;
+                if (cmp == 0) {
+                    i++;
+                }
+                if (path == null) {
+                    continue;
+                }
+            }
+
+            if (skipped < offset) {
+                skipped++;
+                continue;
+            }
+            // อ่าน path จาก snapshot เฉพาะรายการที่อยู่ในหน้านี้
+            page.put(cardId, path != null ? path : base.pathAt(i - 1));
+        }
+        return page;
+    }
+
+    /**
+     * จำนวน key ใน keys (เรียงตาม {@link #KEY_ORDER}) ที่มาก่อน key
+     */
+    private static int countBefore(String[] keys, String key) {
+        int index = Arrays.binarySearch(keys, key, KEY_ORDER);
+        return index >= 0 ? index : -(index + 1);
+    }
+
+    private static void drain(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private static int toOffset(long position) throws IOException {
+        if (position > Integer.MAX_VALUE) {
+            throw new IOException("snapshot ของ mapping ใหญ่เกิน 2 GB");
+        }
+        return (int) position;
+    }
+
+    /**
+     * การเปลี่ยนแปลงหนึ่งรายการ (card ID ในรูปแบบ UTF-8 ที่ normalize แล้ว)
+     */
+    private static final class Change {
+        final byte[] key;
+        final String path;
+
+        Change(byte[] key, String path) {
+            this.key = key;
+            this.path = path;
+        }
+    }
+
+    private interface Visitor {
+        void visit(byte[] key, int keyLength, String path);
+    }
+
+    private static final Comparator<Change> CHANGE_ORDER = (a, b) -> compareBytes(a.key, a.key.length, b.key, b.key.length);
+
+    private static List<Change> sortChanges(Map<String, String> changes) throws IOException {
+        List<Change> sorted = new ArrayList<>(changes.size());
+        for (Map.Entry<String, String> entry : changes.entrySet()) {
+            byte[] key = normalizeKey(entry.getKey()).getBytes(UTF_8);
+            if (key.length > MAX_KEY_LENGTH) {
+                throw new IOException("card ID ยาวเกิน " + MAX_KEY_LENGTH + " ไบต์");
+            }
+            sorted.add(new Change(key, entry.getValue()));
+        }
+        // เรียงแบบ stable: card ID ที่ซ้ำกันหลัง normalize ใช้ค่าสุดท้าย
+        Change[] array = sorted.toArray(new Change[0]);
+        Arrays.sort(array, CHANGE_ORDER);
+        return Arrays.asList(array);
+    }
+
+    /**
+     * ไล่รายการของ snapshot เดิมรวมกับการเปลี่ยนแปลงตามลำดับ card ID (การเปลี่ยนแปลงทับรายการเดิม)
+     */
+    private static void merge(MappingSnapshot base, List<Change> changes, Visitor visitor) {
+        int baseCount = base != null ? base.entryCount : 0;
+        byte[] scratch = new byte[MAX_KEY_LENGTH];
+        int i = 0;
+        int j = 0;
+        while (i < baseCount || j < changes.size()) {
+            int baseLength = 0;
+            if (i < baseCount) {
+                int offset = base.recordOffset(i);
+                baseLength = base.buffer.getShort(offset) & 0xFFFF;
+                for (int k = 0; k < baseLength; k++) {
+                    scratch[k] = base.buffer.get(offset + 2 + k);
+                }
+            }
+
+            int cmp;
+            if (i >= baseCount) {
+                cmp = 1;
+            } else if (j >= changes.size()) {
+                cmp = -1;
+            } else {
+                Change change = changes.get(j);
+                cmp = compareBytes(scratch, baseLength, change.key, change.key.length);
+            }
+
+            if (cmp < 0) {
+                visitor.visit(scratch, baseLength, base.pathAt(i));
+                i++;
+                continue;
+            }
+
+            // ใช้การเปลี่ยนแปลงรายการสุดท้ายของ card ID เดียวกัน
+            Change change = changes.get(j);
+            while (j + 1 < changes.size() && CHANGE_ORDER.compare(change, changes.get(j + 1)) == 0) {
+                change = changes.get(++j);
+            }
+            j++;
+            if (cmp == 0) {
+                i++;
+            }
+            if (change.path != null) {
+                visitor.visit(change.key, change.key.length, change.path);
+            }
+        }
+    }
+
+    private static int compareBytes(byte[] a, int aLength, byte[] b, int bLength) {
+        int common = Math.min(aLength, bLength);
+        for (int i = 0; i < common; i++) {
+            int x = a[i] & 0xFF;
+            int y = b[i] & 0xFF;
+            if (x != y) {
+                return x - y;
+            }
+        }
+        return aLength - bLength;
+    }
+}
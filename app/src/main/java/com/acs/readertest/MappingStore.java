@@ -0,0 +1,84 @@
+package com.acs.readertest;
+
+import android.content.Context;
+
+import java.io.File;
+import java.util.Map;
+
+/**
+ * ที่เก็บ mapping ระหว่าง card ID กับ path ของไฟล์สื่อ
+ *
+ * {@link CardMediaMapping} ตรวจสอบข้อมูลและหาไฟล์สื่อ ส่วนการเก็บข้อมูลเป็นหน้าที่ของ store:
+ * {@link JsonMappingStore} (ค่าเริ่มต้น) หรือ {@link SqliteMappingStore} สำหรับ mapping ขนาดใหญ่
+ * ที่หลายหน้าจอและ service อ่านและแก้ไขร่วมกัน
+ */
+public interface MappingStore {
+
+    /**
+     * โหลดหรือเปิดที่เก็บ
+     *
+     * @return false ถ้าโหลดไม่สำเร็จ (store ยังใช้งานได้ในสภาพว่างเปล่า)
+     */
+    boolean open(Context context);
+
+    /**
+     * @return path ของ card ID หรือ null ถ้าไม่พบ
+     */
+    String get(String cardId);
+
+    /**
+     * ค้นหาด้วย UID โดยไม่ขึ้นกับตัวพิมพ์ของ hex
+     *
+     * @return path หรือ null ถ้าไม่พบ
+     */
+    String find(CardKey key);
+
+    /**
+     * เพิ่มหรือแก้ไขการ์ด
+     *
+     * @return false ถ้าบันทึกไม่สำเร็จ (ข้อมูลเดิมยังคงอยู่)
+     */
+    boolean put(String cardId, String mediaPath);
+
+    /**
+     * @return false ถ้าบันทึกไม่สำเร็จ (ข้อมูลเดิมยังคงอยู่)
+     */
+    boolean remove(String cardId);
+
+    /**
+     * บันทึกการเปลี่ยนแปลงหลายรายการพร้อมกันตามลำดับของ map (ค่า null = ลบ card ID นั้น)
+     *
+     * @return false ถ้าบันทึกไม่สำเร็จ (รายการที่บันทึกไปแล้วถูกคืนค่าเดิม)
+     */
+    boolean apply(Map<String, String> changes);
+
+    boolean clear();
+
+    int count();
+
+    /**
+     * ดึง mapping ทีละหน้า เรียงตาม card ID
+     *
+     * @param offset จำนวนรายการที่ข้าม
+     * @param limit จำนวนรายการสูงสุดของหน้านี้
+     * @return map ที่เรียงตามลำดับ (มีน้อยกว่า limit เมื่อถึงรายการสุดท้าย)
+     */
+    Map<String, String> page(int offset, int limit);
+
+    /**
+     * ส่งออก mapping ทั้งหมดเป็นไฟล์ JSON รูปแบบเดียวกับ mapping.json
+     */
+    boolean export(File target);
+
+    /**
+     * @return true ถ้าทุกการเปลี่ยนแปลงถึงดิสก์แล้ว
+     */
+    boolean flush();
+
+    /**
+     * เขียนการเปลี่ยนแปลงที่รออยู่และคืนทรัพยากรของ store (เรียกก่อนเลิกใช้หรือแทนที่ด้วย store ใหม่)
+     *
+     * @return true ถ้าทุกการเปลี่ยนแปลงถึงดิสก์แล้ว
+     */
+    boolean close();
+}
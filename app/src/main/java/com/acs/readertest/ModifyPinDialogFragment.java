@@ -171,94 +171,97 @@ public class ModifyPinDialogFragment extends AppCompatDialogFragment {
      */
     private void updateData() {
 
-        byte[] buffer;
+        /* Decode each field into the same small buffer. */
+        byte[] buffer = new byte[3];
+        int length;
 
-        buffer = Hex.toByteArray(mTimeoutEditText.getText().toString());
-        if ((buffer != null) && (buffer.length > 0)) {
+        length = Hex.decode(mTimeoutEditText.getText(), buffer, 0);
+        if (length > 0) {
             mPinModify.setTimeOut(buffer[0] & 0xFF);
         }
 
-        buffer = Hex.toByteArray(mTimeout2EditText.getText().toString());
-        if ((buffer != null) && (buffer.length > 0)) {
+        length = Hex.decode(mTimeout2EditText.getText(), buffer, 0);
+        if (length > 0) {
             mPinModify.setTimeOut2(buffer[0] & 0xFF);
         }
 
-        buffer = Hex.toByteArray(mFormatStringEditText.getText().toString());
-        if ((buffer != null) && (buffer.length > 0)) {
+        length = Hex.decode(mFormatStringEditText.getText(), buffer, 0);
+        if (length > 0) {
             mPinModify.setFormatString(buffer[0] & 0xFF);
         }
 
-        buffer = Hex.toByteArray(mPinBlockStringEditText.getText().toString());
-        if ((buffer != null) && (buffer.length > 0)) {
+        length = Hex.decode(mPinBlockStringEditText.getText(), buffer, 0);
+        if (length > 0) {
             mPinModify.setPinBlockString(buffer[0] & 0xFF);
         }
 
-        buffer = Hex.toByteArray(mPinLengthFormatEditText.getText().toString());
-        if ((buffer != null) && (buffer.length > 0)) {
+        length = Hex.decode(mPinLengthFormatEditText.getText(), buffer, 0);
+        if (length > 0) {
             mPinModify.setPinLengthFormat(buffer[0] & 0xFF);
         }
 
-        buffer = Hex.toByteArray(mInsertionOffsetOldEditText.getText().toString());
-        if ((buffer != null) && (buffer.length > 0)) {
+        length = Hex.decode(mInsertionOffsetOldEditText.getText(), buffer, 0);
+        if (length > 0) {
             mPinModify.setInsertionOffsetOld(buffer[0] & 0xFF);
         }
 
-        buffer = Hex.toByteArray(mInsertionOffsetNewEditText.getText().toString());
-        if ((buffer != null) && (buffer.length > 0)) {
+        length = Hex.decode(mInsertionOffsetNewEditText.getText(), buffer, 0);
+        if (length > 0) {
             mPinModify.setInsertionOffsetNew(buffer[0] & 0xFF);
         }
 
-        buffer = Hex.toByteArray(mPinMaxExtraDigitEditText.getText().toString());
-        if ((buffer != null) && (buffer.length > 1)) {
+        length = Hex.decode(mPinMaxExtraDigitEditText.getText(), buffer, 0);
+        if (length > 1) {
             mPinModify.setPinMaxExtraDigit((buffer[0] & 0xFF) << 8 | (buffer[1] & 0xFF));
         }
 
-        buffer = Hex.toByteArray(mConfirmPinEditText.getText().toString());
-        if ((buffer != null) && (buffer.length > 0)) {
+        length = Hex.decode(mConfirmPinEditText.getText(), buffer, 0);
+        if (length > 0) {
             mPinModify.setConfirmPin(buffer[0] & 0xFF);
         }
 
-        buffer = Hex.toByteArray(mEntryValidationConditionEditText.getText().toString());
-        if ((buffer != null) && (buffer.length > 0)) {
+        length = Hex.decode(mEntryValidationConditionEditText.getText(), buffer, 0);
+        if (length > 0) {
             mPinModify.setEntryValidationCondition(buffer[0] & 0xFF);
         }
 
-        buffer = Hex.toByteArray(mNumberMessageEditText.getText().toString());
-        if ((buffer != null) && (buffer.length > 0)) {
+        length = Hex.decode(mNumberMessageEditText.getText(), buffer, 0);
+        if (length > 0) {
             mPinModify.setNumberMessage(buffer[0] & 0xFF);
         }
 
-        buffer = Hex.toByteArray(mLangIdEditText.getText().toString());
-        if ((buffer != null) && (buffer.length > 1)) {
+        length = Hex.decode(mLangIdEditText.getText(), buffer, 0);
+        if (length > 1) {
             mPinModify.setLangId((buffer[0] & 0xFF) << 8 | (buffer[1] & 0xFF));
         }
 
-        buffer = Hex.toByteArray(mMsgIndex1EditText.getText().toString());
-        if ((buffer != null) && (buffer.length > 0)) {
+        length = Hex.decode(mMsgIndex1EditText.getText(), buffer, 0);
+        if (length > 0) {
             mPinModify.setMsgIndex1(buffer[0] & 0xFF);
         }
 
-        buffer = Hex.toByteArray(mMsgIndex2EditText.getText().toString());
-        if ((buffer != null) && (buffer.length > 0)) {
+        length = Hex.decode(mMsgIndex2EditText.getText(), buffer, 0);
+        if (length > 0) {
             mPinModify.setMsgIndex2(buffer[0] & 0xFF);
         }
 
-        buffer = Hex.toByteArray(mMsgIndex3EditText.getText().toString());
-        if ((buffer != null) && (buffer.length > 0)) {
+        length = Hex.decode(mMsgIndex3EditText.getText(), buffer, 0);
+        if (length > 0) {
             mPinModify.setMsgIndex3(buffer[0] & 0xFF);
         }
 
-        buffer = Hex.toByteArray(mTeoPrologueEditText.getText().toString());
-        if ((buffer != null) && (buffer.length > 2)) {
+        length = Hex.decode(mTeoPrologueEditText.getText(), buffer, 0);
+        if (length > 2) {
 
             mPinModify.setTeoPrologue(0, buffer[0] & 0xFF);
             mPinModify.setTeoPrologue(1, buffer[1] & 0xFF);
             mPinModify.setTeoPrologue(2, buffer[2] & 0xFF);
         }
 
-        buffer = Hex.toByteArray(mDataEditText.getText().toString());
-        if ((buffer != null) && (buffer.length > 0)) {
-            mPinModify.setData(buffer, buffer.length);
+        byte[] data = new byte[Hex.decodedLength(mDataEditText.getText())];
+        length = Hex.decode(mDataEditText.getText(), data, 0);
+        if (length > 0) {
+            mPinModify.setData(data, length);
         }
     }
 }
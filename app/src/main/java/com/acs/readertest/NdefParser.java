@@ -0,0 +1,485 @@
+package com.acs.readertest;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * ตัวแปลง NDEF Message ที่อ่าน record ทีละรายการจาก ByteBuffer โดยไม่คัดลอกข้อมูล
+ *
+ * รองรับ record หลายรายการ (MB/ME), short record (SR), ID length (IL),
+ * chunked record (CF) และ record ชนิด Text, URI, MIME, External และ Smart Poster
+ *
+ * ตัวอย่างการใช้งาน:
+ * <pre>
+ * NdefParser parser = new NdefParser();
+ * parser.reset(data, 0, data.length);
+ * while (parser.next()) {
+ *     if (parser.isText()) { ... parser.getText() ... }
+ * }
+ * </pre>
+ *
+ * object นี้ใช้ซ้ำได้ แต่ไม่ thread-safe
+ */
+public class NdefParser {
+
+    // Type Name Format
+    public static final int TNF_EMPTY = 0x00;
+    public static final int TNF_WELL_KNOWN = 0x01;
+    public static final int TNF_MIME_MEDIA = 0x02;
+    public static final int TNF_ABSOLUTE_URI = 0x03;
+    public static final int TNF_EXTERNAL = 0x04;
+    public static final int TNF_UNKNOWN = 0x05;
+    public static final int TNF_UNCHANGED = 0x06;
+
+    // flag ใน header ของ record
+    private static final int FLAG_MB = 0x80;
+    private static final int FLAG_ME = 0x40;
+    private static final int FLAG_CF = 0x20;
+    private static final int FLAG_SR = 0x10;
+    private static final int FLAG_IL = 0x08;
+    private static final int TNF_MASK = 0x07;
+
+    // Record Type Definition ของ NFC Forum
+    private static final byte[] RTD_TEXT = {'T'};
+    private static final byte[] RTD_URI = {'U'};
+    private static final byte[] RTD_SMART_POSTER = {'S', 'p'};
+
+    // คำนำหน้าของ URI record ตาม NFC Forum URI RTD (index = identifier code)
+    private static final String[] URI_PREFIXES = {
+            "",
+            "http://www.",
+            "https://www.",
+            "http://",
+            "https://",
+            "tel:",
+            "mailto:",
+            "ftp://anonymous:anonymous@",
+            "ftp://ftp.",
+            "ftps://",
+            "sftp://",
+            "smb://",
+            "nfs://",
+            "ftp://",
+            "dav://",
+            "news:",
+            "telnet://",
+            "imap:",
+            "rtsp://",
+            "urn:",
+            "pop:",
+            "sip:",
+            "sips:",
+            "tftp:",
+            "btspp://",
+            "btl2cap://",
+            "btgoep://",
+            "tcpobex://",
+            "irdaobex://",
+            "file://",
+            "urn:epc:id:",
+            "urn:epc:tag:",
+            "urn:epc:pat:",
+            "urn:epc:raw:",
+            "urn:epc:",
+            "urn:nfc:"
+    };
+
+    private static final Charset UTF_16 = Charset.forName("UTF-16");
+
+    private ByteBuffer buffer;
+    private int position;
+    private int limit;
+    private boolean finished;
+    private boolean malformed;
+
+    // ข้อมูลของ record ปัจจุบัน (ตำแหน่งแบบ absolute ใน buffer)
+    private int header;
+    private int typeOffset;
+    private int typeLength;
+    private int idOffset;
+    private int idLength;
+    private ByteBuffer payloadBuffer;
+    private int payloadOffset;
+    private int payloadLength;
+
+    // parser สำหรับ NDEF Message ที่ซ้อนอยู่ใน Smart Poster (สร้างเมื่อใช้ครั้งแรก)
+    private NdefParser nestedParser;
+
+    /**
+     * เริ่มแปลง NDEF Message ใหม่จาก byte array
+     */
+    public NdefParser reset(byte[] data, int offset, int length) {
+        return reset(ByteBuffer.wrap(data, offset, length));
+    }
+
+    /**
+     * เริ่มแปลง NDEF Message ใหม่จากข้อมูลระหว่าง position และ limit ของ buffer
+     * (ไม่เปลี่ยน position ของ buffer)
+     */
+    public NdefParser reset(ByteBuffer data) {
+        buffer = data;
+        position = data.position();
+        limit = data.limit();
+        finished = false;
+        malformed = false;
+        clearRecord();
+        return this;
+    }
+
+    /**
+     * เลื่อนไปยัง record ถัดไป
+     *
+     * @return true ถ้ามี record ถัดไป, false ถ้าจบ message หรือข้อมูลไม่ถูกต้อง
+     */
+    public boolean next() {
+        if (buffer == null || finished || position >= limit) {
+            finished = true;
+            return false;
+        }
+
+        if (!readRecordHeader()) {
+            return fail();
+        }
+
+        if ((header & FLAG_CF) != 0 && !assembleChunks()) {
+            return fail();
+        }
+
+        if ((header & FLAG_ME) != 0) {
+            finished = true;
+        }
+        return true;
+    }
+
+    /**
+     * true ถ้าข้อมูลไม่ถูกต้องตามรูปแบบ NDEF (เช่น ความยาวเกินขนาดข้อมูล)
+     */
+    public boolean isMalformed() {
+        return malformed;
+    }
+
+    public int getTnf() {
+        return header & TNF_MASK;
+    }
+
+    public boolean isMessageBegin() {
+        return (header & FLAG_MB) != 0;
+    }
+
+    public boolean isMessageEnd() {
+        return (header & FLAG_ME) != 0;
+    }
+
+    public int getTypeLength() {
+        return typeLength;
+    }
+
+    public int getIdLength() {
+        return idLength;
+    }
+
+    public int getPayloadLength() {
+        return payloadLength;
+    }
+
+    /**
+     * payload ของ record ปัจจุบันแบบ read-only (ไม่คัดลอกข้อมูล ยกเว้น chunked record)
+     */
+    public ByteBuffer getPayload() {
+        return payloadView().asReadOnlyBuffer();
+    }
+
+    /**
+     * ตรวจสอบว่า type ของ record ปัจจุบันตรงกับค่าที่กำหนด
+     */
+    public boolean isType(int tnf, byte[] type) {
+        if (getTnf() != tnf || typeLength != type.length) {
+            return false;
+        }
+        for (int i = 0; i < typeLength; i++) {
+            if (buffer.get(typeOffset + i) != type[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public boolean isText() {
+        return isType(TNF_WELL_KNOWN, RTD_TEXT);
+    }
+
+    public boolean isUri() {
+        return isType(TNF_WELL_KNOWN, RTD_URI) || getTnf() == TNF_ABSOLUTE_URI;
+    }
+
+    public boolean isSmartPoster() {
+        return isType(TNF_WELL_KNOWN, RTD_SMART_POSTER);
+    }
+
+    public boolean isMime() {
+        return getTnf() == TNF_MIME_MEDIA;
+    }
+
+    public boolean isExternal() {
+        return getTnf() == TNF_EXTERNAL;
+    }
+
+    /**
+     * ข้อความใน Text record
+     *
+     * @return ข้อความ หรือ null ถ้าไม่ใช่ Text record
+     */
+    public String getText() {
+        if (!isText() || payloadLength < 1) {
+            return null;
+        }
+
+        // status byte: bit 7 = UTF-16, bit 0-5 = ความยาวของรหัสภาษา
+        int status = payloadBuffer.get(payloadOffset) & 0xFF;
+        int languageCodeLength = status & 0x3F;
+        int textLength = payloadLength - 1 - languageCodeLength;
+        if (textLength < 0) {
+            return null;
+        }
+
+        Charset charset = (status & 0x80) != 0 ? UTF_16 : StandardCharsets.UTF_8;
+        return decode(payloadBuffer, payloadOffset + 1 + languageCodeLength, textLength, charset);
+    }
+
+    /**
+     * รหัสภาษาของ Text record (เช่น "en", "th")
+     */
+    public String getTextLanguage() {
+        if (!isText() || payloadLength < 1) {
+            return null;
+        }
+
+        int languageCodeLength = payloadBuffer.get(payloadOffset) & 0x3F;
+        if (languageCodeLength > payloadLength - 1) {
+            return null;
+        }
+        return decode(payloadBuffer, payloadOffset + 1, languageCodeLength, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * URI ของ URI record หรือ Absolute URI record
+     * สำหรับ Smart Poster จะคืน URI record ที่อยู่ภายใน
+     *
+     * @return URI หรือ null ถ้าไม่ใช่ record ที่มี URI
+     */
+    public String getUri() {
+        if (getTnf() == TNF_ABSOLUTE_URI) {
+            return decode(buffer, typeOffset, typeLength, StandardCharsets.UTF_8);
+        }
+
+        if (isSmartPoster()) {
+            NdefParser parser = getNestedParser();
+            while (parser.next()) {
+                if (parser.isUri()) {
+                    return parser.getUri();
+                }
+            }
+            return null;
+        }
+
+        if (!isType(TNF_WELL_KNOWN, RTD_URI) || payloadLength < 1) {
+            return null;
+        }
+
+        int prefixCode = payloadBuffer.get(payloadOffset) & 0xFF;
+        String prefix = prefixCode < URI_PREFIXES.length ? URI_PREFIXES[prefixCode] : "";
+        return prefix + decode(payloadBuffer, payloadOffset + 1, payloadLength - 1, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * ชื่อ (Title) ของ Smart Poster จาก Text record แรกที่อยู่ภายใน
+     */
+    public String getSmartPosterTitle() {
+        if (!isSmartPoster()) {
+            return null;
+        }
+
+        NdefParser parser = getNestedParser();
+        while (parser.next()) {
+            if (parser.isText()) {
+                return parser.getText();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * MIME type ของ MIME record (เช่น "text/plain")
+     */
+    public String getMimeType() {
+        if (!isMime()) {
+            return null;
+        }
+        return decode(buffer, typeOffset, typeLength, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * ชื่อ type ของ External record (เช่น "example.com:mytype")
+     */
+    public String getExternalType() {
+        if (!isExternal()) {
+            return null;
+        }
+        return decode(buffer, typeOffset, typeLength, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * แปลง payload เป็นข้อความ UTF-8 (สำหรับ MIME text/* หรือ External record)
+     */
+    public String getPayloadAsString() {
+        return decode(payloadBuffer, payloadOffset, payloadLength, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * อ่าน header ของ record ที่ position และเลื่อน position ไปยัง record ถัดไป
+     */
+    private boolean readRecordHeader() {
+        int pos = position;
+        if (pos + 3 > limit) {
+            return false;
+        }
+
+        header = buffer.get(pos++) & 0xFF;
+        typeLength = buffer.get(pos++) & 0xFF;
+
+        long length;
+        if ((header & FLAG_SR) != 0) {
+            length = buffer.get(pos++) & 0xFF;
+        } else {
+            if (pos + 4 > limit) {
+                return false;
+            }
+            length = buffer.getInt(pos) & 0xFFFFFFFFL;
+            pos += 4;
+        }
+
+        idLength = 0;
+        if ((header & FLAG_IL) != 0) {
+            if (pos >= limit) {
+                return false;
+            }
+            idLength = buffer.get(pos++) & 0xFF;
+        }
+
+        typeOffset = pos;
+        idOffset = typeOffset + typeLength;
+        payloadOffset = idOffset + idLength;
+        if (length > limit - payloadOffset) {
+            return false;
+        }
+
+        payloadBuffer = buffer;
+        payloadLength = (int) length;
+        position = payloadOffset + payloadLength;
+        return true;
+    }
+
+    /**
+     * รวม payload ของ chunked record ทุกส่วนเข้าด้วยกัน
+     * (กรณีเดียวที่ต้องคัดลอกข้อมูล เพราะ payload ไม่ต่อเนื่องกันใน buffer)
+     */
+    private boolean assembleChunks() {
+        int firstHeader = header;
+        int firstTypeOffset = typeOffset;
+        int firstTypeLength = typeLength;
+        int firstIdOffset = idOffset;
+        int firstIdLength = idLength;
+        int firstPayloadOffset = payloadOffset;
+        int firstPayloadLength = payloadLength;
+
+        // รอบแรก: หาความยาวรวมและตรวจสอบรูปแบบ
+        int start = position;
+        long totalLength = payloadLength;
+        int lastHeader;
+        do {
+            if (!readRecordHeader() || (header & TNF_MASK) != TNF_UNCHANGED || typeLength != 0) {
+                return false;
+            }
+            totalLength += payloadLength;
+            lastHeader = header;
+        } while ((header & FLAG_CF) != 0);
+
+        if (totalLength > Integer.MAX_VALUE) {
+            return false;
+        }
+        int end = position;
+
+        // รอบสอง: คัดลอก payload ของทุกส่วน
+        byte[] assembled = new byte[(int) totalLength];
+        int copied = copyPayload(firstPayloadOffset, firstPayloadOffset + firstPayloadLength, assembled, 0);
+        position = start;
+        while (position < end) {
+            readRecordHeader();
+            copied = copyPayload(payloadOffset, payloadOffset + payloadLength, assembled, copied);
+        }
+
+        // คืนค่า type และ id ของส่วนแรก และใช้ flag ME จากส่วนสุดท้าย
+        header = (firstHeader & ~(FLAG_CF | FLAG_ME)) | (lastHeader & FLAG_ME);
+        typeOffset = firstTypeOffset;
+        typeLength = firstTypeLength;
+        idOffset = firstIdOffset;
+        idLength = firstIdLength;
+        payloadBuffer = ByteBuffer.wrap(assembled);
+        payloadOffset = 0;
+        payloadLength = assembled.length;
+        position = end;
+        return true;
+    }
+
+    private int copyPayload(int from, int to, byte[] target, int targetOffset) {
+        for (int i = from; i < to; i++) {
+            target[targetOffset++] = buffer.get(i);
+        }
+        return targetOffset;
+    }
+
+    private NdefParser getNestedParser() {
+        if (nestedParser == null) {
+            nestedParser = new NdefParser();
+        }
+        return nestedParser.reset(payloadView());
+    }
+
+    private ByteBuffer payloadView() {
+        ByteBuffer view = payloadBuffer.duplicate();
+        view.limit(payloadOffset + payloadLength);
+        view.position(payloadOffset);
+        return view.slice();
+    }
+
+    private boolean fail() {
+        malformed = true;
+        finished = true;
+        clearRecord();
+        return false;
+    }
+
+    private void clearRecord() {
+        header = 0;
+        typeOffset = 0;
+        typeLength = 0;
+        idOffset = 0;
+        idLength = 0;
+        payloadBuffer = buffer;
+        payloadOffset = 0;
+        payloadLength = 0;
+    }
+
+    private static String decode(ByteBuffer source, int offset, int length, Charset charset) {
+        if (source.hasArray()) {
+            return new String(source.array(), source.arrayOffset() + offset, length, charset);
+        }
+
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = source.get(offset + i);
+        }
+        return new String(bytes, charset);
+    }
+}
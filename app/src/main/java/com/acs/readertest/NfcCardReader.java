@@ -3,9 +3,16 @@ package com.acs.readertest;
 import android.util.Log;
 
 import com.acs.smartcard.Reader;
+import com.acs.smartcard.ReaderException;
 
-import java.nio.charset.StandardCharsets;
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * คลาสสำหรับอ่านข้อมูล UID และ NDEF จากการ์ด NFC ผ่าน ACR122U
@@ -34,35 +41,70 @@ public class NfcCardReader {
             (byte) 0x00  // Le
     };
     
-    private static final byte[] SELECT_NDEF_CC_FILE = {
-            (byte) 0x00, // CLA
-            (byte) 0xA4, // INS
-            (byte) 0x00, // P1
-            (byte) 0x0C, // P2
-            (byte) 0x02, // Lc
-            (byte) 0xE1, (byte) 0x03, // File ID ของ Capability Container
-            (byte) 0x00  // Le
-    };
+    // File ID ของ Capability Container
+    private static final int CC_FILE_ID = 0xE103;
     
-    private static final byte[] SELECT_NDEF_FILE = {
-            (byte) 0x00, // CLA
-            (byte) 0xA4, // INS
-            (byte) 0x00, // P1
-            (byte) 0x0C, // P2
-            (byte) 0x02, // Lc
-            (byte) 0xE1, (byte) 0x04, // File ID ของ NDEF File
-            (byte) 0x00  // Le
-    };
+    // การ์ด Type 2 (NTAG21x / Ultralight): หน่วยความจำเป็นหน้า หน้าละ 4 ไบต์ CC อยู่ที่หน้า 3
+    private static final int TYPE2_PAGE_SIZE = 4;
+    private static final int TYPE2_CC_PAGE = 3;
+    private static final int TYPE2_CC_MAGIC = 0xE1;
     
-    private static final byte[] READ_BINARY = {
-            (byte) 0x00, // CLA
-            (byte) 0xB0, // INS
-            (byte) 0x00, // P1
-            (byte) 0x00, // P2
-            (byte) 0x0F  // Le: จำนวนไบต์ที่ต้องการอ่าน
-    };
+    // อ่านครั้งแรกหน้า 3 - 15 ซึ่งมีในการ์ด Type 2 ทุกรุ่น (CC และข้อมูล 48 ไบต์แรก)
+    private static final int TYPE2_FIRST_READ_PAGES = 13;
+    
+    // FAST_READ ครั้งละไม่เกิน 60 หน้า (240 ไบต์) ให้พอดีกับ frame ของ PN532
+    private static final int TYPE2_MAX_FAST_READ_PAGES = 60;
+    
+    // จำนวนการ์ดสูงสุดที่จำไว้ว่าไม่รองรับ FAST_READ (ล้างทั้งหมดเมื่อเต็ม)
+    private static final int TYPE2_FAST_READ_CACHE_SIZE = 256;
+    
+    // จำนวนการ์ด Type 4 สูงสุดที่จำ Capability Container ไว้ (ล้างทั้งหมดเมื่อเต็ม)
+    private static final int CC_CACHE_SIZE = 256;
+    
+    // READ ของ Type 2 คืนข้อมูล 4 หน้า (16 ไบต์) ต่อคำสั่ง
+    private static final int TYPE2_READ_SIZE = 16;
+    
+    // TLV ในพื้นที่ข้อมูลของ Type 2
+    private static final int TLV_NULL = 0x00;
+    private static final int TLV_NDEF = 0x03;
+    private static final int TLV_TERMINATOR = 0xFE;
     
     private final Reader reader;
+    private final ApduTransport transport;
+    
+    // session ของการ์ดที่ยังวางอยู่บนเครื่องอ่าน แยกตาม slot
+    private final Map<Integer, ReadResult> sessions = new HashMap<>();
+    
+    // ใช้ซ้ำในทุกการอ่าน (การอ่านการ์ดทำใน thread เดียว)
+    private final NdefParser ndefParser = new NdefParser();
+    private byte[] ndefBuffer = new byte[ApduTransport.MAX_RESPONSE_SIZE];
+    
+    // ประเภทการ์ดที่จำแนกแล้ว แยกตาม ATR
+    private final CardClassifier classifier = new CardClassifier();
+    
+    // Capability Container ที่อ่านแล้ว แยกตาม UID
+    // การ์ด Type 4 ต่างรุ่นใช้ ATR ทั่วไปร่วมกันได้ (File ID และขนาด NDEF ต่างกัน) จึงไม่ใช้ ATR เป็น key
+    private final Map<String, CapabilityContainer> ccCache = new HashMap<>();
+    
+    // คำสั่งอ่านหน้าของ Type 2 (ใช้ซ้ำ)
+    private final byte[] type2Command = new byte[10];
+    
+    // การ์ด Type 2 ที่ตอบ FAST_READ ด้วย NAK แยกตาม UID (หรือ ATR ถ้าอ่าน UID ไม่ได้)
+    // การ์ด Type 2 ทุกรุ่นมี ATR เดียวกันบน ACR122U จึงไม่ใช้ ATR อย่างเดียว
+    private final Set<String> type2FastReadUnsupported = new HashSet<>();
+    
+    // การ์ดที่กำลังอ่านอยู่ และผลว่าการ์ดนี้ยังใช้ FAST_READ ได้หรือไม่
+    private String type2CardKey;
+    private boolean type2FastRead;
+    
+    // จำนวนครั้งที่การอ่านล้มเหลวด้วย exception จากเครื่องอ่าน (เช่น power การ์ดไม่สำเร็จ)
+    private int readErrorCount = 0;
+    
+    // จำนวนคำสั่งนอก ApduTransport (power, escape ของการอ่านหลายใบ) ที่ล้มเหลวในระดับเครื่องอ่านหรือ USB
+    private int readerErrorCount = 0;
+    
+    // อ่าน UID ของการ์ดหลายใบในสนามพร้อมกัน (เฉพาะเครื่องอ่านที่ใช้ PN532)
+    private final Pn532TargetScanner targetScanner;
     
     /**
      * คอนสตรัคเตอร์
@@ -71,236 +113,692 @@ public class NfcCardReader {
      */
     public NfcCardReader(Reader reader) {
         this.reader = reader;
+        this.transport = new ApduTransport(reader);
+        this.targetScanner = new Pn532TargetScanner(reader);
     }
     
     /**
-     * อ่าน UID จากการ์ด
+     * ประเภทของการ์ดที่ตรวจจากค่า ATR (ดู {@link CardClassifier})
+     */
+    public enum CardTechnology {
+        MIFARE_CLASSIC,
+        MIFARE_PLUS,
+        MIFARE_ULTRALIGHT,
+        TOPAZ,
+        FELICA,
+        ISO15693,
+        STORAGE_OTHER,
+        MIFARE_DESFIRE,
+        ISO14443_4,
+        UNKNOWN
+    }
+    
+    /**
+     * ผลลัพธ์จากการอ่านการ์ดหนึ่งครั้ง (power การ์ดเพียงครั้งเดียว)
+     */
+    public static class ReadResult {
+        public int slotNum;
+        public byte[] atr;
+        public String uid;
+        public List<String> ndefRecords = Collections.emptyList();
+        public CardTechnology technology = CardTechnology.UNKNOWN;
+        
+        // true ถ้าได้พยายามอ่าน NDEF แล้วใน session นี้
+        public boolean ndefRead;
+        
+        // เวลาที่ใช้ในแต่ละขั้นตอน (nanoseconds)
+        public long powerTimeNanos;
+        public long uidTimeNanos;
+        public long ndefTimeNanos;
+        public long totalTimeNanos;
+        
+        /**
+         * ID ของการ์ดที่ใช้เชื่อมโยงกับไฟล์สื่อ: UID ก่อน ถ้าไม่มีให้ใช้ NDEF Text record แรก
+         */
+        public String getCardId() {
+            if (uid != null) {
+                return uid;
+            }
+            return ndefRecords.isEmpty() ? null : ndefRecords.get(0);
+        }
+        
+        /**
+         * สรุปเวลาที่ใช้ในการอ่าน (สำหรับ log)
+         */
+        public String getTimingSummary() {
+            return String.format(Locale.US, "power=%.1fms uid=%.1fms ndef=%.1fms total=%.1fms",
+                    powerTimeNanos / 1e6, uidTimeNanos / 1e6, ndefTimeNanos / 1e6, totalTimeNanos / 1e6);
+        }
+    }
+    
+    /**
+     * อ่านการ์ดโดย reset และตั้งค่า protocol เพียงครั้งเดียว
+     * จะอ่าน NDEF ก็ต่อเมื่ออ่าน UID ไม่สำเร็จ
+     * ถ้าการ์ดใบเดิมยังวางอยู่บนเครื่องอ่าน จะคืนผลลัพธ์จาก session โดยไม่ส่งคำสั่งไปยังการ์ด
      * 
      * @param slotNum หมายเลข slot ของเครื่องอ่าน
-     * @return UID ในรูปแบบ Hex String หรือ null ถ้าอ่านไม่สำเร็จ
+     * @return ผลลัพธ์การอ่าน หรือ null ถ้าไม่พบการ์ดหรือเปิดใช้งานการ์ดไม่สำเร็จ
      */
-    public String readCardUid(int slotNum) {
+    public ReadResult readCard(int slotNum) {
+        return readCard(slotNum, false);
+    }
+    
+    /**
+     * อ่านการ์ดโดย reset และตั้งค่า protocol เพียงครั้งเดียว
+     * 
+     * @param slotNum หมายเลข slot ของเครื่องอ่าน
+     * @param alwaysReadNdef true เพื่ออ่าน NDEF แม้จะอ่าน UID สำเร็จแล้ว
+     * @return ผลลัพธ์การอ่าน หรือ null ถ้าไม่พบการ์ดหรือเปิดใช้งานการ์ดไม่สำเร็จ
+     */
+    public ReadResult readCard(int slotNum, boolean alwaysReadNdef) {
+        long startTime = System.nanoTime();
         try {
-            if (!isCardPresent(slotNum)) {
+            int state = reader.getState(slotNum);
+            if (!isPresentState(state)) {
+                invalidateSession(slotNum);
                 Log.d(TAG, "ไม่พบการ์ดใน slot " + slotNum);
                 return null;
             }
             
-            // รีเซ็ตการ์ด
-            byte[] atr = reader.power(slotNum, Reader.CARD_WARM_RESET);
-            if (atr == null || atr.length == 0) {
-                Log.e(TAG, "ไม่สามารถเปิดใช้งานการ์ดได้");
-                return null;
+            // การ์ดใบเดิมยังวางอยู่: ใช้ session เดิมโดยไม่ reset การ์ด
+            ReadResult session = getSession(slotNum, state);
+            if (session != null) {
+                if (!session.ndefRead && alwaysReadNdef) {
+                    readNdefIntoResult(slotNum, session);
+                }
+                return session;
             }
             
-            // ตั้งค่า protocol
-            int protocol = reader.setProtocol(slotNum, Reader.PROTOCOL_T0 | Reader.PROTOCOL_T1);
-            if (protocol < 0) {
-                Log.e(TAG, "ไม่สามารถตั้งค่า protocol ได้");
+            byte[] atr = powerUpCard(slotNum);
+            if (atr == null) {
                 return null;
             }
             
-            // ส่งคำสั่ง APDU เพื่ออ่าน UID
-            byte[] response = new byte[300];
-            int responseLength = reader.transmit(slotNum, GET_UID_COMMAND, GET_UID_COMMAND.length, response, response.length);
+            ReadResult result = new ReadResult();
+            result.slotNum = slotNum;
+            result.atr = atr;
+            result.technology = classifier.classify(atr);
+            long poweredTime = System.nanoTime();
+            result.powerTimeNanos = poweredTime - startTime;
             
-            // ตรวจสอบผลลัพธ์
-            if (responseLength < 2) {
-                Log.e(TAG, "ผลลัพธ์จากคำสั่งอ่าน UID ไม่ถูกต้อง");
-                return null;
-            }
+            result.uid = transmitGetUid(slotNum);
+            long uidTime = System.nanoTime();
+            result.uidTimeNanos = uidTime - poweredTime;
             
-            // ตรวจสอบ Status Word (2 ไบต์สุดท้าย)
-            int sw = ((response[responseLength - 2] & 0xff) << 8) | (response[responseLength - 1] & 0xff);
-            if (sw != 0x9000) {
-                Log.e(TAG, "Status word ของคำสั่งอ่าน UID ไม่ถูกต้อง: " + Integer.toHexString(sw));
-                return null;
+            if (result.uid == null || alwaysReadNdef) {
+                readNdefIntoResult(slotNum, result);
             }
             
-            // แปลง UID เป็น Hex String
-            byte[] uid = Arrays.copyOfRange(response, 0, responseLength - 2);
-            return bytesToHex(uid);
+            result.totalTimeNanos = System.nanoTime() - startTime;
+            
+            // เก็บ session เฉพาะเมื่ออ่านได้ ID เพื่อให้ลองอ่านใหม่ในรอบถัดไปถ้าอ่านไม่สำเร็จ
+            if (result.getCardId() != null) {
+                putSession(slotNum, result);
+            }
+            return result;
             
         } catch (Exception e) {
-            Log.e(TAG, "เกิดข้อผิดพลาดในการอ่าน UID", e);
+            Log.e(TAG, "เกิดข้อผิดพลาดในการอ่านการ์ด", e);
+            readErrorCount++;
+            if (transport.isReaderFailure(e)) {
+                readerErrorCount++;
+            }
+            invalidateSession(slotNum);
             return null;
         }
     }
     
     /**
-     * อ่านข้อมูล NDEF จากการ์ด
+     * จำนวนการอ่านที่ล้มเหลวด้วย exception ตั้งแต่สร้าง (รวมกรณีที่เกิดจากการ์ด เช่น นำการ์ดออกระหว่างอ่าน)
+     */
+    public int getReadErrorCount() {
+        return readErrorCount;
+    }
+    
+    /**
+     * จำนวนคำสั่งที่ส่งถึงเครื่องอ่านไม่สำเร็จในระดับ USB ตั้งแต่สร้าง (เพิ่มขึ้นอย่างเดียว)
+     * ถ้าค่าเปลี่ยนระหว่างการอ่านหนึ่งรอบ แสดงว่ารอบนั้นมีการสื่อสารกับเครื่องอ่านล้มเหลว
+     */
+    public int getTransportErrorCount() {
+        return transport.getTransportErrorCount() + readerErrorCount;
+    }
+    
+    /**
+     * อ่าน UID ของการ์ดทุกใบในสนามของ slot ในคำสั่งเดียว (สูงสุด {@link Pn532TargetScanner#MAX_TARGETS} ใบ)
+     * ไม่ power การ์ดและไม่อ่าน NDEF
      * 
      * @param slotNum หมายเลข slot ของเครื่องอ่าน
-     * @return ข้อความจาก NDEF Record หรือ null ถ้าอ่านไม่สำเร็จ
+     * @return รายการ UID (ว่างถ้าไม่พบการ์ด) หรือ null ถ้าเครื่องอ่านไม่รองรับหรือสื่อสารไม่สำเร็จ
      */
-    public String readNdefText(int slotNum) {
+    public List<String> listCardUids(int slotNum) {
+        if (!targetScanner.isSupported()) {
+            return null;
+        }
+        // การตอบผิดรูปแบบไม่ใช่ความล้มเหลวของเครื่องอ่าน นับเฉพาะคำสั่งที่ส่งไม่สำเร็จ
+        int errorsBefore = targetScanner.getEscapeErrorCount();
+        List<String> uids = targetScanner.listTargets(slotNum);
+        if (targetScanner.getEscapeErrorCount() != errorsBefore) {
+            readerErrorCount++;
+        }
+        return uids;
+    }
+    
+    /**
+     * คืนการ polling อัตโนมัติของ firmware ที่ปิดไว้ระหว่างอ่านการ์ดหลายใบ
+     * 
+     * @param slotNum หมายเลข slot ของเครื่องอ่าน
+     */
+    public void restoreReaderPolling(int slotNum) {
+        targetScanner.restoreReaderPolling(slotNum);
+    }
+    
+    /**
+     * false ถ้าเครื่องอ่านไม่รองรับการอ่านการ์ดหลายใบพร้อมกัน (ทราบหลังเรียก {@link #listCardUids(int)})
+     */
+    public boolean isMultiCardSupported() {
+        return targetScanner.isSupported();
+    }
+    
+    /**
+     * จำนวน slot ของเครื่องอ่าน (เช่น เครื่องอ่านแบบ dual-interface มี slot สำหรับการ์ดแบบสัมผัสและไร้สัมผัส)
+     * 
+     * @return จำนวน slot อย่างน้อย 1
+     */
+    public int getSlotCount() {
         try {
-            if (!isCardPresent(slotNum)) {
-                Log.d(TAG, "ไม่พบการ์ดใน slot " + slotNum);
-                return null;
+            return Math.max(reader.getNumSlots(), 1);
+        } catch (Exception e) {
+            Log.e(TAG, "ไม่สามารถอ่านจำนวน slot ได้", e);
+            return 1;
+        }
+    }
+    
+    /**
+     * อ่านการ์ดจากทุก slot ในรอบเดียวและคืนผลลัพธ์แรกที่อ่าน ID ได้
+     * slot ที่ไม่มีการ์ดจะถูกตรวจเพียงสถานะ และ slot ที่มี session อยู่แล้วจะไม่ถูก reset
+     * 
+     * @return ผลลัพธ์การอ่าน หรือ null ถ้าไม่พบการ์ดที่อ่านได้ใน slot ใดเลย
+     */
+    public ReadResult readFirstCard() {
+        int slotCount = getSlotCount();
+        for (int slotNum = 0; slotNum < slotCount; slotNum++) {
+            ReadResult result = readCard(slotNum);
+            if (result != null && result.getCardId() != null) {
+                return result;
             }
-            
-            // รีเซ็ตการ์ด
-            byte[] atr = reader.power(slotNum, Reader.CARD_WARM_RESET);
-            if (atr == null || atr.length == 0) {
-                Log.e(TAG, "ไม่สามารถเปิดใช้งานการ์ดได้");
-                return null;
+        }
+        return null;
+    }
+    
+    /**
+     * ยกเลิก session ของ slot (เรียกเมื่อการ์ดถูกนำออก)
+     * การอ่านครั้งถัดไปจะ reset การ์ดและอ่านใหม่ทั้งหมด
+     * 
+     * @param slotNum หมายเลข slot ของเครื่องอ่าน
+     */
+    public void invalidateSession(int slotNum) {
+        synchronized (sessions) {
+            if (sessions.remove(slotNum) != null) {
+                Log.d(TAG, "ยกเลิก session ของ slot " + slotNum);
             }
-            
-            // ตั้งค่า protocol
-            int protocol = reader.setProtocol(slotNum, Reader.PROTOCOL_T0 | Reader.PROTOCOL_T1);
-            if (protocol < 0) {
-                Log.e(TAG, "ไม่สามารถตั้งค่า protocol ได้");
+        }
+    }
+    
+    /**
+     * ยกเลิก session ทั้งหมด (เรียกเมื่อปิดเครื่องอ่าน)
+     */
+    public void clearSessions() {
+        synchronized (sessions) {
+            sessions.clear();
+        }
+    }
+    
+    /**
+     * ดึง session ของ slot ถ้าการ์ดยังอยู่ในสถานะที่ถูกเปิดใช้งานโดย session นั้น
+     */
+    private ReadResult getSession(int slotNum, int state) {
+        synchronized (sessions) {
+            ReadResult session = sessions.get(slotNum);
+            if (session == null) {
                 return null;
             }
             
-            // 1. เลือก NDEF Application
-            byte[] response = new byte[300];
-            int responseLength = reader.transmit(slotNum, SELECT_NDEF_APP_COMMAND, SELECT_NDEF_APP_COMMAND.length, response, response.length);
-            
-            // ตรวจสอบ Status Word
-            int sw = ((response[responseLength - 2] & 0xff) << 8) | (response[responseLength - 1] & 0xff);
-            if (sw != 0x9000) {
-                Log.d(TAG, "ไม่ใช่ NDEF Application, ลองอ่าน UID แทน");
+            // การ์ดที่เรา power แล้วจะอยู่ในสถานะ POWERED/NEGOTIABLE/SPECIFIC
+            // ถ้ากลับมาเป็น PRESENT แสดงว่ามีการนำการ์ดออกแล้ววางใหม่ระหว่างรอบ polling
+            if (state == Reader.CARD_PRESENT) {
+                sessions.remove(slotNum);
                 return null;
             }
+            return session;
+        }
+    }
+    
+    private void putSession(int slotNum, ReadResult result) {
+        synchronized (sessions) {
+            sessions.put(slotNum, result);
+        }
+    }
+    
+    /**
+     * อ่าน NDEF จากการ์ดที่เปิดใช้งานแล้วและเก็บลงในผลลัพธ์
+     */
+    private void readNdefIntoResult(int slotNum, ReadResult result) {
+        long ndefStart = System.nanoTime();
+        int ndefLength;
+        switch (CardClassifier.getNdefAccess(result.technology)) {
+            case TYPE2:
+                // การ์ด Type 2 ไม่มี NDEF Application จึงอ่านหน้าหน่วยความจำโดยตรง
+                ndefLength = transmitReadType2Ndef(slotNum, result);
+                break;
+            case TYPE4:
+                ndefLength = transmitReadNdef(slotNum, result.uid);
+                break;
+            default:
+                // การ์ดที่ไม่มี NDEF แบบ Type 4 ไม่ต้องเสียเวลา SELECT
+                Log.d(TAG, "ข้ามการอ่าน NDEF สำหรับการ์ด " + result.technology);
+                ndefLength = -1;
+                break;
+        }
+        if (ndefLength > 0) {
+            result.ndefRecords = extractRecordsFromNdef(ndefBuffer, ndefLength);
+        }
+        result.ndefRead = true;
+        result.ndefTimeNanos = System.nanoTime() - ndefStart;
+    }
+    
+    /**
+     * อ่าน UID จากการ์ด
+     * 
+     * @param slotNum หมายเลข slot ของเครื่องอ่าน
+     * @return UID ในรูปแบบ Hex String หรือ null ถ้าอ่านไม่สำเร็จ
+     */
+    public String readCardUid(int slotNum) {
+        ReadResult result = readCard(slotNum);
+        return result != null ? result.uid : null;
+    }
+    
+    /**
+     * อ่านข้อมูล NDEF จากการ์ด
+     * 
+     * @param slotNum หมายเลข slot ของเครื่องอ่าน
+     * @return ข้อความจาก NDEF Record หรือ null ถ้าอ่านไม่สำเร็จ
+     */
+    public String readNdefText(int slotNum) {
+        ReadResult result = readCard(slotNum, true);
+        if (result == null || result.ndefRecords.isEmpty()) {
+            return null;
+        }
+        return result.ndefRecords.get(0);
+    }
+    
+    /**
+     * รีเซ็ตการ์ดและตั้งค่า protocol
+     * 
+     * @return ATR ของการ์ด หรือ null ถ้าไม่สำเร็จ
+     */
+    private byte[] powerUpCard(int slotNum) throws ReaderException {
+        // รีเซ็ตการ์ด
+        byte[] atr = reader.power(slotNum, Reader.CARD_WARM_RESET);
+        if (atr == null || atr.length == 0) {
+            Log.e(TAG, "ไม่สามารถเปิดใช้งานการ์ดได้");
+            return null;
+        }
+        
+        // ตั้งค่า protocol
+        int protocol = reader.setProtocol(slotNum, Reader.PROTOCOL_T0 | Reader.PROTOCOL_T1);
+        if (protocol < 0) {
+            Log.e(TAG, "ไม่สามารถตั้งค่า protocol ได้");
+            return null;
+        }
+        
+        return atr;
+    }
+    
+    /**
+     * ส่งคำสั่งอ่าน UID ไปยังการ์ดที่เปิดใช้งานแล้ว
+     */
+    private String transmitGetUid(int slotNum) {
+        // ส่งคำสั่ง APDU เพื่ออ่าน UID
+        ApduTransport.Response response = transport.transmit(slotNum, GET_UID_COMMAND, GET_UID_COMMAND.length);
+        
+        // ตรวจสอบ Status Word
+        if (!response.isSuccess()) {
+            Log.e(TAG, "อ่าน UID ไม่สำเร็จ: " + response.describe());
+            return null;
+        }
+        
+        // แปลง UID เป็น Hex String
+        return Hex.toCompactHexString(response.getBuffer(), 0, response.getDataLength());
+    }
+    
+    /**
+     * อ่าน NDEF Message จากการ์ด Type 4 ที่เปิดใช้งานแล้วลงใน ndefBuffer
+     * ใช้ค่า MLe และ File ID จาก Capability Container และอ่านเป็นช่วงให้ได้มากที่สุดต่อคำสั่ง
+     * 
+     * @return ความยาวของ NDEF Message (ไม่รวม NLEN) หรือ -1 ถ้าอ่านไม่สำเร็จ
+     */
+    private int transmitReadNdef(int slotNum, String uid) {
+        // 1. เลือก NDEF Application
+        ApduTransport.Response response = transport.transmit(slotNum, SELECT_NDEF_APP_COMMAND, SELECT_NDEF_APP_COMMAND.length);
+        if (!response.isSuccess()) {
+            Log.d(TAG, "ไม่ใช่ NDEF Application, ลองอ่าน UID แทน");
+            return -1;
+        }
+        
+        // 2. อ่าน Capability Container (ใช้ค่าที่ cache ไว้ถ้าเคยอ่านการ์ดใบนี้แล้ว)
+        CapabilityContainer cc = getCapabilityContainer(slotNum, uid);
+        if (cc == null) {
+            return -1;
+        }
+        
+        // 3. เลือก NDEF File ตาม File ID ใน CC
+        response = transport.selectFile(slotNum, cc.ndefFileId);
+        if (!response.isSuccess()) {
+            Log.e(TAG, "ไม่สามารถเลือก NDEF File ได้: " + response.describe());
+            return -1;
+        }
+        
+        // 4. อ่านช่วงแรก: NLEN (2 ไบต์) และข้อมูล NDEF ส่วนต้น
+        int chunkSize = cc.getReadChunkSize(ApduTransport.MAX_RESPONSE_SIZE);
+        response = transport.readBinary(slotNum, 0, Math.min(chunkSize, cc.maxNdefSize));
+        if (!response.isSuccess() || response.getDataLength() < 2) {
+            Log.e(TAG, "ไม่สามารถอ่าน NDEF ได้: " + response.describe());
+            return -1;
+        }
+        
+        int ndefLength = response.getUnsignedShort(0);
+        Log.d(TAG, "ความยาวของ NDEF: " + ndefLength + " ไบต์");
+        
+        if (ndefLength == 0) {
+            Log.d(TAG, "ไม่มีข้อมูล NDEF");
+            return -1;
+        }
+        
+        if (ndefLength > cc.maxNdefSize - 2) {
+            Log.e(TAG, "ความยาวของ NDEF เกินขนาดไฟล์: " + ndefLength + " > " + (cc.maxNdefSize - 2));
+            return -1;
+        }
+        
+        // ขยาย buffer เฉพาะเมื่อพบ NDEF ที่ใหญ่กว่าที่เคยอ่าน
+        if (ndefBuffer.length < ndefLength) {
+            ndefBuffer = new byte[ndefLength];
+        }
+        int copied = response.copyData(2, ndefBuffer, 0, ndefLength);
+        
+        // 5. อ่านส่วนที่เหลือทีละช่วง
+        int readCount = 1;
+        while (copied < ndefLength) {
+            response = transport.readBinary(slotNum, 2 + copied, Math.min(chunkSize, ndefLength - copied));
+            if (!response.isSuccess() || response.getDataLength() == 0) {
+                Log.e(TAG, "อ่าน NDEF ไม่ครบ: " + copied + "/" + ndefLength + " ไบต์ (" + response.describe() + ")");
+                return -1;
+            }
             
-            // 2. เลือก Capability Container
-            responseLength = reader.transmit(slotNum, SELECT_NDEF_CC_FILE, SELECT_NDEF_CC_FILE.length, response, response.length);
-            sw = ((response[responseLength - 2] & 0xff) << 8) | (response[responseLength - 1] & 0xff);
-            if (sw != 0x9000) {
-                Log.e(TAG, "ไม่สามารถเลือก Capability Container ได้: " + Integer.toHexString(sw));
-                return null;
+            copied += response.copyData(0, ndefBuffer, copied, ndefLength - copied);
+            readCount++;
+        }
+        
+        Log.d(TAG, "อ่าน NDEF " + ndefLength + " ไบต์ ใน " + readCount + " คำสั่ง (ครั้งละไม่เกิน " + chunkSize + " ไบต์)");
+        return ndefLength;
+    }
+    
+    /**
+     * อ่าน NDEF Message จากการ์ด NFC Forum Type 2 ที่เปิดใช้งานแล้วลงใน ndefBuffer
+     * อ่าน CC และหา NDEF TLV ในพื้นที่ข้อมูล แล้วอ่านเฉพาะหน้าที่ยังขาดด้วยคำสั่งเดียว
+     * 
+     * @return ความยาวของ NDEF Message หรือ -1 ถ้าอ่านไม่สำเร็จ
+     */
+    private int transmitReadType2Ndef(int slotNum, ReadResult result) {
+        type2CardKey = result.uid != null ? result.uid : Hex.toCompactHexString(result.atr, 0, result.atr.length);
+        synchronized (type2FastReadUnsupported) {
+            type2FastRead = !type2FastReadUnsupported.contains(type2CardKey);
+        }
+        
+        // 1. อ่าน CC และส่วนต้นของพื้นที่ข้อมูล (ตำแหน่ง 0 ของ buffer คือหน้า 3)
+        int available = readType2Memory(slotNum, 0, TYPE2_FIRST_READ_PAGES * TYPE2_PAGE_SIZE);
+        if (available < TYPE2_PAGE_SIZE) {
+            return -1;
+        }
+        
+        if ((ndefBuffer[0] & 0xFF) != TYPE2_CC_MAGIC) {
+            Log.d(TAG, "การ์ด Type 2 ไม่ได้ format เป็น NDEF");
+            return -1;
+        }
+        
+        // ขนาดพื้นที่ข้อมูลอยู่ในไบต์ที่ 2 ของ CC (หน่วย 8 ไบต์)
+        int memoryEnd = TYPE2_PAGE_SIZE + (ndefBuffer[2] & 0xFF) * 8;
+        
+        // 2. หา NDEF TLV ในพื้นที่ข้อมูล
+        int offset = TYPE2_PAGE_SIZE;
+        while (offset < memoryEnd) {
+            available = readType2Memory(slotNum, available, Math.min(offset + 4, memoryEnd));
+            if (available < 0) {
+                return -1;
             }
             
-            // 3. เลือก NDEF File
-            responseLength = reader.transmit(slotNum, SELECT_NDEF_FILE, SELECT_NDEF_FILE.length, response, response.length);
-            sw = ((response[responseLength - 2] & 0xff) << 8) | (response[responseLength - 1] & 0xff);
-            if (sw != 0x9000) {
-                Log.e(TAG, "ไม่สามารถเลือก NDEF File ได้: " + Integer.toHexString(sw));
-                return null;
+            int type = ndefBuffer[offset] & 0xFF;
+            if (type == TLV_NULL) {
+                offset++;
+                continue;
+            }
+            if (type == TLV_TERMINATOR || offset + 1 >= memoryEnd) {
+                break;
             }
             
-            // 4. อ่านความยาวของ NDEF Message
-            responseLength = reader.transmit(slotNum, READ_BINARY, READ_BINARY.length, response, response.length);
-            sw = ((response[responseLength - 2] & 0xff) << 8) | (response[responseLength - 1] & 0xff);
-            if (sw != 0x9000) {
-                Log.e(TAG, "ไม่สามารถอ่าน NDEF ได้: " + Integer.toHexString(sw));
-                return null;
+            // ความยาว 1 ไบต์ หรือ FF ตามด้วยความยาว 2 ไบต์
+            int length = ndefBuffer[offset + 1] & 0xFF;
+            int valueOffset = offset + 2;
+            if (length == 0xFF) {
+                length = ((ndefBuffer[offset + 2] & 0xFF) << 8) | (ndefBuffer[offset + 3] & 0xFF);
+                valueOffset = offset + 4;
             }
             
-            // ข้อมูลใน response: [0, 1] = ความยาวของ NDEF Message
-            int ndefLength = ((response[0] & 0xff) << 8) | (response[1] & 0xff);
-            Log.d(TAG, "ความยาวของ NDEF: " + ndefLength + " ไบต์");
+            if (type != TLV_NDEF) {
+                // Lock Control, Memory Control หรือ TLV อื่นๆ
+                offset = valueOffset + length;
+                continue;
+            }
             
-            if (ndefLength == 0) {
+            if (length == 0) {
                 Log.d(TAG, "ไม่มีข้อมูล NDEF");
-                return null;
+                return -1;
             }
-            
-            // 5. อ่านข้อมูล NDEF
-            byte[] readRecordCommand = {
-                    (byte) 0x00, // CLA
-                    (byte) 0xB0, // INS
-                    (byte) 0x00, // P1
-                    (byte) 0x02, // P2: เริ่มอ่านจาก offset 2
-                    (byte) (ndefLength & 0xFF)  // Le: จำนวนไบต์ที่ต้องการอ่าน
-            };
-            
-            responseLength = reader.transmit(slotNum, readRecordCommand, readRecordCommand.length, response, response.length);
-            sw = ((response[responseLength - 2] & 0xff) << 8) | (response[responseLength - 1] & 0xff);
-            if (sw != 0x9000) {
-                Log.e(TAG, "ไม่สามารถอ่านข้อมูล NDEF ได้: " + Integer.toHexString(sw));
-                return null;
+            if (valueOffset + length > memoryEnd) {
+                Log.e(TAG, "ความยาวของ NDEF เกินพื้นที่ข้อมูล: " + length + " ไบต์");
+                return -1;
             }
             
-            // แปลง NDEF เป็นข้อความ
-            byte[] ndefData = Arrays.copyOfRange(response, 0, responseLength - 2);
-            
-            // แปลง NDEF Data เป็นข้อความ (ตัดเฉพาะส่วนที่เป็นข้อความ)
-            // นี่เป็นการแปลงแบบง่ายๆ สำหรับ NDEF Text Record
-            String text = extractTextFromNdef(ndefData);
-            if (text != null && !text.isEmpty()) {
-                return text;
+            // 3. อ่านหน้าที่เหลือของ NDEF แล้วย้ายข้อมูลไปไว้ต้น buffer
+            available = readType2Memory(slotNum, available, valueOffset + length);
+            if (available < 0) {
+                return -1;
             }
-            
-            return null;
-            
-        } catch (Exception e) {
-            Log.e(TAG, "เกิดข้อผิดพลาดในการอ่าน NDEF", e);
-            return null;
+            System.arraycopy(ndefBuffer, valueOffset, ndefBuffer, 0, length);
+            Log.d(TAG, "อ่าน NDEF จากการ์ด Type 2: " + length + " ไบต์");
+            return length;
         }
+        
+        Log.d(TAG, "ไม่พบ NDEF TLV ในการ์ด Type 2");
+        return -1;
     }
     
     /**
-     * แปลงข้อมูล NDEF เป็นข้อความ (แบบง่าย)
+     * อ่านหน่วยความจำของการ์ด Type 2 ต่อจากที่อ่านไว้แล้วจนได้อย่างน้อย required ไบต์
+     * 
+     * @param available จำนวนไบต์ที่อ่านไว้แล้วใน ndefBuffer (นับจากหน้า 3)
+     * @return จำนวนไบต์ที่อ่านแล้ว หรือ -1 ถ้าอ่านไม่สำเร็จ
      */
-    private String extractTextFromNdef(byte[] ndefData) {
-        try {
-            // Skip NDEF header (TNF + Type Length + Payload Length + ID Length + Type)
-            if (ndefData.length < 7) {
-                return null;
+    private int readType2Memory(int slotNum, int available, int required) {
+        while (available < required) {
+            int page = TYPE2_CC_PAGE + available / TYPE2_PAGE_SIZE;
+            int pageCount = (required - available + TYPE2_PAGE_SIZE - 1) / TYPE2_PAGE_SIZE;
+            int read = readType2Pages(slotNum, page, pageCount, available);
+            if (read <= 0) {
+                return -1;
             }
+            available += read;
+        }
+        return available;
+    }
+    
+    /**
+     * อ่านหน้าของการ์ด Type 2 ลงใน ndefBuffer ผ่าน pseudo-APDU ของเครื่องอ่าน
+     * ใช้ FAST_READ (หลายหน้าต่อคำสั่ง) ถ้ารองรับ มิฉะนั้นใช้ READ BINARY ครั้งละ 16 ไบต์
+     * 
+     * @return จำนวนไบต์ที่อ่านได้ หรือ -1 ถ้าอ่านไม่สำเร็จ
+     */
+    private int readType2Pages(int slotNum, int page, int pageCount, int bufferOffset) {
+        if (type2FastRead) {
+            int count = Math.min(pageCount, TYPE2_MAX_FAST_READ_PAGES);
+            int length = count * TYPE2_PAGE_SIZE;
+            ensureNdefBufferCapacity(bufferOffset + length);
             
-            // ตรวจสอบว่าเป็น Text Record หรือไม่ (Type = "T")
-            int offset = 3; // Skip TNF and length fields
-            int typeLength = ndefData[offset] & 0xFF;
-            offset++; // Skip Type Length
-            int payloadLength = ndefData[offset] & 0xFF;
-            offset++; // Skip Payload Length
-            int idLength = ndefData[offset] & 0xFF;
-            offset++; // Skip ID Length
-            
-            // ตรวจสอบ Type
-            if (typeLength != 1 || ndefData[offset] != 'T') {
-                Log.d(TAG, "ไม่ใช่ Text Record");
-                return null;
+            // Direct Transmit: FF 00 00 00 05 [D4 42 3A start end] -> D5 43 00 [ข้อมูล] 90 00
+            type2Command[0] = (byte) 0xFF;
+            type2Command[1] = 0x00;
+            type2Command[2] = 0x00;
+            type2Command[3] = 0x00;
+            type2Command[4] = 0x05;
+            type2Command[5] = (byte) 0xD4;
+            type2Command[6] = 0x42;
+            type2Command[7] = 0x3A;
+            type2Command[8] = (byte) page;
+            type2Command[9] = (byte) (page + count - 1);
+            ApduTransport.Response response = transport.transmit(slotNum, type2Command, type2Command.length);
+            if (response.isSuccess() && response.getDataLength() == 3 + length
+                    && response.getByte(0) == 0xD5 && response.getByte(1) == 0x43 && response.getByte(2) == 0x00) {
+                return response.copyData(3, ndefBuffer, bufferOffset, length);
             }
             
-            offset += typeLength; // Skip Type
-            offset += idLength;   // Skip ID
-            
-            // Skip Text Record status byte (encoding & language code length)
-            int languageCodeLength = ndefData[offset] & 0x3F; // 6 bits for length
-            offset++;
-            offset += languageCodeLength; // Skip language code
-            
-            // อ่านข้อความ
-            int textLength = payloadLength - 1 - languageCodeLength;
-            byte[] textBytes = Arrays.copyOfRange(ndefData, offset, offset + textLength);
+            // ข้อผิดพลาดของ USB หรือการ์ดถูกนำออกไม่ได้แปลว่าการ์ดไม่รองรับ FAST_READ
+            if (response.hasError()) {
+                Log.e(TAG, "อ่านหน้า " + page + " ของการ์ด Type 2 ไม่สำเร็จ: " + response.describe());
+                return -1;
+            }
             
-            return new String(textBytes, StandardCharsets.UTF_8);
+            Log.d(TAG, "การ์ด " + type2CardKey + " ไม่รองรับ FAST_READ ใช้ READ แทน: " + response.describe());
+            type2FastRead = false;
+            synchronized (type2FastReadUnsupported) {
+                if (type2FastReadUnsupported.size() >= TYPE2_FAST_READ_CACHE_SIZE) {
+                    type2FastReadUnsupported.clear();
+                }
+                type2FastReadUnsupported.add(type2CardKey);
+            }
             
-        } catch (Exception e) {
-            Log.e(TAG, "เกิดข้อผิดพลาดในการแปลงข้อมูล NDEF เป็นข้อความ", e);
-            return null;
+            // การ์ดที่ตอบ NAK จะกลับไปสถานะ IDLE ต้อง reset ก่อนอ่านต่อ
+            try {
+                if (powerUpCard(slotNum) == null) {
+                    return -1;
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "ไม่สามารถ reset การ์ดได้", e);
+                return -1;
+            }
         }
+        
+        // READ BINARY: FF B0 00 [หน้า] 10
+        ensureNdefBufferCapacity(bufferOffset + TYPE2_READ_SIZE);
+        ApduTransport.Response response = transport.transmit(slotNum, 0xFF, 0xB0, 0x00, page,
+                null, 0, 0, TYPE2_READ_SIZE);
+        if (!response.isSuccess() || response.getDataLength() == 0) {
+            Log.e(TAG, "อ่านหน้า " + page + " ของการ์ด Type 2 ไม่สำเร็จ: " + response.describe());
+            return -1;
+        }
+        return response.copyData(0, ndefBuffer, bufferOffset, TYPE2_READ_SIZE);
     }
     
     /**
-     * ตรวจสอบว่ามีการ์ดใน slot หรือไม่
+     * ขยาย ndefBuffer โดยคงข้อมูลเดิมไว้
      */
-    private boolean isCardPresent(int slotNum) {
-        try {
-            int state = reader.getState(slotNum);
-            return (state == Reader.CARD_PRESENT) ||
-                   (state == Reader.CARD_POWERED) ||
-                   (state == Reader.CARD_NEGOTIABLE) ||
-                   (state == Reader.CARD_SPECIFIC);
-        } catch (Exception e) {
-            Log.e(TAG, "เกิดข้อผิดพลาดในการตรวจสอบการ์ด", e);
-            return false;
+    private void ensureNdefBufferCapacity(int capacity) {
+        if (ndefBuffer.length < capacity) {
+            byte[] grown = new byte[Math.max(capacity, ndefBuffer.length * 2)];
+            System.arraycopy(ndefBuffer, 0, grown, 0, ndefBuffer.length);
+            ndefBuffer = grown;
+        }
+    }
+    
+    /**
+     * ดึง Capability Container ของการ์ด ถ้ายังไม่มีใน cache จะเลือกและอ่านไฟล์ CC
+     * 
+     * @param uid UID ของการ์ด หรือ null ถ้าอ่านไม่ได้ (อ่านไฟล์ CC ทุกครั้งและไม่ cache)
+     * @return CapabilityContainer หรือ null ถ้าเลือกไฟล์ CC ไม่สำเร็จ
+     */
+    private CapabilityContainer getCapabilityContainer(int slotNum, String uid) {
+        if (uid != null) {
+            synchronized (ccCache) {
+                CapabilityContainer cached = ccCache.get(uid);
+                if (cached != null) {
+                    return cached;
+                }
+            }
+        }
+        
+        ApduTransport.Response response = transport.selectFile(slotNum, CC_FILE_ID);
+        if (!response.isSuccess()) {
+            Log.e(TAG, "ไม่สามารถเลือก Capability Container ได้: " + response.describe());
+            return null;
         }
+        
+        response = transport.readBinary(slotNum, 0, CapabilityContainer.MIN_LENGTH);
+        CapabilityContainer cc = response.isSuccess()
+                ? CapabilityContainer.parse(response.getBuffer(), response.getDataLength())
+                : null;
+        if (cc == null) {
+            // ไม่ cache ค่าเริ่มต้น เพื่อให้ลองอ่าน CC ใหม่ในครั้งถัดไป
+            Log.w(TAG, "ไฟล์ Capability Container ไม่ถูกต้อง ใช้ค่าเริ่มต้นแทน");
+            return CapabilityContainer.createDefault();
+        }
+        
+        Log.d(TAG, "อ่าน Capability Container สำเร็จ: " + cc);
+        if (uid != null) {
+            synchronized (ccCache) {
+                if (ccCache.size() >= CC_CACHE_SIZE) {
+                    ccCache.clear();
+                }
+                ccCache.put(uid, cc);
+            }
+        }
+        return cc;
     }
     
     /**
-     * แปลงอาร์เรย์ไบต์เป็น Hex String
+     * แปลง NDEF Message เป็นรายการข้อความของแต่ละ record
+     * Text record ใช้ข้อความ, URI และ Smart Poster ใช้ URI, MIME text/* ใช้ payload
      */
-    private String bytesToHex(byte[] bytes) {
-        StringBuilder sb = new StringBuilder();
-        for (byte b : bytes) {
-            sb.append(String.format("%02X", b));
+    private List<String> extractRecordsFromNdef(byte[] ndefMessage, int length) {
+        List<String> records = new ArrayList<>();
+        ndefParser.reset(ndefMessage, 0, length);
+        while (ndefParser.next()) {
+            String value = null;
+            if (ndefParser.isText()) {
+                value = ndefParser.getText();
+            } else if (ndefParser.isUri() || ndefParser.isSmartPoster()) {
+                value = ndefParser.getUri();
+            } else if (ndefParser.isMime() && ndefParser.getMimeType().startsWith("text/")) {
+                value = ndefParser.getPayloadAsString();
+            } else {
+                Log.d(TAG, "ข้าม NDEF record ที่ไม่รองรับ (TNF=" + ndefParser.getTnf() + ")");
+            }
+            
+            if (value != null && !value.isEmpty()) {
+                records.add(value);
+            }
         }
-        return sb.toString();
+        
+        if (ndefParser.isMalformed()) {
+            Log.e(TAG, "ข้อมูล NDEF ไม่ถูกต้อง อ่านได้ " + records.size() + " record");
+        }
+        return records;
+    }
+    
+    /**
+     * ตรวจสอบว่าสถานะของ slot หมายถึงมีการ์ดวางอยู่
+     */
+    private static boolean isPresentState(int state) {
+        return (state == Reader.CARD_PRESENT) ||
+               (state == Reader.CARD_POWERED) ||
+               (state == Reader.CARD_NEGOTIABLE) ||
+               (state == Reader.CARD_SPECIFIC);
     }
-} 
\ No newline at end of file
+}
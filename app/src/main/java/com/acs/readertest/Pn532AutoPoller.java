@@ -0,0 +1,315 @@
+package com.acs.readertest;
+
+import android.util.Log;
+
+import com.acs.smartcard.Reader;
+
+/**
+ * ตรวจจับการ์ดด้วยคำสั่ง InAutoPoll ของชิป PN532 ภายในเครื่องอ่าน ACR122U
+ *
+ * คำสั่งถูกส่งผ่าน escape channel (Reader.control + IOCTL_CCID_ESCAPE) ในรูปแบบ
+ * pseudo-APDU FF 00 00 00 Lc [D4 60 PollNr Period Type...] เครื่องอ่านจะ poll เองตามรอบที่กำหนด
+ * และตอบกลับทันทีที่พบการ์ด ทำให้ host ไม่ต้องส่งคำสั่งทุกรอบของ timer
+ * ระหว่างที่การ์ดเดิมยังวางอยู่ InAutoPoll จะตอบกลับทันทีทุกครั้ง จึงเว้นช่วงตามรอบของ {@link PollingScheduler}
+ * ก่อนตรวจซ้ำว่าการ์ดยังอยู่
+ *
+ * thread ของ poller ทำหน้าที่เพียงกำหนดจังหวะ ทุกคำสั่งถูกส่งเป็นงานใน {@link ReaderExecutor} ของเครื่องอ่าน
+ * งานที่ยืมเครื่องอ่านจึงไม่ถูกแทรกด้วยคำสั่งของ poller (รอเพียงคำสั่งที่กำลังทำอยู่ ไม่เกิน {@link #MAX_POLL_DURATION_MS})
+ * และ {@link ReaderWatchdog} จับเวลาทุกคำสั่งเหมือนงานอื่น
+ */
+public class Pn532AutoPoller implements Runnable {
+    private static final String TAG = "Pn532AutoPoller";
+
+    // จำนวนรอบที่ PN532 poll ต่อหนึ่งคำสั่ง (ไม่ใช้ 0xFF เพื่อให้หยุดการทำงานได้ระหว่างรอ)
+    // ให้คำสั่งหนึ่งคำสั่งใช้เวลาไม่ถึงครึ่งของเวลาสูงสุดเริ่มต้นของ ReaderWatchdog
+    private static final int POLL_NUMBER = 0x04;
+
+    // ระยะห่างของแต่ละรอบ หน่วย 150 ms
+    private static final int POLL_PERIOD = 0x01;
+
+    // ชนิดของ target: 0x10 = ISO 14443A 106 kbps (Mifare/NTAG), 0x11 = FeliCa 212 kbps
+    private static final byte TYPE_ISO14443A = 0x10;
+    private static final byte TYPE_FELICA_212 = 0x11;
+    private static final int TARGET_TYPE_COUNT = 2;
+
+    // ACR122U: ปิด/เปิดการ poll PICC อัตโนมัติของ firmware (Set PICC Operating Parameter)
+    private static final byte[] DISABLE_READER_POLLING = {(byte) 0xFF, 0x00, 0x51, 0x00, 0x00};
+    private static final byte[] ENABLE_READER_POLLING = {(byte) 0xFF, 0x00, 0x51, (byte) 0xFF, 0x00};
+
+    // PN532 GetFirmwareVersion ใช้ตรวจว่าเครื่องอ่านส่งคำสั่งต่อให้ PN532 ได้ (ตอบ D5 03 IC Ver Rev Support 90 00)
+    private static final byte[] GET_FIRMWARE_VERSION_COMMAND = {
+            (byte) 0xFF, 0x00, 0x00, 0x00, // Direct Transmit
+            0x02, // Lc
+            (byte) 0xD4, 0x02 // GetFirmwareVersion
+    };
+
+    private static final byte[] IN_AUTO_POLL_COMMAND = {
+            (byte) 0xFF, 0x00, 0x00, 0x00, // Direct Transmit
+            0x06, // Lc
+            (byte) 0xD4, 0x60, // InAutoPoll
+            POLL_NUMBER,
+            POLL_PERIOD,
+            TYPE_ISO14443A,
+            TYPE_FELICA_212
+    };
+
+    // หยุดรอก่อนลองใหม่เมื่อคำสั่งล้มเหลว
+    private static final long ERROR_BACKOFF_MS = 1000;
+
+    // เวลาที่ InAutoPoll หนึ่งคำสั่งใช้เมื่อไม่มีการ์ด (PN532 poll ทุกชนิดของ target ในแต่ละรอบ)
+    static final long MAX_POLL_DURATION_MS = POLL_NUMBER * POLL_PERIOD * 150L * TARGET_TYPE_COUNT;
+
+    // เวลาสูงสุดที่รอคำสั่งหนึ่งคำสั่ง รวมเวลาที่รอในคิวของ executor
+    static final long COMMAND_TIMEOUT_MS = MAX_POLL_DURATION_MS + ERROR_BACKOFF_MS;
+
+    /**
+     * รับการแจ้งเตือนเมื่อพบหรือไม่พบการ์ด (ถูกเรียกจาก thread ของเครื่องอ่าน)
+     */
+    public interface Listener {
+        void onCardDetected(String uid);
+
+        void onCardRemoved();
+    }
+
+    private final Reader reader;
+    private final int slotNum;
+    private final ReaderExecutor executor;
+    private final ReaderWatchdog watchdog;
+    private final Listener listener;
+    private final PollingScheduler scheduler;
+    private final byte[] response = new byte[ApduTransport.MAX_RESPONSE_SIZE];
+
+    private volatile boolean running;
+    private Thread thread;
+    private String currentUid;
+
+    /**
+     * @param executor executor ของเครื่องอ่านที่ใช้ส่งทุกคำสั่ง
+     * @param watchdog watchdog ของ executor (คำสั่ง InAutoPoll ได้เวลาเท่ากับ {@link #COMMAND_TIMEOUT_MS})
+     * @param scheduler ใช้กำหนดช่วงเวลาระหว่างการตรวจซ้ำขณะที่การ์ดเดิมยังวางอยู่
+     */
+    public Pn532AutoPoller(Reader reader, int slotNum, ReaderExecutor executor, ReaderWatchdog watchdog,
+                           PollingScheduler scheduler, Listener listener) {
+        this.reader = reader;
+        this.slotNum = slotNum;
+        this.executor = executor;
+        this.watchdog = watchdog;
+        this.scheduler = scheduler;
+        this.listener = listener;
+    }
+
+    /**
+     * ปิดการ poll ของ firmware และเริ่ม thread ของ InAutoPoll
+     *
+     * @return true ถ้าเครื่องอ่านรองรับ, false ถ้าไม่รองรับ (ให้ใช้การ polling ด้วย timer แทน)
+     */
+    public synchronized boolean start() {
+        if (running) {
+            return true;
+        }
+
+        Boolean supported = executor.call(this::disableReaderPolling, ReaderExecutor.PRIORITY_INTERACTIVE,
+                COMMAND_TIMEOUT_MS);
+        if (supported == null || !supported) {
+            return false;
+        }
+
+        running = true;
+        currentUid = null;
+        thread = new Thread(this, TAG);
+        thread.start();
+        Log.d(TAG, "เริ่ม InAutoPoll (PollNr=" + POLL_NUMBER + ", Period=" + (POLL_PERIOD * 150) + " ms)");
+        return true;
+    }
+
+    /**
+     * หยุด thread และเปิดการ poll ของ firmware กลับคืน
+     * (รอจนคำสั่ง InAutoPoll ที่ค้างอยู่ตอบกลับ ซึ่งไม่เกิน PollNr x Period)
+     */
+    public void stop() {
+        Thread pollThread;
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+            running = false;
+            pollThread = thread;
+            thread = null;
+            // ปลุก thread ที่กำลังรอตรวจการ์ดซ้ำ
+            notifyAll();
+        }
+
+        try {
+            pollThread.join(COMMAND_TIMEOUT_MS + ERROR_BACKOFF_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // ถ้า thread ยังรอคำสั่งค้างอยู่ ห้ามส่งคำสั่งซ้อน (เครื่องอ่านจะ poll เองอีกครั้งเมื่อเปิดใหม่)
+        if (pollThread.isAlive()) {
+            Log.w(TAG, "thread ของ InAutoPoll ยังไม่หยุด ไม่เปิดการ poll ของ firmware กลับคืน");
+        } else {
+            executor.call(() -> reader.isOpened() ? escape(ENABLE_READER_POLLING) : -1,
+                    ReaderExecutor.PRIORITY_INTERACTIVE, COMMAND_TIMEOUT_MS);
+        }
+        Log.d(TAG, "หยุด InAutoPoll");
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            // ถ้าคำสั่งหมดเวลาในคิว (เครื่องอ่านถูกยืมนาน) หรือ executor ถูกปิด ให้รอแล้วลองใหม่
+            Long delay = executor.call(this::pollOnce, ReaderExecutor.PRIORITY_BACKGROUND, COMMAND_TIMEOUT_MS);
+            waitWhileRunning(delay != null ? delay : ERROR_BACKOFF_MS);
+        }
+    }
+
+    /**
+     * ปิดการ poll ของ firmware และตรวจว่าเครื่องอ่านส่งคำสั่งต่อให้ PN532 ได้ (ทำงานใน thread ของเครื่องอ่าน)
+     */
+    private boolean disableReaderPolling() {
+        // Set PICC Operating Parameter ตอบ 90 [parameter] ส่วน 63 00 คือเครื่องอ่านปฏิเสธคำสั่ง
+        int length = escape(DISABLE_READER_POLLING);
+        if (length < 2 || response[0] != (byte) 0x90) {
+            Log.e(TAG, "เครื่องอ่านไม่รองรับคำสั่ง escape ของ ACR122U (" + statusOf(length) + ")");
+            return false;
+        }
+
+        length = escape(GET_FIRMWARE_VERSION_COMMAND);
+        if (!isPn532Response(length, (byte) 0x03)) {
+            Log.e(TAG, "เครื่องอ่านไม่ส่งคำสั่งต่อให้ PN532 (" + statusOf(length) + ")");
+            escape(ENABLE_READER_POLLING);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * ส่ง InAutoPoll หนึ่งครั้งและแจ้งผล (ทำงานใน thread ของเครื่องอ่าน)
+     *
+     * @return เวลาที่รอก่อนส่งคำสั่งถัดไป
+     */
+    private long pollOnce() {
+        if (!running) {
+            return 0;
+        }
+
+        // InAutoPoll รอการ์ดตามรอบที่กำหนดจึงใช้เวลานานกว่างานทั่วไป ไม่ถือว่าค้าง
+        watchdog.extendCurrentDeadline(COMMAND_TIMEOUT_MS);
+        int length = escape(IN_AUTO_POLL_COMMAND);
+        if (length < 0) {
+            return ERROR_BACKOFF_MS;
+        }
+
+        String uid = parseFirstTargetUid(length);
+        if (uid != null) {
+            if (!uid.equals(currentUid)) {
+                currentUid = uid;
+                Log.d(TAG, "PN532 พบการ์ด: " + uid);
+                listener.onCardDetected(uid);
+            }
+            // การ์ดยังวางอยู่ คำสั่งถัดไปจะตอบกลับทันที จึงรอตามรอบของ scheduler ก่อนตรวจซ้ำ
+            return scheduler.getCurrentInterval();
+        }
+
+        if (currentUid != null) {
+            // poll ครบรอบแล้วไม่พบการ์ด แสดงว่าการ์ดถูกนำออก
+            currentUid = null;
+            listener.onCardRemoved();
+        }
+        return 0;
+    }
+
+    /**
+     * แปลงผลลัพธ์ D5 61 NbTg [Type Len TargetData]... 90 00 และดึง UID ของ target แรก
+     *
+     * @return UID แบบ hex หรือ null ถ้าไม่พบ target
+     */
+    private String parseFirstTargetUid(int length) {
+        if (!isPn532Response(length, (byte) 0x61) || length < 5) {
+            return null;
+        }
+
+        int targetCount = response[2] & 0xFF;
+        if (targetCount == 0 || length < 7) {
+            return null;
+        }
+
+        int type = response[3] & 0xFF;
+        int dataLength = response[4] & 0xFF;
+        int data = 5;
+        if (data + dataLength > length - 2) {
+            return null;
+        }
+
+        if (type == TYPE_ISO14443A) {
+            // Tg SENS_RES(2) SEL_RES(1) NFCIDLength NFCID1...
+            int uidLength = response[data + 4] & 0xFF;
+            if (5 + uidLength > dataLength) {
+                return null;
+            }
+            return Hex.toCompactHexString(response, data + 5, uidLength);
+        }
+
+        if (type == TYPE_FELICA_212) {
+            // Tg POL_RES_Length 01 IDm(8) PMm(8) [SystemCode(2)]
+            if (dataLength < 11) {
+                return null;
+            }
+            return Hex.toCompactHexString(response, data + 3, 8);
+        }
+
+        return null;
+    }
+
+    /**
+     * true ถ้าผลลัพธ์เป็นคำตอบของ PN532 ในรูปแบบ D5 [code] ... 90 00
+     */
+    private boolean isPn532Response(int length, byte responseCode) {
+        return length >= 4 && response[0] == (byte) 0xD5 && response[1] == responseCode
+                && response[length - 2] == (byte) 0x90 && response[length - 1] == 0x00;
+    }
+
+    /**
+     * status word ของผลลัพธ์สำหรับ log
+     */
+    private String statusOf(int length) {
+        return length >= 2 ? Hex.toCompactHexString(response, length - 2, 2) : "ไม่มีผลลัพธ์";
+    }
+
+    /**
+     * ส่งคำสั่งผ่าน escape channel ของเครื่องอ่าน
+     *
+     * @return ความยาวของผลลัพธ์ หรือ -1 ถ้าไม่สำเร็จ
+     */
+    private int escape(byte[] command) {
+        try {
+            return reader.control(slotNum, Reader.IOCTL_CCID_ESCAPE, command, command.length,
+                    response, response.length);
+        } catch (Exception e) {
+            Log.e(TAG, "ส่งคำสั่ง escape ไม่สำเร็จ: " + e.getMessage());
+            return -1;
+        }
+    }
+
+    /**
+     * รอตามเวลาที่กำหนด หรือจนกว่าจะถูกสั่งหยุด
+     */
+    private synchronized void waitWhileRunning(long millis) {
+        long deadline = System.currentTimeMillis() + millis;
+        long remaining = millis;
+        while (running && remaining > 0) {
+            try {
+                wait(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            remaining = deadline - System.currentTimeMillis();
+        }
+    }
+}
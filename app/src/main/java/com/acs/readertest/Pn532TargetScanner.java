@@ -0,0 +1,200 @@
+package com.acs.readertest;
+
+import android.util.Log;
+
+import com.acs.smartcard.Reader;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * อ่าน UID ของการ์ด ISO 14443A ทุกใบในสนาม (สูงสุด 2 ใบ) ด้วยคำสั่ง InListPassiveTarget ของ PN532
+ *
+ * คำสั่งถูกส่งผ่าน escape channel ในรูปแบบ FF 00 00 00 Lc [D4 4A MaxTg BrTy]
+ * PN532 ทำ anticollision และตอบกลับ D5 4B NbTg [Tg SENS_RES SEL_RES NFCIDLength NFCID1 [ATS]]... 90 00
+ * หลังอ่านแล้วจะ InRelease ทุก target เพื่อให้การ์ดพร้อมสำหรับรอบถัดไป
+ * ก่อนอ่านครั้งแรกจะปิดการ polling อัตโนมัติของ firmware (FF 00 51 00 00) เพื่อไม่ให้แทรกระหว่างคำสั่ง
+ * และคืนค่าด้วย {@link #restoreReaderPolling(int)} เมื่อเลิกใช้
+ *
+ * ไม่ thread-safe: ต้องเรียกจาก thread ของเครื่องอ่านเท่านั้น
+ */
+public class Pn532TargetScanner {
+    private static final String TAG = "Pn532TargetScanner";
+
+    // PN532 รองรับได้สูงสุด 2 target พร้อมกัน
+    public static final int MAX_TARGETS = 2;
+
+    // BrTy = 0x00: 106 kbps ISO 14443A (Mifare/NTAG/DESFire)
+    private static final byte[] IN_LIST_PASSIVE_TARGET_COMMAND = {
+            (byte) 0xFF, 0x00, 0x00, 0x00, // Direct Transmit
+            0x04, // Lc
+            (byte) 0xD4, 0x4A, // InListPassiveTarget
+            MAX_TARGETS, // MaxTg
+            0x00 // BrTy
+    };
+
+    // InRelease ทุก target (Tg = 0)
+    private static final byte[] IN_RELEASE_ALL_COMMAND = {
+            (byte) 0xFF, 0x00, 0x00, 0x00,
+            0x03,
+            (byte) 0xD4, 0x52, 0x00
+    };
+
+    // Set PICC Operating Parameter ของ ACR122U: 00 = ปิดการ polling อัตโนมัติของ firmware, FF = ค่าเริ่มต้น
+    private static final byte[] DISABLE_READER_POLLING = {(byte) 0xFF, 0x00, 0x51, 0x00, 0x00};
+    private static final byte[] ENABLE_READER_POLLING = {(byte) 0xFF, 0x00, 0x51, (byte) 0xFF, 0x00};
+
+    // ถือว่าไม่รองรับเมื่อตอบผิดรูปแบบติดกันเท่านี้ครั้ง (ครั้งเดียวอาจเกิดจากสัญญาณรบกวนหรือการ์ดเคลื่อนที่)
+    static final int MAX_CONSECUTIVE_FAILURES = 3;
+
+    // SEL_RES bit 6: การ์ดรองรับ ISO 14443-4 และมี ATS ต่อท้าย
+    private static final int SEL_RES_ISO14443_4 = 0x20;
+
+    private final Reader reader;
+    private final byte[] response = new byte[ApduTransport.MAX_RESPONSE_SIZE];
+    private boolean supported = true;
+    private boolean readerPollingDisabled = false;
+    private int consecutiveFailures = 0;
+    private int escapeErrorCount = 0;
+
+    public Pn532TargetScanner(Reader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * false ถ้าเครื่องอ่านปฏิเสธคำสั่ง escape หรือตอบผิดรูปแบบติดกันหลายครั้ง (ไม่ใช่เครื่องอ่านที่ใช้ PN532)
+     */
+    public boolean isSupported() {
+        return supported;
+    }
+
+    /**
+     * อ่าน UID ของการ์ดทุกใบในสนาม
+     *
+     * @param slotNum หมายเลข slot ของเครื่องอ่าน
+     * @return รายการ UID แบบ hex (ว่างถ้าไม่พบการ์ด) หรือ null ถ้าส่งคำสั่งไม่สำเร็จ
+     */
+    public List<String> listTargets(int slotNum) {
+        if (!readerPollingDisabled) {
+            // Set PICC Operating Parameter ตอบ 90 [parameter]
+            int length = escape(slotNum, DISABLE_READER_POLLING);
+            if (length < 0) {
+                return null;
+            }
+            if (length < 2 || response[0] != (byte) 0x90) {
+                onFailure(slotNum, "ปิดการ polling ของเครื่องอ่านไม่สำเร็จ", length);
+                return null;
+            }
+            readerPollingDisabled = true;
+        }
+
+        int length = escape(slotNum, IN_LIST_PASSIVE_TARGET_COMMAND);
+        if (length < 0) {
+            return null;
+        }
+        if (length < 5 || response[0] != (byte) 0xD5 || response[1] != 0x4B) {
+            onFailure(slotNum, "เครื่องอ่านตอบ InListPassiveTarget ไม่ถูกต้อง", length);
+            return null;
+        }
+        consecutiveFailures = 0;
+
+        List<String> uids = parseTargets(response, length);
+        if (!uids.isEmpty()) {
+            escape(slotNum, IN_RELEASE_ALL_COMMAND);
+        }
+        return uids;
+    }
+
+    /**
+     * คืนการ polling อัตโนมัติของ firmware (เรียกเมื่อเลิกใช้โหมดหลายใบ)
+     */
+    public void restoreReaderPolling(int slotNum) {
+        if (readerPollingDisabled) {
+            readerPollingDisabled = false;
+            escape(slotNum, ENABLE_READER_POLLING);
+        }
+    }
+
+    /**
+     * จำนวนครั้งที่ส่งคำสั่ง escape ไม่สำเร็จในระดับการสื่อสารกับเครื่องอ่าน
+     */
+    public int getEscapeErrorCount() {
+        return escapeErrorCount;
+    }
+
+    /**
+     * นับการตอบที่ผิดรูปแบบ และเลิกใช้เมื่อเครื่องอ่านปฏิเสธคำสั่งหรือตอบผิดติดกันครบ {@link #MAX_CONSECUTIVE_FAILURES} ครั้ง
+     */
+    private void onFailure(int slotNum, String message, int length) {
+        consecutiveFailures++;
+        Log.w(TAG, message + ": " + Hex.toCompactHexString(response, 0, length)
+                + " (ครั้งที่ " + consecutiveFailures + ")");
+        if (isRejection(response, length) || consecutiveFailures >= MAX_CONSECUTIVE_FAILURES) {
+            // เครื่องอ่านไม่ได้ส่งต่อคำสั่งให้ PN532
+            Log.w(TAG, "เครื่องอ่านไม่รองรับ InListPassiveTarget");
+            supported = false;
+            restoreReaderPolling(slotNum);
+        }
+    }
+
+    /**
+     * true ถ้าเครื่องอ่านตอบเพียง status word ที่ไม่ใช่ 90 xx (เช่น 63 00) คือปฏิเสธคำสั่ง escape โดยตรง
+     */
+    static boolean isRejection(byte[] response, int length) {
+        return length == 2 && response[0] != (byte) 0x90;
+    }
+
+    /**
+     * แปลงผลลัพธ์ D5 4B NbTg [Tg SENS_RES(2) SEL_RES(1) NFCIDLength NFCID1 [ATS]]... 90 00
+     *
+     * @return รายการ UID ตามลำดับที่ PN532 ตอบ (target ที่ข้อมูลไม่ครบจะถูกข้าม)
+     */
+    static List<String> parseTargets(byte[] response, int length) {
+        if (length < 5 || response[length - 2] != (byte) 0x90 || response[length - 1] != 0x00) {
+            return Collections.emptyList();
+        }
+
+        int end = length - 2;
+        int targetCount = Math.min(response[2] & 0xFF, MAX_TARGETS);
+        List<String> uids = new ArrayList<>(targetCount);
+        int offset = 3;
+        for (int i = 0; i < targetCount; i++) {
+            // Tg(1) SENS_RES(2) SEL_RES(1) NFCIDLength(1)
+            if (offset + 5 > end) {
+                break;
+            }
+            int selRes = response[offset + 3] & 0xFF;
+            int uidLength = response[offset + 4] & 0xFF;
+            int uidOffset = offset + 5;
+            if (uidLength == 0 || uidOffset + uidLength > end) {
+                break;
+            }
+            uids.add(Hex.toCompactHexString(response, uidOffset, uidLength));
+            offset = uidOffset + uidLength;
+
+            // ATS (ไบต์แรกคือความยาวของ ATS รวมตัวเอง)
+            if ((selRes & SEL_RES_ISO14443_4) != 0 && offset < end) {
+                int atsLength = response[offset] & 0xFF;
+                offset += Math.max(atsLength, 1);
+            }
+        }
+        return uids;
+    }
+
+    /**
+     * ส่งคำสั่งผ่าน escape channel ของเครื่องอ่าน
+     *
+     * @return ความยาวของผลลัพธ์ หรือ -1 ถ้าไม่สำเร็จ
+     */
+    private int escape(int slotNum, byte[] command) {
+        try {
+            return reader.control(slotNum, Reader.IOCTL_CCID_ESCAPE, command, command.length,
+                    response, response.length);
+        } catch (Exception e) {
+            Log.e(TAG, "ส่งคำสั่ง escape ไม่สำเร็จ: " + e.getMessage());
+            escapeErrorCount++;
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package com.acs.readertest;
+
+import android.util.Log;
+
+import java.util.Calendar;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * ตั้งเวลา polling ของเครื่องอ่านแบบปรับความถี่ตามการใช้งาน
+ *
+ * - หลังการ์ดถูกนำออก poll ถี่ ({@link Policy#fastInterval}) เพราะมักมีการ์ดใบถัดไปตามมา
+ * - ในช่วงเวลาทำการ poll ด้วย {@link Policy#activeInterval}
+ * - เมื่อไม่มีการ์ดนาน ค่อยๆ เพิ่มช่วงเวลาเป็นสองเท่าจนถึง {@link Policy#maxIdleInterval}
+ * - หยุดทั้งหมดเมื่อถูก pause (เช่น ปิดหน้าจอ)
+ *
+ * งานที่ตั้งเวลาไว้จะถูกเรียกใน thread ของ Timer จึงควรเป็นงานที่เพียงส่งเข้าคิวของเครื่องอ่าน
+ */
+public class PollingScheduler {
+    private static final String TAG = "PollingScheduler";
+
+    /**
+     * นโยบายการ polling (หน่วยมิลลิวินาที) เปลี่ยนได้ระหว่างทำงานด้วย {@link #setPolicy(Policy)}
+     */
+    public static class Policy {
+        // ช่วงเวลาหลังการ์ดถูกนำออก และระยะเวลาที่ใช้ช่วงเวลานี้
+        public long fastInterval = 100;
+        public long fastWindow = 10000;
+
+        // ช่วงเวลาปกติ (รวมถึงตอนที่มีการ์ดวางอยู่)
+        public long normalInterval = 1000;
+
+        // ช่วงเวลาทำการ [activeStartHour, activeEndHour) ใช้ activeInterval และไม่ลดความถี่ (-1 = ไม่ใช้)
+        public long activeInterval = 250;
+        public int activeStartHour = -1;
+        public int activeEndHour = -1;
+
+        // ไม่มีการ์ดนานเกิน idleAfter จะเพิ่มช่วงเวลาเป็นสองเท่าทุก idleAfter จนถึง maxIdleInterval
+        public long idleAfter = 60000;
+        public long maxIdleInterval = 5000;
+
+        public Policy copy() {
+            Policy policy = new Policy();
+            policy.fastInterval = fastInterval;
+            policy.fastWindow = fastWindow;
+            policy.normalInterval = normalInterval;
+            policy.activeInterval = activeInterval;
+            policy.activeStartHour = activeStartHour;
+            policy.activeEndHour = activeEndHour;
+            policy.idleAfter = idleAfter;
+            policy.maxIdleInterval = maxIdleInterval;
+            return policy;
+        }
+
+        /**
+         * true ถ้าชั่วโมงนี้อยู่ในช่วงเวลาทำการ (รองรับช่วงข้ามเที่ยงคืน เช่น 20 - 2)
+         */
+        public boolean isActiveHour(int hourOfDay) {
+            if (activeStartHour < 0 || activeEndHour < 0 || activeStartHour == activeEndHour) {
+                return false;
+            }
+            if (activeStartHour < activeEndHour) {
+                return hourOfDay >= activeStartHour && hourOfDay < activeEndHour;
+            }
+            return hourOfDay >= activeStartHour || hourOfDay < activeEndHour;
+        }
+    }
+
+    private final String name;
+    private final Runnable task;
+
+    private Policy policy = new Policy();
+    private Timer timer;
+    private TimerTask pending;
+    private long pendingRunAt = 0;
+
+    private boolean running = false;
+    private boolean paused = false;
+    private long minimumInterval = 0;
+    private boolean cardPresent = false;
+
+    // เวลาของเหตุการณ์การ์ดล่าสุด (elapsed ms)
+    private long lastActivityAt;
+    private long lastRemovedAt = -1;
+
+    /**
+     * @param name ชื่อ (ใช้ใน log และชื่อ thread)
+     * @param task งานที่เรียกทุกรอบ
+     */
+    public PollingScheduler(String name, Runnable task) {
+        this.name = name;
+        this.task = task;
+        this.lastActivityAt = now();
+    }
+
+    /**
+     * เริ่ม polling (รอบแรกหลัง normalInterval)
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        timer = new Timer(TAG + " " + name);
+        lastActivityAt = now();
+        schedule(policy.normalInterval);
+        Log.d(TAG, "[" + name + "] เริ่ม polling");
+    }
+
+    public synchronized void stop() {
+        running = false;
+        cancelPending();
+        if (timer != null) {
+            timer.cancel();
+            timer = null;
+        }
+    }
+
+    /**
+     * เปลี่ยนนโยบายและคำนวณรอบถัดไปใหม่ทันที
+     */
+    public synchronized void setPolicy(Policy policy) {
+        this.policy = policy.copy();
+        reschedule();
+    }
+
+    public synchronized Policy getPolicy() {
+        return policy.copy();
+    }
+
+    /**
+     * หยุด polling ชั่วคราว (เช่น ปิดหน้าจอ) และ poll ทันทีเมื่อกลับมา
+     */
+    public synchronized void setPaused(boolean paused) {
+        if (this.paused == paused) {
+            return;
+        }
+        this.paused = paused;
+        Log.d(TAG, "[" + name + "] " + (paused ? "หยุด polling ชั่วคราว" : "กลับมา polling"));
+        if (paused) {
+            cancelPending();
+        } else {
+            lastActivityAt = now();
+            schedule(0);
+        }
+    }
+
+    /**
+     * ช่วงเวลาต่ำสุด (เช่น เมื่อเครื่องอ่านแจ้ง state-change event เอง polling เป็นเพียง fallback)
+     */
+    public synchronized void setMinimumInterval(long minimumInterval) {
+        this.minimumInterval = minimumInterval;
+        reschedule();
+    }
+
+    /**
+     * แจ้งว่าพบการ์ด
+     */
+    public synchronized void onCardPresent() {
+        cardPresent = true;
+        lastActivityAt = now();
+    }
+
+    /**
+     * แจ้งว่าการ์ดถูกนำออก ช่วงเวลาถัดไปจะเป็น fastInterval
+     */
+    public synchronized void onCardRemoved() {
+        cardPresent = false;
+        lastActivityAt = now();
+        lastRemovedAt = lastActivityAt;
+        reschedule();
+    }
+
+    /**
+     * ช่วงเวลาของรอบถัดไปตามสถานะปัจจุบัน
+     */
+    public synchronized long getCurrentInterval() {
+        return computeInterval(now(), Calendar.getInstance().get(Calendar.HOUR_OF_DAY));
+    }
+
+    /**
+     * คำนวณช่วงเวลาของรอบถัดไป
+     *
+     * @param now เวลาปัจจุบัน (elapsed ms)
+     * @param hourOfDay ชั่วโมงปัจจุบัน (0 - 23)
+     */
+    long computeInterval(long now, int hourOfDay) {
+        long interval;
+        if (lastRemovedAt >= 0 && now - lastRemovedAt < policy.fastWindow) {
+            interval = policy.fastInterval;
+        } else if (policy.isActiveHour(hourOfDay)) {
+            interval = policy.activeInterval;
+        } else if (cardPresent || policy.idleAfter <= 0) {
+            interval = policy.normalInterval;
+        } else {
+            // เพิ่มเป็นสองเท่าทุก idleAfter ที่ไม่มีการ์ด
+            long idleSteps = (now - lastActivityAt) / policy.idleAfter;
+            interval = policy.normalInterval;
+            for (long i = 0; i < idleSteps && interval < policy.maxIdleInterval; i++) {
+                interval *= 2;
+            }
+            interval = Math.max(Math.min(interval, policy.maxIdleInterval), policy.normalInterval);
+        }
+        return Math.max(interval, minimumInterval);
+    }
+
+    /**
+     * ตั้งรอบถัดไปใหม่ถ้าช่วงเวลาใหม่สั้นกว่าที่ตั้งไว้ (เช่น เพิ่งนำการ์ดออก)
+     */
+    private void reschedule() {
+        if (!running || paused) {
+            return;
+        }
+        long runAt = now() + getCurrentInterval();
+        if (pending == null || runAt < pendingRunAt) {
+            cancelPending();
+            schedule(runAt - now());
+        }
+    }
+
+    private void schedule(long delay) {
+        if (!running || paused || timer == null) {
+            return;
+        }
+        pending = new TimerTask() {
+            @Override
+            public void run() {
+                tick(this);
+            }
+        };
+        pendingRunAt = now() + delay;
+        timer.schedule(pending, Math.max(delay, 0));
+    }
+
+    private void tick(TimerTask current) {
+        synchronized (this) {
+            if (pending != current || !running || paused) {
+                return;
+            }
+            pending = null;
+        }
+
+        task.run();
+
+        synchronized (this) {
+            if (pending == null) {
+                schedule(getCurrentInterval());
+            }
+        }
+    }
+
+    private void cancelPending() {
+        if (pending != null) {
+            pending.cancel();
+            pending = null;
+        }
+    }
+
+    private static long now() {
+        return System.nanoTime() / 1000000;
+    }
+}
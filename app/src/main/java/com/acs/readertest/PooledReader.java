@@ -0,0 +1,638 @@
+package com.acs.readertest;
+
+import android.hardware.usb.UsbDevice;
+import android.hardware.usb.UsbManager;
+import android.util.Log;
+
+import com.acs.smartcard.Reader;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * เครื่องอ่านหนึ่งเครื่องใน {@link ReaderPool}
+ *
+ * แต่ละเครื่องมี Reader, NfcCardReader (buffer และ session ของตัวเอง) และ {@link ReaderExecutor} แยกกัน
+ * จึงอ่านการ์ดจากหลายเครื่องพร้อมกันได้โดยไม่รอกัน และคำสั่งภายในเครื่องเดียวกันไม่ซ้อนกัน
+ * ทุก slot ของเครื่องอ่านถูกตรวจในรอบ polling เดียวกัน และเก็บสถานะการ์ดแยกตาม slot
+ *
+ * ทุกงานถูกจับเวลาด้วย {@link ReaderWatchdog} ถ้าการสื่อสารล้มเหลวติดต่อกันจะกู้คืนทีละขั้น
+ * (อ่านซ้ำ, warm reset, cold reset, ปิด/เปิดเครื่องอ่าน, สร้างการเชื่อมต่อ USB ใหม่)
+ * และถ้างานค้างจะตัดการเชื่อมต่อเพื่อให้ thread ของเครื่องอ่านกลับมาทำงานต่อได้
+ */
+public class PooledReader {
+    private static final String TAG = "PooledReader";
+    
+    // วิธีตรวจจับการ์ด
+    public static final int DETECTION_TIMER = 0;       // host poll ทีละ slot ด้วย PollingScheduler
+    public static final int DETECTION_AUTO_POLL = 1;   // PN532 InAutoPoll
+    public static final int DETECTION_MULTI_CARD = 2;  // PN532 InListPassiveTarget อ่านการ์ดทุกใบในสนามพร้อมกัน
+    private static final int CARD_POLLING_FALLBACK_INTERVAL = 5000; // ใช้เมื่อได้รับ state-change event จาก reader แล้ว
+    
+    // เวลาสูงสุดที่รอการเปิด/ปิดเครื่องอ่าน
+    private static final long OPEN_CLOSE_TIMEOUT = 5000;
+    
+    // slot ที่ใช้กับ PN532 InAutoPoll (ACR122U มี slot ไร้สัมผัสเพียง slot เดียว)
+    private static final int AUTO_POLL_SLOT = 0;
+    
+    // ขั้นการกู้คืนเมื่อรอบ polling มีข้อผิดพลาดติดต่อกัน (ขั้นถัดไปเมื่อยังล้มเหลว)
+    private static final ReaderWatchdog.Step[] RECOVERY_LADDER = {
+            ReaderWatchdog.Step.RETRY,
+            ReaderWatchdog.Step.WARM_RESET,
+            ReaderWatchdog.Step.COLD_RESET,
+            ReaderWatchdog.Step.REOPEN,
+            ReaderWatchdog.Step.REENUMERATE
+    };
+
+    /**
+     * รับเหตุการณ์ของการ์ด (ถูกเรียกจาก thread ตรวจจับการ์ดของเครื่องอ่านแต่ละเครื่อง)
+     */
+    public interface Listener {
+        void onCardDetected(PooledReader reader, int slotNum, String cardId);
+
+        void onCardRemoved(PooledReader reader, int slotNum);
+    }
+
+    /**
+     * รับการแจ้งเตือนเมื่อกู้คืนภายในเครื่องไม่สำเร็จ และต้องสร้าง PooledReader ใหม่ให้กับอุปกรณ์
+     * (ถูกเรียกจาก thread ของเครื่องอ่านหรือของ watchdog)
+     */
+    public interface FaultListener {
+        void onReaderFailed(PooledReader reader);
+    }
+
+    private final UsbDevice device;
+    private final String id;
+    private final String name;
+    private final Reader reader;
+    private final NfcCardReader nfcCardReader;
+    private final Listener listener;
+    private final ReaderExecutor executor;
+    private final Runnable pollTrigger;
+    private final ReaderWatchdog watchdog;
+    private volatile FaultListener faultListener;
+
+    private volatile boolean opened = false;
+    private volatile boolean failed = false;
+    
+    // ขั้นการกู้คืนปัจจุบัน (-1 = ปกติ) ใช้เฉพาะใน thread ของเครื่องอ่าน
+    private int recoveryLevel = -1;
+    private final PollingScheduler pollingScheduler;
+    private Pn532AutoPoller autoPoller;
+    private volatile boolean multiCard = false;
+    private volatile boolean stateEventsActive = false;
+    
+    // จำนวน slot จริงของเครื่องอ่าน
+    private volatile int readerSlotCount = 0;
+    
+    // การ์ดล่าสุดของแต่ละ slot (null = ไม่มีการ์ด) มีขนาดเท่ากับจำนวน slot ของเครื่องอ่าน
+    // ในโหมดหลายใบ การ์ดแต่ละใบในสนามได้ slot เสมือนของตัวเอง (อย่างน้อย MAX_TARGETS slot)
+    private volatile String[] slotCardIds = new String[0];
+
+    /**
+     * @param manager USB manager ที่ใช้สร้าง Reader ของเครื่องนี้
+     * @param device อุปกรณ์ USB ของเครื่องอ่าน
+     * @param listener ตัวรับเหตุการณ์ของการ์ด
+     */
+    public PooledReader(UsbManager manager, UsbDevice device, Listener listener) {
+        this.device = device;
+        this.id = device.getDeviceName();
+        this.name = device.getProductName() != null ? device.getProductName() : device.getDeviceName();
+        this.reader = new Reader(manager);
+        this.nfcCardReader = new NfcCardReader(reader);
+        this.listener = listener;
+        this.executor = new ReaderExecutor(TAG + " " + id);
+        this.pollTrigger = executor.coalescing(this::scanSlots, ReaderExecutor.PRIORITY_BACKGROUND);
+        this.pollingScheduler = new PollingScheduler(id, () -> {
+            if (opened) {
+                pollTrigger.run();
+            }
+        });
+        this.watchdog = new ReaderWatchdog(id, ReaderWatchdog.DEFAULT_DEADLINE, hangListener);
+        this.executor.setWatchdog(watchdog);
+    }
+
+    /**
+     * ID ของเครื่องอ่าน (ชื่ออุปกรณ์ USB ซึ่งไม่ซ้ำกันระหว่างที่เสียบอยู่)
+     */
+    public String getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public UsbDevice getDevice() {
+        return device;
+    }
+
+    public boolean isOpened() {
+        return opened;
+    }
+
+    public void setFaultListener(FaultListener faultListener) {
+        this.faultListener = faultListener;
+    }
+
+    /**
+     * เปลี่ยนนโยบายความถี่ของ polling
+     */
+    public void setPollingPolicy(PollingScheduler.Policy policy) {
+        pollingScheduler.setPolicy(policy);
+    }
+
+    /**
+     * หยุด polling ชั่วคราว (เช่น ปิดหน้าจอ) หรือกลับมา polling
+     */
+    public void setPollingPaused(boolean paused) {
+        pollingScheduler.setPaused(paused);
+    }
+
+    /**
+     * เปลี่ยนเวลาสูงสุดของงานหนึ่งงานก่อนถือว่าเครื่องอ่านค้าง
+     */
+    public void setOperationDeadline(long deadlineMs) {
+        watchdog.setDeadline(deadlineMs);
+    }
+
+    /**
+     * จำนวนครั้งของการกู้คืนขั้นนี้ตั้งแต่เปิดเครื่องอ่าน
+     */
+    public long getRecoveryCount(ReaderWatchdog.Step step) {
+        return watchdog.getCount(step);
+    }
+
+    /**
+     * สรุปจำนวนครั้งของการกู้คืนทุกขั้น
+     */
+    public String getRecoverySummary() {
+        return watchdog.getSummary();
+    }
+
+    /**
+     * ID ของจุดอ่านการ์ด (เครื่องอ่านและ slot) สำหรับแยกการ์ดที่วางอยู่บนแต่ละจุด
+     */
+    public String getSlotId(int slotNum) {
+        return id + "#" + slotNum;
+    }
+    
+    public int getSlotCount() {
+        return slotCardIds.length;
+    }
+    
+    /**
+     * การ์ดล่าสุดที่วางอยู่บน slot
+     * 
+     * @return ID ของการ์ด หรือ null ถ้าไม่มีการ์ด
+     */
+    public String getLastCardId(int slotNum) {
+        String[] cardIds = slotCardIds;
+        return slotNum < cardIds.length ? cardIds[slotNum] : null;
+    }
+
+    /**
+     * เปิดการเชื่อมต่อกับเครื่องอ่าน
+     *
+     * @return true ถ้าเปิดสำเร็จ
+     */
+    public boolean open() {
+        Boolean result = executor.call(this::openOnExecutor, ReaderExecutor.PRIORITY_INTERACTIVE, OPEN_CLOSE_TIMEOUT);
+        if (result == null || !result) {
+            executor.shutdown();
+            return false;
+        }
+        watchdog.start();
+        return true;
+    }
+
+    private boolean openOnExecutor() {
+        try {
+            reader.open(device);
+            
+            int slotCount = nfcCardReader.getSlotCount();
+            readerSlotCount = slotCount;
+            slotCardIds = new String[slotCount];
+
+            // รับการแจ้งเตือนเมื่อการ์ดถูกวางหรือนำออก เพื่อให้อ่านการ์ดได้ทันที
+            stateEventsActive = false;
+            reader.setOnStateChangeListener(stateChangeListener);
+
+            opened = true;
+            Log.d(TAG, "เชื่อมต่อกับเครื่องอ่านสำเร็จ: " + name + " (" + id + ", " + slotCount + " slot)");
+            return true;
+        } catch (Exception e) {
+            Log.e(TAG, "เกิดข้อผิดพลาดในการเปิดเครื่องอ่าน " + id, e);
+            opened = false;
+            return false;
+        }
+    }
+
+    /**
+     * ปิดการเชื่อมต่อกับเครื่องอ่าน
+     */
+    public void close() {
+        if (opened) {
+            // หยุดการตรวจจับการ์ด (ต้องทำก่อนปิด reader เพื่อคืนค่าการ poll ของ firmware)
+            stopDetection();
+            
+            // ปิดใน thread ของเครื่องอ่าน หลังจากงานที่กำลังทำอยู่เสร็จ
+            executor.call(this::closeOnExecutor, ReaderExecutor.PRIORITY_INTERACTIVE, OPEN_CLOSE_TIMEOUT);
+        }
+        watchdog.stop();
+        executor.shutdown();
+        Log.d(TAG, "[" + id + "] สรุปการกู้คืน: " + watchdog.getSummary());
+    }
+
+    private Void closeOnExecutor() {
+        try {
+            opened = false;
+            reader.setOnStateChangeListener(null);
+            reader.close();
+            nfcCardReader.clearSessions();
+            slotCardIds = new String[0];
+            readerSlotCount = 0;
+            Log.d(TAG, "ปิดการเชื่อมต่อกับเครื่องอ่านแล้ว: " + id);
+        } catch (Exception e) {
+            Log.e(TAG, "เกิดข้อผิดพลาดในการปิดเครื่องอ่าน " + id, e);
+        }
+        return null;
+    }
+
+    /**
+     * ทำงานกับเครื่องอ่านใน thread ของเครื่องอ่านก่อนงาน polling ที่รออยู่โดยไม่รอผล
+     * (watchdog ให้เวลาเท่ากับ {@link ReaderBroker#DEFAULT_BORROW_TIMEOUT})
+     */
+    public void submit(ReaderBroker.ReaderOperation<?> operation) {
+        executor.submit(() -> runBorrowed(operation, ReaderBroker.DEFAULT_BORROW_TIMEOUT),
+                ReaderExecutor.PRIORITY_INTERACTIVE);
+    }
+
+    /**
+     * ทำงานกับเครื่องอ่านและรอผล (watchdog ให้เวลาอย่างน้อยเท่ากับ timeout ของงาน)
+     *
+     * @return ผลลัพธ์ หรือ null ถ้าหมดเวลาหรือเกิดข้อผิดพลาด
+     */
+    public <T> T call(ReaderBroker.ReaderOperation<T> operation, long timeoutMs) {
+        return executor.call(() -> runBorrowed(operation, timeoutMs), ReaderExecutor.PRIORITY_INTERACTIVE, timeoutMs);
+    }
+
+    /**
+     * ทำงานที่ยืมเครื่องอ่าน โดยไม่ให้ watchdog ถือว่าค้างก่อน timeout ของผู้ยืม
+     */
+    private <T> T runBorrowed(ReaderBroker.ReaderOperation<T> operation, long timeoutMs) throws Exception {
+        watchdog.extendCurrentDeadline(timeoutMs);
+        return operation.run(nfcCardReader);
+    }
+
+    /**
+     * เริ่มตรวจจับการ์ด: ใช้ InAutoPoll ของเครื่องอ่านถ้าต้องการและรองรับ มิฉะนั้นใช้ Timer
+     * โหมดหลายใบใช้ Timer เช่นกัน แต่แต่ละรอบอ่าน UID ของการ์ดทุกใบในสนามด้วย InListPassiveTarget
+     * (ถ้าเครื่องอ่านไม่รองรับจะกลับไปอ่านทีละ slot ในรอบแรก)
+     *
+     * @param mode DETECTION_TIMER, DETECTION_AUTO_POLL หรือ DETECTION_MULTI_CARD
+     * @return true ถ้าใช้ auto-poll ได้
+     */
+    public synchronized boolean startDetection(int mode) {
+        if (mode == DETECTION_AUTO_POLL) {
+            autoPoller = new Pn532AutoPoller(reader, AUTO_POLL_SLOT, executor, watchdog, pollingScheduler,
+                    autoPollListener);
+            if (autoPoller.start()) {
+                return true;
+            }
+
+            Log.w(TAG, "เครื่องอ่าน " + id + " ไม่รองรับ auto-poll ใช้การ polling ด้วย timer แทน");
+            autoPoller = null;
+        }
+
+        multiCard = mode == DETECTION_MULTI_CARD && nfcCardReader.isMultiCardSupported();
+        startCardPolling();
+        return false;
+    }
+
+    /**
+     * หยุดการตรวจจับการ์ดทุกวิธี
+     */
+    public synchronized void stopDetection() {
+        stopCardPolling();
+        if (multiCard && opened) {
+            // คืนการ polling ของ firmware ที่ปิดไว้ระหว่างโหมดหลายใบ
+            executor.call(() -> {
+                nfcCardReader.restoreReaderPolling(AUTO_POLL_SLOT);
+                return null;
+            }, ReaderExecutor.PRIORITY_INTERACTIVE, OPEN_CLOSE_TIMEOUT);
+        }
+        multiCard = false;
+
+        if (autoPoller != null) {
+            autoPoller.stop();
+            autoPoller = null;
+        }
+    }
+
+    /**
+     * รับผลการตรวจจับจาก PN532 (ถูกเรียกจาก thread ของเครื่องอ่าน)
+     */
+    private final Pn532AutoPoller.Listener autoPollListener = new Pn532AutoPoller.Listener() {
+        @Override
+        public void onCardDetected(String uid) {
+            Log.d(TAG, "[" + id + "] อ่าน UID สำเร็จ (auto-poll): " + uid);
+            cardDetected(AUTO_POLL_SLOT, uid);
+        }
+
+        @Override
+        public void onCardRemoved() {
+            resetCardState(AUTO_POLL_SLOT);
+        }
+    };
+
+    /**
+     * เริ่ม polling เพื่อตรวจสอบการ์ด (ความถี่ปรับตามการใช้งานด้วย {@link PollingScheduler})
+     *
+     * เมื่อ reader ส่ง state-change event มาแล้ว การ polling จะทำหน้าที่เป็นเพียง fallback
+     * ด้วยช่วงเวลาที่ห่างขึ้น ส่วนการอ่านการ์ดหลักจะเกิดขึ้นทันทีที่ได้รับ event
+     * scheduler ทำหน้าที่เพียงส่งงานเข้าคิวของ executor โดยไม่ส่งซ้ำถ้ารอบก่อนยังค้างอยู่
+     */
+    private synchronized void startCardPolling() {
+        pollingScheduler.setMinimumInterval(stateEventsActive ? CARD_POLLING_FALLBACK_INTERVAL : 0);
+        pollingScheduler.start();
+    }
+
+    /**
+     * รับ state-change event จาก reader (ถูกเรียกจาก thread ของ ACS library)
+     */
+    private final Reader.OnStateChangeListener stateChangeListener = new Reader.OnStateChangeListener() {
+        @Override
+        public void onStateChange(int slotNum, int prevState, int currState) {
+            if (slotNum >= slotCardIds.length || !opened) {
+                return;
+            }
+
+            // ในโหมด auto-poll เครื่องอ่านเป็นผู้ตรวจจับการ์ดเอง และโหมดหลายใบใช้ slot เสมือน
+            if (autoPoller != null || multiCard) {
+                return;
+            }
+
+            Log.d(TAG, "[" + id + "] สถานะ slot " + slotNum + " เปลี่ยนจาก " + prevState + " เป็น " + currState);
+
+            // event แรกยืนยันว่า reader รองรับการแจ้งเตือน ให้ลดความถี่ของ polling ลงเป็น fallback
+            if (!stateEventsActive) {
+                stateEventsActive = true;
+                pollingScheduler.setMinimumInterval(CARD_POLLING_FALLBACK_INTERVAL);
+            }
+
+            // การ์ดถูกวางใหม่หรือถูกนำออก: session เดิมใช้ไม่ได้แล้ว
+            nfcCardReader.invalidateSession(slotNum);
+
+            if (currState == Reader.CARD_PRESENT) {
+                runOnPollingThread(() -> readCard(slotNum));
+            } else if (currState == Reader.CARD_ABSENT) {
+                runOnPollingThread(() -> resetCardState(slotNum));
+            }
+        }
+    };
+
+    /**
+     * สั่งงานให้ทำบน thread ของเครื่องอ่านก่อนงาน polling ที่รออยู่
+     */
+    private void runOnPollingThread(Runnable task) {
+        executor.submit(() -> {
+            if (opened) {
+                task.run();
+            }
+        }, ReaderExecutor.PRIORITY_EVENT);
+    }
+
+    /**
+     * หยุด polling
+     */
+    private synchronized void stopCardPolling() {
+        pollingScheduler.stop();
+    }
+
+    /**
+     * ตรวจทุก slot ในรอบเดียว (slot ว่างตรวจเพียงสถานะ slot ที่มี session อยู่แล้วไม่ถูก reset)
+     * ถ้ารอบนี้สื่อสารกับเครื่องอ่านล้มเหลวในระดับ USB จะกู้คืนขั้นถัดไป ถ้าสำเร็จจะกลับสู่สถานะปกติ
+     * (การ์ดที่อ่านไม่สำเร็จ เช่น ถูกนำออกระหว่างอ่าน ไม่นับเป็นความล้มเหลวของเครื่องอ่าน)
+     */
+    private void scanSlots() {
+        int faultsBefore = nfcCardReader.getTransportErrorCount();
+        if (multiCard) {
+            scanTargets();
+        } else {
+            int slotCount = readerSlotCount;
+            for (int slotNum = 0; slotNum < slotCount && opened; slotNum++) {
+                readCard(slotNum);
+            }
+            
+            // การ์ดที่เหลือจากโหมดหลายใบ
+            for (int slotNum = slotCount; slotNum < slotCardIds.length; slotNum++) {
+                resetCardState(slotNum);
+            }
+        }
+        if (!opened) {
+            return;
+        }
+
+        if (nfcCardReader.getTransportErrorCount() == faultsBefore) {
+            recoveryLevel = -1;
+        } else {
+            recover();
+        }
+    }
+
+    /**
+     * อ่าน UID ของการ์ดทุกใบในสนามในคำสั่งเดียว และแจ้งเหตุการณ์แยกตาม slot เสมือน
+     * การ์ดที่ยังอยู่ในสนามคง slot เดิมไว้ การ์ดใหม่ได้ slot ว่างแรก
+     */
+    private void scanTargets() {
+        List<String> uids = nfcCardReader.listCardUids(AUTO_POLL_SLOT);
+        if (uids == null) {
+            if (!nfcCardReader.isMultiCardSupported()) {
+                Log.w(TAG, "เครื่องอ่าน " + id + " ไม่รองรับการอ่านการ์ดหลายใบ อ่านทีละ slot แทน");
+                multiCard = false;
+            }
+            return;
+        }
+
+        if (slotCardIds.length < Pn532TargetScanner.MAX_TARGETS) {
+            slotCardIds = Arrays.copyOf(slotCardIds, Pn532TargetScanner.MAX_TARGETS);
+        }
+        String[] cardIds = slotCardIds;
+
+        // การ์ดที่ออกจากสนามแล้ว
+        for (int slotNum = 0; slotNum < cardIds.length; slotNum++) {
+            if (cardIds[slotNum] != null && !uids.contains(cardIds[slotNum])) {
+                resetCardState(slotNum);
+            }
+        }
+
+        // การ์ดที่เข้ามาใหม่
+        for (String uid : uids) {
+            if (Arrays.asList(cardIds).contains(uid)) {
+                continue;
+            }
+            for (int slotNum = 0; slotNum < cardIds.length; slotNum++) {
+                if (cardIds[slotNum] == null) {
+                    Log.d(TAG, "[" + getSlotId(slotNum) + "] อ่าน UID สำเร็จ (หลายใบ " + uids.size() + " ใบ): " + uid);
+                    cardDetected(slotNum, uid);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * กู้คืนขั้นถัดไปแล้วอ่านซ้ำทันทีโดยไม่รอรอบ polling (ทำงานใน thread ของเครื่องอ่าน)
+     */
+    private void recover() {
+        recoveryLevel = Math.min(recoveryLevel + 1, RECOVERY_LADDER.length - 1);
+        ReaderWatchdog.Step step = RECOVERY_LADDER[recoveryLevel];
+        watchdog.record(step);
+
+        switch (step) {
+            case WARM_RESET:
+                resetCards(Reader.CARD_WARM_RESET);
+                break;
+            case COLD_RESET:
+                resetCards(Reader.CARD_POWER_DOWN);
+                resetCards(Reader.CARD_COLD_RESET);
+                break;
+            case REOPEN:
+                if (!reopenOnExecutor()) {
+                    reportFailure();
+                    return;
+                }
+                break;
+            case REENUMERATE:
+                reportFailure();
+                return;
+            default:
+                break;
+        }
+
+        pollTrigger.run();
+    }
+
+    /**
+     * reset การ์ดทุก slot ที่มีการ์ดวางอยู่ และยกเลิก session เดิม
+     */
+    private void resetCards(int action) {
+        for (int slotNum = 0; slotNum < readerSlotCount; slotNum++) {
+            nfcCardReader.invalidateSession(slotNum);
+            try {
+                if (reader.getState(slotNum) != Reader.CARD_ABSENT) {
+                    reader.power(slotNum, action);
+                }
+            } catch (Exception e) {
+                Log.w(TAG, "[" + getSlotId(slotNum) + "] reset การ์ดไม่สำเร็จ: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * ปิดและเปิด Reader เดิมใหม่ โดยคงสถานะการ์ดของแต่ละ slot ไว้เพื่อไม่ให้แจ้งการ์ดเดิมซ้ำ
+     *
+     * @return true ถ้าเปิดใหม่สำเร็จ
+     */
+    private boolean reopenOnExecutor() {
+        String[] previousCardIds = slotCardIds;
+        closeOnExecutor();
+        if (!openOnExecutor()) {
+            return false;
+        }
+        if (previousCardIds.length >= slotCardIds.length) {
+            slotCardIds = previousCardIds;
+        }
+        return true;
+    }
+
+    /**
+     * แจ้งว่าเครื่องอ่านนี้ใช้งานไม่ได้แล้ว ให้ ReaderPool สร้างการเชื่อมต่อใหม่ (แจ้งเพียงครั้งเดียว)
+     */
+    private void reportFailure() {
+        FaultListener currentListener = faultListener;
+        if (failed || currentListener == null) {
+            return;
+        }
+        failed = true;
+        Log.e(TAG, "[" + id + "] กู้คืนเครื่องอ่านไม่สำเร็จ (" + watchdog.getSummary() + ")");
+        currentListener.onReaderFailed(this);
+    }
+
+    /**
+     * รับการแจ้งเตือนเมื่องานของเครื่องอ่านค้าง (ถูกเรียกจาก thread ของ watchdog)
+     */
+    private final ReaderWatchdog.Listener hangListener = new ReaderWatchdog.Listener() {
+        @Override
+        public void onOperationHung(long elapsedMs, int repeat) {
+            if (repeat == 1) {
+                // ตัดการเชื่อมต่อ USB เพื่อให้คำสั่งที่ค้างอยู่คืนค่าด้วยข้อผิดพลาด แล้วเปิดใหม่ใน thread ของเครื่องอ่าน
+                watchdog.record(ReaderWatchdog.Step.REOPEN);
+                try {
+                    reader.close();
+                } catch (Exception e) {
+                    Log.w(TAG, "[" + id + "] ตัดการเชื่อมต่อไม่สำเร็จ: " + e.getMessage());
+                }
+                executor.submit(() -> {
+                    if (opened && !reopenOnExecutor()) {
+                        reportFailure();
+                    }
+                }, ReaderExecutor.PRIORITY_INTERACTIVE);
+            } else {
+                // thread ของเครื่องอ่านยังค้างแม้ตัดการเชื่อมต่อแล้ว
+                watchdog.record(ReaderWatchdog.Step.REENUMERATE);
+                reportFailure();
+            }
+        }
+    };
+
+    /**
+     * อ่านข้อมูลจากการ์ดใน slot
+     */
+    private void readCard(int slotNum) {
+        try {
+            // อ่าน UID และ NDEF (ถ้าจำเป็น) ใน power cycle เดียว
+            NfcCardReader.ReadResult result = nfcCardReader.readCard(slotNum);
+            String cardId = result != null ? result.getCardId() : null;
+            if (cardId != null) {
+                if (!cardId.equals(getLastCardId(slotNum))) {
+                    Log.d(TAG, "[" + getSlotId(slotNum) + "] อ่านการ์ดสำเร็จ: " + cardId
+                            + " (" + result.getTimingSummary() + ")");
+                }
+                cardDetected(slotNum, cardId);
+                return;
+            }
+
+            // ถ้าทั้ง UID และ NDEF ไม่สำเร็จ
+            resetCardState(slotNum);
+        } catch (Exception e) {
+            Log.e(TAG, "เกิดข้อผิดพลาดในการอ่านการ์ด", e);
+        }
+    }
+
+    /**
+     * แจ้งเหตุการณ์เฉพาะเมื่อเป็นการ์ดใบใหม่บน slot นี้
+     */
+    private void cardDetected(int slotNum, String cardId) {
+        String[] cardIds = slotCardIds;
+        if (slotNum >= cardIds.length || cardId.equals(cardIds[slotNum])) {
+            return;
+        }
+        cardIds[slotNum] = cardId;
+        pollingScheduler.onCardPresent();
+        listener.onCardDetected(this, slotNum, cardId);
+    }
+
+    /**
+     * รีเซ็ตสถานะเมื่อไม่พบการ์ดหรือการ์ดถูกนำออกจาก slot
+     */
+    private void resetCardState(int slotNum) {
+        String[] cardIds = slotCardIds;
+        if (slotNum < cardIds.length && cardIds[slotNum] != null) {
+            cardIds[slotNum] = null;
+            pollingScheduler.onCardRemoved();
+            listener.onCardRemoved(this, slotNum);
+        }
+    }
+}
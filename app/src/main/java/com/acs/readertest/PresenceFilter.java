@@ -0,0 +1,275 @@
+package com.acs.readertest;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * กรองเหตุการณ์การ์ดที่กะพริบที่ขอบสนาม RF ก่อนส่งต่อ
+ *
+ * - การ์ดใหม่ต้องอยู่ต่อเนื่องนาน {@link #setArrivalConfirm(long)} ก่อนแจ้งว่าพบการ์ด
+ * - การ์ดที่หายไปจะถูกแจ้งว่านำออกเมื่อไม่กลับมาภายใน {@link #setRemovalGrace(long)}
+ *   ถ้าการ์ดใบเดิมกลับมาก่อนหมดเวลาจะไม่มีเหตุการณ์ใดๆ
+ * - การ์ดใบอื่นมาแทนที่จะแจ้งว่านำออกทันที
+ *
+ * แยกสถานะตาม key (เช่น ID ของจุดอ่าน {@link PooledReader#getSlotId(int)})
+ * listener ถูกเรียกนอก lock จาก thread ที่ส่งเหตุการณ์เข้ามาหรือจาก thread ของ Timer
+ */
+public class PresenceFilter {
+    private static final String TAG = "PresenceFilter";
+
+    public static final long DEFAULT_ARRIVAL_CONFIRM = 0;
+    public static final long DEFAULT_REMOVAL_GRACE = 1500;
+
+    /**
+     * รับเหตุการณ์ที่ผ่านการกรองแล้ว
+     */
+    public interface Listener {
+        void onCardPresent(String key, String cardId);
+
+        void onCardRemoved(String key, String cardId);
+    }
+
+    // สถานะของจุดอ่านหนึ่งจุด
+    private static final class Slot {
+        String confirmedCardId;    // การ์ดที่แจ้งว่าพบแล้ว
+        long removalDeadline;      // เวลาที่จะแจ้งว่านำออก (0 = ไม่มี)
+        String candidateCardId;    // การ์ดที่รอยืนยัน
+        long arrivalDeadline;      // เวลาที่จะยืนยันการ์ดที่รอ
+
+        boolean isIdle() {
+            return confirmedCardId == null && candidateCardId == null;
+        }
+    }
+
+    // เหตุการณ์ที่รอส่งให้ listener (ส่งนอก lock)
+    private static final class Event {
+        final String key;
+        final String cardId;
+        final boolean present;
+
+        Event(String key, String cardId, boolean present) {
+            this.key = key;
+            this.cardId = cardId;
+            this.present = present;
+        }
+    }
+
+    private final Listener listener;
+    private final Map<String, Slot> slots = new HashMap<>();
+
+    private long arrivalConfirm = DEFAULT_ARRIVAL_CONFIRM;
+    private long removalGrace = DEFAULT_REMOVAL_GRACE;
+
+    private Timer timer;
+    private TimerTask pending;
+    private long pendingRunAt = 0;
+
+    public PresenceFilter(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * เวลาที่การ์ดใหม่ต้องอยู่ต่อเนื่องก่อนแจ้งว่าพบ (0 = แจ้งทันที)
+     */
+    public synchronized void setArrivalConfirm(long arrivalConfirm) {
+        this.arrivalConfirm = Math.max(arrivalConfirm, 0);
+    }
+
+    /**
+     * เวลาที่รอให้การ์ดกลับมาก่อนแจ้งว่านำออก (0 = แจ้งทันที)
+     */
+    public synchronized void setRemovalGrace(long removalGrace) {
+        this.removalGrace = Math.max(removalGrace, 0);
+    }
+
+    /**
+     * แจ้งว่าอ่านพบการ์ดที่จุดอ่าน
+     */
+    public void onCardPresent(String key, String cardId) {
+        onCardPresent(key, cardId, now());
+    }
+
+    /**
+     * แจ้งว่าอ่านไม่พบการ์ดที่จุดอ่าน
+     */
+    public void onCardAbsent(String key) {
+        onCardAbsent(key, now());
+    }
+
+    /**
+     * ลบสถานะของทุก key ที่ขึ้นต้นด้วย prefix โดยไม่แจ้งเหตุการณ์ (เช่น เมื่อเครื่องอ่านถูกปิด)
+     */
+    public synchronized void forgetPrefix(String prefix) {
+        Iterator<String> keys = slots.keySet().iterator();
+        while (keys.hasNext()) {
+            if (keys.next().startsWith(prefix)) {
+                keys.remove();
+            }
+        }
+    }
+
+    /**
+     * หยุด Timer และลบสถานะทั้งหมด
+     */
+    public synchronized void close() {
+        slots.clear();
+        if (timer != null) {
+            timer.cancel();
+            timer = null;
+        }
+        pending = null;
+    }
+
+    void onCardPresent(String key, String cardId, long now) {
+        dispatch(present(key, cardId, now));
+    }
+
+    void onCardAbsent(String key, long now) {
+        dispatch(absent(key, now));
+    }
+
+    /**
+     * ส่งเหตุการณ์ที่ถึงเวลาแล้ว (ปกติถูกเรียกจาก Timer)
+     */
+    void advance(long now) {
+        dispatch(due(now));
+    }
+
+    private synchronized List<Event> present(String key, String cardId, long now) {
+        List<Event> events = new ArrayList<>();
+        Slot slot = slots.get(key);
+        if (slot == null) {
+            slot = new Slot();
+            slots.put(key, slot);
+        }
+
+        if (cardId.equals(slot.confirmedCardId)) {
+            // การ์ดใบเดิมกลับมาภายในช่วงผ่อนผัน
+            slot.removalDeadline = 0;
+            slot.candidateCardId = null;
+            return events;
+        }
+
+        if (slot.confirmedCardId != null) {
+            // การ์ดใบอื่นมาแทนที่: ใบเดิมถูกนำออกแน่นอน
+            events.add(new Event(key, slot.confirmedCardId, false));
+            slot.confirmedCardId = null;
+            slot.removalDeadline = 0;
+        }
+
+        if (!cardId.equals(slot.candidateCardId)) {
+            slot.candidateCardId = cardId;
+            slot.arrivalDeadline = now + arrivalConfirm;
+        }
+        advance(now, events);
+        return events;
+    }
+
+    private synchronized List<Event> absent(String key, long now) {
+        List<Event> events = new ArrayList<>();
+        Slot slot = slots.get(key);
+        if (slot == null) {
+            return events;
+        }
+
+        // การ์ดที่ยังไม่ผ่านการยืนยันถือว่ากะพริบ ไม่ต้องแจ้ง
+        slot.candidateCardId = null;
+
+        if (slot.confirmedCardId != null && slot.removalDeadline == 0) {
+            slot.removalDeadline = now + removalGrace;
+        }
+        advance(now, events);
+        return events;
+    }
+
+    private synchronized List<Event> due(long now) {
+        List<Event> events = new ArrayList<>();
+        advance(now, events);
+        return events;
+    }
+
+    /**
+     * เก็บเหตุการณ์ที่ถึงเวลาแล้ว และตั้ง Timer สำหรับเหตุการณ์ถัดไป
+     */
+    private void advance(long now, List<Event> events) {
+        long next = Long.MAX_VALUE;
+        Iterator<Map.Entry<String, Slot>> entries = slots.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<String, Slot> entry = entries.next();
+            Slot slot = entry.getValue();
+
+            if (slot.removalDeadline != 0) {
+                if (now >= slot.removalDeadline) {
+                    events.add(new Event(entry.getKey(), slot.confirmedCardId, false));
+                    slot.confirmedCardId = null;
+                    slot.removalDeadline = 0;
+                } else {
+                    next = Math.min(next, slot.removalDeadline);
+                }
+            }
+
+            if (slot.candidateCardId != null) {
+                if (now >= slot.arrivalDeadline) {
+                    events.add(new Event(entry.getKey(), slot.candidateCardId, true));
+                    slot.confirmedCardId = slot.candidateCardId;
+                    slot.candidateCardId = null;
+                } else {
+                    next = Math.min(next, slot.arrivalDeadline);
+                }
+            }
+
+            if (slot.isIdle()) {
+                entries.remove();
+            }
+        }
+
+        if (next != Long.MAX_VALUE) {
+            schedule(next, now);
+        }
+    }
+
+    private void schedule(long runAt, long now) {
+        if (pending != null && pendingRunAt <= runAt) {
+            return;
+        }
+        if (pending != null) {
+            pending.cancel();
+        }
+        if (timer == null) {
+            timer = new Timer(TAG, true);
+        }
+        pending = new TimerTask() {
+            @Override
+            public void run() {
+                synchronized (PresenceFilter.this) {
+                    if (pending != this) {
+                        return;
+                    }
+                    pending = null;
+                }
+                advance(now());
+            }
+        };
+        pendingRunAt = runAt;
+        timer.schedule(pending, Math.max(runAt - now, 0));
+    }
+
+    private void dispatch(List<Event> events) {
+        for (Event event : events) {
+            if (event.present) {
+                listener.onCardPresent(event.key, event.cardId);
+            } else {
+                listener.onCardRemoved(event.key, event.cardId);
+            }
+        }
+    }
+
+    private static long now() {
+        return System.nanoTime() / 1000000;
+    }
+}
@@ -130,30 +130,32 @@ public class ReadKeyDialogFragment extends AppCompatDialogFragment {
      */
     private void updateData() {
 
-        byte[] buffer;
+        /* Decode each field into the same small buffer. */
+        byte[] buffer = new byte[3];
+        int length;
 
-        buffer = Hex.toByteArray(mTimeoutEditText.getText().toString());
-        if ((buffer != null) && (buffer.length > 0)) {
+        length = Hex.decode(mTimeoutEditText.getText(), buffer, 0);
+        if (length > 0) {
             mReadKeyOption.setTimeOut(buffer[0] & 0xFF);
         }
 
-        buffer = Hex.toByteArray(mPinMaxExtraDigitEditText.getText().toString());
-        if ((buffer != null) && (buffer.length > 1)) {
+        length = Hex.decode(mPinMaxExtraDigitEditText.getText(), buffer, 0);
+        if (length > 1) {
             mReadKeyOption.setPinMaxExtraDigit((buffer[0] & 0xFF) << 8 | (buffer[1] & 0xFF));
         }
 
-        buffer = Hex.toByteArray(mKeyReturnConditionEditText.getText().toString());
-        if ((buffer != null) && (buffer.length > 0)) {
+        length = Hex.decode(mKeyReturnConditionEditText.getText(), buffer, 0);
+        if (length > 0) {
             mReadKeyOption.setKeyReturnCondition(buffer[0] & 0xFF);
         }
 
-        buffer = Hex.toByteArray(mEchoLcdStartPositionEditText.getText().toString());
-        if ((buffer != null) && (buffer.length > 0)) {
+        length = Hex.decode(mEchoLcdStartPositionEditText.getText(), buffer, 0);
+        if (length > 0) {
             mReadKeyOption.setEchoLcdStartPosition(buffer[0] & 0xFF);
         }
 
-        buffer = Hex.toByteArray(mEchoLcdModeEditText.getText().toString());
-        if ((buffer != null) && (buffer.length > 0)) {
+        length = Hex.decode(mEchoLcdModeEditText.getText(), buffer, 0);
+        if (length > 0) {
             mReadKeyOption.setEchoLcdMode(buffer[0] & 0xFF);
         }
     }
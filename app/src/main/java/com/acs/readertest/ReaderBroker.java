@@ -0,0 +1,311 @@
+package com.acs.readertest;
+
+import android.content.Context;
+import android.hardware.usb.UsbDevice;
+import android.hardware.usb.UsbManager;
+import android.util.Log;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * ผู้ถือครองเครื่องอ่านเพียงหนึ่งเดียวของแอพ ใช้ร่วมกันระหว่าง CardReaderService และ Activity ต่างๆ
+ *
+ * เครื่องอ่านจะถูกเปิดเมื่อมีผู้ใช้งาน ({@link #acquire(Object)}) อย่างน้อยหนึ่งราย และปิดเมื่อไม่มีผู้ใช้งานเหลือ
+ * การตรวจจับการ์ดทำเพียงชุดเดียวใน {@link ReaderPool} และส่งเหตุการณ์ให้ทุก listener ที่ลงทะเบียนไว้
+ * งานที่ต้องใช้เครื่องอ่านโดยตรง (เช่น อ่านการ์ดเพื่อลงทะเบียน) ให้ยืมผ่าน {@link #execute(ReaderOperation, ResultCallback)}
+ * ซึ่งลองทีละเครื่องจนกว่าจะได้ผล เพราะการ์ดอาจวางอยู่บนเครื่องอ่านเครื่องใดก็ได้
+ */
+public class ReaderBroker {
+    private static final String TAG = "ReaderBroker";
+
+    // เวลาสูงสุดที่รอผลของงานที่ยืมเครื่องอ่านแบบรอผล
+    public static final long DEFAULT_BORROW_TIMEOUT = 5000;
+
+    /**
+     * งานที่ทำกับเครื่องอ่านโดยตรง (ทำงานใน thread ของเครื่องอ่าน ระหว่างนั้นจะไม่มีการ polling แทรก)
+     */
+    public interface ReaderOperation<T> {
+        T run(NfcCardReader cardReader) throws Exception;
+    }
+
+    /**
+     * รับผลของงานที่ยืมเครื่องอ่านแบบไม่รอผล (ถูกเรียกใน thread ของเครื่องอ่าน)
+     */
+    public interface ResultCallback<T> {
+        void onResult(T result);
+    }
+
+    private static volatile ReaderBroker mInstance = null;
+
+    private final UsbManager mManager;
+    private final ReaderPool readerPool;
+
+    // งานเปิด/ปิดเครื่องอ่านทำตามลำดับใน thread เดียว เพื่อไม่ให้เปิดและปิดสลับกัน
+    private final ReaderExecutor controlExecutor = new ReaderExecutor(TAG);
+
+    private final CopyOnWriteArrayList<ReaderPool.Listener> listeners = new CopyOnWriteArrayList<>();
+    private final Set<Object> owners = new HashSet<>();
+
+    private ReaderBroker(Context context) {
+        mManager = (UsbManager) context.getSystemService(Context.USB_SERVICE);
+        readerPool = new ReaderPool(mManager, dispatcher, faultListener);
+    }
+
+    /**
+     * ดึง instance ของ ReaderBroker
+     */
+    public static ReaderBroker getInstance(Context context) {
+        if (mInstance == null) {
+            synchronized (ReaderBroker.class) {
+                if (mInstance == null) {
+                    mInstance = new ReaderBroker(context.getApplicationContext());
+                }
+            }
+        }
+        return mInstance;
+    }
+
+    /**
+     * ลงทะเบียนรับเหตุการณ์ของเครื่องอ่านและการ์ด (ถูกเรียกจาก thread ของเครื่องอ่าน)
+     */
+    public void addListener(ReaderPool.Listener listener) {
+        listeners.addIfAbsent(listener);
+    }
+
+    public void removeListener(ReaderPool.Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * แจ้งว่าต้องการใช้เครื่องอ่าน และเปิดเครื่องอ่านทุกเครื่องที่รองรับและได้รับสิทธิ์แล้ว
+     *
+     * @param owner ผู้ใช้งาน (เช่น Service หรือ Activity)
+     */
+    public void acquire(Object owner) {
+        synchronized (owners) {
+            owners.add(owner);
+        }
+        controlExecutor.submit(readerPool::openAvailableReaders, ReaderExecutor.PRIORITY_INTERACTIVE);
+    }
+
+    /**
+     * เลิกใช้เครื่องอ่าน ถ้าไม่มีผู้ใช้งานเหลือจะปิดเครื่องอ่านทั้งหมด
+     */
+    public void release(Object owner) {
+        synchronized (owners) {
+            if (!owners.remove(owner) || !owners.isEmpty()) {
+                return;
+            }
+        }
+
+        controlExecutor.submit(() -> {
+            // ตรวจอีกครั้งเพราะอาจมีผู้ใช้งานใหม่ระหว่างรอคิว
+            synchronized (owners) {
+                if (!owners.isEmpty()) {
+                    return;
+                }
+            }
+            Log.d(TAG, "ไม่มีผู้ใช้งานเครื่องอ่านแล้ว ปิดเครื่องอ่านทั้งหมด");
+            readerPool.closeAll();
+        }, ReaderExecutor.PRIORITY_INTERACTIVE);
+    }
+
+    /**
+     * เปิดเครื่องอ่านทุกเครื่องที่รองรับและได้รับสิทธิ์แล้วซึ่งยังไม่ได้เปิด ถ้ามีผู้ใช้งานอยู่
+     * (ใช้ลองเชื่อมต่อใหม่หลังเครื่องอ่านหลุด)
+     */
+    public void openAvailableReaders() {
+        controlExecutor.submit(() -> {
+            if (hasOwners()) {
+                readerPool.openAvailableReaders();
+            }
+        }, ReaderExecutor.PRIORITY_INTERACTIVE);
+    }
+
+    /**
+     * เปิดเครื่องอ่านของอุปกรณ์ (เช่น หลังจากได้รับสิทธิ์ USB) ถ้ามีผู้ใช้งานอยู่
+     */
+    public void openReader(UsbDevice device) {
+        controlExecutor.submit(() -> {
+            if (hasOwners()) {
+                readerPool.openReader(device);
+            }
+        }, ReaderExecutor.PRIORITY_INTERACTIVE);
+    }
+
+    /**
+     * ปิดเครื่องอ่านของอุปกรณ์ (เช่น เมื่อถอดสาย USB)
+     */
+    public void closeReader(UsbDevice device) {
+        controlExecutor.submit(() -> readerPool.closeReader(device), ReaderExecutor.PRIORITY_INTERACTIVE);
+    }
+
+    /**
+     * เปลี่ยนวิธีตรวจจับการ์ดของทุกเครื่อง
+     */
+    public void setDetectionMode(int mode) {
+        controlExecutor.submit(() -> readerPool.setDetectionMode(mode), ReaderExecutor.PRIORITY_INTERACTIVE);
+    }
+
+    /**
+     * เปลี่ยนนโยบายความถี่ของ polling ของทุกเครื่อง
+     */
+    public void setPollingPolicy(PollingScheduler.Policy policy) {
+        PollingScheduler.Policy copy = policy.copy();
+        controlExecutor.submit(() -> readerPool.setPollingPolicy(copy), ReaderExecutor.PRIORITY_INTERACTIVE);
+    }
+
+    /**
+     * หยุด polling ชั่วคราว (เช่น เมื่อปิดหน้าจอ) หรือกลับมา polling
+     */
+    public void setPollingPaused(boolean paused) {
+        controlExecutor.submit(() -> readerPool.setPollingPaused(paused), ReaderExecutor.PRIORITY_INTERACTIVE);
+    }
+
+    /**
+     * ยืมเครื่องอ่านทีละเครื่องเพื่อทำงานโดยไม่รอผล จนกว่างานจะคืนค่าที่ไม่ใช่ null (เช่น อ่านพบการ์ด)
+     * callback ถูกเรียกครั้งเดียวด้วยผลแรกที่ได้ หรือ null ถ้าไม่ได้ผลจากทุกเครื่อง
+     *
+     * @return false ถ้าไม่มีเครื่องอ่านที่เปิดอยู่
+     */
+    public <T> boolean execute(ReaderOperation<T> operation, ResultCallback<T> callback) {
+        List<PooledReader> readers = readerPool.getReaders();
+        if (readers.isEmpty()) {
+            return false;
+        }
+        submitFrom(readers, 0, operation, callback);
+        return true;
+    }
+
+    /**
+     * ส่งงานให้เครื่องอ่านลำดับที่ index ถ้าไม่ได้ผลจึงส่งต่อให้เครื่องถัดไป
+     */
+    private <T> void submitFrom(List<PooledReader> readers, int index, ReaderOperation<T> operation,
+                                ResultCallback<T> callback) {
+        PooledReader reader = readers.get(index);
+        reader.submit(cardReader -> {
+            T result = null;
+            try {
+                result = operation.run(cardReader);
+            } catch (Exception e) {
+                Log.e(TAG, "เกิดข้อผิดพลาดในการทำงานกับเครื่องอ่าน " + reader.getId(), e);
+            }
+            if (result == null && index + 1 < readers.size()) {
+                submitFrom(readers, index + 1, operation, callback);
+            } else {
+                callback.onResult(result);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * ยืมเครื่องอ่านทีละเครื่องเพื่อทำงานและรอผล จนกว่างานจะคืนค่าที่ไม่ใช่ null (ห้ามเรียกจาก UI thread)
+     *
+     * @param timeoutMs เวลาสูงสุดที่รอผลจากแต่ละเครื่อง
+     * @return ผลแรกที่ได้ หรือ null ถ้าไม่มีเครื่องอ่าน หมดเวลา หรือไม่ได้ผลจากทุกเครื่อง
+     */
+    public <T> T borrow(ReaderOperation<T> operation, long timeoutMs) {
+        for (PooledReader reader : readerPool.getReaders()) {
+            T result = reader.call(operation, timeoutMs);
+            if (result != null) {
+                return result;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * true ถ้าอุปกรณ์เป็นเครื่องอ่านที่รองรับ
+     */
+    public boolean isSupported(UsbDevice device) {
+        return readerPool.isSupported(device);
+    }
+
+    /**
+     * true ถ้ามีเครื่องอ่านที่เปิดอยู่อย่างน้อยหนึ่งเครื่อง
+     */
+    public boolean isConnected() {
+        return !readerPool.isEmpty();
+    }
+
+    /**
+     * true ถ้ามีอุปกรณ์ที่รองรับและได้รับสิทธิ์แล้วเสียบอยู่ (ไม่สื่อสารกับอุปกรณ์)
+     */
+    public boolean hasAvailableReader() {
+        for (UsbDevice device : mManager.getDeviceList().values()) {
+            if (readerPool.isSupported(device) && mManager.hasPermission(device)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * เครื่องอ่านที่เปิดอยู่ทั้งหมด (สำเนา)
+     */
+    public List<PooledReader> getReaders() {
+        return readerPool.getReaders();
+    }
+
+    public int getReaderCount() {
+        return readerPool.size();
+    }
+
+    private boolean hasOwners() {
+        synchronized (owners) {
+            return !owners.isEmpty();
+        }
+    }
+
+    /**
+     * สร้างการเชื่อมต่อใหม่ให้กับเครื่องอ่านที่กู้คืนไม่สำเร็จ (ถูกเรียกจาก thread ของเครื่องอ่านหรือของ watchdog)
+     * ทำใน thread เดียวกับการเปิด/ปิดเครื่องอ่าน เพื่อไม่ให้สลับกับ {@link #release(Object)}
+     */
+    private final PooledReader.FaultListener faultListener = new PooledReader.FaultListener() {
+        @Override
+        public void onReaderFailed(PooledReader reader) {
+            controlExecutor.submit(() -> {
+                if (hasOwners()) {
+                    readerPool.reconnectReader(reader);
+                }
+            }, ReaderExecutor.PRIORITY_INTERACTIVE);
+        }
+    };
+
+    /**
+     * ส่งต่อเหตุการณ์จาก ReaderPool ให้ทุก listener
+     */
+    private final ReaderPool.Listener dispatcher = new ReaderPool.Listener() {
+        @Override
+        public void onReaderOpened(PooledReader reader) {
+            for (ReaderPool.Listener listener : listeners) {
+                listener.onReaderOpened(reader);
+            }
+        }
+
+        @Override
+        public void onReaderClosed(PooledReader reader) {
+            for (ReaderPool.Listener listener : listeners) {
+                listener.onReaderClosed(reader);
+            }
+        }
+
+        @Override
+        public void onCardDetected(PooledReader reader, int slotNum, String cardId) {
+            for (ReaderPool.Listener listener : listeners) {
+                listener.onCardDetected(reader, slotNum, cardId);
+            }
+        }
+
+        @Override
+        public void onCardRemoved(PooledReader reader, int slotNum) {
+            for (ReaderPool.Listener listener : listeners) {
+                listener.onCardRemoved(reader, slotNum);
+            }
+        }
+    };
+}
@@ -0,0 +1,237 @@
+package com.acs.readertest;
+
+import android.util.Log;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * thread เดียวสำหรับสื่อสารกับเครื่องอ่าน ทุกคำสั่งที่ใช้ Reader ต้องส่งผ่าน executor นี้
+ * เพื่อไม่ให้ APDU จากหลาย thread สลับกัน
+ *
+ * งานถูกเรียงตามลำดับความสำคัญ (งานที่ผู้ใช้รออยู่ก่อนงาน polling เบื้องหลัง) และตามลำดับที่ส่งเข้ามา
+ * งานที่ยังไม่เริ่มสามารถยกเลิกได้ และกำหนดเวลาหมดอายุได้ถ้าต้องรอคิวนานเกินไป
+ */
+public class ReaderExecutor {
+    private static final String TAG = "ReaderExecutor";
+
+    // งานที่ผู้ใช้รออยู่ (เช่น กดปุ่มอ่านการ์ด เปิด/ปิดเครื่องอ่าน)
+    public static final int PRIORITY_INTERACTIVE = 0;
+
+    // การ์ดเพิ่งถูกวาง (state-change event)
+    public static final int PRIORITY_EVENT = 5;
+
+    // polling เบื้องหลัง
+    public static final int PRIORITY_BACKGROUND = 10;
+
+    // ไม่กำหนดเวลาหมดอายุของงานในคิว
+    public static final long NO_TIMEOUT = 0;
+
+    /**
+     * งานในคิว เรียงตามลำดับความสำคัญแล้วตามลำดับที่ส่งเข้ามา
+     */
+    private static final class Task<T> extends FutureTask<T> implements Comparable<Task<?>> {
+        final int priority;
+        final long sequence;
+        final long deadlineNanos;
+
+        Task(Callable<T> callable, int priority, long sequence, long queueTimeoutMs) {
+            super(callable);
+            this.priority = priority;
+            this.sequence = sequence;
+            this.deadlineNanos = queueTimeoutMs > 0
+                    ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(queueTimeoutMs)
+                    : 0;
+        }
+
+        boolean isExpired(long now) {
+            return deadlineNanos != 0 && now - deadlineNanos > 0;
+        }
+
+        @Override
+        public int compareTo(Task<?> other) {
+            if (priority != other.priority) {
+                return priority < other.priority ? -1 : 1;
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+
+    private final PriorityBlockingQueue<Task<?>> queue = new PriorityBlockingQueue<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final Thread thread;
+    private volatile boolean running = true;
+    private volatile ReaderWatchdog watchdog;
+
+    /**
+     * สร้างและเริ่ม thread ของ executor
+     *
+     * @param name ชื่อ thread (ใช้ใน log)
+     */
+    public ReaderExecutor(String name) {
+        thread = new Thread(this::runLoop, name);
+        thread.start();
+    }
+
+    /**
+     * ให้ watchdog จับเวลาทุกงานที่ทำใน executor นี้
+     */
+    public void setWatchdog(ReaderWatchdog watchdog) {
+        this.watchdog = watchdog;
+    }
+
+    /**
+     * ส่งงานเข้าคิว
+     *
+     * @param priority ลำดับความสำคัญ ค่าน้อยทำก่อน
+     * @return Future สำหรับรอผลหรือยกเลิกงาน
+     */
+    public <T> Future<T> submit(Callable<T> callable, int priority) {
+        return submit(callable, priority, NO_TIMEOUT);
+    }
+
+    /**
+     * ส่งงานเข้าคิว โดยยกเลิกงานอัตโนมัติถ้ายังไม่ได้เริ่มภายในเวลาที่กำหนด
+     *
+     * @param queueTimeoutMs เวลาสูงสุดที่งานรอในคิว หรือ {@link #NO_TIMEOUT}
+     */
+    public <T> Future<T> submit(Callable<T> callable, int priority, long queueTimeoutMs) {
+        Task<T> task = new Task<>(callable, priority, sequence.getAndIncrement(), queueTimeoutMs);
+        if (!running) {
+            task.cancel(false);
+            return task;
+        }
+        queue.offer(task);
+        return task;
+    }
+
+    public Future<?> submit(Runnable runnable, int priority) {
+        return submit(() -> {
+            runnable.run();
+            return null;
+        }, priority, NO_TIMEOUT);
+    }
+
+    /**
+     * ทำงานและรอผล (ถ้าเรียกจาก thread ของ executor เองจะทำงานทันทีเพื่อไม่ให้ค้าง)
+     *
+     * @param timeoutMs เวลาสูงสุดที่รอ รวมเวลาที่รอในคิว
+     * @return ผลลัพธ์ หรือ null ถ้าหมดเวลา ถูกยกเลิก หรือเกิดข้อผิดพลาด
+     */
+    public <T> T call(Callable<T> callable, int priority, long timeoutMs) {
+        if (isExecutorThread()) {
+            try {
+                return callable.call();
+            } catch (Exception e) {
+                Log.e(TAG, "เกิดข้อผิดพลาดในการทำงาน", e);
+                return null;
+            }
+        }
+
+        Future<T> future = submit(callable, priority, timeoutMs);
+        try {
+            return future.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(false);
+            Log.w(TAG, "งานของเครื่องอ่านใช้เวลาเกิน " + timeoutMs + " ms");
+            return null;
+        } catch (InterruptedException e) {
+            future.cancel(false);
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            Log.e(TAG, "เกิดข้อผิดพลาดในการทำงาน", e.getCause());
+            return null;
+        } catch (Exception e) {
+            // CancellationException: executor ถูกปิดระหว่างรอ
+            return null;
+        }
+    }
+
+    /**
+     * สร้าง Runnable ที่ส่งงานเข้าคิวเฉพาะเมื่อไม่มีงานเดียวกันค้างอยู่ในคิว
+     * ใช้กับ timer ของ polling เพื่อไม่ให้งานสะสมเมื่อเครื่องอ่านตอบช้า
+     */
+    public Runnable coalescing(Runnable runnable, int priority) {
+        AtomicBoolean pending = new AtomicBoolean();
+        return () -> {
+            if (pending.compareAndSet(false, true)) {
+                submit(() -> {
+                    pending.set(false);
+                    runnable.run();
+                    return null;
+                }, priority, NO_TIMEOUT);
+            }
+        };
+    }
+
+    /**
+     * true ถ้า thread ปัจจุบันคือ thread ของ executor
+     */
+    public boolean isExecutorThread() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * จำนวนงานที่รออยู่ในคิว
+     */
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    /**
+     * หยุดรับงานใหม่ ยกเลิกงานที่ยังไม่เริ่ม และให้ thread จบเมื่องานปัจจุบันเสร็จ
+     */
+    public void shutdown() {
+        running = false;
+
+        Task<?> task;
+        while ((task = queue.poll()) != null) {
+            task.cancel(false);
+        }
+
+        // ปลุก thread ที่รอคิวอยู่
+        queue.offer(new Task<>(() -> null, Integer.MIN_VALUE, -1, NO_TIMEOUT));
+    }
+
+    private void runLoop() {
+        while (running) {
+            Task<?> task;
+            try {
+                task = queue.take();
+            } catch (InterruptedException e) {
+                break;
+            }
+
+            if (task.isCancelled()) {
+                continue;
+            }
+            if (task.isExpired(System.nanoTime())) {
+                task.cancel(false);
+                Log.d(TAG, "ยกเลิกงานที่รอในคิวนานเกินกำหนด (priority " + task.priority + ")");
+                continue;
+            }
+
+            ReaderWatchdog currentWatchdog = watchdog;
+            if (currentWatchdog != null) {
+                currentWatchdog.begin();
+            }
+            try {
+                task.run();
+            } finally {
+                if (currentWatchdog != null) {
+                    currentWatchdog.end();
+                }
+            }
+        }
+
+        Log.d(TAG, "หยุด " + thread.getName());
+    }
+}
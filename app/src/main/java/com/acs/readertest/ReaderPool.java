@@ -0,0 +1,220 @@
+package com.acs.readertest;
+
+import android.hardware.usb.UsbDevice;
+import android.hardware.usb.UsbManager;
+import android.util.Log;
+
+import com.acs.smartcard.Reader;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * กลุ่มของเครื่องอ่าน ACS ที่เปิดใช้งานพร้อมกัน
+ *
+ * เปิดทุกอุปกรณ์ที่รองรับและได้รับสิทธิ์แล้ว แต่ละเครื่องตรวจจับการ์ดใน thread ของตัวเอง
+ * และเหตุการณ์ของการ์ดจะระบุเครื่องอ่านที่พบการ์ด ({@link PooledReader#getId()})
+ */
+public class ReaderPool {
+    private static final String TAG = "ReaderPool";
+
+    /**
+     * รับเหตุการณ์ของเครื่องอ่านและการ์ด
+     */
+    public interface Listener extends PooledReader.Listener {
+        void onReaderOpened(PooledReader reader);
+
+        void onReaderClosed(PooledReader reader);
+    }
+
+    private final UsbManager mManager;
+    private final Listener listener;
+    private final PooledReader.FaultListener faultListener;
+
+    // ใช้ Reader ตัวนี้ตรวจสอบว่าอุปกรณ์เป็นเครื่องอ่านที่รองรับหรือไม่เท่านั้น
+    private final Reader supportChecker;
+
+    // เครื่องอ่านที่เปิดอยู่ แยกตาม ID
+    private final Map<String, PooledReader> readers = new LinkedHashMap<>();
+
+    private int detectionMode = PooledReader.DETECTION_TIMER;
+    private long operationDeadline = ReaderWatchdog.DEFAULT_DEADLINE;
+    private PollingScheduler.Policy pollingPolicy = new PollingScheduler.Policy();
+    private boolean pollingPaused = false;
+
+    /**
+     * @param manager USB manager
+     * @param listener ตัวรับเหตุการณ์ของเครื่องอ่านและการ์ด
+     * @param faultListener ตัวรับการแจ้งเตือนเมื่อเครื่องอ่านกู้คืนไม่สำเร็จ ซึ่งต้องเรียก
+     *                      {@link #reconnectReader(PooledReader)} ใน thread เดียวกับการเปิด/ปิดเครื่องอ่าน
+     */
+    public ReaderPool(UsbManager manager, Listener listener, PooledReader.FaultListener faultListener) {
+        this.mManager = manager;
+        this.listener = listener;
+        this.faultListener = faultListener;
+        this.supportChecker = new Reader(manager);
+    }
+
+    /**
+     * เปิดเครื่องอ่านทุกเครื่องที่รองรับและได้รับสิทธิ์แล้วซึ่งยังไม่ได้เปิด
+     *
+     * @return จำนวนเครื่องอ่านที่เปิดใหม่
+     */
+    public int openAvailableReaders() {
+        int opened = 0;
+        for (UsbDevice device : mManager.getDeviceList().values()) {
+            if (supportChecker.isSupported(device) && mManager.hasPermission(device) && openReader(device)) {
+                opened++;
+            }
+        }
+        return opened;
+    }
+
+    /**
+     * true ถ้าอุปกรณ์เป็นเครื่องอ่านที่รองรับ
+     */
+    public boolean isSupported(UsbDevice device) {
+        return supportChecker.isSupported(device);
+    }
+
+    /**
+     * เปิดเครื่องอ่านและเริ่มตรวจจับการ์ด
+     *
+     * @return true ถ้าเปิดใหม่สำเร็จ, false ถ้าเปิดอยู่แล้วหรือเปิดไม่สำเร็จ
+     */
+    public boolean openReader(UsbDevice device) {
+        PooledReader reader;
+        synchronized (readers) {
+            if (readers.containsKey(device.getDeviceName())) {
+                return false;
+            }
+
+            reader = new PooledReader(mManager, device, listener);
+            reader.setOperationDeadline(operationDeadline);
+            reader.setPollingPolicy(pollingPolicy);
+            reader.setPollingPaused(pollingPaused);
+            reader.setFaultListener(faultListener);
+            if (!reader.open()) {
+                return false;
+            }
+            readers.put(reader.getId(), reader);
+        }
+
+        reader.startDetection(detectionMode);
+        Log.d(TAG, "เพิ่มเครื่องอ่าน " + reader.getId() + " (ทั้งหมด " + size() + " เครื่อง)");
+        listener.onReaderOpened(reader);
+        return true;
+    }
+
+    /**
+     * ปิดเครื่องอ่านของอุปกรณ์ (เช่น เมื่อถอดสาย USB)
+     */
+    public void closeReader(UsbDevice device) {
+        PooledReader reader;
+        synchronized (readers) {
+            reader = readers.remove(device.getDeviceName());
+        }
+
+        if (reader != null) {
+            reader.close();
+            Log.d(TAG, "นำเครื่องอ่าน " + reader.getId() + " ออก (เหลือ " + size() + " เครื่อง)");
+            listener.onReaderClosed(reader);
+        }
+    }
+
+    /**
+     * ปิดเครื่องอ่านทั้งหมด
+     */
+    public void closeAll() {
+        for (PooledReader reader : getReaders()) {
+            closeReader(reader.getDevice());
+        }
+    }
+
+    /**
+     * เปลี่ยนวิธีตรวจจับการ์ดของทุกเครื่อง
+     *
+     * @param mode PooledReader.DETECTION_TIMER, DETECTION_AUTO_POLL หรือ DETECTION_MULTI_CARD
+     */
+    public void setDetectionMode(int mode) {
+        if (detectionMode == mode) {
+            return;
+        }
+        detectionMode = mode;
+        for (PooledReader reader : getReaders()) {
+            reader.stopDetection();
+            reader.startDetection(mode);
+        }
+    }
+
+    /**
+     * เปลี่ยนนโยบายความถี่ของ polling (ทุกเครื่องรวมถึงเครื่องที่เปิดภายหลัง)
+     */
+    public void setPollingPolicy(PollingScheduler.Policy policy) {
+        this.pollingPolicy = policy.copy();
+        for (PooledReader reader : getReaders()) {
+            reader.setPollingPolicy(pollingPolicy);
+        }
+    }
+
+    /**
+     * หยุด polling ของทุกเครื่องชั่วคราว (เช่น ปิดหน้าจอ) หรือกลับมา polling
+     */
+    public void setPollingPaused(boolean paused) {
+        this.pollingPaused = paused;
+        for (PooledReader reader : getReaders()) {
+            reader.setPollingPaused(paused);
+        }
+    }
+
+    /**
+     * เปลี่ยนเวลาสูงสุดของงานหนึ่งงานก่อนถือว่าเครื่องอ่านค้าง (ทุกเครื่องรวมถึงเครื่องที่เปิดภายหลัง)
+     */
+    public void setOperationDeadline(long deadlineMs) {
+        this.operationDeadline = deadlineMs;
+        for (PooledReader reader : getReaders()) {
+            reader.setOperationDeadline(deadlineMs);
+        }
+    }
+
+    /**
+     * สร้างการเชื่อมต่อใหม่ทั้งหมดให้กับเครื่องอ่านที่กู้คืนไม่สำเร็จ (Reader และ USB connection ใหม่)
+     * ถ้าเครื่องอ่านนี้ถูกปิดหรือถูกแทนที่ไปแล้วจะไม่ทำอะไร
+     *
+     * @return true ถ้าเปิดใหม่สำเร็จ
+     */
+    public boolean reconnectReader(PooledReader reader) {
+        UsbDevice device = reader.getDevice();
+        synchronized (readers) {
+            if (readers.get(reader.getId()) != reader) {
+                return false;
+            }
+        }
+
+        Log.w(TAG, "เชื่อมต่อเครื่องอ่าน " + reader.getId() + " ใหม่");
+        closeReader(device);
+        return mManager.getDeviceList().containsKey(device.getDeviceName()) && mManager.hasPermission(device)
+                && openReader(device);
+    }
+
+    /**
+     * รายการเครื่องอ่านที่เปิดอยู่ (สำเนา)
+     */
+    public List<PooledReader> getReaders() {
+        synchronized (readers) {
+            return new ArrayList<>(readers.values());
+        }
+    }
+
+    public int size() {
+        synchronized (readers) {
+            return readers.size();
+        }
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+}
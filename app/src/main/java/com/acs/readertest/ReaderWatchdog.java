@@ -0,0 +1,186 @@
+package com.acs.readertest;
+
+import android.util.Log;
+
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * เฝ้าดูงานที่กำลังทำใน {@link ReaderExecutor} และแจ้งเมื่องานใช้เวลาเกินกำหนด (เครื่องอ่านค้าง)
+ *
+ * นอกจากนี้ยังเก็บจำนวนครั้งของการกู้คืนแต่ละขั้น ({@link Step}) เพื่อใช้ตรวจสอบสุขภาพของเครื่องอ่าน
+ */
+public class ReaderWatchdog {
+    private static final String TAG = "ReaderWatchdog";
+
+    // เวลาสูงสุดเริ่มต้นของงานหนึ่งงาน (อ่านการ์ดหนึ่งรอบใช้เวลาไม่ถึง 200 ms ในสถานะปกติ)
+    public static final long DEFAULT_DEADLINE = 3000;
+
+    // ความถี่ในการตรวจงานที่กำลังทำ
+    private static final long CHECK_INTERVAL = 500;
+
+    /**
+     * ขั้นของการกู้คืน เรียงจากเบาไปหนัก
+     */
+    public enum Step {
+        HANG,           // งานค้างเกินกำหนด (บันทึกอย่างเดียว)
+        RETRY,          // อ่านซ้ำทันที
+        WARM_RESET,     // warm reset การ์ด
+        COLD_RESET,     // ตัดไฟแล้ว cold reset การ์ด
+        REOPEN,         // ปิดและเปิดเครื่องอ่านใหม่
+        REENUMERATE     // สร้างการเชื่อมต่อ USB กับอุปกรณ์ใหม่ทั้งหมด
+    }
+
+    /**
+     * รับการแจ้งเตือนเมื่องานค้าง (ถูกเรียกจาก thread ของ watchdog ไม่ใช่ thread ของเครื่องอ่าน)
+     */
+    public interface Listener {
+        /**
+         * @param elapsedMs เวลาที่งานทำมาแล้ว
+         * @param repeat จำนวนครั้งที่แจ้งสำหรับงานเดียวกัน (เริ่มที่ 1)
+         */
+        void onOperationHung(long elapsedMs, int repeat);
+    }
+
+    private final String name;
+    private final Listener listener;
+    private final AtomicLongArray counters = new AtomicLongArray(Step.values().length);
+
+    private volatile long deadlineMs;
+
+    // เวลาเริ่มของงานปัจจุบัน (0 = ไม่มีงาน) เวลาสูงสุดของงานนี้ และจำนวนครั้งที่แจ้งว่างานนี้ค้าง
+    private volatile long operationStart = 0;
+    private volatile long operationDeadlineMs;
+    private int hangReports = 0;
+
+    private Timer timer;
+
+    /**
+     * @param name ชื่อ (ใช้ใน log)
+     * @param deadlineMs เวลาสูงสุดของงานหนึ่งงาน
+     * @param listener ตัวรับการแจ้งเตือนเมื่องานค้าง
+     */
+    public ReaderWatchdog(String name, long deadlineMs, Listener listener) {
+        this.name = name;
+        this.deadlineMs = deadlineMs;
+        this.listener = listener;
+    }
+
+    /**
+     * เริ่มเฝ้าดู
+     */
+    public synchronized void start() {
+        if (timer != null) {
+            return;
+        }
+        timer = new Timer(TAG + " " + name, true);
+        timer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                check();
+            }
+        }, CHECK_INTERVAL, CHECK_INTERVAL);
+    }
+
+    /**
+     * หยุดเฝ้าดู
+     */
+    public synchronized void stop() {
+        if (timer != null) {
+            timer.cancel();
+            timer = null;
+        }
+    }
+
+    public long getDeadline() {
+        return deadlineMs;
+    }
+
+    /**
+     * เปลี่ยนเวลาสูงสุดของงาน (มีผลกับการตรวจครั้งถัดไป)
+     */
+    public void setDeadline(long deadlineMs) {
+        this.deadlineMs = deadlineMs;
+    }
+
+    /**
+     * เรียกเมื่อเริ่มงาน (จาก thread ของเครื่องอ่าน)
+     */
+    public void begin() {
+        synchronized (this) {
+            hangReports = 0;
+        }
+        operationDeadlineMs = deadlineMs;
+        operationStart = System.nanoTime();
+    }
+
+    /**
+     * ขยายเวลาสูงสุดของงานปัจจุบันเท่านั้น (เช่น งานที่ยืมเครื่องอ่านซึ่งมี timeout ของตัวเอง)
+     * เรียกจาก thread ของเครื่องอ่านระหว่างงาน
+     */
+    public void extendCurrentDeadline(long deadlineMs) {
+        operationDeadlineMs = Math.max(operationDeadlineMs, deadlineMs);
+    }
+
+    /**
+     * เรียกเมื่องานเสร็จ (จาก thread ของเครื่องอ่าน)
+     */
+    public void end() {
+        operationStart = 0;
+    }
+
+    /**
+     * บันทึกการกู้คืนหนึ่งครั้ง
+     */
+    public void record(Step step) {
+        long count = counters.incrementAndGet(step.ordinal());
+        Log.w(TAG, "[" + name + "] กู้คืนเครื่องอ่าน: " + step + " (ครั้งที่ " + count + ")");
+    }
+
+    /**
+     * จำนวนครั้งของการกู้คืนขั้นนี้ตั้งแต่เริ่มใช้งาน
+     */
+    public long getCount(Step step) {
+        return counters.get(step.ordinal());
+    }
+
+    /**
+     * สรุปจำนวนครั้งของการกู้คืนทุกขั้น เช่น "HANG=0 RETRY=3 ..."
+     */
+    public String getSummary() {
+        StringBuilder summary = new StringBuilder();
+        for (Step step : Step.values()) {
+            if (summary.length() > 0) {
+                summary.append(' ');
+            }
+            summary.append(step).append('=').append(getCount(step));
+        }
+        return summary.toString();
+    }
+
+    private void check() {
+        long start = operationStart;
+        if (start == 0) {
+            return;
+        }
+
+        long elapsedMs = (System.nanoTime() - start) / 1000000;
+        int repeat;
+        synchronized (this) {
+            // แจ้งซ้ำทุกครั้งที่เกินกำหนดอีกหนึ่งรอบ เพื่อให้ผู้รับยกระดับการกู้คืนได้
+            if (start != operationStart || elapsedMs < operationDeadlineMs * (hangReports + 1)) {
+                return;
+            }
+            repeat = ++hangReports;
+        }
+
+        record(Step.HANG);
+        Log.e(TAG, "[" + name + "] งานของเครื่องอ่านค้างนาน " + elapsedMs + " ms");
+        try {
+            listener.onOperationHung(elapsedMs, repeat);
+        } catch (Exception e) {
+            Log.e(TAG, "เกิดข้อผิดพลาดในการกู้คืนเครื่องอ่าน", e);
+        }
+    }
+}
@@ -53,8 +53,6 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.HashMap;
-import java.util.Timer;
-import java.util.TimerTask;
 
 import android.content.SharedPreferences;
 
@@ -67,7 +65,6 @@ public class SettingsActivity extends AppCompatActivity implements CardReaderSer
     private static final String ACTION_USB_PERMISSION = "com.acs.readertest.USB_PERMISSION";
     private static final int REQUEST_STORAGE_PERMISSION = 101;
     private static final int REQUEST_MEDIA_PERMISSION = 102;
-    private static final int CARD_POLLING_INTERVAL = 1000; // 1 วินาที
     private static final String PREFS_NAME = "ImagePrefs";
     private static final String KEY_SELECTED_IMAGE_URI = "selected_image_uri";
 
@@ -93,14 +90,11 @@ public class SettingsActivity extends AppCompatActivity implements CardReaderSer
     private UsbManager mManager;
     private Reader mReader;
     private PendingIntent mPermissionIntent;
-    private int mSlotNum = 0;
     private boolean mReaderOpened = false;
-    private NfcCardReader nfcCardReader;
+    private ReaderBroker mReaderBroker;
     private CardMediaMapping cardMediaMapping;
-    private Timer cardPollingTimer;
     private String lastCardId = null;
-    private String lastOpenedPdfForCardId = null;
-    private String lastOpenedMediaForCardId = null;
+    private String lastOpenedMediaPath = null;
 
     // ActivityResultLauncher สำหรับเปิดไฟล์ PDF
     private ActivityResultLauncher<Intent> pdfLauncher;
@@ -123,7 +117,7 @@ public class SettingsActivity extends AppCompatActivity implements CardReaderSer
                         if (device != null) {
                             // เปิดการเชื่อมต่อกับ reader
                             logMessage("กำลังเชื่อมต่อกับเครื่องอ่าน: " + device.getDeviceName());
-                            new Thread(() -> openReader(device)).start();
+                            openReader(device);
                         }
                     } else {
                         logMessage("การขอสิทธิ์ USB ถูกปฏิเสธสำหรับอุปกรณ์: " + device.getDeviceName());
@@ -139,7 +133,7 @@ public class SettingsActivity extends AppCompatActivity implements CardReaderSer
                 UsbDevice device = intent.getParcelableExtra(UsbManager.EXTRA_DEVICE);
                 if (device != null && mReader != null && mReader.isSupported(device)) {
                     if (mReaderOpened) {
-                        new Thread(() -> closeReader()).start();
+                        closeReader();
                     }
                     updateReaderStatus("ไม่ได้เชื่อมต่อ");
                     logMessage("เครื่องอ่านถูกถอด: " + device.getDeviceName());
@@ -239,13 +233,10 @@ public class SettingsActivity extends AppCompatActivity implements CardReaderSer
     @Override
     protected void onDestroy() {
         try {
-            // หยุดการทำงานของ timer
-            stopCardPolling();
-            
             // ปิดการเชื่อมต่อกับ reader
             if (mReaderOpened) {
                 try {
-                    new Thread(() -> closeReader()).start();
+                    closeReader();
                 } catch (Exception e) {
                     Log.e(TAG, "เกิดข้อผิดพลาดในการปิด reader: ", e);
                 }
@@ -258,6 +249,11 @@ public class SettingsActivity extends AppCompatActivity implements CardReaderSer
                 // เกิดขึ้นเมื่อ receiver ไม่ได้ลงทะเบียน
                 Log.e(TAG, "เกิดข้อผิดพลาดในการยกเลิกการลงทะเบียน receiver: ", e);
             }
+            
+            // ปิด store ของ mapping
+            if (cardMediaMapping != null) {
+                cardMediaMapping.close();
+            }
         } catch (Exception e) {
             Log.e(TAG, "เกิดข้อผิดพลาดใน onDestroy: ", e);
         } finally {
@@ -348,6 +344,10 @@ public class SettingsActivity extends AppCompatActivity implements CardReaderSer
      * ตั้งค่า Card Mapping
      */
     private void initializeCardMapping() {
+        // ปิด store ของ mapping เดิมก่อนสร้างใหม่
+        if (cardMediaMapping != null) {
+            cardMediaMapping.close();
+        }
         try {
             cardMediaMapping = new CardMediaMapping();
             boolean mappingLoaded = cardMediaMapping.loadMapping(this);
@@ -362,6 +362,7 @@ public class SettingsActivity extends AppCompatActivity implements CardReaderSer
         } catch (Exception e) {
             Log.e(TAG, "เกิดข้อผิดพลาดในการโหลด mapping: ", e);
             logMessage("เกิดข้อผิดพลาดในการโหลด mapping: " + e.getMessage());
+            cardMediaMapping.close();
             cardMediaMapping = new CardMediaMapping(); // สร้าง mapping ว่างเปล่า
         }
     }
@@ -376,7 +377,9 @@ public class SettingsActivity extends AppCompatActivity implements CardReaderSer
         // ตั้งค่า Reader
         UsbReader usbReader = UsbReader.getInstance(this);
         mReader = usbReader.getReader();
-        nfcCardReader = new NfcCardReader(mReader);
+        
+        // เครื่องอ่านถูกเปิดและตรวจจับการ์ดโดย broker ร่วมกับ CardReaderService
+        mReaderBroker = ReaderBroker.getInstance(this);
         
         // สร้าง PendingIntent สำหรับขอสิทธิ์ USB
         int flags = PendingIntent.FLAG_UPDATE_CURRENT;
@@ -414,14 +417,14 @@ public class SettingsActivity extends AppCompatActivity implements CardReaderSer
             if (!mReaderOpened) {
                 connectToReader();
             } else {
-                new Thread(() -> closeReader()).start();
+                closeReader();
             }
         });
 
         // ปุ่มอ่านการ์ด
         btnReadCard.setOnClickListener(v -> {
             if (mReaderOpened) {
-                new Thread(() -> readCard()).start();
+                readCard();
             } else {
                 showMessage("กรุณาเชื่อมต่อเครื่องอ่านก่อน");
             }
@@ -527,7 +530,7 @@ public class SettingsActivity extends AppCompatActivity implements CardReaderSer
         } else {
             // มีสิทธิ์อยู่แล้ว เปิดการเชื่อมต่อได้เลย
             logMessage("มีสิทธิ์เข้าถึง USB แล้ว กำลังเชื่อมต่อ...");
-            new Thread(() -> openReader(device)).start();
+            openReader(device);
         }
     }
 
@@ -554,45 +557,41 @@ public class SettingsActivity extends AppCompatActivity implements CardReaderSer
     }
 
     /**
-     * เปิดการเชื่อมต่อกับเครื่องอ่าน
+     * เปิดการเชื่อมต่อกับเครื่องอ่านผ่าน broker (ถ้า service เปิดไว้แล้วจะใช้เครื่องอ่านเดิมร่วมกัน)
      */
     private void openReader(UsbDevice device) {
-        try {
-            // เปิดการเชื่อมต่อกับ reader
-            mReader.open(device);
+        mReaderBroker.addListener(readerListener);
+        mReaderBroker.acquire(this);
+        mReaderBroker.openReader(device);
+        
+        // เครื่องอ่านเปิดอยู่แล้ว จะไม่มีเหตุการณ์ onReaderOpened
+        if (mReaderBroker.isConnected()) {
+            String deviceName = device.getProductName() != null ? device.getProductName() : device.getDeviceName();
+            runOnUiThread(() -> showReaderConnected(deviceName));
+        }
+    }
 
-            // อัปเดตสถานะ UI
-            runOnUiThread(() -> {
-                mReaderOpened = true;
-                String deviceName = device.getProductName() != null ? device.getProductName() : device.getDeviceName();
-                tvReaderName.setText(deviceName);
-                updateReaderStatus("เชื่อมต่อแล้ว");
-                btnConnectReader.setText("ยกเลิกการเชื่อมต่อ");
-                logMessage("เชื่อมต่อกับเครื่องอ่านสำเร็จ: " + deviceName);
-                
-                // เริ่ม polling เพื่อรอการ์ด
-                startCardPolling();
-            });
-        } catch (Exception e) {
-            Log.e(TAG, "เกิดข้อผิดพลาดในการเปิดเครื่องอ่าน", e);
-            runOnUiThread(() -> {
-                mReaderOpened = false;
-                updateReaderStatus("เกิดข้อผิดพลาด");
-                logMessage("เกิดข้อผิดพลาดในการเปิดเครื่องอ่าน: " + e.getMessage());
-            });
+    /**
+     * แสดงสถานะเชื่อมต่อเครื่องอ่านแล้ว
+     */
+    private void showReaderConnected(String deviceName) {
+        if (mReaderOpened) {
+            return;
         }
+        mReaderOpened = true;
+        tvReaderName.setText(deviceName);
+        updateReaderStatus("เชื่อมต่อแล้ว");
+        btnConnectReader.setText("ยกเลิกการเชื่อมต่อ");
+        logMessage("เชื่อมต่อกับเครื่องอ่านสำเร็จ: " + deviceName);
     }
 
     /**
-     * ปิดการเชื่อมต่อกับเครื่องอ่าน
+     * ปิดการเชื่อมต่อกับเครื่องอ่าน (broker จะปิดเครื่องอ่านจริงเมื่อไม่มีผู้ใช้งานเหลือ)
      */
     private void closeReader() {
         try {
-            // หยุด polling
-            stopCardPolling();
-            
-            // ปิดการเชื่อมต่อกับ reader
-            mReader.close();
+            mReaderBroker.removeListener(readerListener);
+            mReaderBroker.release(this);
 
             // อัปเดตสถานะ UI
             runOnUiThread(() -> {
@@ -609,66 +608,84 @@ public class SettingsActivity extends AppCompatActivity implements CardReaderSer
     }
 
     /**
-     * เริ่ม polling เพื่อตรวจสอบการ์ด
+     * รับเหตุการณ์ของเครื่องอ่านและการ์ดจาก broker (ถูกเรียกจาก thread ของเครื่องอ่าน)
      */
-    private void startCardPolling() {
-        if (cardPollingTimer != null) {
-            cardPollingTimer.cancel();
+    private final ReaderPool.Listener readerListener = new ReaderPool.Listener() {
+        @Override
+        public void onReaderOpened(PooledReader reader) {
+            runOnUiThread(() -> showReaderConnected(reader.getName()));
         }
-        
-        cardPollingTimer = new Timer();
-        cardPollingTimer.scheduleAtFixedRate(new TimerTask() {
-            @Override
-            public void run() {
-                if (mReaderOpened) {
-                    readCard();
-                }
+
+        @Override
+        public void onReaderClosed(PooledReader reader) {
+            if (!mReaderBroker.isConnected()) {
+                runOnUiThread(() -> {
+                    mReaderOpened = false;
+                    tvReaderName.setText("ไม่ได้เชื่อมต่อ");
+                    updateReaderStatus("ไม่ได้เชื่อมต่อ");
+                    btnConnectReader.setText("เชื่อมต่อเครื่องอ่านการ์ด");
+                });
             }
-        }, 500, CARD_POLLING_INTERVAL);
-        
-        logMessage("เริ่มการตรวจสอบการ์ดอัตโนมัติ");
-    }
+        }
+
+        @Override
+        public void onCardDetected(PooledReader reader, int slotNum, String cardId) {
+            logMessage("ตรวจพบการ์ด: " + cardId);
+            processCardInfo(cardId);
+        }
+
+        @Override
+        public void onCardRemoved(PooledReader reader, int slotNum) {
+            runOnUiThread(() -> {
+                tvCardId.setText("ไม่พบการ์ด");
+                tvPdfFile.setText("-");
+                tvStatusMessage.setText("รอการอ่านการ์ด...");
+                
+                // รีเซ็ตสถานะเมื่อการ์ดถูกนำออก
+                lastCardId = null;
+                lastOpenedMediaPath = null;
+            });
+        }
+    };
 
     /**
-     * หยุด polling
+     * อ่านข้อมูลจากการ์ดโดยยืมเครื่องอ่านจาก broker
      */
-    private void stopCardPolling() {
-        if (cardPollingTimer != null) {
-            cardPollingTimer.cancel();
-            cardPollingTimer = null;
+    private void readCard() {
+        if (!mReaderOpened) {
+            showMessage("กรุณาเชื่อมต่อเครื่องอ่านก่อน");
+            return;
+        }
+        
+        logMessage("กำลังอ่านการ์ด...");
+        tvStatusMessage.setText("กำลังอ่านการ์ด...");
+        
+        // อ่าน UID และ NDEF (ถ้าจำเป็น) จากทุก slot ของเครื่องอ่านทีละเครื่องจนกว่าจะพบการ์ด
+        boolean submitted = mReaderBroker.execute(cardReader -> {
+            NfcCardReader.ReadResult result = cardReader.readFirstCard();
+            return result != null && result.getCardId() != null ? result : null;
+        }, this::showReadResult);
+        if (!submitted) {
+            logMessage("ไม่สามารถอ่านการ์ดได้: ไม่มีเครื่องอ่านที่เชื่อมต่ออยู่");
+            tvStatusMessage.post(() -> tvStatusMessage.setText("ไม่สามารถอ่านการ์ดได้"));
         }
     }
 
     /**
-     * อ่านข้อมูลจากการ์ด
+     * แสดงผลการอ่านการ์ด (ทำงานใน thread ของเครื่องอ่าน)
+     *
+     * @param result ผลจากเครื่องอ่านที่พบการ์ด หรือ null ถ้าไม่พบการ์ดบนเครื่องอ่านใดเลย
      */
-    private void readCard() {
+    private void showReadResult(NfcCardReader.ReadResult result) {
         try {
-            if (!mReaderOpened) {
-                showMessage("กรุณาเชื่อมต่อเครื่องอ่านก่อน");
-                return;
-            }
-            
-            logMessage("กำลังอ่านการ์ด...");
-            tvStatusMessage.post(() -> tvStatusMessage.setText("กำลังอ่านการ์ด..."));
-            
-            // ตรวจสอบว่ามีการ์ดบนเครื่องอ่านหรือไม่
-            if (nfcCardReader == null) {
-                logMessage("ไม่สามารถอ่านการ์ดได้: ไม่มี NfcCardReader");
-                tvStatusMessage.post(() -> tvStatusMessage.setText("ไม่สามารถอ่านการ์ดได้"));
-                return;
-            }
-            
-            // อ่าน UID ก่อน
-            String uid = nfcCardReader.readCardUid(mSlotNum);
-            if (uid != null) {
-                logMessage("อ่าน UID สำเร็จ: " + uid);
-                processCardInfo(uid);
+            if (result != null && result.uid != null) {
+                logMessage("อ่าน UID สำเร็จ: " + result.uid);
+                processCardInfo(result.uid);
                 return;
             }
             
-            // ถ้าอ่าน UID ไม่สำเร็จ ให้ลองอ่าน NDEF
-            String ndefText = nfcCardReader.readNdefText(mSlotNum);
+            // ถ้าอ่าน UID ไม่สำเร็จ ให้ใช้ NDEF Text แทน
+            String ndefText = result != null ? result.getCardId() : null;
             if (ndefText != null) {
                 logMessage("อ่าน NDEF Text สำเร็จ: " + ndefText);
                 processCardInfo(ndefText);
@@ -684,7 +701,7 @@ public class SettingsActivity extends AppCompatActivity implements CardReaderSer
                 
                 // รีเซ็ตสถานะเมื่อไม่พบการ์ด
                 lastCardId = null;
-                lastOpenedPdfForCardId = null;
+                lastOpenedMediaPath = null;
             });
         } catch (Exception e) {
             Log.e(TAG, "เกิดข้อผิดพลาดในการอ่านการ์ด", e);
@@ -964,7 +981,7 @@ public class SettingsActivity extends AppCompatActivity implements CardReaderSer
                 MediaHelper.MediaInfo mediaInfo = MediaHelper.createMediaInfo(mediaPath);
                 
                 // ตรวจสอบว่าเป็นการ์ดเดิมและเปิดสื่อไปแล้วหรือไม่
-                if (cardId.equals(lastCardId) && (cardId + ":" + mediaPath).equals(lastOpenedMediaForCardId)) {
+                if (cardId.equals(lastCardId) && mediaPath.equals(lastOpenedMediaPath)) {
                     logMessage("ข้าม: สื่อนี้ถูกเปิดไปแล้วสำหรับการ์ดนี้");
                     return;
                 }
@@ -1032,7 +1049,7 @@ public class SettingsActivity extends AppCompatActivity implements CardReaderSer
                         
                         // บันทึกว่าได้เปิดไฟล์นี้ไปแล้วสำหรับการ์ดนี้
                         lastCardId = cardId;
-                        lastOpenedMediaForCardId = cardId + ":" + finalMediaPath;
+                        lastOpenedMediaPath = finalMediaPath;
                     } else {
                         tvStatusMessage.setText("ไม่สามารถเปิดสื่อได้");
                     }
@@ -1375,7 +1392,7 @@ public class SettingsActivity extends AppCompatActivity implements CardReaderSer
         
         // ปิดการทำงานของการอ่านการ์ดในหน้า UI
         if (mReaderOpened) {
-            new Thread(() -> closeReader()).start();
+            closeReader();
         }
         
         // ปิดการใช้งานปุ่มเชื่อมต่อเครื่องอ่านในหน้า UI
@@ -0,0 +1,418 @@
+package com.acs.readertest;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * ที่เก็บ mapping ในฐานข้อมูล SQLite (card_mapping.db)
+ *
+ * card_id เป็น primary key (มี index) จึงค้นหาได้โดยไม่ต้องโหลดทั้งตารางลง heap
+ * การค้นหาและการแก้ไขใช้ statement ที่ compile ไว้แล้ว และการบันทึกหลายรายการทำใน transaction เดียว
+ * ทุก instance ในแอพใช้ฐานข้อมูลเดียวกัน (service และทุกหน้าจอเห็นการแก้ไขของกันและกันทันที)
+ *
+ * เมื่อสร้างฐานข้อมูลครั้งแรก จะนำเข้า mapping เดิมจาก {@link JsonMappingStore#readAll} ใน thread แยก
+ * (ทีละ transaction ของ BATCH_SIZE รายการ) การ์ดที่ถูกเพิ่มหรือแก้ไขระหว่างนำเข้าไม่ถูกทับด้วยข้อมูลเดิม
+ * การ์ดที่ถูกลบระหว่างนำเข้าถูกบันทึกไว้ใน IMPORT_DELETED_TABLE และการล้างทั้งหมดจะยกเลิกการนำเข้า
+ * จึงไม่ถูกนำเข้ากลับมา แม้นำเข้าต่อหลังแอพถูกปิดกลางคัน
+ * card ID ที่เป็น UID แบบ hex ถูกเก็บเป็นตัวพิมพ์ใหญ่เหมือน {@link MappingSnapshot}
+ */
+public class SqliteMappingStore implements MappingStore {
+    private static final String TAG = "SqliteMappingStore";
+
+    private static final String DATABASE_NAME = "card_mapping.db";
+    private static final int DATABASE_VERSION = 2;
+
+    private static final String TABLE = "card_mapping";
+    private static final String COLUMN_CARD_ID = "card_id";
+    private static final String COLUMN_MEDIA_TYPE = "media_type";
+    private static final String COLUMN_MEDIA_PATH = "media_path";
+
+    // ตารางว่างที่มีอยู่ระหว่างที่ยังนำเข้า mapping เดิมไม่เสร็จ (ถ้าแอพถูกปิดกลางคันจะนำเข้าต่อเมื่อเปิดครั้งถัดไป)
+    private static final String IMPORT_TABLE = "mapping_import";
+
+    // card ID ที่ถูกลบระหว่างนำเข้า (การนำเข้าข้ามรายการเหล่านี้ และล้างตารางเมื่อนำเข้าเสร็จ)
+    private static final String IMPORT_DELETED_TABLE = "mapping_import_deleted";
+
+    // จำนวนรายการต่อหน้าเมื่อนำเข้าและส่งออก
+    private static final int BATCH_SIZE = 1000;
+
+    private static DatabaseHelper helper;
+    private static boolean importStarted = false;
+    private static volatile boolean importPending = false;
+
+    private final MappingLoader mappingLoader;
+    private SQLiteDatabase database;
+
+    // statement ที่ compile แล้ว (ใช้ได้ครั้งละ thread จึงใช้ภายใต้ lock ของ this)
+    private SQLiteStatement selectStatement;
+    private SQLiteStatement upsertStatement;
+    private SQLiteStatement deleteStatement;
+    private SQLiteStatement countStatement;
+    private SQLiteStatement tombstoneStatement;
+
+    /**
+     * @param mappingLoader ตัวอ่าน mapping.json สำหรับนำเข้าข้อมูลเดิมเมื่อสร้างฐานข้อมูล
+     */
+    public SqliteMappingStore(MappingLoader mappingLoader) {
+        this.mappingLoader = mappingLoader;
+    }
+
+    private static synchronized SQLiteDatabase openDatabase(Context context, MappingLoader mappingLoader) {
+        if (helper == null) {
+            helper = new DatabaseHelper(context.getApplicationContext());
+        }
+        SQLiteDatabase db = helper.getWritableDatabase();
+
+        // ใช้ตัวอ่านของ instance ที่เปิดฐานข้อมูลครั้งแรกในการนำเข้า เพื่อให้รายงานความคืบหน้าได้
+        if (!importStarted && isImportPending(db)) {
+            importStarted = true;
+            importPending = true;
+            Context appContext = context.getApplicationContext();
+            new Thread(() -> importMappings(db, appContext, mappingLoader), TAG).start();
+        }
+        return db;
+    }
+
+    private static boolean isImportPending(SQLiteDatabase db) {
+        SQLiteStatement statement = db.compileStatement(
+                "SELECT COUNT(*) FROM sqlite_master WHERE type = 'table' AND name = ?");
+        try {
+            statement.bindString(1, IMPORT_TABLE);
+            return statement.simpleQueryForLong() > 0;
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * นำเข้า mapping เดิมโดยอ่านแหล่งข้อมูลเพียงรอบเดียว (ทำงานใน thread แยก)
+     * ใช้ INSERT OR IGNORE เพื่อไม่ทับการ์ดที่ถูกแก้ไขระหว่างนำเข้าหรือที่นำเข้าไปแล้วในครั้งก่อน
+     * และข้ามการ์ดที่ถูกลบระหว่างนำเข้า หรือทั้งหมดถ้าถูกล้าง (IMPORT_TABLE ถูกลบไปแล้ว)
+     */
+    private static void importMappings(SQLiteDatabase db, Context context, MappingLoader mappingLoader) {
+        SQLiteStatement statement = db.compileStatement(
+                "INSERT OR IGNORE INTO " + TABLE + " (" + COLUMN_CARD_ID + ", " + COLUMN_MEDIA_TYPE + ", "
+                        + COLUMN_MEDIA_PATH + ") SELECT ?1, ?2, ?3"
+                        + " WHERE EXISTS (SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = '"
+                        + IMPORT_TABLE + "')"
+                        + " AND NOT EXISTS (SELECT 1 FROM " + IMPORT_DELETED_TABLE + " WHERE "
+                        + COLUMN_CARD_ID + " = ?1)");
+        boolean finished = false;
+        int[] batch = new int[1];
+        db.beginTransaction();
+        try {
+            int imported = JsonMappingStore.readAll(context, mappingLoader, (cardId, mediaPath) -> {
+                insert(statement, cardId, mediaPath);
+                // commit ทีละชุดเพื่อไม่ให้การค้นหาและการแก้ไขจาก thread อื่นต้องรอจนนำเข้าเสร็จ
+                if (++batch[0] == BATCH_SIZE) {
+                    db.setTransactionSuccessful();
+                    db.endTransaction();
+                    db.beginTransaction();
+                    batch[0] = 0;
+                }
+            });
+            db.execSQL("DROP TABLE IF EXISTS " + IMPORT_TABLE);
+            db.execSQL("DELETE FROM " + IMPORT_DELETED_TABLE);
+            db.setTransactionSuccessful();
+            finished = true;
+            Log.d(TAG, "นำเข้า mapping เดิมลงฐานข้อมูล: " + imported + " รายการ");
+        } catch (IOException | SQLiteException e) {
+            Log.e(TAG, "นำเข้า mapping เดิมไม่สำเร็จ จะลองใหม่เมื่อเปิดฐานข้อมูลครั้งถัดไป", e);
+        } finally {
+            db.endTransaction();
+            statement.close();
+        }
+
+        synchronized (SqliteMappingStore.class) {
+            if (finished) {
+                importPending = false;
+            } else {
+                // ให้การเปิดฐานข้อมูลครั้งถัดไปนำเข้าต่อจากที่ค้างไว้
+                importStarted = false;
+            }
+        }
+    }
+
+    @Override
+    public synchronized boolean open(Context context) {
+        try {
+            database = openDatabase(context, mappingLoader);
+            selectStatement = database.compileStatement(
+                    "SELECT " + COLUMN_MEDIA_PATH + " FROM " + TABLE + " WHERE " + COLUMN_CARD_ID + " = ?");
+            upsertStatement = database.compileStatement(
+                    "INSERT OR REPLACE INTO " + TABLE + " (" + COLUMN_CARD_ID + ", " + COLUMN_MEDIA_TYPE + ", "
+                            + COLUMN_MEDIA_PATH + ") VALUES (?, ?, ?)");
+            deleteStatement = database.compileStatement(
+                    "DELETE FROM " + TABLE + " WHERE " + COLUMN_CARD_ID + " = ?");
+            countStatement = database.compileStatement("SELECT COUNT(*) FROM " + TABLE);
+            tombstoneStatement = database.compileStatement(
+                    "INSERT OR IGNORE INTO " + IMPORT_DELETED_TABLE + " (" + COLUMN_CARD_ID + ") VALUES (?)");
+            Log.d(TAG, "เปิดฐานข้อมูล mapping สำเร็จ: " + count() + " รายการ");
+            return true;
+        } catch (SQLiteException e) {
+            Log.e(TAG, "ไม่สามารถเปิดฐานข้อมูล mapping ได้", e);
+            database = null;
+            return false;
+        }
+    }
+
+    @Override
+    public synchronized String get(String cardId) {
+        if (database == null) {
+            return null;
+        }
+        try {
+            selectStatement.bindString(1, MappingSnapshot.normalizeKey(cardId));
+            return selectStatement.simpleQueryForString();
+        } catch (SQLiteDoneException e) {
+            // ไม่พบ card ID
+            return null;
+        } catch (SQLiteException e) {
+            Log.e(TAG, "เกิดข้อผิดพลาดในการค้นหาการ์ด " + cardId, e);
+            return null;
+        }
+    }
+
+    @Override
+    public String find(CardKey key) {
+        return get(key.toString());
+    }
+
+    @Override
+    public synchronized boolean put(String cardId, String mediaPath) {
+        if (database == null) {
+            Log.e(TAG, "ไม่สามารถบันทึกได้ เนื่องจากยังไม่ได้เปิดฐานข้อมูล");
+            return false;
+        }
+        try {
+            return insert(upsertStatement, cardId, mediaPath);
+        } catch (SQLiteException e) {
+            Log.e(TAG, "เกิดข้อผิดพลาดในการบันทึกการ์ด " + cardId, e);
+            return false;
+        }
+    }
+
+    @Override
+    public synchronized boolean remove(String cardId) {
+        if (database == null) {
+            Log.e(TAG, "ไม่สามารถบันทึกได้ เนื่องจากยังไม่ได้เปิดฐานข้อมูล");
+            return false;
+        }
+        database.beginTransaction();
+        try {
+            delete(cardId);
+            database.setTransactionSuccessful();
+            return true;
+        } catch (SQLiteException e) {
+            Log.e(TAG, "เกิดข้อผิดพลาดในการลบการ์ด " + cardId, e);
+            return false;
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    @Override
+    public synchronized boolean apply(Map<String, String> changes) {
+        if (database == null) {
+            Log.e(TAG, "ไม่สามารถบันทึกได้ เนื่องจากยังไม่ได้เปิดฐานข้อมูล");
+            return false;
+        }
+        database.beginTransaction();
+        try {
+            for (Map.Entry<String, String> change : changes.entrySet()) {
+                if (change.getValue() != null) {
+                    if (!insert(upsertStatement, change.getKey(), change.getValue())) {
+                        return false;
+                    }
+                } else {
+                    delete(change.getKey());
+                }
+            }
+            database.setTransactionSuccessful();
+            return true;
+        } catch (SQLiteException e) {
+            Log.e(TAG, "เกิดข้อผิดพลาดในการบันทึกการ์ด " + changes.size() + " รายการ", e);
+            return false;
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    private static boolean insert(SQLiteStatement statement, String cardId, String mediaPath) {
+        statement.bindString(1, MappingSnapshot.normalizeKey(cardId));
+        statement.bindString(2, MediaHelper.getMediaType(mediaPath).name());
+        statement.bindString(3, mediaPath);
+        return statement.executeInsert() != -1;
+    }
+
+    /**
+     * ลบการ์ด (เรียกภายใน transaction) ระหว่างนำเข้าจะบันทึกไว้ด้วยเพื่อไม่ให้ถูกนำเข้ากลับมา
+     */
+    private void delete(String cardId) {
+        String key = MappingSnapshot.normalizeKey(cardId);
+        deleteStatement.bindString(1, key);
+        deleteStatement.executeUpdateDelete();
+        if (importPending) {
+            tombstoneStatement.bindString(1, key);
+            tombstoneStatement.executeInsert();
+        }
+    }
+
+    @Override
+    public synchronized boolean clear() {
+        if (database == null) {
+            return false;
+        }
+        database.beginTransaction();
+        try {
+            int deleted = database.delete(TABLE, null, null);
+            // ข้อมูลเดิมที่ยังนำเข้าไม่เสร็จไม่ต้องนำเข้าอีก
+            database.execSQL("DROP TABLE IF EXISTS " + IMPORT_TABLE);
+            database.setTransactionSuccessful();
+            importPending = false;
+            Log.d(TAG, "ล้างฐานข้อมูล mapping: " + deleted + " รายการ");
+            return true;
+        } catch (SQLiteException e) {
+            Log.e(TAG, "เกิดข้อผิดพลาดในการล้างฐานข้อมูล mapping", e);
+            return false;
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    @Override
+    public synchronized int count() {
+        if (database == null) {
+            return 0;
+        }
+        try {
+            return (int) countStatement.simpleQueryForLong();
+        } catch (SQLiteException e) {
+            Log.e(TAG, "เกิดข้อผิดพลาดในการนับการ์ด", e);
+            return 0;
+        }
+    }
+
+    @Override
+    public Map<String, String> page(int offset, int limit) {
+        Map<String, String> page = new LinkedHashMap<>();
+        if (database == null) {
+            return page;
+        }
+        try (Cursor cursor = database.query(TABLE, new String[]{COLUMN_CARD_ID, COLUMN_MEDIA_PATH},
+                null, null, null, null, COLUMN_CARD_ID, offset + "," + limit)) {
+            while (cursor.moveToNext()) {
+                page.put(cursor.getString(0), cursor.getString(1));
+            }
+        } catch (SQLiteException e) {
+            Log.e(TAG, "เกิดข้อผิดพลาดในการอ่าน mapping หน้า " + offset + "-" + (offset + limit), e);
+        }
+        return page;
+    }
+
+    @Override
+    public boolean export(File target) {
+        File tempFile = new File(target.getPath() + ".tmp");
+        try {
+            int count = 0;
+            try (FileOutputStream out = new FileOutputStream(tempFile)) {
+                JsonWriter writer = new JsonWriter(new BufferedWriter(new OutputStreamWriter(out, "UTF-8")));
+                writer.beginObject();
+                Map<String, String> page;
+                do {
+                    page = page(count, BATCH_SIZE);
+                    for (Map.Entry<String, String> entry : page.entrySet()) {
+                        writer.name(entry.getKey()).value(entry.getValue());
+                    }
+                    count += page.size();
+                } while (page.size() == BATCH_SIZE);
+                writer.endObject();
+                writer.flush();
+                out.getFD().sync();
+            }
+
+            if (!tempFile.renameTo(target)) {
+                throw new IOException("ไม่สามารถแทนที่ไฟล์ " + target.getName() + " ได้");
+            }
+
+            Log.d(TAG, "ส่งออก mapping สำเร็จ: " + target.getAbsolutePath() + " (" + count + " รายการ)");
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "เกิดข้อผิดพลาดในการส่งออก mapping", e);
+            tempFile.delete();
+            return false;
+        }
+    }
+
+    /**
+     * SQLite บันทึกลงดิสก์เมื่อแต่ละคำสั่ง (หรือ transaction) เสร็จแล้ว
+     */
+    @Override
+    public boolean flush() {
+        return database != null;
+    }
+
+    /**
+     * ปิด statement ของ store นี้ (ฐานข้อมูลใช้ร่วมกันทั้งแอพจึงไม่ถูกปิด)
+     */
+    @Override
+    public synchronized boolean close() {
+        if (database == null) {
+            return true;
+        }
+        selectStatement.close();
+        upsertStatement.close();
+        deleteStatement.close();
+        countStatement.close();
+        tombstoneStatement.close();
+        database = null;
+        return true;
+    }
+
+    private static final class DatabaseHelper extends SQLiteOpenHelper {
+
+        DatabaseHelper(Context context) {
+            super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE " + TABLE + " ("
+                    + COLUMN_CARD_ID + " TEXT PRIMARY KEY NOT NULL, "
+                    + COLUMN_MEDIA_TYPE + " TEXT NOT NULL, "
+                    + COLUMN_MEDIA_PATH + " TEXT NOT NULL)");
+            // นำเข้า mapping เดิมหลังเปิดฐานข้อมูลแล้วใน thread แยก ไม่ใช่ใน thread ที่เปิด (มักเป็น UI thread)
+            db.execSQL("CREATE TABLE " + IMPORT_TABLE + " (pending INTEGER)");
+            createImportDeletedTable(db);
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            // รุ่น 2: เพิ่มตาราง card ID ที่ถูกลบระหว่างนำเข้า
+            if (oldVersion < 2) {
+                createImportDeletedTable(db);
+            }
+        }
+
+        private static void createImportDeletedTable(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS " + IMPORT_DELETED_TABLE + " ("
+                    + COLUMN_CARD_ID + " TEXT PRIMARY KEY NOT NULL)");
+        }
+    }
+}
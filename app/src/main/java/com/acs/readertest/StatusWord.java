@@ -0,0 +1,109 @@
+package com.acs.readertest;
+
+/**
+ * ค่าคงที่และตัวช่วยแปลความหมายของ Status Word (SW1 SW2) ตาม ISO 7816-4
+ */
+public final class StatusWord {
+
+    public static final int SUCCESS = 0x9000;
+
+    // ค่าที่ใช้แทนกรณีไม่ได้รับ status word จากการ์ด
+    public static final int NONE = -1;
+
+    public static final int WRONG_LENGTH = 0x6700;
+    public static final int SECURITY_NOT_SATISFIED = 0x6982;
+    public static final int CONDITIONS_NOT_SATISFIED = 0x6985;
+    public static final int FILE_NOT_FOUND = 0x6A82;
+    public static final int WRONG_P1P2 = 0x6B00;
+    public static final int INS_NOT_SUPPORTED = 0x6D00;
+    public static final int CLA_NOT_SUPPORTED = 0x6E00;
+    public static final int OPERATION_FAILED = 0x6300;
+
+    private StatusWord() {
+    }
+
+    /**
+     * รวม SW1 และ SW2 เป็นค่าเดียว
+     */
+    public static int of(byte sw1, byte sw2) {
+        return ((sw1 & 0xFF) << 8) | (sw2 & 0xFF);
+    }
+
+    public static int sw1(int statusWord) {
+        return (statusWord >> 8) & 0xFF;
+    }
+
+    public static int sw2(int statusWord) {
+        return statusWord & 0xFF;
+    }
+
+    public static boolean isSuccess(int statusWord) {
+        return statusWord == SUCCESS;
+    }
+
+    /**
+     * 61XX: มีข้อมูลรอให้อ่านด้วยคำสั่ง GET RESPONSE จำนวน XX ไบต์
+     */
+    public static boolean hasMoreData(int statusWord) {
+        return sw1(statusWord) == 0x61;
+    }
+
+    /**
+     * 6CXX: ค่า Le ไม่ถูกต้อง ให้ส่งคำสั่งใหม่ด้วย Le = XX
+     */
+    public static boolean isWrongLe(int statusWord) {
+        return sw1(statusWord) == 0x6C;
+    }
+
+    /**
+     * 62XX / 63XX: คำสั่งทำงานแต่มีคำเตือน
+     */
+    public static boolean isWarning(int statusWord) {
+        int sw1 = sw1(statusWord);
+        return sw1 == 0x62 || sw1 == 0x63;
+    }
+
+    /**
+     * คำอธิบายของ Status Word สำหรับ log
+     */
+    public static String describe(int statusWord) {
+        if (statusWord == NONE) {
+            return "ไม่มี status word";
+        }
+
+        String hex = Hex.toHexString(statusWord);
+        switch (statusWord) {
+            case SUCCESS:
+                return hex + " สำเร็จ";
+            case WRONG_LENGTH:
+                return hex + " ความยาวไม่ถูกต้อง";
+            case SECURITY_NOT_SATISFIED:
+                return hex + " ไม่ผ่านเงื่อนไขความปลอดภัย";
+            case CONDITIONS_NOT_SATISFIED:
+                return hex + " เงื่อนไขการใช้งานไม่ถูกต้อง";
+            case FILE_NOT_FOUND:
+                return hex + " ไม่พบไฟล์หรือ application";
+            case WRONG_P1P2:
+                return hex + " P1/P2 ไม่ถูกต้อง";
+            case INS_NOT_SUPPORTED:
+                return hex + " ไม่รองรับคำสั่ง (INS)";
+            case CLA_NOT_SUPPORTED:
+                return hex + " ไม่รองรับ CLA";
+            case OPERATION_FAILED:
+                return hex + " การทำงานล้มเหลว";
+            default:
+                break;
+        }
+
+        if (hasMoreData(statusWord)) {
+            return hex + " มีข้อมูลเหลือ " + sw2(statusWord) + " ไบต์";
+        }
+        if (isWrongLe(statusWord)) {
+            return hex + " Le ไม่ถูกต้อง (ควรเป็น " + sw2(statusWord) + ")";
+        }
+        if (isWarning(statusWord)) {
+            return hex + " คำเตือน";
+        }
+        return hex;
+    }
+}
@@ -152,69 +152,72 @@ public class VerifyPinDialogFragment extends AppCompatDialogFragment {
      */
     private void updateData() {
 
-        byte[] buffer;
+        /* Decode each field into the same small buffer. */
+        byte[] buffer = new byte[3];
+        int length;
 
-        buffer = Hex.toByteArray(mTimeoutEditText.getText().toString());
-        if ((buffer != null) && (buffer.length > 0)) {
+        length = Hex.decode(mTimeoutEditText.getText(), buffer, 0);
+        if (length > 0) {
             mPinVerify.setTimeOut(buffer[0] & 0xFF);
         }
 
-        buffer = Hex.toByteArray(mTimeout2EditText.getText().toString());
-        if ((buffer != null) && (buffer.length > 0)) {
+        length = Hex.decode(mTimeout2EditText.getText(), buffer, 0);
+        if (length > 0) {
             mPinVerify.setTimeOut2(buffer[0] & 0xFF);
         }
 
-        buffer = Hex.toByteArray(mFormatStringEditText.getText().toString());
-        if ((buffer != null) && (buffer.length > 0)) {
+        length = Hex.decode(mFormatStringEditText.getText(), buffer, 0);
+        if (length > 0) {
             mPinVerify.setFormatString(buffer[0] & 0xFF);
         }
 
-        buffer = Hex.toByteArray(mPinBlockStringEditText.getText().toString());
-        if ((buffer != null) && (buffer.length > 0)) {
+        length = Hex.decode(mPinBlockStringEditText.getText(), buffer, 0);
+        if (length > 0) {
             mPinVerify.setPinBlockString(buffer[0] & 0xFF);
         }
 
-        buffer = Hex.toByteArray(mPinLengthFormatEditText.getText().toString());
-        if ((buffer != null) && (buffer.length > 0)) {
+        length = Hex.decode(mPinLengthFormatEditText.getText(), buffer, 0);
+        if (length > 0) {
             mPinVerify.setPinLengthFormat(buffer[0] & 0xFF);
         }
 
-        buffer = Hex.toByteArray(mPinMaxExtraDigitEditText.getText().toString());
-        if ((buffer != null) && (buffer.length > 1)) {
+        length = Hex.decode(mPinMaxExtraDigitEditText.getText(), buffer, 0);
+        if (length > 1) {
             mPinVerify.setPinMaxExtraDigit((buffer[0] & 0xFF) << 8 | (buffer[1] & 0xFF));
         }
 
-        buffer = Hex.toByteArray(mEntryValidationConditionEditText.getText().toString());
-        if ((buffer != null) && (buffer.length > 0)) {
+        length = Hex.decode(mEntryValidationConditionEditText.getText(), buffer, 0);
+        if (length > 0) {
             mPinVerify.setEntryValidationCondition(buffer[0] & 0xFF);
         }
 
-        buffer = Hex.toByteArray(mNumberMessageEditText.getText().toString());
-        if ((buffer != null) && (buffer.length > 0)) {
+        length = Hex.decode(mNumberMessageEditText.getText(), buffer, 0);
+        if (length > 0) {
             mPinVerify.setNumberMessage(buffer[0] & 0xFF);
         }
 
-        buffer = Hex.toByteArray(mLangIdEditText.getText().toString());
-        if ((buffer != null) && (buffer.length > 1)) {
+        length = Hex.decode(mLangIdEditText.getText(), buffer, 0);
+        if (length > 1) {
             mPinVerify.setLangId((buffer[0] & 0xFF) << 8 | (buffer[1] & 0xFF));
         }
 
-        buffer = Hex.toByteArray(mMsgIndexEditText.getText().toString());
-        if ((buffer != null) && (buffer.length > 0)) {
+        length = Hex.decode(mMsgIndexEditText.getText(), buffer, 0);
+        if (length > 0) {
             mPinVerify.setMsgIndex(buffer[0] & 0xFF);
         }
 
-        buffer = Hex.toByteArray(mTeoPrologueEditText.getText().toString());
-        if ((buffer != null) && (buffer.length > 2)) {
+        length = Hex.decode(mTeoPrologueEditText.getText(), buffer, 0);
+        if (length > 2) {
 
             mPinVerify.setTeoPrologue(0, buffer[0] & 0xFF);
             mPinVerify.setTeoPrologue(1, buffer[1] & 0xFF);
             mPinVerify.setTeoPrologue(2, buffer[2] & 0xFF);
         }
 
-        buffer = Hex.toByteArray(mDataEditText.getText().toString());
-        if ((buffer != null) && (buffer.length > 0)) {
-            mPinVerify.setData(buffer, buffer.length);
+        byte[] data = new byte[Hex.decodedLength(mDataEditText.getText())];
+        length = Hex.decode(mDataEditText.getText(), data, 0);
+        if (length > 0) {
+            mPinVerify.setData(data, length);
         }
     }
 }
@@ -0,0 +1,70 @@
+package com.acs.readertest;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * ทดสอบการจำแนกประเภทการ์ดจาก ATR ด้วย CardClassifier
+ */
+public class CardClassifierTest {
+
+    private static byte[] bytes(int... values) {
+        byte[] result = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = (byte) values[i];
+        }
+        return result;
+    }
+
+    // ATR ของการ์ด storage ตาม PC/SC Part 3
+    private static byte[] storageAtr(int standard, int cardName) {
+        return bytes(0x3B, 0x8F, 0x80, 0x01, 0x80, 0x4F, 0x0C, 0xA0, 0x00, 0x00, 0x03, 0x06,
+                standard, cardName >> 8, cardName & 0xFF, 0x00, 0x00, 0x00, 0x00, 0x00);
+    }
+
+    @Test
+    public void classifiesStorageCards() {
+        assertEquals(NfcCardReader.CardTechnology.MIFARE_CLASSIC, CardClassifier.classifyAtr(storageAtr(0x03, 0x0001)));
+        assertEquals(NfcCardReader.CardTechnology.MIFARE_ULTRALIGHT, CardClassifier.classifyAtr(storageAtr(0x03, 0x0003)));
+        assertEquals(NfcCardReader.CardTechnology.MIFARE_PLUS, CardClassifier.classifyAtr(storageAtr(0x03, 0x0036)));
+        assertEquals(NfcCardReader.CardTechnology.FELICA, CardClassifier.classifyAtr(storageAtr(0x11, 0x003B)));
+        assertEquals(NfcCardReader.CardTechnology.TOPAZ, CardClassifier.classifyAtr(storageAtr(0x03, 0xF004)));
+        assertEquals(NfcCardReader.CardTechnology.ISO15693, CardClassifier.classifyAtr(storageAtr(0x0B, 0x0014)));
+        assertEquals(NfcCardReader.CardTechnology.STORAGE_OTHER, CardClassifier.classifyAtr(storageAtr(0x03, 0x0099)));
+    }
+
+    @Test
+    public void classifiesIso14443Part4Cards() {
+        assertEquals(NfcCardReader.CardTechnology.MIFARE_DESFIRE,
+                CardClassifier.classifyAtr(bytes(0x3B, 0x81, 0x80, 0x01, 0x80, 0x80)));
+        assertEquals(NfcCardReader.CardTechnology.ISO14443_4,
+                CardClassifier.classifyAtr(bytes(0x3B, 0x88, 0x80, 0x01, 0x00, 0x00, 0x00, 0x00, 0x77, 0x81, 0x81, 0x00, 0x7A)));
+    }
+
+    @Test
+    public void rejectsUnknownOrTruncatedAtr() {
+        assertEquals(NfcCardReader.CardTechnology.UNKNOWN,
+                CardClassifier.classifyAtr(bytes(0x3B, 0x68, 0x00, 0x00, 0x00, 0x73, 0xC8, 0x40, 0x00, 0x00, 0x90, 0x00)));
+        assertEquals(NfcCardReader.CardTechnology.UNKNOWN,
+                CardClassifier.classifyAtr(bytes(0x3B, 0x8F, 0x80, 0x01, 0x80, 0x4F)));
+        assertEquals(NfcCardReader.CardTechnology.UNKNOWN, CardClassifier.classifyAtr(null));
+    }
+
+    @Test
+    public void choosesNdefAccessByTechnology() {
+        assertEquals(CardClassifier.NdefAccess.TYPE2, CardClassifier.getNdefAccess(NfcCardReader.CardTechnology.MIFARE_ULTRALIGHT));
+        assertEquals(CardClassifier.NdefAccess.TYPE4, CardClassifier.getNdefAccess(NfcCardReader.CardTechnology.MIFARE_DESFIRE));
+        assertEquals(CardClassifier.NdefAccess.NONE, CardClassifier.getNdefAccess(NfcCardReader.CardTechnology.MIFARE_CLASSIC));
+        assertEquals(CardClassifier.NdefAccess.NONE, CardClassifier.getNdefAccess(NfcCardReader.CardTechnology.FELICA));
+    }
+
+    @Test
+    public void cachesClassificationPerAtr() {
+        CardClassifier classifier = new CardClassifier();
+        classifier.classify(storageAtr(0x03, 0x0001));
+        classifier.classify(storageAtr(0x03, 0x0001));
+        classifier.classify(storageAtr(0x03, 0x0003));
+        assertEquals(2, classifier.getCacheSize());
+    }
+}
@@ -0,0 +1,124 @@
+package com.acs.readertest;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * ทดสอบตาราง hash ของ UID ด้วย CardKeyIndex และการแปลง UID ด้วย CardKey
+ */
+public class CardKeyIndexTest {
+
+    // ความจุเริ่มต้นของ CardKeyIndex (ขยายเมื่อเกิน 12 รายการ)
+    private static final int TABLE_MASK = 15;
+
+    /**
+     * UID ขนาด 4 ไบต์ที่มีตำแหน่งเริ่มต้นในตารางขนาด 16 ช่องตามที่กำหนด
+     */
+    private static List<CardKey> keysWithHome(int home, int count) {
+        List<CardKey> keys = new ArrayList<>();
+        for (long uid = 1; keys.size() < count; uid++) {
+            CardKey key = new CardKey(0, uid, 4);
+            if ((CardKey.hash(key.high, key.low, key.length) & TABLE_MASK) == home) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+
+    @Test
+    public void putsAndRemovesCollidingKeysAcrossTableEnd() {
+        // สามใบชนกันที่ช่องสุดท้ายจึงวนไปช่อง 0 และ 1 ส่วนอีกสองใบมีตำแหน่งเริ่มต้นที่ช่อง 0
+        List<CardKey> last = keysWithHome(TABLE_MASK, 3);
+        List<CardKey> first = keysWithHome(0, 2);
+        CardKeyIndex<String> index = new CardKeyIndex<>();
+        for (CardKey key : last) {
+            assertNull(index.put(key, "last" + key.low));
+        }
+        for (CardKey key : first) {
+            assertNull(index.put(key, "first" + key.low));
+        }
+        assertEquals(5, index.size());
+        for (CardKey key : last) {
+            assertEquals("last" + key.low, index.get(key));
+        }
+        for (CardKey key : first) {
+            assertEquals("first" + key.low, index.get(key.high, key.low, key.length));
+        }
+
+        // ลบใบแรกของกลุ่มที่วน รายการที่ตามมาต้องถูกเลื่อนขึ้นมาและยังค้นหาได้
+        assertEquals("last" + last.get(0).low, index.remove(last.get(0)));
+        assertNull(index.get(last.get(0)));
+        assertFalse(index.containsKey(last.get(0)));
+        assertEquals("last" + last.get(1).low, index.get(last.get(1)));
+        assertEquals("last" + last.get(2).low, index.get(last.get(2)));
+        assertEquals("first" + first.get(0).low, index.get(first.get(0)));
+        assertEquals("first" + first.get(1).low, index.get(first.get(1)));
+
+        // ลบรายการที่อยู่หลังจุดวน
+        assertEquals("first" + first.get(0).low, index.remove(first.get(0)));
+        assertEquals("last" + last.get(1).low, index.get(last.get(1)));
+        assertEquals("last" + last.get(2).low, index.get(last.get(2)));
+        assertEquals("first" + first.get(1).low, index.get(first.get(1)));
+        assertEquals(3, index.size());
+
+        assertNull(index.remove(last.get(0)));
+        assertNull(index.remove(null));
+        assertEquals("last" + last.get(2).low, index.put(last.get(2), "replaced"));
+        assertEquals("replaced", index.get(last.get(2)));
+        assertEquals(3, index.size());
+    }
+
+    @Test
+    public void keepsEntriesWhenResizing() {
+        CardKeyIndex<Integer> index = new CardKeyIndex<>();
+        for (int i = 0; i < 1000; i++) {
+            index.put(new CardKey(i, i * 7919L, 7), i);
+        }
+        assertEquals(1000, index.size());
+        for (int i = 0; i < 1000; i += 2) {
+            assertEquals(Integer.valueOf(i), index.remove(new CardKey(i, i * 7919L, 7)));
+        }
+        assertEquals(500, index.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i % 2 == 0 ? null : Integer.valueOf(i), index.get(new CardKey(i, i * 7919L, 7)));
+        }
+
+        // UID เดียวกันแต่ความยาวต่างกันเป็นคนละ key
+        assertNull(index.get(new CardKey(1, 7919L, 4)));
+
+        index.clear();
+        assertTrue(index.isEmpty());
+        assertNull(index.get(new CardKey(1, 7919L, 7)));
+    }
+
+    @Test
+    public void findsUidWithoutCaseOfHex() {
+        CardKeyIndex<String> index = new CardKeyIndex<>();
+        index.put(CardKey.parse("04a1b2c3d4e5f6"), "manual.pdf");
+        index.put(CardKey.parse("0102030405060708090A"), "video.mp4");
+
+        assertEquals("manual.pdf", index.get(CardKey.parse("04A1B2C3D4E5F6")));
+        assertEquals("video.mp4", index.get(CardKey.parse("0102030405060708090a")));
+        assertEquals("04A1B2C3D4E5F6", CardKey.parse("04a1b2c3d4e5f6").toString());
+        assertEquals("0102030405060708090A", CardKey.parse("0102030405060708090a").toString());
+        assertEquals(CardKey.parse("0A0B"), CardKey.fromBytes(new byte[]{0x0A, 0x0B}, 0, 2));
+    }
+
+    @Test
+    public void parseRejectsNonHexAndOddLength() {
+        assertNull(CardKey.parse(null));
+        assertNull(CardKey.parse(""));
+        assertNull(CardKey.parse("04A1B2C"));
+        assertNull(CardKey.parse("04G1B2C3"));
+        assertNull(CardKey.parse("04 A1B2C"));
+        assertNull(CardKey.parse("ห้อง"));
+        assertNull(CardKey.parse("https://example.com"));
+        // ยาวเกิน 16 ไบต์
+        assertNull(CardKey.parse("000102030405060708090A0B0C0D0E0F10"));
+        assertNotNull(CardKey.parse("000102030405060708090A0B0C0D0E0F"));
+    }
+}
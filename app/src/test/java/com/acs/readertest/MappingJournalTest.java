@@ -0,0 +1,147 @@
+package com.acs.readertest;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * ทดสอบการบันทึกและเล่นซ้ำการเปลี่ยนแปลง mapping ด้วย MappingJournal
+ */
+public class MappingJournalTest {
+
+    private static File newSnapshotFile() throws IOException {
+        File snapshot = File.createTempFile("mapping", ".json");
+        snapshot.deleteOnExit();
+        new File(snapshot.getPath() + MappingJournal.SUFFIX).deleteOnExit();
+        new File(snapshot.getPath() + MappingJournal.SUFFIX + ".1").deleteOnExit();
+        return snapshot;
+    }
+
+    @Test
+    public void replaysMutationsInOrder() throws IOException {
+        File snapshot = newSnapshotFile();
+        MappingJournal journal = new MappingJournal(snapshot);
+        journal.appendPut("04A1B2C3", "a.pdf");
+        journal.appendPut("ห้อง \"1\"", "https://example.com/v.mp4");
+        journal.appendPut("04A1B2C3", "b.pdf");
+        journal.appendRemove("old");
+        assertTrue(journal.flush());
+
+        Map<String, String> data = new HashMap<>();
+        data.put("old", "x.pdf");
+        assertEquals(4, new MappingJournal(snapshot).replay(data));
+
+        assertEquals(2, data.size());
+        assertEquals("b.pdf", data.get("04A1B2C3"));
+        assertEquals("https://example.com/v.mp4", data.get("ห้อง \"1\""));
+        journal.reset();
+    }
+
+    @Test
+    public void skipsTornRecords() throws IOException {
+        File snapshot = newSnapshotFile();
+        MappingJournal journal = new MappingJournal(snapshot);
+        journal.appendPut("A", "a.pdf");
+        journal.appendClear();
+        assertTrue(journal.flush());
+        try (OutputStream out = new FileOutputStream(snapshot.getPath() + MappingJournal.SUFFIX, true)) {
+            out.write("[\"+\",\"C\",\"c.p\n".getBytes("UTF-8"));
+        }
+        journal.appendPut("B", "b.pdf");
+        assertTrue(journal.flush());
+
+        Map<String, String> data = new HashMap<>();
+        MappingJournal reopened = new MappingJournal(snapshot);
+        assertEquals(3, reopened.replay(data));
+        assertEquals(1, data.size());
+        assertEquals("b.pdf", data.get("B"));
+        assertTrue(reopened.isDamaged());
+        journal.reset();
+    }
+
+    @Test
+    public void appendReturnsOnlyAfterRecordIsWritten() throws IOException, InterruptedException {
+        File snapshot = newSnapshotFile();
+        final MappingJournal journal = new MappingJournal(snapshot);
+        journal.appendRemove("A");
+        // ไม่ต้อง flush: การเพิ่มรายการรอจนรายการถึงดิสก์แล้ว
+        Map<String, String> data = new HashMap<>();
+        assertEquals(1, new MappingJournal(snapshot).replay(data));
+
+        // หลายเธรดเพิ่มพร้อมกัน ทุกรายการต้องอยู่ในไฟล์เมื่อทุกเธรดกลับมา
+        Thread[] writers = new Thread[8];
+        final IOException[] failure = new IOException[1];
+        for (int i = 0; i < writers.length; i++) {
+            final int writer = i;
+            writers[i] = new Thread(() -> {
+                try {
+                    for (int j = 0; j < 25; j++) {
+                        journal.appendPut("W" + writer + "-" + j, "v.pdf");
+                    }
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+            });
+            writers[i].start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        assertNull(failure[0]);
+        assertEquals(201, journal.getRecordCount());
+
+        data.clear();
+        assertEquals(201, new MappingJournal(snapshot).replay(data));
+        assertEquals(200, data.size());
+        assertEquals("v.pdf", data.get("W7-24"));
+        journal.reset();
+    }
+
+    @Test
+    public void rejectsAppendsAfterClose() throws IOException {
+        File snapshot = newSnapshotFile();
+        MappingJournal journal = new MappingJournal(snapshot);
+        journal.appendPut("A", "a.pdf");
+        assertTrue(journal.close());
+        try {
+            journal.appendPut("B", "b.pdf");
+            fail("journal ที่ปิดแล้วต้องไม่รับรายการใหม่");
+        } catch (IOException expected) {
+            // รายการนี้ไม่ถูกบันทึก
+        }
+
+        Map<String, String> data = new HashMap<>();
+        assertEquals(1, journal.replay(data));
+        assertNull(data.get("B"));
+        journal.reset();
+    }
+
+    @Test
+    public void replaysRotatedJournalBeforeCurrent() throws IOException {
+        File snapshot = newSnapshotFile();
+        MappingJournal journal = new MappingJournal(snapshot);
+        journal.appendPut("A", "a.pdf");
+        assertTrue(journal.rotate());
+        assertEquals(0, journal.getRecordCount());
+        journal.appendPut("A", "a2.pdf");
+        assertTrue(journal.flush());
+
+        // ระหว่าง compact ยังย้าย journal ซ้ำไม่ได้
+        assertFalse(journal.rotate());
+
+        Map<String, String> data = new HashMap<>();
+        assertEquals(2, new MappingJournal(snapshot).replay(data));
+        assertEquals("a2.pdf", data.get("A"));
+
+        assertTrue(journal.finishRotation());
+        assertFalse(journal.hasPendingRotation());
+        journal.reset();
+    }
+}
@@ -0,0 +1,72 @@
+package com.acs.readertest;
+
+import com.google.gson.stream.MalformedJsonException;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * ทดสอบการโหลด mapping.json แบบ streaming ด้วย MappingLoader
+ */
+public class MappingLoaderTest {
+
+    private static Map<String, String> load(MappingLoader loader, String json) throws IOException {
+        Map<String, String> data = new HashMap<>();
+        loader.load(new ByteArrayInputStream(json.getBytes(Charset.forName("UTF-8"))), data::put);
+        return data;
+    }
+
+    @Test
+    public void loadsEntriesAndSkipsNullValues() throws IOException {
+        Map<String, String> data = load(new MappingLoader(),
+                "{\n  \"04A1B2C3\": \"manual.pdf\",\n  \"ห้อง 1\": \"https://example.com/v.mp4\",\n"
+                        + "  \"42\": 7,\n  \"empty\": null\n}");
+
+        assertEquals(3, data.size());
+        assertEquals("manual.pdf", data.get("04A1B2C3"));
+        assertEquals("https://example.com/v.mp4", data.get("ห้อง 1"));
+        assertEquals("7", data.get("42"));
+        assertFalse(data.containsKey("empty"));
+    }
+
+    @Test
+    public void treatsEmptyInputAsEmptyMapping() throws IOException {
+        assertTrue(load(new MappingLoader(), "").isEmpty());
+        assertTrue(load(new MappingLoader(), "  \n").isEmpty());
+        assertTrue(load(new MappingLoader(), "{}").isEmpty());
+    }
+
+    @Test(expected = MalformedJsonException.class)
+    public void rejectsNestedValues() throws IOException {
+        load(new MappingLoader(), "{\"04A1B2C3\": {\"path\": \"manual.pdf\"}}");
+    }
+
+    @Test
+    public void reportsProgress() throws IOException {
+        StringBuilder json = new StringBuilder("{");
+        for (int i = 0; i < 25; i++) {
+            json.append(i == 0 ? "" : ",").append("\"").append(i).append("\":\"f").append(i).append(".pdf\"");
+        }
+        json.append("}");
+
+        final List<Integer> progress = new ArrayList<>();
+        MappingLoader loader = new MappingLoader();
+        loader.setProgressInterval(10);
+        loader.setProgressListener((entries, bytesRead) -> progress.add(entries));
+        assertEquals(25, load(loader, json.toString()).size());
+
+        // ทุก 10 รายการ และครั้งสุดท้ายเมื่อโหลดเสร็จ
+        assertEquals(3, progress.size());
+        assertEquals(Integer.valueOf(10), progress.get(0));
+        assertEquals(Integer.valueOf(25), progress.get(2));
+    }
+}
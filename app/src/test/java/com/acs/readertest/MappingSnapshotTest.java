@@ -0,0 +1,176 @@
+package com.acs.readertest;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.*;
+
+/**
+ * ทดสอบการเขียนและค้นหา snapshot แบบ binary ด้วย MappingSnapshot
+ */
+public class MappingSnapshotTest {
+
+    private static File newSnapshotFile() throws IOException {
+        File file = File.createTempFile("mapping", ".bin");
+        file.deleteOnExit();
+        return file;
+    }
+
+    @Test
+    public void findsEntriesWithoutCaseOfUid() throws IOException {
+        File file = newSnapshotFile();
+        Map<String, String> data = new HashMap<>();
+        data.put("04a1b2c3", "manual.pdf");
+        data.put("ห้อง 1", "https://example.com/v.mp4");
+        data.put("B", "b.pdf");
+        assertEquals(3, MappingSnapshot.write(file, null, data));
+
+        MappingSnapshot snapshot = MappingSnapshot.open(file);
+        assertEquals(3, snapshot.size());
+        assertEquals("manual.pdf", snapshot.find("04A1B2C3"));
+        assertEquals("manual.pdf", snapshot.find("04a1b2c3"));
+        assertEquals("https://example.com/v.mp4", snapshot.find("ห้อง 1"));
+        assertEquals("b.pdf", snapshot.find("B"));
+        assertNull(snapshot.find("b"));
+        assertNull(snapshot.find("04A1B2C4"));
+        assertTrue(snapshot.indexOf("A") < 0);
+    }
+
+    @Test
+    public void mergesChangesIntoBase() throws IOException {
+        File file = newSnapshotFile();
+        Map<String, String> data = new HashMap<>();
+        for (int i = 0; i < 100; i++) {
+            data.put(String.format("04%06X", i), "f" + (i % 3) + ".pdf");
+        }
+        MappingSnapshot.write(file, null, data);
+        MappingSnapshot base = MappingSnapshot.open(file);
+
+        // การเปลี่ยนแปลงทับ snapshot เดิม ค่า null คือการลบ และ UID ซ้ำหลัง normalize ใช้ค่าสุดท้าย
+        Map<String, String> changes = new LinkedHashMap<>();
+        changes.put("04000001", null);
+        changes.put("04000002", "new.pdf");
+        changes.put("0A0000FF", "added.pdf");
+        changes.put("0a0000ff", "added2.pdf");
+        changes.put("06000000", null);
+        File merged = newSnapshotFile();
+        assertEquals(100, MappingSnapshot.write(merged, base, changes));
+
+        MappingSnapshot snapshot = MappingSnapshot.open(merged);
+        assertNull(snapshot.find("04000001"));
+        assertEquals("new.pdf", snapshot.find("04000002"));
+        assertEquals("added2.pdf", snapshot.find("0A0000FF"));
+        assertEquals("f0.pdf", snapshot.find("04000063"));
+        for (int i = 1; i < snapshot.size(); i++) {
+            assertTrue(snapshot.keyAt(i - 1).compareTo(snapshot.keyAt(i)) < 0);
+        }
+    }
+
+    @Test
+    public void storesDuplicatePathsOnce() throws IOException {
+        File shared = newSnapshotFile();
+        File distinct = newSnapshotFile();
+        Map<String, String> sharedData = new HashMap<>();
+        Map<String, String> distinctData = new HashMap<>();
+        for (int i = 0; i < 50; i++) {
+            sharedData.put("card" + i, "/storage/emulated/0/Download/pdf/manual.pdf");
+            distinctData.put("card" + i, "/storage/emulated/0/Download/pdf/manual" + i + ".pdf");
+        }
+        MappingSnapshot.write(shared, null, sharedData);
+        MappingSnapshot.write(distinct, null, distinctData);
+
+        assertTrue(shared.length() * 2 < distinct.length());
+        assertEquals("/storage/emulated/0/Download/pdf/manual.pdf", MappingSnapshot.open(shared).find("card7"));
+    }
+
+    @Test
+    public void pagesMergedEntriesInKeyOrder() throws IOException {
+        File file = newSnapshotFile();
+        Map<String, String> data = new HashMap<>();
+        data.put("A", "a.pdf");
+        data.put("C", "c.pdf");
+        data.put("E", "e.pdf");
+        MappingSnapshot.write(file, null, data);
+        MappingSnapshot base = MappingSnapshot.open(file);
+
+        Map<String, String> changes = new HashMap<>();
+        changes.put("B", "b.pdf");
+        changes.put("C", null);
+        changes.put("E", "e2.pdf");
+        changes.put("D", null);
+
+        assertEquals(new ArrayList<>(Arrays.asList("A", "B")),
+                new ArrayList<>(MappingSnapshot.page(base, changes, 0, 2).keySet()));
+        Map<String, String> second = MappingSnapshot.page(base, changes, 2, 2);
+        assertEquals(1, second.size());
+        assertEquals("e2.pdf", second.get("E"));
+        assertTrue(MappingSnapshot.page(base, changes, 3, 2).isEmpty());
+        assertEquals(3, MappingSnapshot.page(null, data, 0, 10).size());
+    }
+
+    @Test
+    public void pagesFromAnyOffsetLikeFullMerge() throws IOException {
+        File file = newSnapshotFile();
+        Map<String, String> data = new HashMap<>();
+        for (int i = 0; i < 200; i += 2) {
+            data.put(String.format("04%06X", i), "f" + i + ".pdf");
+        }
+        MappingSnapshot.write(file, null, data);
+        MappingSnapshot base = MappingSnapshot.open(file);
+
+        // เพิ่มก่อน ระหว่าง และหลัง snapshot ลบและแก้ไขบางรายการ
+        Map<String, String> changes = new HashMap<>();
+        changes.put("00000000", "first.pdf");
+        for (int i = 1; i < 200; i += 6) {
+            changes.put(String.format("04%06X", i), "added" + i + ".pdf");
+        }
+        for (int i = 0; i < 200; i += 10) {
+            changes.put(String.format("04%06X", i), i % 20 == 0 ? null : "changed" + i + ".pdf");
+        }
+        changes.put("0500000000", "last1.pdf");
+        changes.put("0500000001", "last2.pdf");
+        changes.put("0500000002", null);
+
+        Map<String, String> expected = new TreeMap<>(MappingSnapshot.KEY_ORDER);
+        expected.putAll(data);
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            if (change.getValue() != null) {
+                expected.put(change.getKey(), change.getValue());
+            } else {
+                expected.remove(change.getKey());
+            }
+        }
+        List<Map.Entry<String, String>> all = new ArrayList<>(expected.entrySet());
+
+        for (int offset = 0; offset <= all.size() + 1; offset++) {
+            List<Map.Entry<String, String>> page =
+                    new ArrayList<>(MappingSnapshot.page(base, changes, offset, 7).entrySet());
+            List<Map.Entry<String, String>> expectedPage =
+                    all.subList(Math.min(offset, all.size()), Math.min(offset + 7, all.size()));
+            assertEquals("offset " + offset, expectedPage, page);
+        }
+    }
+
+    @Test
+    public void ordersKeysLikeUtf8Bytes() {
+        assertTrue(MappingSnapshot.KEY_ORDER.compare("A", "B") < 0);
+        assertTrue(MappingSnapshot.KEY_ORDER.compare("AB", "A") > 0);
+        assertEquals(0, MappingSnapshot.KEY_ORDER.compare("ห้อง", "ห้อง"));
+        // อักขระนอก BMP (surrogate pair) อยู่หลังอักขระใน BMP ทุกตัวเหมือนลำดับของ UTF-8
+        assertTrue(MappingSnapshot.KEY_ORDER.compare("\uD83D\uDE00", "\uFFFD") > 0);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherFiles() throws IOException {
+        MappingSnapshot.open(newSnapshotFile());
+    }
+}
@@ -0,0 +1,86 @@
+package com.acs.readertest;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * ทดสอบการแปลง NDEF Message ด้วย NdefParser
+ */
+public class NdefParserTest {
+
+    private static byte[] bytes(int... values) {
+        byte[] result = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = (byte) values[i];
+        }
+        return result;
+    }
+
+    @Test
+    public void parsesTextAndUriRecords() {
+        byte[] message = bytes(
+                0x91, 0x01, 0x05, 'T', 0x02, 'e', 'n', 'h', 'i',
+                0x51, 0x01, 0x04, 'U', 0x04, 'a', '.', 'b');
+        NdefParser parser = new NdefParser().reset(message, 0, message.length);
+
+        assertTrue(parser.next());
+        assertTrue(parser.isText());
+        assertEquals("hi", parser.getText());
+        assertEquals("en", parser.getTextLanguage());
+
+        assertTrue(parser.next());
+        assertTrue(parser.isUri());
+        assertEquals("https://a.b", parser.getUri());
+        assertTrue(parser.isMessageEnd());
+
+        assertFalse(parser.next());
+        assertFalse(parser.isMalformed());
+    }
+
+    @Test
+    public void parsesSmartPoster() {
+        byte[] message = bytes(
+                0xD1, 0x02, 0x10, 'S', 'p',
+                0x91, 0x01, 0x04, 'U', 0x03, 'x', '.', 'y',
+                0x51, 0x01, 0x04, 'T', 0x00, 't', 't', 't');
+        NdefParser parser = new NdefParser().reset(message, 0, message.length);
+
+        assertTrue(parser.next());
+        assertTrue(parser.isSmartPoster());
+        assertEquals("http://x.y", parser.getUri());
+        assertEquals("ttt", parser.getSmartPosterTitle());
+    }
+
+    @Test
+    public void assemblesChunkedRecord() {
+        byte[] message = bytes(
+                0xB1, 0x01, 0x04, 'T', 0x02, 'e', 'n', 'a',
+                0x56, 0x00, 0x02, 'b', 'c');
+        NdefParser parser = new NdefParser().reset(message, 0, message.length);
+
+        assertTrue(parser.next());
+        assertEquals("abc", parser.getText());
+        assertTrue(parser.isMessageEnd());
+        assertFalse(parser.next());
+    }
+
+    @Test
+    public void parsesLongRecordWithId() {
+        byte[] message = bytes(0xC9, 0x01, 0x00, 0x00, 0x00, 0x03, 0x01, 'T', 'Z', 0x00, 'o', 'k');
+        NdefParser parser = new NdefParser().reset(message, 0, message.length);
+
+        assertTrue(parser.next());
+        assertEquals(1, parser.getIdLength());
+        assertEquals("ok", parser.getText());
+    }
+
+    @Test
+    public void rejectsTruncatedRecord() {
+        byte[] message = bytes(0xD1, 0x01, 0x32, 'T');
+        NdefParser parser = new NdefParser().reset(message, 0, message.length);
+
+        assertFalse(parser.next());
+        assertTrue(parser.isMalformed());
+    }
+}
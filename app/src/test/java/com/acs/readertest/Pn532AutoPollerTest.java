@@ -0,0 +1,23 @@
+package com.acs.readertest;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * ทดสอบเวลาของคำสั่ง InAutoPoll เทียบกับเวลาสูงสุดของงานใน ReaderWatchdog
+ */
+public class Pn532AutoPollerTest {
+
+    @Test
+    public void idlePollFinishesWellWithinWatchdogDeadline() {
+        // InAutoPoll ที่ไม่พบการ์ดต้องไม่ทำให้ watchdog ตัดการเชื่อมต่อเครื่องอ่านแม้ไม่ได้ขยายเวลา
+        assertTrue(Pn532AutoPoller.MAX_POLL_DURATION_MS * 2 <= ReaderWatchdog.DEFAULT_DEADLINE);
+    }
+
+    @Test
+    public void commandTimeoutCoversWholePoll() {
+        // เวลาที่ขยายให้ watchdog และเวลาที่ poller รอผลต้องครอบคลุมคำสั่งที่ไม่พบการ์ดทั้งคำสั่ง
+        assertTrue(Pn532AutoPoller.COMMAND_TIMEOUT_MS > Pn532AutoPoller.MAX_POLL_DURATION_MS);
+    }
+}
@@ -0,0 +1,66 @@
+package com.acs.readertest;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * ทดสอบการแปลงผลลัพธ์ InListPassiveTarget ของ Pn532TargetScanner
+ */
+public class Pn532TargetScannerTest {
+
+    private static List<String> parse(String hex) {
+        byte[] response = Hex.toByteArray(hex);
+        return Pn532TargetScanner.parseTargets(response, response.length);
+    }
+
+    @Test
+    public void parsesTwoTargets() {
+        // NTAG (UID 7 ไบต์) และ Mifare Classic (UID 4 ไบต์)
+        List<String> uids = parse("D54B02"
+                + "010044000704010203040506"
+                + "020004080411223344"
+                + "9000");
+
+        assertEquals(2, uids.size());
+        assertEquals("04010203040506", uids.get(0));
+        assertEquals("11223344", uids.get(1));
+    }
+
+    @Test
+    public void skipsAtsOfIso14443_4Target() {
+        // DESFire (SEL_RES 0x20) มี ATS 6 ไบต์ต่อท้าย UID
+        List<String> uids = parse("D54B02"
+                + "0103442007" + "04A1A2A3A4A5A6" + "067577810280"
+                + "020004080411223344"
+                + "9000");
+
+        assertEquals(2, uids.size());
+        assertEquals("04A1A2A3A4A5A6", uids.get(0));
+        assertEquals("11223344", uids.get(1));
+    }
+
+    @Test
+    public void returnsEmptyWhenNoTargetOrTruncated() {
+        assertTrue(parse("D54B009000").isEmpty());
+        assertTrue(parse("D54B01010044").isEmpty());
+
+        // target ที่สองข้อมูลไม่ครบ: คืนเฉพาะใบแรก
+        List<String> uids = parse("D54B02" + "010004080411223344" + "0200040804" + "9000");
+        assertEquals(1, uids.size());
+    }
+
+    @Test
+    public void onlyBareErrorStatusIsRejection() {
+        // เครื่องอ่านปฏิเสธคำสั่ง escape
+        assertTrue(Pn532TargetScanner.isRejection(Hex.toByteArray("6300"), 2));
+        assertTrue(Pn532TargetScanner.isRejection(Hex.toByteArray("6A81"), 2));
+
+        // ตอบรับคำสั่งหรือตอบผิดรูปแบบ (อาจเกิดครั้งเดียวจากสัญญาณรบกวน) ไม่ใช่การปฏิเสธ
+        assertFalse(Pn532TargetScanner.isRejection(Hex.toByteArray("9000"), 2));
+        assertFalse(Pn532TargetScanner.isRejection(Hex.toByteArray("D57F9000"), 4));
+        assertFalse(Pn532TargetScanner.isRejection(Hex.toByteArray("D5"), 1));
+    }
+}
@@ -0,0 +1,73 @@
+package com.acs.readertest;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * ทดสอบการคำนวณช่วงเวลา polling ของ PollingScheduler
+ */
+public class PollingSchedulerTest {
+
+    private static long now() {
+        return System.nanoTime() / 1000000;
+    }
+
+    private static PollingScheduler newScheduler(PollingScheduler.Policy policy) {
+        PollingScheduler scheduler = new PollingScheduler("test", () -> { });
+        scheduler.setPolicy(policy);
+        return scheduler;
+    }
+
+    @Test
+    public void pollsFastOnlyWithinWindowAfterRemoval() {
+        PollingScheduler.Policy policy = new PollingScheduler.Policy();
+        PollingScheduler scheduler = newScheduler(policy);
+
+        scheduler.onCardRemoved();
+        long t = now();
+
+        assertEquals(policy.fastInterval, scheduler.computeInterval(t, 3));
+        assertEquals(policy.normalInterval, scheduler.computeInterval(t + policy.fastWindow + 1, 3));
+    }
+
+    @Test
+    public void backsOffWhenIdleUpToMaximum() {
+        PollingScheduler.Policy policy = new PollingScheduler.Policy();
+        policy.normalInterval = 1000;
+        policy.idleAfter = 60000;
+        policy.maxIdleInterval = 5000;
+        PollingScheduler scheduler = newScheduler(policy);
+        long t = now();
+
+        assertEquals(1000, scheduler.computeInterval(t, 3));
+        assertEquals(2000, scheduler.computeInterval(t + policy.idleAfter + 10, 3));
+        assertEquals(5000, scheduler.computeInterval(t + 10 * policy.idleAfter, 3));
+
+        // มีการ์ดวางอยู่: ไม่ลดความถี่แม้ไม่มีเหตุการณ์ใหม่
+        scheduler.onCardPresent();
+        assertEquals(1000, scheduler.computeInterval(now() + 10 * policy.idleAfter, 3));
+    }
+
+    @Test
+    public void usesActiveIntervalDuringActiveHours() {
+        PollingScheduler.Policy policy = new PollingScheduler.Policy();
+        policy.activeStartHour = 20;
+        policy.activeEndHour = 2;
+        PollingScheduler scheduler = newScheduler(policy);
+        long idle = now() + 10 * policy.idleAfter;
+
+        assertEquals(policy.activeInterval, scheduler.computeInterval(idle, 23));
+        assertEquals(policy.activeInterval, scheduler.computeInterval(idle, 1));
+        assertEquals(policy.maxIdleInterval, scheduler.computeInterval(idle, 12));
+    }
+
+    @Test
+    public void respectsMinimumInterval() {
+        PollingScheduler scheduler = newScheduler(new PollingScheduler.Policy());
+        scheduler.setMinimumInterval(5000);
+        scheduler.onCardRemoved();
+
+        assertEquals(5000, scheduler.computeInterval(now(), 3));
+    }
+}
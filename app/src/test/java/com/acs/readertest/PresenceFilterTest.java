@@ -0,0 +1,104 @@
+package com.acs.readertest;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * ทดสอบการกรองการ์ดที่กะพริบด้วย PresenceFilter
+ */
+public class PresenceFilterTest {
+
+    private final List<String> events = new ArrayList<>();
+
+    private final PresenceFilter.Listener listener = new PresenceFilter.Listener() {
+        @Override
+        public void onCardPresent(String key, String cardId) {
+            events.add("+" + key + ":" + cardId);
+        }
+
+        @Override
+        public void onCardRemoved(String key, String cardId) {
+            events.add("-" + key + ":" + cardId);
+        }
+    };
+
+    private static long now() {
+        return System.nanoTime() / 1000000;
+    }
+
+    @Test
+    public void ignoresFlickerWithinRemovalGrace() {
+        PresenceFilter filter = new PresenceFilter(listener);
+        filter.setRemovalGrace(1000);
+        long t = now();
+
+        filter.onCardPresent("r#0", "A", t);
+        filter.onCardAbsent("r#0", t + 100);
+        filter.onCardPresent("r#0", "A", t + 300);
+        filter.advance(t + 2000);
+
+        assertEquals(1, events.size());
+        assertEquals("+r#0:A", events.get(0));
+        filter.close();
+    }
+
+    @Test
+    public void reportsRemovalAfterGrace() {
+        PresenceFilter filter = new PresenceFilter(listener);
+        filter.setRemovalGrace(1000);
+        long t = now();
+
+        filter.onCardPresent("r#0", "A", t);
+        filter.onCardAbsent("r#0", t + 100);
+        filter.advance(t + 900);
+        assertEquals(1, events.size());
+
+        filter.advance(t + 1100);
+        assertEquals("-r#0:A", events.get(1));
+
+        // การ์ดใบเดิมวางใหม่หลังนำออกแล้วถือเป็นการแตะครั้งใหม่
+        filter.onCardPresent("r#0", "A", t + 1200);
+        assertEquals("+r#0:A", events.get(2));
+        filter.close();
+    }
+
+    @Test
+    public void requiresArrivalConfirmation() {
+        PresenceFilter filter = new PresenceFilter(listener);
+        filter.setArrivalConfirm(200);
+        long t = now();
+
+        filter.onCardPresent("r#0", "A", t);
+        filter.onCardAbsent("r#0", t + 50);
+        filter.advance(t + 500);
+        assertTrue(events.isEmpty());
+
+        filter.onCardPresent("r#0", "B", t + 600);
+        filter.advance(t + 700);
+        assertTrue(events.isEmpty());
+        filter.advance(t + 800);
+        assertEquals("+r#0:B", events.get(0));
+        filter.close();
+    }
+
+    @Test
+    public void replacementCardRemovesPreviousImmediately() {
+        PresenceFilter filter = new PresenceFilter(listener);
+        long t = now();
+
+        filter.onCardPresent("r#0", "A", t);
+        filter.onCardAbsent("r#0", t + 100);
+        filter.onCardPresent("r#0", "B", t + 200);
+        filter.onCardPresent("r#1", "C", t + 200);
+
+        assertEquals(4, events.size());
+        assertEquals("-r#0:A", events.get(1));
+        assertEquals("+r#0:B", events.get(2));
+        assertEquals("+r#1:C", events.get(3));
+        filter.close();
+    }
+}